@@ -0,0 +1,90 @@
+package net.sf.cotta;
+
+import net.sf.cotta.io.Durability;
+import net.sf.cotta.io.OutputManager;
+import net.sf.cotta.io.OutputProcessor;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Compares appending small records to a log file from many threads, opening the file and forcing each
+ * record on its own through {@link TFile#append(OutputProcessor)} and through one {@link TFileAppender}
+ * sharing the syncs.  Not a test, run it with the main method and the optional number of threads.  The
+ * file is created under tmp/benchmark.
+ */
+public class AppenderBenchmark {
+  private static final int RECORDS_PER_THREAD = 500;
+  private static final byte[] RECORD = "2024-01-01T00:00:00Z user=someone action=update resource=/some/resource\n".getBytes();
+
+  public static void main(String[] args) throws Exception {
+    int threads = args.length > 0 ? Integer.parseInt(args[0]) : 16;
+    TDirectory dir = TFileFactory.physical().dir("tmp/benchmark");
+    try {
+      final TFile file = dir.file("audit.log");
+      System.out.println("threads: " + threads);
+      time("append and force each record", threads, new Appending() {
+        public void append() throws TIoException {
+          file.append(new OutputProcessor() {
+            public void process(OutputManager io) throws IOException {
+              OutputStream stream = io.outputStream();
+              stream.write(RECORD);
+              file.filesystem().createOutputChannel(file.toPath(), stream).force(false);
+            }
+          });
+        }
+      });
+      for (long delay : new long[]{0, 2}) {
+        final TFileAppender appender = file.appender(Durability.CONTENT, delay);
+        time("appender, " + delay + " ms delay", threads, new Appending() {
+          public void append() throws TIoException {
+            appender.append(RECORD);
+          }
+        });
+        appender.close();
+        System.out.println(String.format("    %d syncs, %.1f records per batch, max queue depth %d",
+            appender.syncCount(), appender.recordCount() / (double) appender.batchCount(), appender.maxQueueDepth()));
+      }
+    } finally {
+      dir.deleteAll();
+    }
+  }
+
+  private interface Appending {
+    void append() throws TIoException;
+  }
+
+  /**
+   * Times the appending from the threads, failing the run with the first error of a thread
+   */
+  private static void time(String name, int threads, final Appending appending) throws Exception {
+    Thread[] workers = new Thread[threads];
+    final List<Exception> failures = Collections.synchronizedList(new ArrayList<Exception>());
+    long start = System.nanoTime();
+    for (int i = 0; i < threads; i++) {
+      workers[i] = new Thread(new Runnable() {
+        public void run() {
+          try {
+            for (int record = 0; record < RECORDS_PER_THREAD; record++) {
+              appending.append();
+            }
+          } catch (Exception e) {
+            failures.add(e);
+          }
+        }
+      });
+      workers[i].start();
+    }
+    for (Thread worker : workers) {
+      worker.join();
+    }
+    long elapsed = System.nanoTime() - start;
+    if (!failures.isEmpty()) {
+      throw failures.get(0);
+    }
+    System.out.println(String.format("%-32s %10.0f records/s", name, threads * RECORDS_PER_THREAD / (elapsed / 1000000000.0)));
+  }
+}
@@ -0,0 +1,118 @@
+package net.sf.cotta;
+
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+/**
+ * Compares the latency and throughput of reading and writing many small files at high concurrency, through
+ * the blocking TFile on a pool of threads and through {@link AsyncFileFactory}.  Each operation reads one
+ * file and writes its content to another.  Not a test, run it with the main method and the optional number
+ * of operations in flight.  The files are created under tmp/benchmark.
+ */
+public class AsyncFileBenchmark {
+  private static final int FILES = 1000;
+  private static final int FILE_SIZE = 4 * 1024;
+  private static final int OPERATIONS = 20000;
+  private static final int THREADS = 16;
+  private static final int ROUNDS = 3;
+
+  public static void main(String[] args) throws Exception {
+    int concurrency = args.length > 0 ? Integer.parseInt(args[0]) : 256;
+    TDirectory dir = TFileFactory.physical().dir("tmp/benchmark");
+    ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+    try {
+      byte[] content = new byte[FILE_SIZE];
+      Arrays.fill(content, (byte) 'x');
+      for (int i = 0; i < FILES; i++) {
+        dir.file("in/" + i + ".txt").save(new String(content));
+      }
+      System.out.println("operations in flight: " + concurrency);
+      for (int round = 0; round < ROUNDS; round++) {
+        run("blocking on " + THREADS + " threads", blocking(dir, pool), concurrency);
+        run("async physical", async(TFileFactory.physical().async(pool), dir), concurrency);
+        run("async nio", async(TFileFactory.nio().async(pool), dir), concurrency);
+      }
+    } finally {
+      pool.shutdown();
+      dir.deleteAll();
+    }
+  }
+
+  private interface Operation {
+    CompletableFuture<?> start(int index);
+  }
+
+  private static Operation blocking(final TDirectory dir, final ExecutorService pool) {
+    return new Operation() {
+      public CompletableFuture<?> start(final int index) {
+        final CompletableFuture<Void> result = new CompletableFuture<Void>();
+        pool.execute(new Runnable() {
+          public void run() {
+            try {
+              String content = dir.file("in/" + (index % FILES) + ".txt").load();
+              dir.file("out/" + (index % FILES) + ".txt").save(content);
+              result.complete(null);
+            } catch (TIoException e) {
+              result.completeExceptionally(e);
+            }
+          }
+        });
+        return result;
+      }
+    };
+  }
+
+  private static Operation async(final AsyncFileFactory async, final TDirectory dir) {
+    return new Operation() {
+      public CompletableFuture<?> start(final int index) {
+        return async.readAsync(dir.file("in/" + (index % FILES) + ".txt")).thenCompose(new Function<byte[], CompletionStage<Void>>() {
+          public CompletionStage<Void> apply(byte[] content) {
+            return async.writeAsync(dir.file("out/" + (index % FILES) + ".txt"), content);
+          }
+        });
+      }
+    };
+  }
+
+  private static void run(String name, Operation operation, int concurrency) throws InterruptedException {
+    final Semaphore inFlight = new Semaphore(concurrency);
+    final CountDownLatch done = new CountDownLatch(OPERATIONS);
+    final long[] latencies = new long[OPERATIONS];
+    final int[] failures = new int[1];
+    long start = System.nanoTime();
+    for (int i = 0; i < OPERATIONS; i++) {
+      inFlight.acquire();
+      final int index = i;
+      final long submitted = System.nanoTime();
+      operation.start(i).whenComplete(new BiConsumer<Object, Throwable>() {
+        public void accept(Object result, Throwable error) {
+          latencies[index] = System.nanoTime() - submitted;
+          if (error != null) {
+            synchronized (failures) {
+              failures[0]++;
+            }
+          }
+          inFlight.release();
+          done.countDown();
+        }
+      });
+    }
+    done.await();
+    long elapsed = System.nanoTime() - start;
+    Arrays.sort(latencies);
+    System.out.println(String.format("%-30s %10.0f ops/s   p50 %8.2f ms   p99 %8.2f ms   max %8.2f ms   failures %d",
+        name, OPERATIONS / (elapsed / 1000000000.0), millis(latencies[OPERATIONS / 2]),
+        millis(latencies[OPERATIONS * 99 / 100]), millis(latencies[OPERATIONS - 1]), failures[0]));
+  }
+
+  private static double millis(long nanos) {
+    return nanos / 1000000.0;
+  }
+}
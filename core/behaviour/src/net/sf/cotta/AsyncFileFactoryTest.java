@@ -0,0 +1,80 @@
+package net.sf.cotta;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+
+public class AsyncFileFactoryTest extends TestCase {
+  private TDirectory tmp;
+
+  public void beforeMethod() throws Exception {
+    super.beforeMethod();
+    tmp = TFileFactory.physical().dir("tmp");
+    deleteTmp();
+  }
+
+  public void afterMethod() throws Exception {
+    deleteTmp();
+    super.afterMethod();
+  }
+
+  private void deleteTmp() throws TIoException {
+    if (tmp.exists()) {
+      tmp.deleteAll();
+    }
+  }
+
+  public void testWriteAndReadPhysicalFile() throws Exception {
+    AsyncFileFactory async = TFileFactory.physical().async();
+    TFile file = tmp.file("dir/file.txt");
+    async.writeAsync(file, "content".getBytes()).get();
+    ensure.that(file.load()).eq("content");
+    ensure.that(new String(async.readAsync(file).get())).eq("content");
+  }
+
+  public void testOverwritePhysicalFile() throws Exception {
+    TFile file = tmp.file("file.txt").save("previous content");
+    TFileFactory.physical().async().writeAsync(file, "new".getBytes()).get();
+    ensure.that(file.load()).eq("new");
+  }
+
+  public void testCopyPhysicalFileLargerThanBuffer() throws Exception {
+    StringBuilder content = new StringBuilder();
+    for (int i = 0; i < 20000; i++) {
+      content.append("line ").append(i).append('\n');
+    }
+    TFile source = tmp.file("source.txt").save(content.toString());
+    TFile target = tmp.file("target/target.txt");
+    TFileFactory.nio().async().copyAsync(source, target).get();
+    ensure.that(target.load()).eq(content.toString());
+  }
+
+  public void testFailWithFileNotFound() throws Exception {
+    CompletableFuture<byte[]> future = TFileFactory.physical().async().readAsync(tmp.file("missing.txt"));
+    try {
+      future.get();
+      fail("should have failed");
+    } catch (ExecutionException e) {
+      ensure.that(e.getCause()).isA(TFileNotFoundException.class);
+    }
+  }
+
+  public void testRunOtherFileSystemsOnExecutor() throws Exception {
+    final int[] executed = new int[1];
+    TFileFactory factory = TFileFactory.inMemory();
+    AsyncFileFactory async = factory.async(new Executor() {
+      public void execute(Runnable command) {
+        executed[0]++;
+        command.run();
+      }
+    });
+    TFile file = factory.file("/dir/file.txt");
+    async.writeAsync(file, "content".getBytes()).get();
+    ensure.that(new String(async.readAsync(file).get())).eq("content");
+    async.copyAsync(file, factory.file("/dir/copy.txt")).get();
+    ensure.that(async.listAsync(factory.dir("/dir")).get().files().size()).eq(2);
+    async.deleteAllAsync(factory.dir("/dir")).get();
+    ensure.that(factory.dir("/dir").exists()).eq(false);
+    ensure.that(executed[0]).eq(5);
+  }
+}
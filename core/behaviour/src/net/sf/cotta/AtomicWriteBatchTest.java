@@ -0,0 +1,74 @@
+package net.sf.cotta;
+
+import net.sf.cotta.io.Durability;
+
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+
+public class AtomicWriteBatchTest extends TestCase {
+  private TDirectory tmp;
+
+  public void beforeMethod() throws Exception {
+    super.beforeMethod();
+    tmp = TFileFactory.physical().dir("tmp");
+    deleteTmp();
+  }
+
+  public void afterMethod() throws Exception {
+    deleteTmp();
+    super.afterMethod();
+  }
+
+  private void deleteTmp() throws TIoException {
+    if (tmp.exists()) {
+      tmp.deleteAll();
+    }
+  }
+
+  public void testReplaceFilesWhenCommitted() throws Exception {
+    TFile one = tmp.file("dir/one.txt").save("previous one");
+    TFile two = tmp.file("dir/two.txt");
+    AtomicWriteBatch batch = new AtomicWriteBatch(Durability.FULL).save(one, "one").save(two, "two");
+    ensure.that(one.load()).eq("previous one");
+    ensure.that(two.exists()).eq(false);
+    ensure.that(batch.size()).eq(2);
+    batch.commit();
+    ensure.that(one.load()).eq("one");
+    ensure.that(two.load()).eq("two");
+    ensure.that(tmp.dir("dir").listFiles().length).eq(2);
+    ensure.that(batch.size()).eq(0);
+  }
+
+  public void testLeaveNoTemporaryFileWhenDiscarded() throws Exception {
+    TFile file = tmp.file("dir/file.txt").save("content");
+    AtomicWriteBatch batch = new AtomicWriteBatch(Durability.CONTENT).save(file, "new");
+    ensure.that(tmp.dir("dir").listFiles().length).eq(2);
+    batch.discard();
+    ensure.that(file.load()).eq("content");
+    ensure.that(tmp.dir("dir").listFiles().length).eq(1);
+  }
+
+  public void testWriteAtomicallyOnNioFileSystem() throws Exception {
+    TFile file = TFileFactory.nio().file("tmp/file.txt").save("content");
+    file.saveAtomically("new", Durability.FULL);
+    ensure.that(file.load()).eq("new");
+    ensure.that(file.parent().listFiles().length).eq(1);
+  }
+
+  public void testKeepPermissionsOfReplacedFile() throws Exception {
+    if (!FileSystems.getDefault().supportedFileAttributeViews().contains("posix")) {
+      return;
+    }
+    TFile file = tmp.file("file.txt").save("previous");
+    Path path = file.toJavaFile().toPath();
+    Files.setPosixFilePermissions(path, PosixFilePermissions.fromString("rw-r-----"));
+    file.saveAtomically("content", Durability.NONE);
+    ensure.that(PosixFilePermissions.toString(Files.getPosixFilePermissions(path))).eq("rw-r-----");
+    TFile created = tmp.file("created.txt").saveAtomically("content", Durability.NONE);
+    TFile plain = tmp.file("plain.txt").save("content");
+    ensure.that(PosixFilePermissions.toString(Files.getPosixFilePermissions(created.toJavaFile().toPath())))
+        .eq(PosixFilePermissions.toString(Files.getPosixFilePermissions(plain.toJavaFile().toPath())));
+  }
+}
@@ -10,6 +10,7 @@ import org.jmock.Mockery;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
 
 public class TDirectoryTest extends PhysicalFileSystemTestCase {
@@ -158,6 +159,43 @@ public class TDirectoryTest extends PhysicalFileSystemTestCase {
     ensure.that(root.list().ordered()).eq(c, a, b);
   }
 
+  public void testStreamReturnsEntriesAcceptedByFilters() throws TIoException {
+    TDirectory root = factory(ListingOrder.AToZ).dir("root");
+    TFile a = root.file("a.txt").create();
+    root.file("b.zip").create();
+    TDirectory c = root.dir("c").ensureExists();
+    root.dir("d").ensureExists();
+    TDirectoryStream stream = root.stream(new TDirectoryFilter() {
+      public boolean accept(TDirectory directory) {
+        return directory.name().equals("c");
+      }
+    }, new TFileFilter() {
+      public boolean accept(TFile file) {
+        return file.extname().equals("txt");
+      }
+    });
+    ensure.that(stream.next()).eq(c);
+    ensure.that(stream.next()).eq(a);
+    ensure.that(stream.next()).isNull();
+    stream.close();
+  }
+
+  public void testFilesListedWithAttributesDoNotAskFileSystemAgain() throws TIoException {
+    TDirectory root = factory().dir("root");
+    root.file("a.txt").save("abc");
+    root.dir("b").ensureExists();
+    TDirectoryListing listing = root.listWithAttributes();
+    ensure.that(listing.dirs()).eq(root.dir("b"));
+    TFile listed = listing.files().get(0);
+    long lastModified = root.file("a.txt").lastModified();
+    root.file("a.txt").delete();
+    ensure.that(listed.exists()).eq(true);
+    ensure.that(listed.length()).eq(3L);
+    ensure.that(listed.lastModified()).eq(lastModified);
+    listed.save("abcdef");
+    ensure.that(listed.length()).eq(6L);
+  }
+
   public void testBeEqualToAnotherDirectoryWithTheSamePathAndFactory() {
     TFileFactory factory = factory();
     TDirectory one = factory.dir("/tmp/one/two");
@@ -359,6 +397,25 @@ public class TDirectoryTest extends PhysicalFileSystemTestCase {
     ensure.that(dirs.get(0)).eq(expected);
   }
 
+  public void testFindFilesByPatternWithoutListingPrunedDirectories() throws Exception {
+    final List<TPath> listed = new ArrayList<TPath>();
+    TFileFactory factory = new TFileFactory(new InMemoryFileSystem() {
+      public PathContent list(TPath path) {
+        listed.add(path);
+        return super.list(path);
+      }
+    });
+    TFile one = factory.file("/project/src/main/net/One.java").create();
+    TFile two = factory.file("/project/src/test/Two.java").create();
+    factory.file("/project/src/main/net/readme.txt").create();
+    factory.file("/project/target/classes/One.java").create();
+    List<TFile> files = factory.dir("/project").find(TPathPattern.compile("src/{main,test}/**/*.java"));
+    ensure.that(files.size()).eq(2);
+    ensure.that(files).contains(one);
+    ensure.that(files).contains(two);
+    ensure.that(listed.contains(TPath.parse("/project/target"))).eq(false);
+  }
+
   public void testExposePathBehaviours() {
     TDirectory directory = new TDirectory(new TFileFactory(new InMemoryFileSystem()), TPath.parse("/one/two"));
     TDirectory subDirectory = directory.dir(TPath.parse("three/four"));
@@ -0,0 +1,113 @@
+package net.sf.cotta;
+
+import net.sf.cotta.io.Durability;
+import net.sf.cotta.test.assertion.CodeBlock;
+
+public class TFileAppenderTest extends TestCase {
+  private TDirectory tmp;
+
+  public void beforeMethod() throws Exception {
+    super.beforeMethod();
+    tmp = TFileFactory.physical().dir("tmp");
+    deleteTmp();
+  }
+
+  public void afterMethod() throws Exception {
+    deleteTmp();
+    super.afterMethod();
+  }
+
+  private void deleteTmp() throws TIoException {
+    if (tmp.exists()) {
+      tmp.deleteAll();
+    }
+  }
+
+  public void testAppendToEndOfFile() throws Exception {
+    TFile file = tmp.file("dir/audit.log").save("first\n");
+    TFileAppender appender = file.appender();
+    appender.append("second\n");
+    ensure.that(file.load()).eq("first\nsecond\n");
+    appender.append("third\n".getBytes());
+    appender.close();
+    ensure.that(file.load()).eq("first\nsecond\nthird\n");
+    ensure.that(appender.recordCount()).eq(2);
+    ensure.that(appender.byteCount()).eq(13);
+    ensure.that(appender.syncCount()).eq(appender.batchCount());
+    ensure.that(appender.queueDepth()).eq(0);
+  }
+
+  public void testAppendFromManyThreads() throws Exception {
+    TFile file = TFileFactory.nio().file("tmp/audit.log");
+    final TFileAppender appender = file.appender(Durability.CONTENT, 1);
+    Thread[] threads = new Thread[8];
+    final Exception[] failure = new Exception[1];
+    for (int i = 0; i < threads.length; i++) {
+      final int thread = i;
+      threads[i] = new Thread(new Runnable() {
+        public void run() {
+          try {
+            for (int record = 0; record < 100; record++) {
+              appender.append(thread + ":" + record + "\n");
+            }
+          } catch (TIoException e) {
+            failure[0] = e;
+          }
+        }
+      });
+      threads[i].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    appender.close();
+    ensure.that(failure[0]).isNull();
+    String[] lines = file.load().split("\n");
+    ensure.that(lines.length).eq(800);
+    ensure.that(appender.recordCount()).eq(800);
+    ensure.that(appender.syncCount()).eq(appender.batchCount());
+    ensure.that(appender.maxQueueDepth() >= 1).eq(true);
+  }
+
+  public void testGroupRecordsWithinMaximumDelay() throws Exception {
+    TFileFactory factory = TFileFactory.inMemory();
+    TFile file = factory.file("/audit.log");
+    TFileAppender appender = file.appender(Durability.NONE, 200);
+    for (int i = 0; i < 100; i++) {
+      appender.append("record\n");
+    }
+    appender.flush();
+    ensure.that(file.length()).eq(700);
+    ensure.that(appender.batchCount() < 100).eq(true);
+    ensure.that(appender.syncCount()).eq(0);
+    ensure.that(appender.recordsPerSecond() > 0).eq(true);
+    appender.close();
+  }
+
+  public void testWriteQueuedRecordsWhenClosed() throws Exception {
+    TFile file = TFileFactory.inMemory().file("/audit.log");
+    TFileAppender appender = file.appender(Durability.NONE, 60000);
+    appender.append("record");
+    appender.close();
+    ensure.that(file.load()).eq("record");
+  }
+
+  public void testRejectAppendAfterClose() throws Exception {
+    final TFileAppender appender = TFileFactory.inMemory().file("/audit.log").appender();
+    appender.close();
+    ensure.code(new CodeBlock() {
+      public void execute() throws Exception {
+        appender.append("record");
+      }
+    }).throwsException(IllegalStateException.class);
+  }
+
+  public void testRejectNegativeDelay() throws Exception {
+    final TFile file = TFileFactory.inMemory().file("/audit.log");
+    ensure.code(new CodeBlock() {
+      public void execute() throws Exception {
+        file.appender(Durability.NONE, -1);
+      }
+    }).throwsException(IllegalArgumentException.class);
+  }
+}
@@ -4,15 +4,22 @@ import net.sf.cotta.io.*;
 import net.sf.cotta.memory.InMemoryFileSystem;
 import net.sf.cotta.system.FileSystem;
 import net.sf.cotta.test.TestCase;
+import net.sf.cotta.test.assertion.CodeBlock;
 import org.jmock.Expectations;
 import org.jmock.Mockery;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.net.MalformedURLException;
 import java.net.URI;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
 
 public class TFileTest extends TestCase {
 
@@ -133,6 +140,110 @@ public class TFileTest extends TestCase {
     ensure.that(destFile.load()).eq(content);
   }
 
+  public void testCopyLargeFileThroughChannelsToAnotherFileSystem() throws Exception {
+    TFile source = new TFileFactory(new InMemoryFileSystem()).file("/source.txt");
+    source.save(largeContent());
+    TFile dest = new TFileFactory(new InMemoryFileSystem()).file("/dir/dest.txt");
+    dest.save("to be overwritten");
+    source.copyTo(dest);
+    ensure.that(dest.load()).eq(source.load());
+  }
+
+  public void testCopyThroughBufferWhenChannelIsNotSupported() throws Exception {
+    TFile source = new TFileFactory(new InMemoryFileSystem()).file("/source.txt");
+    source.save(largeContent());
+    FileSystem withoutChannels = new ControlledFileSystem(new InMemoryFileSystem(), new ControlledFileSystem.Controller() {
+      public void writeOperationControl(TPath path) {
+      }
+
+      public void readOperationControl(TPath path) {
+      }
+    }) {
+      public FileChannel createOutputChannel(TPath path, OutputStream outputStream) {
+        throw new UnsupportedOperationException();
+      }
+    };
+    TFile dest = new TFileFactory(withoutChannels).file("/dest.txt");
+    source.copyTo(dest);
+    ensure.that(dest.load()).eq(source.load());
+  }
+
+  private String largeContent() {
+    StringBuilder content = new StringBuilder();
+    for (int i = 0; i < 20000; i++) {
+      content.append("line ").append(i).append('\n');
+    }
+    return content.toString();
+  }
+
+  public void testReadMappedContentOnePageAtATime() throws Exception {
+    TFile file = new TFileFactory(new InMemoryFileSystem()).file("/source.txt");
+    file.save(largeContent());
+    final ByteArrayOutputStream content = new ByteArrayOutputStream();
+    final List<Long> positions = new ArrayList<Long>();
+    file.read(new MappedProcessor() {
+      public void process(ByteBuffer buffer, long position) {
+        ensure.that(buffer.isReadOnly()).eq(true);
+        positions.add(position);
+        while (buffer.hasRemaining()) {
+          content.write(buffer.get());
+        }
+      }
+    });
+    ensure.that(content.toString()).eq(largeContent());
+    ensure.that(positions.size()).eq(4);
+    ensure.that(positions.get(1)).eq(64 * 1024L);
+  }
+
+  public void testMapRegionOfFile() throws Exception {
+    TFile file = new TFileFactory(new InMemoryFileSystem()).file("/source.txt");
+    file.save("hello world!");
+    final StringBuilder content = new StringBuilder();
+    file.map(6, 100, new MappedProcessor() {
+      public void process(ByteBuffer buffer, long position) {
+        ensure.that(position).eq(6);
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        content.append(new String(bytes));
+      }
+    });
+    ensure.that(content.toString()).eq("world!");
+  }
+
+  public void testMapRejectsNegativeOffset() throws Exception {
+    final TFile file = new TFileFactory(new InMemoryFileSystem()).file("/source.txt");
+    file.save("content");
+    ensure.code(new CodeBlock() {
+      public void execute() throws Exception {
+        file.map(-1, 1, new MappedProcessor() {
+          public void process(ByteBuffer buffer, long position) {
+          }
+        });
+      }
+    }).throwsException(IllegalArgumentException.class);
+  }
+
+  public void testWriteAtomicallyCreatesParent() throws Exception {
+    TFile file = new TFileFactory(new InMemoryFileSystem()).file("/dir/file.txt");
+    file.saveAtomically("content", Durability.FULL);
+    ensure.that(file.load()).eq("content");
+  }
+
+  public void testKeepContentWhenAtomicWriteFails() throws Exception {
+    final TFile file = new TFileFactory(new InMemoryFileSystem()).file("/file.txt").save("content");
+    ensure.code(new CodeBlock() {
+      public void execute() throws Exception {
+        file.writeAtomically(new OutputProcessor() {
+          public void process(OutputManager outputManager) throws IOException {
+            outputManager.outputStream().write("partial".getBytes());
+            throw new IOException("failed");
+          }
+        }, Durability.NONE);
+      }
+    }).throwsException(TIoException.class);
+    ensure.that(file.load()).eq("content");
+  }
+
   public void testEnsureExists() throws Exception {
     InMemoryFileSystem fileSystem = new InMemoryFileSystem();
     TFile file = new TFile(new TFileFactory(fileSystem), TPath.parse("/source.txt")).ensureExists();
@@ -0,0 +1,54 @@
+package net.sf.cotta;
+
+import net.sf.cotta.test.assertion.CodeBlock;
+
+public class TPathBuilderTest extends TestCase {
+  public void testBuildRelativePath() {
+    TPath path = new TPathBuilder().append("one").append("two").build();
+    ensure.that(path).eqWithHash(TPath.parse("one/two"));
+    ensure.that(path.isRelative()).eq(true);
+  }
+
+  public void testStartWithPath() {
+    TPathBuilder builder = new TPathBuilder(TPath.parse("/one/two").toLinked());
+    ensure.that(builder.length()).eq(2);
+    ensure.that(builder.append("three").build()).eqWithHash(TPath.parse("/one/two/three"));
+    ensure.that(new TPathBuilder(TPath.parse("c:\\one")).append("two").build().toPathString()).eq("c:/one/two");
+  }
+
+  public void testGrowBeyondInitialCapacity() {
+    TPathBuilder builder = new TPathBuilder(TPath.parse("/"));
+    StringBuilder expected = new StringBuilder();
+    for (int i = 0; i < 100; i++) {
+      builder.append("e" + i);
+      expected.append("/e").append(i);
+    }
+    ensure.that(builder.build()).eq(TPath.parse(expected.toString()));
+  }
+
+  public void testAppendPathWithoutNormalizing() {
+    TPathBuilder builder = new TPathBuilder(TPath.parse("/one"));
+    builder.append(TPath.parse("two/../three")).append(TPath.parse("x/four/five").subpath(1));
+    ensure.that(builder.build()).eq(TPath.parse("/one/two/../three/four/five"));
+  }
+
+  public void testRemoveLast() {
+    TPathBuilder builder = new TPathBuilder().append("one").append("two");
+    ensure.that(builder.removeLast().build()).eq(TPath.parse("one"));
+    ensure.that(builder.removeLast().length()).eq(0);
+    final TPathBuilder empty = builder;
+    ensure.that(new CodeBlock() {
+      public void execute() throws Exception {
+        empty.removeLast();
+      }
+    }).throwsException(IllegalStateException.class);
+  }
+
+  public void testBuiltPathNotAffectedByLaterChanges() {
+    TPathBuilder builder = new TPathBuilder().append("one");
+    TPath path = builder.build();
+    builder.removeLast().append("two");
+    ensure.that(path).eq(TPath.parse("one"));
+    ensure.that(builder.build()).eq(TPath.parse("two"));
+  }
+}
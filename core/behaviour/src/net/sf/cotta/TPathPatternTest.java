@@ -0,0 +1,133 @@
+package net.sf.cotta;
+
+import net.sf.cotta.memory.InMemoryFileSystem;
+import net.sf.cotta.test.assertion.CodeBlock;
+
+public class TPathPatternTest extends TestCase {
+  public void testMatchLiteralElements() {
+    TPathPattern pattern = TPathPattern.compile("src/main");
+    ensure.that(pattern.matches(TPath.parse("src/main"))).eq(true);
+    ensure.that(pattern.matches(TPath.parse("src/main/java"))).eq(false);
+    ensure.that(pattern.matches(TPath.parse("src"))).eq(false);
+    ensure.that(pattern.matches(TPath.parse("src/test"))).eq(false);
+  }
+
+  public void testMatchWildcardsWithinElement() {
+    TPathPattern pattern = TPathPattern.compile("*.cl?ss");
+    ensure.that(pattern.matches(TPath.parse("TPath.class"))).eq(true);
+    ensure.that(pattern.matches(TPath.parse(".class"))).eq(true);
+    ensure.that(pattern.matches(TPath.parse("TPath.java"))).eq(false);
+    ensure.that(pattern.matches(TPath.parse("net/TPath.class"))).eq(false);
+    ensure.that(TPathPattern.compile("a*b*c").matches(TPath.parse("abxbc"))).eq(true);
+    ensure.that(TPathPattern.compile("a*b*c").matches(TPath.parse("abxbcd"))).eq(false);
+  }
+
+  public void testMatchCharacterSets() {
+    TPathPattern pattern = TPathPattern.compile("file[0-9a].txt");
+    ensure.that(pattern.matches(TPath.parse("file1.txt"))).eq(true);
+    ensure.that(pattern.matches(TPath.parse("filea.txt"))).eq(true);
+    ensure.that(pattern.matches(TPath.parse("fileb.txt"))).eq(false);
+    TPathPattern negated = TPathPattern.compile("file[!0-9].txt");
+    ensure.that(negated.matches(TPath.parse("fileb.txt"))).eq(true);
+    ensure.that(negated.matches(TPath.parse("file1.txt"))).eq(false);
+  }
+
+  public void testMatchAnyElements() {
+    TPathPattern pattern = TPathPattern.compile("**/*.class");
+    ensure.that(pattern.matches(TPath.parse("TPath.class"))).eq(true);
+    ensure.that(pattern.matches(TPath.parse("net/sf/cotta/TPath.class"))).eq(true);
+    ensure.that(pattern.matches(TPath.parse("net/sf/cotta/TPath.java"))).eq(false);
+    TPathPattern middle = TPathPattern.compile("a/**/b/**/c");
+    ensure.that(middle.matches(TPath.parse("a/b/c"))).eq(true);
+    ensure.that(middle.matches(TPath.parse("a/x/b/y/b/z/c"))).eq(true);
+    ensure.that(middle.matches(TPath.parse("a/x/c"))).eq(false);
+    ensure.that(TPathPattern.compile("src/**").matches(TPath.parse("src"))).eq(true);
+  }
+
+  public void testMatchAlternatives() {
+    TPathPattern pattern = TPathPattern.compile("src/{main,test}/**");
+    ensure.that(pattern.matches(TPath.parse("src/main/java/A.java"))).eq(true);
+    ensure.that(pattern.matches(TPath.parse("src/test/A.java"))).eq(true);
+    ensure.that(pattern.matches(TPath.parse("src/site/index.html"))).eq(false);
+    TPathPattern nested = TPathPattern.compile("{*.txt,doc/{a,b}.html}");
+    ensure.that(nested.matches(TPath.parse("readme.txt"))).eq(true);
+    ensure.that(nested.matches(TPath.parse("doc/b.html"))).eq(true);
+    ensure.that(nested.matches(TPath.parse("doc/c.html"))).eq(false);
+  }
+
+  public void testEscapeWildcard() {
+    TPathPattern pattern = TPathPattern.compile("a\\*b");
+    ensure.that(pattern.matches(TPath.parse("a*b"))).eq(true);
+    ensure.that(pattern.matches(TPath.parse("axb"))).eq(false);
+  }
+
+  public void testMatchFromBaseElement() {
+    TPathPattern pattern = TPathPattern.compile("src/*.java");
+    TPath path = TPath.parse("/project/src/A.java").toLinked();
+    ensure.that(pattern.matches(path, 1)).eq(true);
+    ensure.that(pattern.matches(path, 0)).eq(false);
+  }
+
+  public void testMatchDeepLinkedPath() {
+    StringBuilder path = new StringBuilder("/project");
+    for (int i = 0; i < 200; i++) {
+      path.append("/dir").append(i);
+    }
+    TPath linked = TPath.parse(path.append("/A.java").toString()).toLinked();
+    ensure.that(TPathPattern.compile("**/dir199/*.java").matches(linked, 1)).eq(true);
+    ensure.that(TPathPattern.compile("**/dir200/*.java").matches(linked, 1)).eq(false);
+    ensure.that(TPathPattern.compile("**").matches(linked, linked.length())).eq(true);
+  }
+
+  public void testMatchLinkedPathsOfDifferentDepthsInTurn() {
+    TPathPattern pattern = TPathPattern.compile("src/**/A.java");
+    TPath deep = TPath.parse("/project/src/a/b/c/d/A.java").toLinked();
+    TPath shallow = TPath.parse("/project/src/A.java").toLinked();
+    ensure.that(pattern.matches(deep, 1)).eq(true);
+    ensure.that(pattern.matches(shallow, 1)).eq(true);
+    ensure.that(pattern.matchesUnder(TPath.parse("/project/lib").toLinked(), 1)).eq(false);
+    ensure.that(pattern.matches(TPath.parse("/project/src/a/A.java"), 1)).eq(true);
+    ensure.that(pattern.matches(TPath.parse("/project/src/a/B.java").toLinked(), 1)).eq(false);
+  }
+
+  public void testMatchesUnderForPruning() {
+    TPathPattern pattern = TPathPattern.compile("src/main/**/*.java");
+    ensure.that(pattern.matchesUnder(TPath.parse("src"), 0)).eq(true);
+    ensure.that(pattern.matchesUnder(TPath.parse("src/main/net/sf"), 0)).eq(true);
+    ensure.that(pattern.matchesUnder(TPath.parse("src/test"), 0)).eq(false);
+    ensure.that(pattern.matchesUnder(TPath.parse("target"), 0)).eq(false);
+    TPathPattern exact = TPathPattern.compile("src/*.java");
+    ensure.that(exact.matchesUnder(TPath.parse("src"), 0)).eq(true);
+    ensure.that(exact.matchesUnder(TPath.parse("src/net"), 0)).eq(false);
+  }
+
+  public void testFilterAdapters() throws Exception {
+    TFileFactory factory = new TFileFactory(new InMemoryFileSystem());
+    TDirectory base = factory.dir("/project");
+    TPathPattern pattern = TPathPattern.compile("src/**/*.java");
+    ensure.that(pattern.fileFilter(base).accept(base.file("src/net/A.java"))).eq(true);
+    ensure.that(pattern.fileFilter(base).accept(base.file("src/net/A.txt"))).eq(false);
+    ensure.that(pattern.directoryFilter(base).accept(base.dir("src/net"))).eq(false);
+    ensure.that(TPathPattern.compile("src/*").directoryFilter(base).accept(base.dir("src/net"))).eq(true);
+    ensure.that(pattern.subtreeFilter(base).accept(base.dir("src/net"))).eq(true);
+    ensure.that(pattern.subtreeFilter(base).accept(base.dir("lib"))).eq(false);
+  }
+
+  public void testRejectMalformedPattern() {
+    ensure.that(new CodeBlock() {
+      public void execute() throws Exception {
+        TPathPattern.compile("/src/*");
+      }
+    }).throwsException(IllegalArgumentException.class).message().contains("relative");
+    ensure.that(new CodeBlock() {
+      public void execute() throws Exception {
+        TPathPattern.compile("src/{main,test");
+      }
+    }).throwsException(IllegalArgumentException.class).message().contains("{");
+    ensure.that(new CodeBlock() {
+      public void execute() throws Exception {
+        TPathPattern.compile("file[0-9");
+      }
+    }).throwsException(IllegalArgumentException.class).message().contains("[");
+  }
+}
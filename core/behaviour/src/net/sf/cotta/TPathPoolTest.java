@@ -0,0 +1,71 @@
+package net.sf.cotta;
+
+import net.sf.cotta.memory.InMemoryFileSystem;
+import net.sf.cotta.test.assertion.CodeBlock;
+
+public class TPathPoolTest extends TestCase {
+  public void testReturnSameInstanceForSamePathString() {
+    TPathPool pool = new TPathPool();
+    TPath path = pool.parse("/one/two");
+    ensure.that(pool.parse("/one/two")).sameAs(path);
+    ensure.that(path).eqWithHash(TPath.parse("/one/two"));
+  }
+
+  public void testParseTheSameWayAsTPath() {
+    TPathPool pool = new TPathPool();
+    ensure.that(pool.parse("c:\\one").headElement()).eq("c:");
+    ensure.that(pool.parse("one/two").isRelative()).eq(true);
+    ensure.that(pool.parse("/").toPathString()).eq("/");
+  }
+
+  public void testRoundCapacityUpToPowerOfTwo() {
+    ensure.that(new TPathPool(1).capacity()).eq(1);
+    ensure.that(new TPathPool(1000).capacity()).eq(1024);
+    ensure.that(new TPathPool(1024).capacity()).eq(1024);
+  }
+
+  public void testReplaceOnMissWhenFull() {
+    TPathPool pool = new TPathPool(1);
+    TPath one = pool.parse("one");
+    TPath two = pool.parse("two");
+    ensure.that(two).eq(TPath.parse("two"));
+    ensure.that(pool.parse("one")).notSameAs(one);
+  }
+
+  public void testClear() {
+    TPathPool pool = new TPathPool();
+    TPath path = pool.parse("one");
+    pool.clear();
+    ensure.that(pool.parse("one")).notSameAs(path);
+  }
+
+  public void testNotAllowNullOrEmptyPathString() {
+    final TPathPool pool = new TPathPool();
+    ensure.that(new CodeBlock() {
+      public void execute() throws Exception {
+        pool.parse(null);
+      }
+    }).throwsException(IllegalArgumentException.class);
+    ensure.that(new CodeBlock() {
+      public void execute() throws Exception {
+        pool.parse("");
+      }
+    }).throwsException(IllegalArgumentException.class);
+  }
+
+  public void testNotAllowNonPositiveCapacity() {
+    ensure.that(new CodeBlock() {
+      public void execute() throws Exception {
+        new TPathPool(0);
+      }
+    }).throwsException(IllegalArgumentException.class);
+  }
+
+  public void testFactoryParsesThroughPool() {
+    TPathPool pool = new TPathPool();
+    TFileFactory factory = new TFileFactory(new InMemoryFileSystem(), null, pool);
+    TPath path = factory.file("/one/two.txt").toPath();
+    ensure.that(pool.parse("/one/two.txt")).sameAs(path);
+    ensure.that(factory.dir("/one").file("two.txt").toPath()).eq(path);
+  }
+}
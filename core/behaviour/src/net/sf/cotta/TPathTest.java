@@ -330,4 +330,148 @@ public class TPathTest extends TestCase {
     ensure.that(path.subpath(1).intern().toElementArray()).eq("two", "three");
     ensure.that(path.subpath(0, 2).intern().toElementArray()).eq("one", "two");
   }
+
+  public void testParseSkipsEmptyElements() {
+    ensure.that(TPath.parse("/one//two/").toElementArray()).eq("one", "two");
+    ensure.that(TPath.parse("one\\/two").toElementArray()).eq("one", "two");
+  }
+
+  public void testParseCurrentDirectoryHead() {
+    ensure.that(TPath.parse(".").length()).eq(0);
+    ensure.that(TPath.parse(".").isRelative()).eq(true);
+    ensure.that(TPath.parse(".\\one").toElementArray()).eq("one");
+    ensure.that(TPath.parse("..").toElementArray()).eq("..");
+    ensure.that(TPath.parse("../one").headElement()).eq(".");
+  }
+
+  public void testParseDriveWithoutSeparator() {
+    TPath path = TPath.parse("c:one/two");
+    ensure.that(path.headElement()).eq("c:");
+    ensure.that(path.toElementArray()).eq("one", "two");
+  }
+
+  public void testParseTreatsDigitDriveAsRelativePath() {
+    TPath path = TPath.parse("1:/one");
+    ensure.that(path.isRelative()).eq(true);
+    ensure.that(path.toElementArray()).eq("1:", "one");
+  }
+
+  public void testLinkedPathEqualsArrayPath() {
+    TPath path = TPath.parse("/one/two/three");
+    TPath linked = path.toLinked();
+    ensure.that(linked.isLinked()).eq(true);
+    ensure.that(path.isLinked()).eq(false);
+    ensure.that(linked).eqWithHash(path);
+    ensure.that(path).eqWithHash(linked);
+    ensure.that(linked.toPathString()).eq("/one/two/three");
+    ensure.that(linked.toElementArray()).eq("one", "two", "three");
+    ensure.that(linked.toLinked()).sameAs(linked);
+  }
+
+  public void testLinkedPathNotEqualToDifferentPath() {
+    TPath linked = TPath.parse("/one/two/three").toLinked();
+    ensure.that(linked.equals(TPath.parse("/one/two/four"))).eq(false);
+    ensure.that(linked.equals(TPath.parse("/one/two/four").toLinked())).eq(false);
+    ensure.that(linked.equals(TPath.parse("c:/one/two/three").toLinked())).eq(false);
+    ensure.that(linked.equals(TPath.parse("/one/two"))).eq(false);
+  }
+
+  public void testLinkedPathSharesParent() {
+    TPath dir = TPath.parse("/one/two").toLinked();
+    TPath file = dir.join("file.txt");
+    ensure.that(file.isLinked()).eq(true);
+    ensure.that(file.parent()).sameAs(dir);
+    ensure.that(file.subpath(0, 2)).sameAs(dir);
+    ensure.that(file.lastElementName()).eq("file.txt");
+    ensure.that(file.root()).eq(TPath.parse("/"));
+    ensure.that(dir.parent().parent().parent()).isNull();
+  }
+
+  public void testLinkedPathElementAccess() {
+    TPath linked = TPath.parse("c:/one/two/three").toLinked();
+    ensure.that(linked.length()).eq(3);
+    ensure.that(linked.elementAt(0)).eq("one");
+    ensure.that(linked.elementAt(2)).eq("three");
+    ensure.that(linked.subpath(1).toElementArray()).eq("two", "three");
+    ensure.that(linked.headElement()).eq("c:");
+  }
+
+  public void testElementAtForSubpath() {
+    TPath path = TPath.parse("one/two/three").subpath(1);
+    ensure.that(path.elementAt(0)).eq("two");
+  }
+
+  public void testLinkedPathHierarchy() {
+    TPath child = TPath.parse("/tmp/test/sub").toLinked();
+    ensure.that(child.isChildOf(TPath.parse("/tmp"))).eq(true);
+    ensure.that(child.isChildOf(TPath.parse("/tmp").toLinked())).eq(true);
+    ensure.that(TPath.parse("/tmp/test/sub").isChildOf(TPath.parse("/tmp").toLinked())).eq(true);
+    ensure.that(child.isChildOf(TPath.parse("/test").toLinked())).eq(false);
+    ensure.that(child.isChildOf(child)).eq(false);
+  }
+
+  public void testLinkedPathCompare() {
+    String[] paths = {"/a", "/b", "/a/b", "/a/c", "/b/a", "/a/b/c", "/", "/a/a/z", "/c/a/a"};
+    for (String first : paths) {
+      for (String second : paths) {
+        TPath path1 = TPath.parse(first);
+        TPath path2 = TPath.parse(second);
+        int expected = Integer.signum(path1.compareTo(path2));
+        ensure.that(Integer.signum(path1.toLinked().compareTo(path2.toLinked()))).eq(expected);
+        ensure.that(Integer.signum(path1.toLinked().compareTo(path2))).eq(expected);
+        ensure.that(Integer.signum(path1.compareTo(path2.toLinked()))).eq(expected);
+      }
+    }
+  }
+
+  public void testLinkedPathCompareStopsAtSharedParent() {
+    TPath dir = TPath.parse("/one/two").toLinked();
+    ensure.that(dir.join("a").compareTo(dir.join("b"))).eq("a".compareTo("b"));
+    ensure.that(dir.join("a").compareTo(dir.join("a"))).eq(0);
+  }
+
+  public void testLinkedPathJoinAndAppend() {
+    TPath linked = TPath.parse("/one/two").toLinked();
+    TPath joined = linked.join(TPath.parse("three/four"));
+    ensure.that(joined.isLinked()).eq(true);
+    ensure.that(joined.parent().parent()).sameAs(linked);
+    ensure.that(joined).eq(TPath.parse("/one/two/three/four"));
+    ensure.that(linked.join(TPath.parse("../five"))).eq(TPath.parse("/one/five"));
+    ensure.that(linked.append(TPath.parse("x/./three"))).eq(TPath.parse("/one/two/x/./three"));
+    ensure.that(TPath.parse("/zero").append(linked.subpath(1))).eq(TPath.parse("/zero/two"));
+  }
+
+  public void testLinkedPathFrom() {
+    TPath path = TPath.parse("/one/two/three/dir1/four/five").toLinked();
+    TPath result = path.pathFrom(TPath.parse("/one/two/three/dir2/four").toLinked());
+    ensure.that(result).eq(TPath.parse("../../dir1/four/five"));
+  }
+
+  public void testLinkedPathTrim() {
+    ensure.that(TPath.parse("./one/two/.").toLinked().trim().toElementArray()).eq("one", "two");
+    TPath linked = TPath.parse("one/two").toLinked();
+    ensure.that(linked.trim()).sameAs(linked);
+  }
+
+  public void testJoinWithoutReferenceIsSameAsAppend() {
+    TPath path = TPath.parse("/one/two");
+    TPath joined = path.join(TPath.parse("three/four"));
+    ensure.that(joined).eqWithHash(TPath.parse("/one/two/three/four"));
+    ensure.that(joined.parent().parent()).eq(path);
+  }
+
+  public void testJoinNormalizesBothPaths() {
+    ensure.that(TPath.parse("/one/./two").join(TPath.parse("x/../three"))).eqWithHash(TPath.parse("/one/two/three"));
+    ensure.that(TPath.parse("one").join(TPath.parse("../../two/.."))).eqWithHash(TPath.parse(".."));
+    ensure.that(TPath.parse("/one/two").toLinked().join(TPath.parse("../three"))).eqWithHash(TPath.parse("/one/three"));
+  }
+
+  public void testPathFromSubpathAndMixedStorage() {
+    TPath path = TPath.parse("/zero/one/two/three").subpath(1);
+    ensure.that(path.pathFrom(TPath.parse("./one/four"))).eq(TPath.parse("../two/three"));
+    TPath linked = TPath.parse("/one/two/three").toLinked();
+    ensure.that(linked.pathFrom(TPath.parse("/one/four"))).eq(TPath.parse("../two/three"));
+    ensure.that(TPath.parse("/one/four").pathFrom(linked)).eq(TPath.parse("../../four"));
+    ensure.that(linked.pathFrom(linked.parent())).eq(TPath.parse("three"));
+  }
 }
@@ -0,0 +1,97 @@
+package net.sf.cotta.io;
+
+import net.sf.cotta.TDirectory;
+import net.sf.cotta.TFile;
+import net.sf.cotta.TFileFactory;
+import net.sf.cotta.TIoException;
+import net.sf.cotta.TestCase;
+import net.sf.cotta.test.assertion.CodeBlock;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+public class MappedBuffersTest extends TestCase {
+  private TDirectory tmp;
+
+  public void beforeMethod() throws Exception {
+    super.beforeMethod();
+    tmp = TFileFactory.physical().dir("tmp");
+    deleteTmp();
+  }
+
+  public void afterMethod() throws Exception {
+    deleteTmp();
+    super.afterMethod();
+  }
+
+  private void deleteTmp() throws TIoException {
+    if (tmp.exists()) {
+      tmp.deleteAll();
+    }
+  }
+
+  public void testMapChannelInWindows() throws Exception {
+    TFile file = tmp.file("mapped.txt").save("0123456789");
+    final List<String> windows = new ArrayList<String>();
+    MappedBuffers.map(file.toPath(), file.inputChannel(), 1, 100, 4, new MappedProcessor() {
+      public void process(ByteBuffer buffer, long position) {
+        windows.add(position + ":" + content(buffer));
+      }
+    });
+    ensure.that(windows).eq("1:1234", "5:5678", "9:9");
+  }
+
+  public void testReadStreamInWindows() throws Exception {
+    final List<String> windows = new ArrayList<String>();
+    MappedBuffers.read(null, new ByteArrayInputStream("0123456789".getBytes()), 2, 5, new MappedProcessor() {
+      public void process(ByteBuffer buffer, long position) {
+        ensure.that(buffer.isReadOnly()).eq(true);
+        windows.add(position + ":" + content(buffer));
+      }
+    });
+    ensure.that(windows).eq("2:23456");
+  }
+
+  public void testReadNothingBeyondEndOfStream() throws Exception {
+    MappedBuffers.read(null, new ByteArrayInputStream("0123".getBytes()), 10, 5, new MappedProcessor() {
+      public void process(ByteBuffer buffer, long position) {
+        fail("no content beyond the end");
+      }
+    });
+  }
+
+  public void testWrapErrorFromProcessor() throws Exception {
+    final TFile file = tmp.file("mapped.txt").save("content");
+    ensure.code(new CodeBlock() {
+      public void execute() throws Exception {
+        MappedBuffers.map(file.toPath(), file.inputChannel(), 0, 100, new MappedProcessor() {
+          public void process(ByteBuffer buffer, long position) throws IOException {
+            throw new IOException("processing failed");
+          }
+        });
+      }
+    }).throwsException(TIoException.class);
+  }
+
+  public void testUnmapReleasesMapping() throws Exception {
+    TFile file = tmp.file("mapped.txt").save("content");
+    FileChannel channel = file.inputChannel();
+    try {
+      MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      ensure.that(MappedBuffers.unmap(buffer)).eq(true);
+    } finally {
+      channel.close();
+    }
+  }
+
+  private String content(ByteBuffer buffer) {
+    byte[] bytes = new byte[buffer.remaining()];
+    buffer.get(bytes);
+    return new String(bytes);
+  }
+}
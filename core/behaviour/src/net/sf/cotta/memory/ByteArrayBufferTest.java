@@ -115,4 +115,85 @@ public class ByteArrayBufferTest extends TestCase {
     buffer.append("123");
     ensure.that(buffer.copyTo(new InMemoryOutputFileChannel(new ByteArrayBuffer(20)), 10, 5)).eq(0);
   }
+
+  public void testAppendAcrossPages() throws Exception {
+    ByteArrayBuffer buffer = new ByteArrayBuffer(0, 1, 4);
+    buffer.append("0123456789".getBytes());
+    buffer.append((byte) 'a');
+    buffer.append("bcdef".getBytes(), 1, 3);
+    ensure.that(buffer.size()).eq(14);
+    ensure.that(buffer.toString()).eq("0123456789acde");
+    ensure.that(buffer.byteAt(4)).eq((int) '4');
+    ensure.that(buffer.byteAt(13)).eq((int) 'e');
+  }
+
+  public void testRoundPageSizeUpToPowerOfTwo() throws Exception {
+    ByteArrayBuffer buffer = new ByteArrayBuffer(0, 1, 3);
+    buffer.append("abcdefghij");
+    ensure.that(buffer.toString()).eq("abcdefghij");
+  }
+
+  public void testCopyToArrayAcrossPages() throws Exception {
+    ByteArrayBuffer buffer = new ByteArrayBuffer(0, 1, 4);
+    buffer.append("0123456789");
+    byte[] target = new byte[8];
+    ensure.that(buffer.copyTo(3, target, 1, 6)).eq(6);
+    ensure.that(new String(target, 1, 6)).eq("345678");
+    ensure.that(buffer.copyTo(8, target, 0, 8)).eq(2);
+    ensure.that(buffer.copyTo(10, target, 0, 8)).eq(0);
+  }
+
+  public void testCopyFromAndToByteBufferAcrossPages() throws Exception {
+    ByteArrayBuffer buffer = new ByteArrayBuffer(0, 1, 4);
+    buffer.append("01");
+    ByteBuffer source = ByteBuffer.wrap("23456789".getBytes());
+    ensure.that(buffer.copyFrom(source)).eq(8);
+    ByteBuffer target = ByteBuffer.allocate(10);
+    ensure.that(buffer.copyTo(target, 1, 7)).eq(7);
+    ensure.that(new String(target.array(), 0, target.position())).eq("1234567");
+  }
+
+  public void testCopyToChannelAcrossPages() throws Exception {
+    ByteArrayBuffer buffer = new ByteArrayBuffer(0, 1, 4);
+    buffer.append("0123456789");
+    ByteArrayBuffer target = new ByteArrayBuffer();
+    ensure.that(buffer.copyTo(new InMemoryOutputFileChannel(target), 2, 20)).eq(8);
+    ensure.that(target.toString()).eq("23456789");
+  }
+
+  public void testRejectNonPositivePageSize() throws Exception {
+    try {
+      new ByteArrayBuffer(0, 1, 0);
+      fail("IllegalArgumentException should have been thrown");
+    } catch (IllegalArgumentException e) {
+      ensure.that(e.getMessage()).contains("page size");
+    }
+  }
+
+  public void testViewEndsAtPage() throws Exception {
+    ByteArrayBuffer buffer = new ByteArrayBuffer(4, 4, 4);
+    buffer.append("0123456789".getBytes(), 0, 10);
+    ByteBuffer view = buffer.view(2, 100);
+    ensure.that(view.isReadOnly()).eq(true);
+    ensure.that(view.remaining()).eq(2);
+    ensure.that(view.get(0)).eq((int) '2');
+    ensure.that(buffer.view(8, 100).remaining()).eq(2);
+    ensure.that(buffer.view(4, 1).remaining()).eq(1);
+    ensure.that(buffer.view(10, 1).remaining()).eq(0);
+  }
+
+  public void testCopySharesPagesUntilWritten() throws Exception {
+    ByteArrayBuffer buffer = new ByteArrayBuffer(0, 1, 4);
+    buffer.append("0123456789");
+    ByteArrayBuffer copy = buffer.copy();
+    copy.write(5, ByteBuffer.wrap("ab".getBytes()));
+    copy.append("c");
+    buffer.append((byte) 'x');
+    ensure.that(buffer.toString()).eq("0123456789x");
+    ensure.that(copy.toString()).eq("01234ab789c");
+    buffer.truncate(2);
+    buffer.append("yz");
+    ensure.that(buffer.toString()).eq("01yz");
+    ensure.that(copy.toString()).eq("01234ab789c");
+  }
 }
@@ -0,0 +1,9 @@
+package net.sf.cotta.memory;
+
+public class CompactInMemoryFileSystemTest extends InMemoryFileSystemTestBase {
+
+  @Override
+  protected InMemoryFileSystem createFileSystem() {
+    return new InMemoryFileSystemBuilder().withIndexType(InMemoryFileSystem.IndexType.COMPACT).build();
+  }
+}
@@ -0,0 +1,114 @@
+package net.sf.cotta.memory;
+
+import net.sf.cotta.TFile;
+import net.sf.cotta.TFileFactory;
+import net.sf.cotta.io.OutputMode;
+import net.sf.cotta.test.assertion.CodeBlock;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+
+public class CompressingInMemoryFileSystemTest extends InMemoryFileSystemTestBase {
+  @Override
+  protected InMemoryFileSystem createFileSystem() {
+    return new InMemoryFileSystemBuilder().withCompression(0, 1500).build();
+  }
+
+  private static String repeat(char c, int count) {
+    StringBuilder builder = new StringBuilder(count);
+    for (int i = 0; i < count; i++) {
+      builder.append(c);
+    }
+    return builder.toString();
+  }
+
+  public void testCompressIdleContent() throws Exception {
+    TFile file = factory.file("/one.txt").save(repeat('a', 1000));
+    ensure.that(fileSystem.compressionCount()).eq(1);
+    ensure.that(fileSystem.compressedBytes() < 100).eq(true);
+    ensure.that(fileSystem.compressionRatio() > 10).eq(true);
+    ensure.that(file.length()).eq(1000);
+    ensure.that(file.load()).eq(repeat('a', 1000));
+    ensure.that(fileSystem.decompressionCount()).eq(1);
+    ensure.that(file.load()).eq(repeat('a', 1000));
+    ensure.that(fileSystem.decompressionCount()).eq(1);
+    ensure.that(fileSystem.decompressionCacheHitCount()).eq(1);
+    ensure.that(fileSystem.compressionCount()).eq(1);
+  }
+
+  public void testKeepContentThatDoesNotGetSmaller() throws Exception {
+    TFile file = factory.file("/one.txt").save("ab");
+    ensure.that(fileSystem.compressionCount()).eq(0);
+    ensure.that(fileSystem.compressionRatio()).eq(1.0);
+    ensure.that(file.load()).eq("ab");
+  }
+
+  public void testDecompressContentForGoodToWrite() throws Exception {
+    TFile file = factory.file("/one.txt").save(repeat('a', 1000));
+    OutputStream out = file.outputStream(OutputMode.APPEND);
+    fileSystem.compressIdleContent();
+    ensure.that(fileSystem.compressedBytes()).eq(0);
+    out.write(repeat('b', 1000).getBytes());
+    out.close();
+    ensure.that(fileSystem.compressionCount()).eq(2);
+    ensure.that(file.load()).eq(repeat('a', 1000) + repeat('b', 1000));
+  }
+
+  public void testDecompressAgainContentDroppedFromCache() throws Exception {
+    TFile one = factory.file("/one.txt").save(repeat('a', 1000));
+    TFile two = factory.file("/two.txt").save(repeat('b', 1000));
+    ensure.that(one.load()).eq(repeat('a', 1000));
+    ensure.that(two.load()).eq(repeat('b', 1000));
+    ensure.that(one.load()).eq(repeat('a', 1000));
+    ensure.that(fileSystem.decompressionCount()).eq(3);
+    ensure.that(fileSystem.decompressionCacheHitCount()).eq(0);
+  }
+
+  public void testReleaseCompressedContentWithFile() throws Exception {
+    factory.file("/one.txt").save(repeat('a', 1000)).delete();
+    ensure.that(fileSystem.compressedBytes()).eq(0);
+    ensure.that(fileSystem.compressionRatio()).eq(1.0);
+  }
+
+  public void testLeaveRecentContentAlone() throws Exception {
+    InMemoryFileSystem fileSystem = new InMemoryFileSystemBuilder().withCompression(60 * 60 * 1000, 1500).build();
+    TFile file = new TFileFactory(fileSystem).file("/one.txt").save(repeat('a', 1000));
+    fileSystem.compressIdleContent();
+    ensure.that(fileSystem.compressionCount()).eq(0);
+    ensure.that(file.load()).eq(repeat('a', 1000));
+  }
+
+  public void testKeepReadingOffHeapContentDeletedWhileStreamIsOpen() throws Exception {
+    InMemoryFileSystem fileSystem = new InMemoryFileSystemBuilder().withCompression(60 * 60 * 1000, 1500)
+        .withStorageType(InMemoryFileSystem.StorageType.OFF_HEAP).build();
+    TFile file = new TFileFactory(fileSystem).file("/one.txt").save(repeat('a', 1000));
+    InputStream stream = file.inputStream();
+    file.delete();
+    new TFileFactory(fileSystem).file("/two.txt").save(repeat('b', 1000));
+    byte[] bytes = new byte[1000];
+    ensure.that(stream.read(bytes)).eq(1000);
+    ensure.that(new String(bytes)).eq(repeat('a', 1000));
+    ensure.that(fileSystem.offHeapMemoryUsed()).eq(OffHeapMemory.DEFAULT_PAGE_SIZE * 2);
+    stream.close();
+    ensure.that(fileSystem.offHeapMemoryUsed()).eq(OffHeapMemory.DEFAULT_PAGE_SIZE);
+  }
+
+  public void testForkSharesCompressedContent() throws Exception {
+    InMemoryFileSystem fileSystem = new InMemoryFileSystemBuilder().withCompression(0, 1500)
+        .withIndexType(InMemoryFileSystem.IndexType.TREE_BASED).build();
+    TFile file = new TFileFactory(fileSystem).file("/one.txt").save(repeat('a', 1000));
+    InMemoryFileSystem fork = fileSystem.fork();
+    TFile forked = new TFileFactory(fork).file("/one.txt");
+    forked.save("changed");
+    ensure.that(forked.load()).eq("changed");
+    ensure.that(file.load()).eq(repeat('a', 1000));
+  }
+
+  public void testCannotCombineWithDeduplication() throws Exception {
+    ensure.code(new CodeBlock() {
+      public void execute() throws Exception {
+        new InMemoryFileSystemBuilder().withCompression(0, 1500).withDeduplication().build();
+      }
+    }).throwsException(IllegalStateException.class);
+  }
+}
@@ -0,0 +1,62 @@
+package net.sf.cotta.memory;
+
+import net.sf.cotta.TFile;
+import net.sf.cotta.TFileFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Measures the throughput of threads sharing one in-memory file system with the concurrent index,
+ * each saving, loading and deleting small files.  Not a test, run it with the main method and the
+ * maximum number of threads as the optional argument.
+ */
+public class ConcurrentInMemoryFileBenchmark {
+  private static final int OPERATIONS = 20000;
+
+  public static void main(String[] args) throws Exception {
+    int maxThreads = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+    run(1);
+    for (int threads = 1; threads <= maxThreads; threads *= 2) {
+      long nanos = run(threads);
+      double operationsPerSecond = threads * (double) OPERATIONS / (nanos / 1000000000.0);
+      System.out.println(String.format("%2d threads %10.2f ms %12.0f ops/s", threads, nanos / 1000000.0, operationsPerSecond));
+    }
+  }
+
+  private static long run(int threads) throws Exception {
+    InMemoryFileSystem fileSystem = new InMemoryFileSystemBuilder().withIndexType(InMemoryFileSystem.IndexType.CONCURRENT).build();
+    final TFileFactory factory = new TFileFactory(fileSystem);
+    List<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
+    for (int i = 0; i < threads; i++) {
+      final int thread = i;
+      tasks.add(new Callable<Object>() {
+        public Object call() throws Exception {
+          for (int j = 0; j < OPERATIONS; j++) {
+            TFile file = factory.file("/benchmark/" + (j % 64) + "/" + thread + "-" + j + ".txt");
+            file.save("content");
+            file.load();
+            if (j % 2 == 0) {
+              file.delete();
+            }
+          }
+          return null;
+        }
+      });
+    }
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try {
+      long start = System.nanoTime();
+      for (Future<Object> future : executor.invokeAll(tasks)) {
+        future.get();
+      }
+      return System.nanoTime() - start;
+    } finally {
+      executor.shutdown();
+    }
+  }
+}
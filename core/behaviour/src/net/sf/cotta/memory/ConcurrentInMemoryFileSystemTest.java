@@ -0,0 +1,114 @@
+package net.sf.cotta.memory;
+
+import net.sf.cotta.TDirectory;
+import net.sf.cotta.TFile;
+import net.sf.cotta.io.OutputMode;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class ConcurrentInMemoryFileSystemTest extends InMemoryFileSystemTestBase {
+
+  @Override
+  protected InMemoryFileSystem createFileSystem() {
+    return new InMemoryFileSystemBuilder().withIndexType(InMemoryFileSystem.IndexType.CONCURRENT).build();
+  }
+
+  public void testReadWhileAnotherThreadAppends() throws Exception {
+    final TFile file = factory.file("/log/app.log").create();
+    final AtomicBoolean done = new AtomicBoolean(false);
+    List<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
+    tasks.add(new Callable<Object>() {
+      public Object call() throws Exception {
+        OutputStream out = file.outputStream(OutputMode.APPEND);
+        byte[] chunk = new byte[100];
+        for (int i = 0; i < 2000; i++) {
+          for (int j = 0; j < chunk.length; j++) {
+            chunk[j] = (byte) ((i * chunk.length + j) % 251);
+          }
+          out.write(chunk);
+        }
+        out.close();
+        done.set(true);
+        return null;
+      }
+    });
+    for (int i = 0; i < 3; i++) {
+      tasks.add(new Callable<Object>() {
+        public Object call() throws Exception {
+          long lastLength = 0;
+          while (!done.get()) {
+            InputStream in = file.inputStream();
+            byte[] buffer = new byte[4096];
+            long position = 0;
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+              for (int j = 0; j < read; j++, position++) {
+                if (buffer[j] != (byte) (position % 251)) {
+                  throw new IllegalStateException("unexpected byte at " + position);
+                }
+              }
+            }
+            in.close();
+            if (position < lastLength) {
+              throw new IllegalStateException("content shrank from " + lastLength + " to " + position);
+            }
+            lastLength = position;
+          }
+          return null;
+        }
+      });
+    }
+    runAll(tasks);
+    ensure.that(file.length()).eq(200000);
+  }
+
+  public void testCreateWriteMoveAndDeleteFromManyThreads() throws Exception {
+    List<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
+    for (int i = 0; i < 8; i++) {
+      final int thread = i;
+      tasks.add(new Callable<Object>() {
+        public Object call() throws Exception {
+          for (int j = 0; j < 200; j++) {
+            TFile file = factory.file("/work/" + (j % 10) + "/" + thread + "-" + j + ".txt");
+            file.save("content " + j);
+            if (!file.load().equals("content " + j)) {
+              throw new IllegalStateException("unexpected content of " + file);
+            }
+            TFile moved = factory.file("/done/" + thread + "-" + j + ".txt");
+            moved.parent().ensureExists();
+            file.moveTo(moved);
+            if (j % 2 == 0) {
+              moved.delete();
+            }
+          }
+          return null;
+        }
+      });
+    }
+    runAll(tasks);
+    TDirectory work = factory.dir("/work");
+    for (int j = 0; j < 10; j++) {
+      ensure.that(work.dir(String.valueOf(j)).list().files().isEmpty()).eq(true);
+    }
+    ensure.that(factory.dir("/done").list().files().size()).eq(800);
+  }
+
+  private void runAll(List<Callable<Object>> tasks) throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(tasks.size());
+    try {
+      for (Future<Object> future : executor.invokeAll(tasks)) {
+        future.get();
+      }
+    } finally {
+      executor.shutdown();
+    }
+  }
+}
@@ -0,0 +1,152 @@
+package net.sf.cotta.memory;
+
+import net.sf.cotta.TDirectory;
+import net.sf.cotta.TFile;
+import net.sf.cotta.TFileFactory;
+import net.sf.cotta.io.OutputMode;
+import net.sf.cotta.physical.PhysicalFileSystem;
+import net.sf.cotta.test.assertion.CodeBlock;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+public class DeduplicatingInMemoryFileSystemTest extends InMemoryFileSystemTestBase {
+  @Override
+  protected InMemoryFileSystem createFileSystem() {
+    return new InMemoryFileSystemBuilder().withDeduplication().build();
+  }
+
+  public void testShareFilesOfSameContent() throws Exception {
+    factory.file("/one.txt").save("content");
+    factory.file("/two.txt").save("content");
+    factory.file("/dir/three.txt").save("content");
+    ensure.that(fileSystem.dedupStoredBytes()).eq(7);
+    ensure.that(fileSystem.dedupRatio()).eq(3.0);
+    factory.file("/four.txt").save("other");
+    ensure.that(fileSystem.dedupStoredBytes()).eq(12);
+  }
+
+  public void testWriteToSharedFileLeavesOthersUnchanged() throws Exception {
+    TFile one = factory.file("/one.txt").save("content");
+    TFile two = factory.file("/two.txt").save("content");
+    OutputStream out = one.outputStream(OutputMode.APPEND);
+    out.write(" changed".getBytes());
+    out.close();
+    ensure.that(one.load()).eq("content changed");
+    ensure.that(two.load()).eq("content");
+    ensure.that(fileSystem.dedupStoredBytes()).eq(22);
+    ensure.that(fileSystem.dedupRatio()).eq(1.0);
+  }
+
+  public void testShareFileAgainAfterWritingSameContent() throws Exception {
+    TFile one = factory.file("/one.txt").save("content");
+    factory.file("/two.txt").save("other");
+    one.save("other");
+    ensure.that(fileSystem.dedupStoredBytes()).eq(5);
+    ensure.that(fileSystem.dedupRatio()).eq(2.0);
+  }
+
+  public void testReleaseContentWithLastFile() throws Exception {
+    TFile one = factory.file("/one.txt").save("content");
+    TFile two = factory.file("/two.txt").save("content");
+    one.delete();
+    ensure.that(two.load()).eq("content");
+    ensure.that(fileSystem.dedupStoredBytes()).eq(7);
+    two.delete();
+    ensure.that(fileSystem.dedupStoredBytes()).eq(0);
+  }
+
+  public void testKeepReadingContentReplacedByStore() throws Exception {
+    factory.file("/one.txt").save("content");
+    TFile two = factory.file("/two.txt");
+    OutputStream out = two.outputStream(OutputMode.OVERWRITE);
+    out.write("content".getBytes());
+    InputStream in = two.inputStream();
+    out.close();
+    ensure.that(in.read()).eq((int) 'c');
+    in.close();
+  }
+
+  public void testShareFileWrittenThroughChannel() throws Exception {
+    factory.file("/one.txt").save("content");
+    FileChannel channel = factory.file("/two.txt").outputChannel(OutputMode.OVERWRITE);
+    channel.write(ByteBuffer.wrap("content".getBytes()));
+    channel.close();
+    ensure.that(factory.file("/two.txt").load()).eq("content");
+    ensure.that(fileSystem.dedupStoredBytes()).eq(7);
+    ensure.that(fileSystem.dedupRatio()).eq(2.0);
+  }
+
+  public void testKeepReadingOffHeapContentDeletedWhileStreamIsOpen() throws Exception {
+    InMemoryFileSystem fileSystem = new InMemoryFileSystemBuilder().withDeduplication()
+        .withStorageType(InMemoryFileSystem.StorageType.OFF_HEAP).build();
+    TFileFactory factory = new TFileFactory(fileSystem);
+    TFile one = factory.file("/one.txt").save("content");
+    TFile two = factory.file("/two.txt").save("content");
+    InputStream stream = one.inputStream();
+    one.delete();
+    two.delete();
+    factory.file("/three.txt").save("other");
+    byte[] bytes = new byte[7];
+    ensure.that(stream.read(bytes)).eq(7);
+    ensure.that(new String(bytes)).eq("content");
+    ensure.that(fileSystem.offHeapMemoryUsed()).eq(OffHeapMemory.DEFAULT_PAGE_SIZE * 2);
+    stream.close();
+    ensure.that(fileSystem.offHeapMemoryUsed()).eq(OffHeapMemory.DEFAULT_PAGE_SIZE);
+    ensure.that(fileSystem.dedupStoredBytes()).eq(5);
+  }
+
+  public void testKeepReadingOffHeapContentDetachedByWriteWhileStreamIsOpen() throws Exception {
+    InMemoryFileSystem fileSystem = new InMemoryFileSystemBuilder().withDeduplication()
+        .withStorageType(InMemoryFileSystem.StorageType.OFF_HEAP).build();
+    TFileFactory factory = new TFileFactory(fileSystem);
+    TFile one = factory.file("/one.txt").save("content");
+    TFile two = factory.file("/two.txt").save("content");
+    InputStream stream = one.inputStream();
+    OutputStream out = one.outputStream(OutputMode.APPEND);
+    out.write(" changed".getBytes());
+    out.close();
+    two.delete();
+    byte[] bytes = new byte[7];
+    ensure.that(stream.read(bytes)).eq(7);
+    ensure.that(new String(bytes)).eq("content");
+    stream.close();
+    ensure.that(one.load()).eq("content changed");
+    ensure.that(fileSystem.dedupStoredBytes()).eq(15);
+  }
+
+  public void testCopyFileSharesContent() throws Exception {
+    TFile source = factory.file("/source.txt").save("content");
+    TFile target = factory.file("/dir/target.txt");
+    source.copyTo(target);
+    ensure.that(target.load()).eq("content");
+    ensure.that(fileSystem.dedupStoredBytes()).eq(7);
+    ensure.that(fileSystem.dedupRatio()).eq(2.0);
+    source.save("changed");
+    ensure.that(target.load()).eq("content");
+  }
+
+  public void testShareOffHeapContent() throws Exception {
+    InMemoryFileSystem fileSystem = new InMemoryFileSystemBuilder().withDeduplication()
+        .withStorageType(InMemoryFileSystem.StorageType.OFF_HEAP).build();
+    TFileFactory factory = new TFileFactory(fileSystem);
+    factory.file("/one.txt").save("content");
+    long used = fileSystem.offHeapMemoryUsed();
+    factory.file("/two.txt").save("content");
+    ensure.that(fileSystem.offHeapMemoryUsed()).eq(used);
+    factory.file("/one.txt").delete();
+    factory.file("/two.txt").delete();
+    ensure.that(fileSystem.offHeapMemoryUsed()).eq(0);
+  }
+
+  public void testCannotCombineWithMemoryBudget() throws Exception {
+    final TDirectory spillDirectory = new TFileFactory(PhysicalFileSystem.instance).dir("tmp/spill");
+    ensure.code(new CodeBlock() {
+      public void execute() throws Exception {
+        new InMemoryFileSystemBuilder().withDeduplication().withMemoryBudget(16, spillDirectory).build();
+      }
+    }).throwsException(IllegalStateException.class);
+  }
+}
@@ -1,9 +1,19 @@
 package net.sf.cotta.memory;
 
+import net.sf.cotta.test.assertion.CodeBlock;
+
 public class HashBasedInMemoryFileSystemTest extends InMemoryFileSystemTestBase {
 
   @Override
   protected InMemoryFileSystem createFileSystem() {
     return new InMemoryFileSystemBuilder().withIndexType(InMemoryFileSystem.IndexType.HASH_BASED).build();
   }
+
+  public void testForkRequiresTreeBasedIndex() throws Exception {
+    ensure.code(new CodeBlock() {
+      public void execute() throws Exception {
+        fileSystem.fork();
+      }
+    }).throwsException(IllegalStateException.class).message().contains("TREE_BASED");
+  }
 }
@@ -0,0 +1,43 @@
+package net.sf.cotta.memory;
+
+import net.sf.cotta.TestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+
+public class ImageContentBufferTest extends TestCase {
+  private ByteBuffer image;
+
+  public void beforeMethod() throws Exception {
+    super.beforeMethod();
+    image = ByteBuffer.wrap("0123456789".getBytes());
+  }
+
+  public void testReadFromImage() throws Exception {
+    ImageContentBuffer buffer = new ImageContentBuffer(image, new ByteArrayBuffer(0));
+    ensure.that(buffer.size()).eq(10);
+    ensure.that(buffer.byteAt(3)).eq((int) '3');
+    byte[] bytes = new byte[4];
+    ensure.that(buffer.copyTo(8, bytes, 0, 4)).eq(2);
+    ensure.that(new String(bytes, 0, 2)).eq("89");
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    ensure.that(buffer.copyTo(out, 5, 100)).eq(5);
+    ensure.that(out.toString()).eq("56789");
+  }
+
+  public void testCopyContentOnWrite() throws Exception {
+    ImageContentBuffer buffer = new ImageContentBuffer(image, new ByteArrayBuffer(0));
+    buffer.write(0, ByteBuffer.wrap("ab".getBytes()));
+    buffer.append((byte) 'c');
+    ensure.that(new String(buffer.toByteArray())).eq("ab23456789c");
+    ensure.that(new String(image.array())).eq("0123456789");
+  }
+
+  public void testCopySharesImageUntilWritten() throws Exception {
+    ImageContentBuffer buffer = new ImageContentBuffer(image, new ByteArrayBuffer(0));
+    ContentBuffer copy = buffer.copy();
+    copy.truncate(4);
+    ensure.that(new String(copy.toByteArray())).eq("0123");
+    ensure.that(new String(buffer.toByteArray())).eq("0123456789");
+  }
+}
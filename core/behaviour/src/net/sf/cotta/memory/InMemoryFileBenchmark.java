@@ -0,0 +1,103 @@
+package net.sf.cotta.memory;
+
+import net.sf.cotta.TFile;
+import net.sf.cotta.TFileFactory;
+import net.sf.cotta.TIoException;
+import net.sf.cotta.io.OutputMode;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Measures the throughput of TFile.load() and TFile.copyTo on in-memory files.  Not a test,
+ * run it with the main method and the size of the file in MB as the optional argument.
+ */
+public class InMemoryFileBenchmark {
+  private static final int ROUNDS = 10;
+
+  public static void main(String[] args) throws Exception {
+    int megabytes = args.length > 0 ? Integer.parseInt(args[0]) : 16;
+    for (InMemoryFileSystem.StorageType storage : InMemoryFileSystem.StorageType.values()) {
+      InMemoryFileSystem fileSystem = new InMemoryFileSystemBuilder().withStorageType(storage).build();
+      TFileFactory factory = new TFileFactory(fileSystem);
+      final TFile source = createFile(factory.file("/benchmark/source.txt"), megabytes);
+      long bytes = source.length();
+      report(storage + " load", bytes, time(new Runnable() {
+        public void run() {
+          load(source);
+        }
+      }));
+      final TFile target = factory.file("/benchmark/target.txt");
+      report(storage + " copyTo(TFile)", bytes, time(new Runnable() {
+        public void run() {
+          copy(source, target);
+        }
+      }));
+      report(storage + " copyTo(OutputStream)", bytes, time(new Runnable() {
+        public void run() {
+          copy(source, new NullOutputStream());
+        }
+      }));
+    }
+  }
+
+  private static TFile createFile(TFile file, int megabytes) throws IOException {
+    byte[] line = "0123456789abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ\n".getBytes();
+    OutputStream out = file.outputStream(OutputMode.OVERWRITE);
+    try {
+      long size = megabytes * 1024L * 1024L;
+      for (long written = 0; written < size; written += line.length) {
+        out.write(line);
+      }
+    } finally {
+      out.close();
+    }
+    return file;
+  }
+
+  private static long time(Runnable task) {
+    task.run();
+    long start = System.nanoTime();
+    for (int i = 0; i < ROUNDS; i++) {
+      task.run();
+    }
+    return (System.nanoTime() - start) / ROUNDS;
+  }
+
+  private static void report(String name, long bytes, long nanos) {
+    double megabytesPerSecond = (bytes / 1024.0 / 1024.0) / (nanos / 1000000000.0);
+    System.out.println(String.format("%-40s %8.2f ms %10.1f MB/s", name, nanos / 1000000.0, megabytesPerSecond));
+  }
+
+  private static void load(TFile file) {
+    try {
+      file.load();
+    } catch (TIoException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static void copy(TFile source, TFile target) {
+    try {
+      source.copyTo(target);
+    } catch (TIoException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static void copy(TFile source, OutputStream target) {
+    try {
+      source.copyTo(target);
+    } catch (TIoException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static class NullOutputStream extends OutputStream {
+    public void write(int b) {
+    }
+
+    public void write(byte[] b, int off, int len) {
+    }
+  }
+}
@@ -0,0 +1,66 @@
+package net.sf.cotta.memory;
+
+import net.sf.cotta.TestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+
+public class InMemoryFileContentTest extends TestCase {
+  private InMemoryFileContent content(String value) {
+    InMemoryFileContent content = new InMemoryFileContent(0, 16);
+    content.setContent(value);
+    return content;
+  }
+
+  public void testReadInBulk() throws Exception {
+    InputStream stream = content("0123456789").inputStream();
+    byte[] buffer = new byte[8];
+    ensure.that(stream.read(buffer, 1, 6)).eq(6);
+    ensure.that(new String(buffer, 1, 6)).eq("012345");
+    ensure.that(stream.read(buffer, 0, 8)).eq(4);
+    ensure.that(new String(buffer, 0, 4)).eq("6789");
+    ensure.that(stream.read(buffer, 0, 8)).eq(-1);
+    ensure.that(stream.read(buffer, 0, 0)).eq(0);
+    ensure.that(stream.read()).eq(-1);
+  }
+
+  public void testSkipAndAvailable() throws Exception {
+    InputStream stream = content("0123456789").inputStream();
+    ensure.that(stream.available()).eq(10);
+    ensure.that(stream.skip(3)).eq(3);
+    ensure.that(stream.read()).eq((int) '3');
+    ensure.that(stream.available()).eq(6);
+    ensure.that(stream.skip(20)).eq(6);
+    ensure.that(stream.skip(1)).eq(0);
+    ensure.that(stream.available()).eq(0);
+  }
+
+  public void testMarkAndReset() throws Exception {
+    InputStream stream = content("0123").inputStream();
+    ensure.that(stream.markSupported()).eq(true);
+    stream.read();
+    stream.mark(10);
+    ensure.that(stream.read()).eq((int) '1');
+    stream.reset();
+    ensure.that(stream.read()).eq((int) '1');
+  }
+
+  public void testTransferRestOfContent() throws Exception {
+    InMemoryFileContent.ContentInputStream stream = (InMemoryFileContent.ContentInputStream) content("0123456789").inputStream();
+    stream.skip(2);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    ensure.that(stream.transferTo(out)).eq(8);
+    ensure.that(out.toString()).eq("23456789");
+    ensure.that(stream.read()).eq(-1);
+    ensure.that(stream.transferTo(out)).eq(0);
+  }
+
+  public void testReadOffHeapContentInBulk() throws Exception {
+    InMemoryFileContent content = new InMemoryFileContent(0, 16, new ContentSettings(new OffHeapMemory(4, 16), false));
+    content.setContent("0123456789");
+    InputStream stream = content.inputStream();
+    byte[] buffer = new byte[10];
+    ensure.that(stream.read(buffer, 0, 10)).eq(10);
+    ensure.that(new String(buffer)).eq("0123456789");
+  }
+}
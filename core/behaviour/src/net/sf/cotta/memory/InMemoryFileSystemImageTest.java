@@ -0,0 +1,127 @@
+package net.sf.cotta.memory;
+
+import net.sf.cotta.TDirectory;
+import net.sf.cotta.TFile;
+import net.sf.cotta.TFileFactory;
+import net.sf.cotta.TIoException;
+import net.sf.cotta.TestCase;
+import net.sf.cotta.io.OutputMode;
+import net.sf.cotta.physical.PhysicalFileSystem;
+
+import java.io.File;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+public class InMemoryFileSystemImageTest extends TestCase {
+  private TDirectory tmp;
+  private InMemoryFileSystem fileSystem;
+  private TFileFactory factory;
+
+  public void beforeMethod() throws Exception {
+    super.beforeMethod();
+    tmp = new TFileFactory(PhysicalFileSystem.instance).dir("tmp/image");
+    fileSystem = new InMemoryFileSystem();
+    factory = new TFileFactory(fileSystem);
+    factory.file("/root.txt").save("root content");
+    factory.file("/dir/sub/file.txt").save("file content");
+    factory.file("/dir/empty.txt").create();
+    factory.dir("/empty/dir").ensureExists();
+    factory.file("relative.txt").save("relative content");
+  }
+
+  public void afterMethod() throws Exception {
+    if (tmp.exists()) {
+      tmp.deleteAll();
+    }
+    super.afterMethod();
+  }
+
+  public void testLoadSavedImage() throws Exception {
+    TFile image = tmp.file("fs.img");
+    InMemoryFileSystemImage.save(fileSystem, image);
+    TFileFactory loaded = new TFileFactory(InMemoryFileSystemImage.load(image));
+    ensure.that(loaded.file("/root.txt").load()).eq("root content");
+    ensure.that(loaded.file("/dir/sub/file.txt").load()).eq("file content");
+    ensure.that(loaded.file("/dir/sub/file.txt").length()).eq(12);
+    ensure.that(loaded.file("/dir/sub/file.txt").lastModified()).eq(factory.file("/dir/sub/file.txt").lastModified());
+    ensure.that(loaded.file("/dir/empty.txt").exists()).eq(true);
+    ensure.that(loaded.file("/dir/empty.txt").length()).eq(0);
+    ensure.that(loaded.dir("/empty/dir").exists()).eq(true);
+    ensure.that(loaded.file("relative.txt").load()).eq("relative content");
+  }
+
+  public void testWriteToLoadedFileLeavesImageUnchanged() throws Exception {
+    TFile image = tmp.file("fs.img");
+    InMemoryFileSystemImage.save(fileSystem, image);
+    TFileFactory loaded = new TFileFactory(InMemoryFileSystemImage.load(image));
+    TFile file = loaded.file("/root.txt");
+    OutputStream out = file.outputStream(OutputMode.APPEND);
+    out.write(" changed".getBytes());
+    out.close();
+    ensure.that(file.load()).eq("root content changed");
+    ensure.that(new TFileFactory(InMemoryFileSystemImage.load(image)).file("/root.txt").load()).eq("root content");
+  }
+
+  public void testKeepReadingLoadedFileDeletedWhileStreamIsOpen() throws Exception {
+    TFile image = tmp.file("fs.img");
+    InMemoryFileSystemImage.save(fileSystem, image);
+    TFile file = new TFileFactory(InMemoryFileSystemImage.load(image)).file("/root.txt");
+    InputStream stream = file.inputStream();
+    file.delete();
+    byte[] bytes = new byte[12];
+    ensure.that(stream.read(bytes)).eq(12);
+    ensure.that(new String(bytes)).eq("root content");
+    stream.close();
+  }
+
+  public void testSaveLoadedFileSystemBackToItsImage() throws Exception {
+    TFile image = tmp.file("fs.img");
+    InMemoryFileSystemImage.save(fileSystem, image);
+    InMemoryFileSystem loaded = InMemoryFileSystemImage.load(image);
+    TFileFactory loadedFactory = new TFileFactory(loaded);
+    loadedFactory.file("/root.txt").save("changed");
+    loadedFactory.file("/dir/new.txt").save("new content");
+    InMemoryFileSystemImage.save(loaded, image);
+    ensure.that(loadedFactory.file("/dir/sub/file.txt").load()).eq("file content");
+    TFileFactory reloaded = new TFileFactory(InMemoryFileSystemImage.load(image));
+    ensure.that(reloaded.file("/root.txt").load()).eq("changed");
+    ensure.that(reloaded.file("/dir/new.txt").load()).eq("new content");
+    ensure.that(reloaded.file("/dir/sub/file.txt").load()).eq("file content");
+    ensure.that(tmp.list().files().size()).eq(1);
+  }
+
+  public void testLoadImageWithBuilderOptions() throws Exception {
+    TFile image = tmp.file("fs.img");
+    InMemoryFileSystemImage.save(fileSystem, image);
+    InMemoryFileSystem loaded = InMemoryFileSystemImage.load(image, new InMemoryFileSystemBuilder()
+        .withIndexType(InMemoryFileSystem.IndexType.TREE_BASED).withStorageType(InMemoryFileSystem.StorageType.OFF_HEAP));
+    TFile file = new TFileFactory(loaded).file("/root.txt");
+    ensure.that(loaded.offHeapMemoryUsed()).eq(0);
+    file.save("overwritten");
+    ensure.that(file.load()).eq("overwritten");
+    ensure.that(loaded.offHeapMemoryUsed() > 0).eq(true);
+  }
+
+  public void testLoadImageFromInMemoryFile() throws Exception {
+    TFile image = new TFileFactory(new InMemoryFileSystem()).file("/fs.img");
+    InMemoryFileSystemImage.save(fileSystem, image);
+    ensure.that(new TFileFactory(InMemoryFileSystemImage.load(image)).file("/dir/sub/file.txt").load()).eq("file content");
+  }
+
+  public void testLoadImageFromUrl() throws Exception {
+    TFile image = tmp.file("fs.img");
+    InMemoryFileSystemImage.save(fileSystem, image);
+    InMemoryFileSystem loaded = InMemoryFileSystemImage.load(new File(image.toPath().toSystemPathString()).toURI().toURL());
+    ensure.that(new TFileFactory(loaded).file("/root.txt").load()).eq("root content");
+  }
+
+  public void testRejectFileThatIsNotImage() throws Exception {
+    TFile image = tmp.file("fs.img").save("not an image at all");
+    try {
+      InMemoryFileSystemImage.load(image);
+      fail("TIoException should have occurred");
+    } catch (TIoException e) {
+      ensure.that(e).message().contains("not an in-memory file system image");
+    }
+  }
+}
@@ -11,6 +11,7 @@ import net.sf.cotta.TIoException;
 import net.sf.cotta.TPath;
 import net.sf.cotta.TestCase;
 import net.sf.cotta.io.OutputMode;
+import net.sf.cotta.system.PendingFile;
 import net.sf.cotta.test.assertion.CodeBlock;
 import net.sf.cotta.utils.PlatformInfoUtil;
 
@@ -99,6 +100,18 @@ public abstract class InMemoryFileSystemTestBase extends TestCase {
     }
   }
 
+  public void testCopyFileWithinFileSystem() throws Exception {
+    TFile source = factory.file("/source.txt").save("content");
+    TFile target = factory.file("/dir/target.txt").save("old content");
+    source.copyTo(target);
+    ensure.that(target.load()).eq("content");
+    OutputStream out = target.outputStream(OutputMode.APPEND);
+    out.write(" changed".getBytes());
+    out.close();
+    ensure.that(target.load()).eq("content changed");
+    ensure.that(source.load()).eq("content");
+  }
+
   public void testCreateFileWithEmptyContent() throws Exception {
     TPath path = TPath.parse("/tmp/one.txt");
     fileSystem.createDir(path.parent());
@@ -128,6 +141,17 @@ public abstract class InMemoryFileSystemTestBase extends TestCase {
     ensure.that(content.files()).isEmpty();
   }
 
+  public void testKeepReadingStreamOpenedBeforeDelete() throws Exception {
+    TFile file = factory.file("/tmp/file.txt").save("content");
+    InputStream stream = file.inputStream();
+    file.delete();
+    factory.file("/tmp/other.txt").save("overwritten");
+    byte[] bytes = new byte[7];
+    ensure.that(stream.read(bytes)).eq(7);
+    stream.close();
+    ensure.that(new String(bytes)).eq("content");
+  }
+
   public void testThrowFileNotFoundExceptionIfFileToDeleteIsNotFound() throws Exception {
     TPath path = TPath.parse("/tmp/test.txt");
     try {
@@ -382,6 +406,24 @@ public abstract class InMemoryFileSystemTestBase extends TestCase {
     ensure.that(inputStream.read()).eq(255);
   }
 
+  public void testReplaceContentOnlyWhenPendingFileIsCommitted() throws Exception {
+    TFile file = factory.file("/dir/file.txt").save("previous content");
+    PendingFile pending = fileSystem.createPendingFile(file.toPath(), true);
+    pending.outputStream().write("new".getBytes());
+    ensure.that(file.load()).eq("previous content");
+    pending.commit();
+    ensure.that(file.load()).eq("new");
+    ensure.that(factory.dir("/dir").listFiles().length).eq(1);
+  }
+
+  public void testKeepContentWhenPendingFileIsDiscarded() throws Exception {
+    TFile file = factory.file("/dir/file.txt").save("content");
+    PendingFile pending = fileSystem.createPendingFile(file.toPath(), false);
+    pending.outputStream().write("new".getBytes());
+    pending.discard();
+    ensure.that(file.load()).eq("content");
+  }
+
   public void testCompareToComparesPath() {
     fileSystem = new InMemoryFileSystem();
     TPath a = TPath.parse("a");
@@ -1,8 +1,13 @@
 package net.sf.cotta.memory;
 
+import net.sf.cotta.TFile;
+import net.sf.cotta.TFileFactory;
 import net.sf.cotta.TestCase;
+import net.sf.cotta.io.OutputMode;
 
 import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
 
 public class InMemoryOutputFileChannelTest extends TestCase {
   public void testWrite() throws Exception {
@@ -12,4 +17,91 @@ public class InMemoryOutputFileChannelTest extends TestCase {
     channel.write(buffer);
     ensure.inMemoryOutput(channel).hasContent("test");
   }
+
+  public void testStartAtEndOfContent() throws Exception {
+    InMemoryOutputFileChannel channel = new InMemoryOutputFileChannel(new ByteArrayBuffer("abc".getBytes()));
+    ensure.that(channel.position()).eq(3);
+    ensure.that(channel.write(bytes("def"))).eq(3);
+    ensure.that(channel.position()).eq(6);
+    ensure.that(channel.size()).eq(6);
+    ensure.inMemoryOutput(channel).hasContent("abcdef");
+  }
+
+  public void testWriteAtPosition() throws Exception {
+    InMemoryOutputFileChannel channel = new InMemoryOutputFileChannel(new ByteArrayBuffer("0123456789".getBytes()));
+    ensure.that(channel.write(bytes("ab"), 3)).eq(2);
+    ensure.that(channel.position()).eq(10);
+    channel.position(9).write(bytes("xyz"));
+    ensure.inMemoryOutput(channel).hasContent("012ab5678xyz");
+  }
+
+  public void testFillGapWithZerosWhenWritingBeyondEnd() throws Exception {
+    InMemoryOutputFileChannel channel = new InMemoryOutputFileChannel(new ByteArrayBuffer("ab".getBytes()));
+    channel.truncate(1);
+    channel.write(bytes("c"), 3);
+    ensure.that(channel.getContent().toByteArray()).eq('a', 0, 0, 'c');
+  }
+
+  public void testGatheringWriteAndScatteringRead() throws Exception {
+    InMemoryOutputFileChannel channel = new InMemoryOutputFileChannel(new ByteArrayBuffer());
+    ensure.that(channel.write(new ByteBuffer[]{bytes("ab"), bytes("cd"), bytes("ef")}, 1, 2)).eq(4);
+    ensure.inMemoryOutput(channel).hasContent("cdef");
+    channel.position(1);
+    ByteBuffer[] dsts = new ByteBuffer[]{ByteBuffer.allocate(2), ByteBuffer.allocate(2)};
+    ensure.that(channel.read(dsts, 0, 2)).eq(3);
+    ensure.that(new String(dsts[0].array())).eq("de");
+    ensure.that(new String(dsts[1].array(), 0, 1)).eq("f");
+    ensure.that(channel.read(dsts, 0, 2)).eq(-1);
+  }
+
+  public void testTruncate() throws Exception {
+    InMemoryOutputFileChannel channel = new InMemoryOutputFileChannel(new ByteArrayBuffer("0123456789".getBytes()));
+    channel.truncate(4);
+    ensure.that(channel.size()).eq(4);
+    ensure.that(channel.position()).eq(4);
+    channel.truncate(8);
+    ensure.that(channel.size()).eq(4);
+    ensure.inMemoryOutput(channel).hasContent("0123");
+  }
+
+  public void testTransferFromAndTo() throws Exception {
+    InMemoryOutputFileChannel source = new InMemoryOutputFileChannel(new ByteArrayBuffer("0123456789".getBytes()));
+    InMemoryOutputFileChannel target = new InMemoryOutputFileChannel(new ByteArrayBuffer("ab".getBytes()));
+    source.position(2);
+    ensure.that(target.transferFrom(source, 1, 5)).eq(5);
+    ensure.inMemoryOutput(target).hasContent("a23456");
+    ensure.that(target.transferFrom(source, 10, 5)).eq(0);
+    InMemoryOutputFileChannel copy = new InMemoryOutputFileChannel(new ByteArrayBuffer());
+    ensure.that(source.transferTo(8, 10, copy)).eq(2);
+    ensure.inMemoryOutput(copy).hasContent("89");
+  }
+
+  public void testFailAfterClose() throws Exception {
+    InMemoryOutputFileChannel channel = new InMemoryOutputFileChannel(new ByteArrayBuffer());
+    channel.close();
+    try {
+      channel.write(bytes("a"));
+      fail("ClosedChannelException should have been thrown");
+    } catch (ClosedChannelException e) {
+      ensure.that(channel.isOpen()).eq(false);
+    }
+  }
+
+  public void testOutputChannelFromFileSystem() throws Exception {
+    TFile file = new TFileFactory(new InMemoryFileSystem()).file("/tmp/content.txt");
+    file.save("abc");
+    FileChannel channel = file.outputChannel(OutputMode.APPEND);
+    channel.write(bytes("def"));
+    channel.close();
+    ensure.that(file.load()).eq("abcdef");
+    channel = file.outputChannel(OutputMode.OVERWRITE);
+    ensure.that(channel.position()).eq(0);
+    channel.write(bytes("xy"));
+    channel.close();
+    ensure.that(file.load()).eq("xy");
+  }
+
+  private ByteBuffer bytes(String value) {
+    return ByteBuffer.wrap(value.getBytes());
+  }
 }
@@ -0,0 +1,224 @@
+package net.sf.cotta.memory;
+
+import net.sf.cotta.TDirectory;
+import net.sf.cotta.TFile;
+import net.sf.cotta.TFileFactory;
+import net.sf.cotta.TIoException;
+import net.sf.cotta.TPath;
+import net.sf.cotta.io.Durability;
+import net.sf.cotta.io.OutputMode;
+import net.sf.cotta.physical.PhysicalFileSystem;
+
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+public class JournaledInMemoryFileSystemTest extends InMemoryFileSystemTestBase {
+  private TDirectory journalDirectory;
+  private List<InMemoryFileSystem> fileSystems;
+
+  @Override
+  protected InMemoryFileSystem createFileSystem() {
+    journalDirectory = new TFileFactory(PhysicalFileSystem.instance).dir("tmp/journal");
+    fileSystems = new ArrayList<InMemoryFileSystem>();
+    return recover();
+  }
+
+  private InMemoryFileSystem recover() {
+    return recover(new InMemoryFileSystemBuilder().withJournal(journalDirectory));
+  }
+
+  private InMemoryFileSystem recover(InMemoryFileSystemBuilder builder) {
+    InMemoryFileSystem fileSystem = builder.build();
+    fileSystems.add(fileSystem);
+    return fileSystem;
+  }
+
+  public void afterMethod() throws Exception {
+    for (InMemoryFileSystem fileSystem : fileSystems) {
+      fileSystem.close();
+    }
+    if (journalDirectory.exists()) {
+      journalDirectory.deleteAll();
+    }
+    super.afterMethod();
+  }
+
+  public void testRecoverAtomicWriteFromJournal() throws Exception {
+    factory.file("/dir/file.txt").save("previous content");
+    factory.file("/dir/file.txt").saveAtomically("new", Durability.FULL);
+    TFileFactory recovered = new TFileFactory(recover());
+    ensure.that(recovered.file("/dir/file.txt").load()).eq("new");
+  }
+
+  public void testRecoverChangesFromJournal() throws Exception {
+    factory.file("/dir/one.txt").save("one");
+    factory.file("/dir/two.txt").save("two");
+    factory.dir("/other").ensureExists();
+    factory.file("/dir/two.txt").moveTo(factory.file("/other/two.txt"));
+    factory.file("/dir/one.txt").copyTo(factory.file("/dir/copy.txt"));
+    factory.file("/dir/one.txt").delete();
+    factory.dir("/empty").ensureExists();
+    factory.dir("/other").moveTo(factory.dir("/moved"));
+    TFileFactory recovered = new TFileFactory(recover());
+    ensure.that(recovered.file("/dir/one.txt").exists()).eq(false);
+    ensure.that(recovered.file("/dir/copy.txt").load()).eq("one");
+    ensure.that(recovered.file("/moved/two.txt").load()).eq("two");
+    ensure.that(recovered.dir("/other").exists()).eq(false);
+    ensure.that(recovered.dir("/empty").exists()).eq(true);
+  }
+
+  public void testRecoverWritesAndAppends() throws Exception {
+    TFile file = factory.file("/file.txt").save("first");
+    OutputStream out = file.outputStream(OutputMode.APPEND);
+    out.write(" second".getBytes());
+    out.close();
+    FileChannel channel = file.outputChannel(OutputMode.APPEND);
+    channel.write(ByteBuffer.wrap("F".getBytes()), 0);
+    channel.close();
+    TFile recovered = new TFileFactory(recover()).file("/file.txt");
+    ensure.that(recovered.load()).eq("First second");
+    ensure.that(recovered.lastModified()).eq(file.lastModified());
+  }
+
+  public void testRecoverFileDeletedWhileBeingWritten() throws Exception {
+    TFile file = factory.file("/dir/file.txt");
+    OutputStream out = file.outputStream(OutputMode.OVERWRITE);
+    out.write("content".getBytes());
+    file.delete();
+    out.close();
+    factory.file("/dir/next.txt").save("next");
+    TFileFactory recovered = new TFileFactory(recover());
+    ensure.that(recovered.file("/dir/file.txt").exists()).eq(false);
+    ensure.that(recovered.file("/dir/next.txt").load()).eq("next");
+  }
+
+  public void testRecoverFileMovedWhileBeingWritten() throws Exception {
+    TFile file = factory.file("/dir/file.txt");
+    OutputStream out = file.outputStream(OutputMode.OVERWRITE);
+    out.write("content".getBytes());
+    factory.dir("/dir").moveTo(factory.dir("/moved"));
+    out.write(" written".getBytes());
+    out.close();
+    TFileFactory recovered = new TFileFactory(recover());
+    ensure.that(recovered.dir("/dir").exists()).eq(false);
+    ensure.that(recovered.file("/moved/file.txt").load()).eq("content written");
+  }
+
+  public void testRecoverCopyOfFileBeingOverwritten() throws Exception {
+    TFile file = factory.file("/file.txt").save("previous");
+    OutputStream out = file.outputStream(OutputMode.OVERWRITE);
+    out.write("new".getBytes());
+    file.copyTo(factory.file("/copy.txt"));
+    out.write(" content".getBytes());
+    out.close();
+    TFileFactory recovered = new TFileFactory(recover());
+    ensure.that(recovered.file("/copy.txt").load()).eq("new");
+    ensure.that(recovered.file("/file.txt").load()).eq("new content");
+  }
+
+  public void testRecoverFromCheckpointAndLog() throws Exception {
+    factory.file("/before.txt").save("before");
+    fileSystem.checkpoint();
+    factory.file("/after.txt").save("after");
+    ensure.that(fileSystem.checkpointCount()).eq(1);
+    ensure.that(journalDirectory.file("checkpoint-1.img").exists()).eq(true);
+    ensure.that(journalDirectory.file("journal-0.log").exists()).eq(false);
+    TFileFactory recovered = new TFileFactory(recover());
+    ensure.that(recovered.file("/before.txt").load()).eq("before");
+    ensure.that(recovered.file("/after.txt").load()).eq("after");
+  }
+
+  public void testSyncJournalDirectoryBeforeDeletingPreviousGeneration() throws Exception {
+    final List<String> operations = new ArrayList<String>();
+    InMemoryFileSystem journalFileSystem = new InMemoryFileSystem() {
+      public OutputStream createOutputStream(TPath path, OutputMode mode) throws TIoException {
+        operations.add("write " + path.lastElementName());
+        return super.createOutputStream(path, mode);
+      }
+
+      public void moveFile(TPath source, TPath destination) throws TIoException {
+        operations.add("move " + destination.lastElementName());
+        super.moveFile(source, destination);
+      }
+
+      public void syncDirectory(TPath path) {
+        operations.add("sync " + path.lastElementName());
+        super.syncDirectory(path);
+      }
+
+      public void deleteFile(TPath path) throws TIoException {
+        operations.add("delete " + path.lastElementName());
+        super.deleteFile(path);
+      }
+    };
+    TDirectory directory = new TFileFactory(journalFileSystem).dir("/journal");
+    InMemoryFileSystem fileSystem = recover(new InMemoryFileSystemBuilder().withJournal(directory));
+    new TFileFactory(fileSystem).file("/file.txt").save("content");
+    operations.clear();
+    fileSystem.checkpoint();
+    ensure.that(operations.toString())
+        .eq("[write checkpoint-1.tmp, move checkpoint-1.img, write journal-1.log, sync journal, delete journal-0.log]");
+    directory.file("journal-0.log").create();
+    operations.clear();
+    recover(new InMemoryFileSystemBuilder().withJournal(directory));
+    ensure.that(operations.toString()).eq("[write journal-1.log, sync journal, delete journal-0.log]");
+  }
+
+  public void testCheckpointWhenLogIsLarge() throws Exception {
+    InMemoryFileSystem fileSystem = recover(new InMemoryFileSystemBuilder().withJournal(journalDirectory, 100));
+    TFileFactory factory = new TFileFactory(fileSystem);
+    for (int i = 0; i < 10; i++) {
+      factory.file("/file" + i + ".txt").save("content " + i);
+    }
+    ensure.that(fileSystem.checkpointCount() > 0).eq(true);
+    TFileFactory recovered = new TFileFactory(recover());
+    for (int i = 0; i < 10; i++) {
+      ensure.that(recovered.file("/file" + i + ".txt").load()).eq("content " + i);
+    }
+  }
+
+  public void testIgnoreIncompleteRecordAtEnd() throws Exception {
+    factory.file("/file.txt").save("content");
+    OutputStream out = journalDirectory.file("journal-0.log").outputStream(OutputMode.APPEND);
+    out.write(new byte[]{0, 0, 0, 100, 1, 2});
+    out.close();
+    InMemoryFileSystem recovered = recover();
+    ensure.that(new TFileFactory(recovered).file("/file.txt").load()).eq("content");
+    new TFileFactory(recovered).file("/next.txt").save("next");
+    ensure.that(new TFileFactory(recover()).file("/next.txt").load()).eq("next");
+  }
+
+  public void testCommitChangesOfThreadsTogether() throws Exception {
+    Thread[] threads = new Thread[8];
+    final List<Exception> errors = new ArrayList<Exception>();
+    for (int i = 0; i < threads.length; i++) {
+      final int thread = i;
+      threads[i] = new Thread() {
+        public void run() {
+          try {
+            for (int j = 0; j < 20; j++) {
+              fileSystem.createDir(TPath.parse("/t" + thread + "/d" + j));
+            }
+          } catch (Exception e) {
+            synchronized (errors) {
+              errors.add(e);
+            }
+          }
+        }
+      };
+    }
+    for (Thread thread : threads) {
+      thread.start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    ensure.that(errors.isEmpty()).eq(true);
+    ensure.that(fileSystem.journalRecordCount()).eq(160);
+    ensure.that(fileSystem.journalSyncCount() <= 160).eq(true);
+    ensure.that(new TFileFactory(recover()).dir("/t7/d19").exists()).eq(true);
+  }
+}
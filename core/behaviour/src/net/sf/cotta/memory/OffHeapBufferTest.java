@@ -0,0 +1,116 @@
+package net.sf.cotta.memory;
+
+import net.sf.cotta.ByteArrayIndexOutOfBoundsException;
+import net.sf.cotta.TestCase;
+
+import java.nio.ByteBuffer;
+
+public class OffHeapBufferTest extends TestCase {
+  private OffHeapMemory memory;
+
+  public void beforeMethod() throws Exception {
+    super.beforeMethod();
+    memory = new OffHeapMemory(4, 16);
+  }
+
+  public void testAppendAcrossPages() throws Exception {
+    OffHeapBuffer buffer = new OffHeapBuffer(memory);
+    buffer.append("0123456789".getBytes(), 0, 10);
+    buffer.append((byte) 'a');
+    ensure.that(buffer.size()).eq(11);
+    ensure.that(buffer.toString()).eq("0123456789a");
+    ensure.that(buffer.byteAt(4)).eq((int) '4');
+    ensure.that(buffer.byteAt(10)).eq((int) 'a');
+  }
+
+  public void testThrowExceptionForPositionOutOfBound() throws Exception {
+    OffHeapBuffer buffer = new OffHeapBuffer(memory);
+    buffer.append((byte) 1);
+    try {
+      buffer.byteAt(1);
+      fail("ByteArrayIndexOutOfBoundsException should have been thrown");
+    } catch (ByteArrayIndexOutOfBoundsException e) {
+      ensure.that(e.getPosition()).eq(1);
+      ensure.that(e.getBound()).eq(1);
+    }
+  }
+
+  public void testCopyToArrayAndByteBuffer() throws Exception {
+    OffHeapBuffer buffer = new OffHeapBuffer(memory);
+    buffer.copyFrom(ByteBuffer.wrap("0123456789".getBytes()));
+    byte[] target = new byte[8];
+    ensure.that(buffer.copyTo(3, target, 1, 6)).eq(6);
+    ensure.that(new String(target, 1, 6)).eq("345678");
+    ByteBuffer byteBuffer = ByteBuffer.allocate(20);
+    ensure.that(buffer.copyTo(byteBuffer, 2, 20)).eq(8);
+    ensure.that(new String(byteBuffer.array(), 0, byteBuffer.position())).eq("23456789");
+  }
+
+  public void testCopyFromKeepsLimitOfSource() throws Exception {
+    OffHeapBuffer buffer = new OffHeapBuffer(memory);
+    ByteBuffer source = ByteBuffer.wrap("0123456789".getBytes());
+    source.limit(7);
+    ensure.that(buffer.copyFrom(source)).eq(7);
+    ensure.that(source.limit()).eq(7);
+    ensure.that(source.hasRemaining()).eq(false);
+    ensure.that(buffer.toString()).eq("0123456");
+  }
+
+  public void testCopyToChannel() throws Exception {
+    OffHeapBuffer buffer = new OffHeapBuffer(memory);
+    buffer.append("0123456789".getBytes(), 0, 10);
+    ByteArrayBuffer target = new ByteArrayBuffer();
+    ensure.that(buffer.copyTo(new InMemoryOutputFileChannel(target), 1, 7)).eq(7);
+    ensure.that(target.toString()).eq("1234567");
+  }
+
+  public void testReusePagesAfterRelease() throws Exception {
+    OffHeapBuffer buffer = new OffHeapBuffer(memory);
+    buffer.append("0123456789".getBytes(), 0, 10);
+    ensure.that(memory.used()).eq(12);
+    ensure.that(memory.allocated()).eq(16);
+    buffer.release();
+    ensure.that(buffer.size()).eq(0);
+    ensure.that(memory.used()).eq(0);
+    OffHeapBuffer another = new OffHeapBuffer(memory);
+    another.append("abcdefghijkl".getBytes(), 0, 12);
+    ensure.that(memory.used()).eq(12);
+    ensure.that(memory.allocated()).eq(16);
+    ensure.that(another.toString()).eq("abcdefghijkl");
+  }
+
+  public void testRejectPageSizeThatIsNotPowerOfTwo() throws Exception {
+    try {
+      new OffHeapMemory(3, 16);
+      fail("IllegalArgumentException should have been thrown");
+    } catch (IllegalArgumentException e) {
+      ensure.that(e.getMessage()).contains("power of two");
+    }
+  }
+
+  public void testViewEndsAtPage() throws Exception {
+    OffHeapBuffer buffer = new OffHeapBuffer(memory);
+    buffer.append("0123456789".getBytes(), 0, 10);
+    ByteBuffer view = buffer.view(5, 100);
+    ensure.that(view.isReadOnly()).eq(true);
+    ensure.that(view.remaining()).eq(3);
+    ensure.that(view.get(0)).eq((int) '5');
+    ensure.that(buffer.view(8, 100).remaining()).eq(2);
+    ensure.that(buffer.view(10, 1).remaining()).eq(0);
+  }
+
+  public void testCopySharesPagesUntilWritten() throws Exception {
+    OffHeapBuffer buffer = new OffHeapBuffer(memory);
+    buffer.append("0123456789".getBytes(), 0, 10);
+    OffHeapBuffer copy = buffer.copy();
+    ensure.that(memory.used()).eq(12);
+    copy.write(5, ByteBuffer.wrap("ab".getBytes()));
+    ensure.that(memory.used()).eq(16);
+    ensure.that(copy.toString()).eq("01234ab789");
+    ensure.that(buffer.toString()).eq("0123456789");
+    buffer.release();
+    ensure.that(memory.used()).eq(12);
+    copy.release();
+    ensure.that(memory.used()).eq(0);
+  }
+}
@@ -0,0 +1,73 @@
+package net.sf.cotta.memory;
+
+import net.sf.cotta.TFile;
+import net.sf.cotta.TPath;
+import net.sf.cotta.io.OutputMode;
+
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+
+public class OffHeapInMemoryFileSystemTest extends InMemoryFileSystemTestBase {
+
+  @Override
+  protected InMemoryFileSystem createFileSystem() {
+    return new InMemoryFileSystemBuilder().withStorageType(InMemoryFileSystem.StorageType.OFF_HEAP).build();
+  }
+
+  public void testReportOffHeapMemoryInUse() throws Exception {
+    ensure.that(fileSystem.offHeapMemoryUsed()).eq(0);
+    TFile file = factory.file("/tmp/file.txt");
+    file.save(repeat('a', OffHeapMemory.DEFAULT_PAGE_SIZE + 1));
+    ensure.that(fileSystem.offHeapMemoryUsed()).eq(OffHeapMemory.DEFAULT_PAGE_SIZE * 2);
+    ensure.that(fileSystem.offHeapMemoryAllocated()).eq(OffHeapMemory.DEFAULT_SLAB_SIZE);
+    ensure.that(file.load().length()).eq(OffHeapMemory.DEFAULT_PAGE_SIZE + 1);
+  }
+
+  public void testReleaseMemoryWhenFileIsDeletedOrOverwritten() throws Exception {
+    TFile file = factory.file("/tmp/file.txt");
+    file.save("content");
+    ensure.that(fileSystem.offHeapMemoryUsed()).eq(OffHeapMemory.DEFAULT_PAGE_SIZE);
+    fileSystem.createOutputStream(file.toPath(), OutputMode.OVERWRITE).close();
+    ensure.that(fileSystem.offHeapMemoryUsed()).eq(0);
+    file.save("content");
+    file.delete();
+    ensure.that(fileSystem.offHeapMemoryUsed()).eq(0);
+    ensure.that(fileSystem.offHeapMemoryAllocated()).eq(OffHeapMemory.DEFAULT_SLAB_SIZE);
+  }
+
+  public void testReleaseMemoryOfDeletedFileWhenLastStreamIsClosed() throws Exception {
+    TFile file = factory.file("/tmp/file.txt").save("content");
+    InputStream stream = file.inputStream();
+    FileChannel channel = file.inputChannel();
+    file.delete();
+    ensure.that(fileSystem.offHeapMemoryUsed()).eq(OffHeapMemory.DEFAULT_PAGE_SIZE);
+    stream.close();
+    ensure.that(fileSystem.offHeapMemoryUsed()).eq(OffHeapMemory.DEFAULT_PAGE_SIZE);
+    channel.close();
+    ensure.that(fileSystem.offHeapMemoryUsed()).eq(0);
+  }
+
+  public void testReleaseMemoryOfFileReplacedByMove() throws Exception {
+    factory.file("/tmp/source.txt").save("source");
+    factory.file("/tmp/target.txt").save("target");
+    ensure.that(fileSystem.offHeapMemoryUsed()).eq(OffHeapMemory.DEFAULT_PAGE_SIZE * 2);
+    fileSystem.moveFile(TPath.parse("/tmp/source.txt"), TPath.parse("/tmp/target.txt"));
+    ensure.that(fileSystem.offHeapMemoryUsed()).eq(OffHeapMemory.DEFAULT_PAGE_SIZE);
+    ensure.that(factory.file("/tmp/target.txt").load()).eq("source");
+  }
+
+  public void testHeapStorageUsesNoOffHeapMemory() throws Exception {
+    InMemoryFileSystem heap = new InMemoryFileSystem();
+    heap.createFile(TPath.parse("/file.txt"));
+    ensure.that(heap.offHeapMemoryUsed()).eq(0);
+    ensure.that(heap.offHeapMemoryAllocated()).eq(0);
+  }
+
+  private String repeat(char ch, int count) {
+    StringBuilder builder = new StringBuilder(count);
+    for (int i = 0; i < count; i++) {
+      builder.append(ch);
+    }
+    return builder.toString();
+  }
+}
@@ -0,0 +1,9 @@
+package net.sf.cotta.memory;
+
+public class SortedInMemoryFileSystemTest extends InMemoryFileSystemTestBase {
+
+  @Override
+  protected InMemoryFileSystem createFileSystem() {
+    return new InMemoryFileSystemBuilder().withIndexType(InMemoryFileSystem.IndexType.SORTED).build();
+  }
+}
@@ -0,0 +1,103 @@
+package net.sf.cotta.memory;
+
+import net.sf.cotta.TDirectory;
+import net.sf.cotta.TFile;
+import net.sf.cotta.TFileFactory;
+import net.sf.cotta.io.OutputMode;
+import net.sf.cotta.physical.PhysicalFileSystem;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+
+public class SpillingInMemoryFileSystemTest extends InMemoryFileSystemTestBase {
+  private TDirectory spillDirectory;
+
+  @Override
+  protected InMemoryFileSystem createFileSystem() {
+    spillDirectory = new TFileFactory(PhysicalFileSystem.instance).dir("tmp/spill");
+    return new InMemoryFileSystemBuilder().withMemoryBudget(16, spillDirectory).build();
+  }
+
+  public void afterMethod() throws Exception {
+    if (spillDirectory.exists()) {
+      spillDirectory.deleteAll();
+    }
+    super.afterMethod();
+  }
+
+  public void testMoveLeastRecentlyUsedContentToSpillDirectory() throws Exception {
+    TFile one = factory.file("/one.txt").save("0123456789");
+    TFile two = factory.file("/two.txt").save("abcdefghij");
+    ensure.that(fileSystem.spillEvictionCount()).eq(1);
+    ensure.that(fileSystem.spillBytesWritten()).eq(10);
+    ensure.that(fileSystem.residentBytes()).eq(10);
+    ensure.that(spillDirectory.list().files().size()).eq(1);
+    ensure.that(one.length()).eq(10);
+    ensure.that(one.load()).eq("0123456789");
+    ensure.that(fileSystem.spillReloadCount()).eq(1);
+    ensure.that(fileSystem.spillBytesRead()).eq(10);
+    ensure.that(fileSystem.spillEvictionCount()).eq(2);
+    ensure.that(two.load()).eq("abcdefghij");
+  }
+
+  public void testDeleteSpilledContentWithFile() throws Exception {
+    TFile one = factory.file("/one.txt").save("0123456789");
+    factory.file("/two.txt").save("abcdefghij");
+    one.delete();
+    ensure.that(spillDirectory.list().files().isEmpty()).eq(true);
+  }
+
+  public void testKeepContentInMemoryWhileStreamIsOpen() throws Exception {
+    TFile one = factory.file("/one.txt").save("0123456789");
+    InputStream stream = one.inputStream();
+    factory.file("/two.txt").save("abcdefghij");
+    ensure.that(fileSystem.spillEvictionCount()).eq(1);
+    ensure.that(fileSystem.spillBytesWritten()).eq(10);
+    ensure.that(stream.read()).eq((int) '0');
+    stream.close();
+    ensure.that(fileSystem.spillReloadCount()).eq(0);
+    ensure.that(factory.file("/two.txt").load()).eq("abcdefghij");
+  }
+
+  public void testKeepReadingOffHeapContentDeletedWhileStreamIsOpen() throws Exception {
+    InMemoryFileSystem offHeap = new InMemoryFileSystemBuilder()
+        .withStorageType(InMemoryFileSystem.StorageType.OFF_HEAP).withMemoryBudget(1024, spillDirectory).build();
+    TFile file = new TFileFactory(offHeap).file("/one.txt").save("0123456789");
+    InputStream stream = file.inputStream();
+    file.delete();
+    new TFileFactory(offHeap).file("/two.txt").save("abcdefghij");
+    byte[] bytes = new byte[10];
+    ensure.that(stream.read(bytes)).eq(10);
+    ensure.that(new String(bytes)).eq("0123456789");
+    ensure.that(offHeap.offHeapMemoryUsed()).eq(OffHeapMemory.DEFAULT_PAGE_SIZE * 2);
+    stream.close();
+    ensure.that(offHeap.offHeapMemoryUsed()).eq(OffHeapMemory.DEFAULT_PAGE_SIZE);
+  }
+
+  public void testCountBytesWrittenOneAtATimeAgainstBudget() throws Exception {
+    factory.file("/one.txt").save("0123456789");
+    OutputStream stream = factory.file("/two.txt").outputStream(OutputMode.OVERWRITE);
+    for (byte b : "abcdefghij".getBytes()) {
+      stream.write(b);
+    }
+    ensure.that(fileSystem.spillEvictionCount()).eq(0);
+    stream.flush();
+    ensure.that(fileSystem.spillEvictionCount()).eq(1);
+    ensure.that(fileSystem.residentBytes()).eq(10);
+    stream.close();
+    ensure.that(factory.file("/two.txt").load()).eq("abcdefghij");
+  }
+
+  public void testCountBytesWrittenOneAtATimeInBatches() throws Exception {
+    factory.file("/one.txt").save("0123456789");
+    OutputStream stream = factory.file("/two.txt").outputStream(OutputMode.OVERWRITE);
+    for (int i = 0; i < 8191; i++) {
+      stream.write('a');
+    }
+    ensure.that(fileSystem.spillEvictionCount()).eq(0);
+    stream.write('a');
+    ensure.that(fileSystem.spillEvictionCount()).eq(1);
+    ensure.that(fileSystem.residentBytes()).eq(8192);
+    stream.close();
+  }
+}
@@ -1,9 +1,74 @@
 package net.sf.cotta.memory;
 
+import net.sf.cotta.PermissionDeniedException;
+import net.sf.cotta.TFileFactory;
+import net.sf.cotta.io.OutputMode;
+import net.sf.cotta.system.FileSystem;
+import net.sf.cotta.test.assertion.CodeBlock;
+
+import java.io.OutputStream;
+
 public class TreeBasedInMemoryFileSystemTest extends InMemoryFileSystemTestBase {
 
   @Override
   protected InMemoryFileSystem createFileSystem() {
     return new InMemoryFileSystemBuilder().withIndexType(InMemoryFileSystem.IndexType.TREE_BASED).build();
   }
+
+  public void testForkIsNotAffectedByChangesToOriginal() throws Exception {
+    factory.file("/tmp/one/a.txt").save("a");
+    factory.file("/tmp/two/b.txt").save("b");
+    TFileFactory fork = new TFileFactory(fileSystem.fork());
+    factory.file("/tmp/one/a.txt").save("changed");
+    factory.file("/tmp/two/b.txt").delete();
+    factory.dir("/tmp/three").ensureExists();
+    ensure.that(fork.file("/tmp/one/a.txt").load()).eq("a");
+    ensure.that(fork.file("/tmp/two/b.txt").load()).eq("b");
+    ensure.that(fork.dir("/tmp/three").exists()).eq(false);
+    ensure.that(factory.file("/tmp/one/a.txt").load()).eq("changed");
+  }
+
+  public void testOriginalIsNotAffectedByChangesToFork() throws Exception {
+    factory.file("/tmp/one/a.txt").save("a");
+    TFileFactory fork = new TFileFactory(fileSystem.fork());
+    OutputStream stream = fork.file("/tmp/one/a.txt").outputStream(OutputMode.APPEND);
+    stream.write('b');
+    stream.close();
+    fork.dir("/tmp/one").moveTo(fork.dir("/tmp/moved"));
+    ensure.that(fork.file("/tmp/moved/a.txt").load()).eq("ab");
+    ensure.that(factory.file("/tmp/one/a.txt").load()).eq("a");
+    ensure.that(factory.dir("/tmp/moved").exists()).eq(false);
+  }
+
+  public void testForkSharesOffHeapPagesUntilWritten() throws Exception {
+    InMemoryFileSystem fileSystem = new InMemoryFileSystemBuilder()
+        .withIndexType(InMemoryFileSystem.IndexType.TREE_BASED)
+        .withStorageType(InMemoryFileSystem.StorageType.OFF_HEAP).build();
+    TFileFactory factory = new TFileFactory(fileSystem);
+    factory.file("/a.txt").save("content");
+    long used = fileSystem.offHeapMemoryUsed();
+    TFileFactory fork = new TFileFactory(fileSystem.fork());
+    ensure.that(fileSystem.offHeapMemoryUsed()).eq(used);
+    fork.file("/a.txt").save("changed");
+    ensure.that(factory.file("/a.txt").load()).eq("content");
+    ensure.that(fileSystem.offHeapMemoryUsed()).eq(used * 2);
+    factory.file("/a.txt").delete();
+    ensure.that(fork.file("/a.txt").load()).eq("changed");
+    ensure.that(fileSystem.offHeapMemoryUsed()).eq(used);
+    fork.file("/a.txt").delete();
+    ensure.that(fileSystem.offHeapMemoryUsed()).eq(0);
+  }
+
+  public void testSnapshotIsReadOnly() throws Exception {
+    factory.file("/tmp/a.txt").save("a");
+    FileSystem snapshot = fileSystem.snapshot();
+    factory.file("/tmp/a.txt").save("changed");
+    final TFileFactory snapshotFactory = new TFileFactory(snapshot);
+    ensure.that(snapshotFactory.file("/tmp/a.txt").load()).eq("a");
+    ensure.code(new CodeBlock() {
+      public void execute() throws Exception {
+        snapshotFactory.file("/tmp/a.txt").save("b");
+      }
+    }).throwsException(PermissionDeniedException.class);
+  }
 }
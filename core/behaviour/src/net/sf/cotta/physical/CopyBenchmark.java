@@ -0,0 +1,109 @@
+package net.sf.cotta.physical;
+
+import net.sf.cotta.TDirectory;
+import net.sf.cotta.TFile;
+import net.sf.cotta.TFileFactory;
+import net.sf.cotta.TIoException;
+import net.sf.cotta.io.OutputMode;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Compares the throughput of TFile.copyTo between physical files, which goes from channel to channel,
+ * with copying through the 256 byte buffer it used before.  Not a test, run it with the main method and
+ * the size of the file in MB as the optional argument.  The files are created under tmp/benchmark.
+ */
+public class CopyBenchmark {
+  private static final int ROUNDS = 5;
+
+  public static void main(String[] args) throws Exception {
+    int megabytes = args.length > 0 ? Integer.parseInt(args[0]) : 256;
+    TDirectory dir = TFileFactory.physical().dir("tmp/benchmark");
+    try {
+      final TFile source = createFile(dir.file("source.bin"), megabytes);
+      long bytes = source.length();
+      final TFile streamTarget = dir.file("stream.bin");
+      report("256 byte buffer", bytes, time(new Runnable() {
+        public void run() {
+          copyThroughSmallBuffer(source, streamTarget);
+        }
+      }));
+      final TFile physicalTarget = dir.file("physical.bin");
+      report("copyTo physical to physical", bytes, time(new Runnable() {
+        public void run() {
+          copy(source, physicalTarget);
+        }
+      }));
+      final TFile nioTarget = TFileFactory.nio().dir("tmp/benchmark").file("nio.bin");
+      report("copyTo physical to nio", bytes, time(new Runnable() {
+        public void run() {
+          copy(source, nioTarget);
+        }
+      }));
+    } finally {
+      dir.deleteAll();
+    }
+  }
+
+  private static TFile createFile(TFile file, int megabytes) throws IOException {
+    byte[] block = new byte[1024 * 1024];
+    for (int i = 0; i < block.length; i++) {
+      block[i] = (byte) i;
+    }
+    OutputStream out = file.outputStream(OutputMode.OVERWRITE);
+    try {
+      for (int i = 0; i < megabytes; i++) {
+        out.write(block);
+      }
+    } finally {
+      out.close();
+    }
+    return file;
+  }
+
+  private static long time(Runnable task) {
+    task.run();
+    long start = System.nanoTime();
+    for (int i = 0; i < ROUNDS; i++) {
+      task.run();
+    }
+    return (System.nanoTime() - start) / ROUNDS;
+  }
+
+  private static void report(String name, long bytes, long nanos) {
+    double megabytesPerSecond = (bytes / 1024.0 / 1024.0) / (nanos / 1000000000.0);
+    System.out.println(String.format("%-40s %8.2f ms %10.1f MB/s", name, nanos / 1000000.0, megabytesPerSecond));
+  }
+
+  private static void copy(TFile source, TFile target) {
+    try {
+      source.copyTo(target);
+    } catch (TIoException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static void copyThroughSmallBuffer(TFile source, TFile target) {
+    try {
+      InputStream in = source.inputStream();
+      try {
+        OutputStream out = target.outputStream(OutputMode.OVERWRITE);
+        try {
+          byte[] buffer = new byte[256];
+          int read;
+          while ((read = in.read(buffer, 0, buffer.length)) > -1) {
+            out.write(buffer, 0, read);
+          }
+        } finally {
+          out.close();
+        }
+      } finally {
+        in.close();
+      }
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+}
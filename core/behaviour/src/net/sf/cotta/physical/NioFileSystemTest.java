@@ -0,0 +1,30 @@
+package net.sf.cotta.physical;
+
+import net.sf.cotta.ControlledFileSystem;
+import net.sf.cotta.TPath;
+import net.sf.cotta.system.FileSystem;
+
+import java.nio.file.Paths;
+
+public class NioFileSystemTest extends PhysicalFileSystemTest {
+  @Override
+  protected FileSystem fileSystem() {
+    return ControlledFileSystem.pathControlledFileSystem(NioFileSystem.instance, TPath.parse("tmp"));
+  }
+
+  @Override
+  public void testHashCode() {
+    TPath path = TPath.parse("one/two/path.txt");
+    ensure.that(fileSystem.hashCode(path)).eq(Paths.get(path.toSystemPathString()).hashCode());
+  }
+
+  public void testMoveFileIntoAnotherDirectory() throws Exception {
+    TPath source = TPath.parse("tmp/source.txt");
+    TPath destination = TPath.parse("tmp/dir/destination.txt");
+    fileSystem.createDir(destination.parent());
+    fileSystem.createFile(source);
+    fileSystem.moveFile(source, destination);
+    ensure.that(fileSystem.fileExists(source)).eq(false);
+    ensure.that(fileSystem.fileExists(destination)).eq(true);
+  }
+}
@@ -1,6 +1,7 @@
 package net.sf.cotta.physical;
 
 import net.sf.cotta.*;
+import net.sf.cotta.io.MappedProcessor;
 import net.sf.cotta.io.OutputMode;
 import net.sf.cotta.test.assertion.CodeBlock;
 import net.sf.cotta.utils.PlatformInfoUtil;
@@ -8,7 +9,9 @@ import net.sf.cotta.utils.PlatformInfoUtil;
 import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.util.Date;
+import java.util.List;
 
 public class PhysicalFileSystemTest extends PhysicalFileSystemTestCase {
 
@@ -92,6 +95,39 @@ public class PhysicalFileSystemTest extends PhysicalFileSystemTestCase {
     ensure.that(content.dirs()).isEmpty();
   }
 
+  public void testStreamDirectoriesAndFiles() throws Exception {
+    TPath dir = TPath.parse("tmp/dir");
+    TPath file = TPath.parse("tmp/test.txt");
+    fileSystem.createDir(dir);
+    fileSystem.createFile(file);
+    PathStream stream = fileSystem.stream(TPath.parse("tmp"));
+    int count = 0;
+    while (stream.next()) {
+      ensure.that(stream.path()).eq(stream.isDirectory() ? dir : file);
+      count++;
+    }
+    stream.close();
+    ensure.that(count).eq(2);
+  }
+
+  public void testListAttributes() throws Exception {
+    TPath dir = TPath.parse("tmp/dir");
+    TPath file = TPath.parse("tmp/test.txt");
+    fileSystem.createDir(dir);
+    OutputStream stream = fileSystem.createOutputStream(file, OutputMode.OVERWRITE);
+    stream.write(new byte[]{1, 2, 3});
+    stream.close();
+    List<PathAttributes> attributes = fileSystem.listAttributes(TPath.parse("tmp"));
+    ensure.that(attributes.size()).eq(2);
+    for (PathAttributes entry : attributes) {
+      ensure.that(entry.path()).eq(entry.isDirectory() ? dir : file);
+      if (!entry.isDirectory()) {
+        ensure.that(entry.length()).eq(3L);
+        ensure.that(entry.lastModified()).eq(fileSystem.fileLastModified(file));
+      }
+    }
+  }
+
   public void testCreateDirectory() throws Exception {
     TPath path = TPath.parse("tmp/tmp");
     fileSystem.createDir(path);
@@ -157,6 +193,24 @@ public class PhysicalFileSystemTest extends PhysicalFileSystemTestCase {
     ensure.that(fileSystem.fileLength(path)).eq(content.getBytes().length);
   }
 
+  public void testMapRegionOfFile() throws Exception {
+    TPath path = TPath.parse("tmp/source.txt");
+    new TFile(new TFileFactory(fileSystem), path).save("hello world!");
+    final StringBuilder content = new StringBuilder();
+    fileSystem.map(path, 6, 5, new MappedProcessor() {
+      public void process(ByteBuffer buffer, long position) {
+        ensure.that(buffer.isReadOnly()).eq(true);
+        ensure.that(position).eq(6);
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        content.append(new String(bytes));
+      }
+    });
+    ensure.that(content.toString()).eq("world");
+    fileSystem.deleteFile(path);
+    ensure.that(fileSystem.fileExists(path)).eq(false);
+  }
+
   public void testGetFileLastModified() throws TIoException {
     TPath path = TPath.parse("tmp/source.txt");
     String content = "content";
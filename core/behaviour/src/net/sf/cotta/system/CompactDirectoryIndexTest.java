@@ -0,0 +1,110 @@
+package net.sf.cotta.system;
+
+import net.sf.cotta.PathSeparator;
+import net.sf.cotta.TIoException;
+import net.sf.cotta.TPath;
+import net.sf.cotta.memory.ListingOrder;
+import net.sf.cotta.test.assertion.CodeBlock;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+public class CompactDirectoryIndexTest extends AbstractDirectoryIndexTestBase {
+
+  @Override
+  protected DirectoryIndex<DummyFileContent> newDirectoryIndexWithSort() {
+    return newDirectoryIndex();
+  }
+
+  private CompactDirectoryIndex<DummyFileContent> newDirectoryIndex() {
+    return new CompactDirectoryIndex<DummyFileContent>(PathSeparator.Unix, ListingOrder.AToZ, new DummyContentManager());
+  }
+
+  public void testMoveDirKeepsWholeSubtree() throws Exception {
+    CompactDirectoryIndex<DummyFileContent> dirIndex = newDirectoryIndex();
+    dirIndex.createDir(TPath.parse("/one/two/three"));
+    DummyFileContent content = dirIndex.createFile(TPath.parse("/one/two/three/a.txt"));
+    dirIndex.createFile(TPath.parse("/one/b.txt"));
+    int size = dirIndex.size();
+    dirIndex.moveDir(TPath.parse("/one"), TPath.parse("/other/moved"));
+    ensure.that(dirIndex.dirExists(TPath.parse("/one"))).eq(false);
+    ensure.that(dirIndex.fileContent(TPath.parse("/other/moved/two/three/a.txt"))).sameAs(content);
+    ensure.that(dirIndex.list(TPath.parse("/other/moved")).files()).eq(TPath.parse("/other/moved/b.txt"));
+    ensure.that(dirIndex.size()).eq(size + 1);
+  }
+
+  public void testMoveDirUnderItselfIsRejected() throws Exception {
+    final CompactDirectoryIndex<DummyFileContent> dirIndex = newDirectoryIndex();
+    dirIndex.createDir(TPath.parse("/one/two"));
+    ensure.code(new CodeBlock() {
+      public void execute() throws Exception {
+        dirIndex.moveDir(TPath.parse("/one"), TPath.parse("/one/two/three"));
+      }
+    }).throwsException(TIoException.class);
+  }
+
+  public void testMoveDirUnderMissingDirInsideItselfIsRejected() throws Exception {
+    final CompactDirectoryIndex<DummyFileContent> dirIndex = newDirectoryIndex();
+    dirIndex.createDir(TPath.parse("/a"));
+    dirIndex.createFile(TPath.parse("/a/x.txt"));
+    ensure.code(new CodeBlock() {
+      public void execute() throws Exception {
+        dirIndex.moveDir(TPath.parse("/a"), TPath.parse("/a/b/c"));
+      }
+    }).throwsException(TIoException.class);
+    ensure.that(dirIndex.dirExists(TPath.parse("/a"))).eq(true);
+    ensure.that(dirIndex.fileExists(TPath.parse("/a/x.txt"))).eq(true);
+    ensure.that(dirIndex.dirExists(TPath.parse("/a/b"))).eq(false);
+  }
+
+  public void testMoveFileOverwritesExistingFile() throws Exception {
+    CompactDirectoryIndex<DummyFileContent> dirIndex = newDirectoryIndex();
+    DummyFileContent content = dirIndex.createFile(TPath.parse("/a.txt"));
+    dirIndex.createFile(TPath.parse("/b.txt"));
+    dirIndex.moveFile(TPath.parse("/a.txt"), TPath.parse("/b.txt"));
+    ensure.that(dirIndex.fileExists(TPath.parse("/a.txt"))).eq(false);
+    ensure.that(dirIndex.fileContent(TPath.parse("/b.txt"))).sameAs(content);
+    ensure.that(dirIndex.list(TPath.parse("/")).files()).eq(TPath.parse("/b.txt"));
+  }
+
+  public void testIdsOfDeletedEntriesAreReused() throws Exception {
+    CompactDirectoryIndex<DummyFileContent> dirIndex = newDirectoryIndex();
+    int size = dirIndex.size();
+    dirIndex.createFile(TPath.parse("/a.txt"));
+    dirIndex.deleteFile(TPath.parse("/a.txt"));
+    dirIndex.createFile(TPath.parse("/b.txt"));
+    ensure.that(dirIndex.size()).eq(size + 1);
+    ensure.that(dirIndex.fileExists(TPath.parse("/a.txt"))).eq(false);
+    ensure.that(dirIndex.fileExists(TPath.parse("/b.txt"))).eq(true);
+  }
+
+  public void testManyEntriesCreatedAndDeletedAtRandom() throws Exception {
+    CompactDirectoryIndex<DummyFileContent> dirIndex = newDirectoryIndex();
+    for (int i = 0; i < 10; i++) {
+      dirIndex.createDir(TPath.parse("/dir" + i));
+    }
+    Random random = new Random(17);
+    Set<TPath> expected = new HashSet<TPath>();
+    for (int i = 0; i < 20000; i++) {
+      TPath path = TPath.parse("/dir" + random.nextInt(10) + "/file" + random.nextInt(1000));
+      if (expected.remove(path)) {
+        dirIndex.deleteFile(path);
+      } else {
+        dirIndex.createFile(path);
+        expected.add(path);
+      }
+    }
+    int count = 0;
+    for (int i = 0; i < 10; i++) {
+      for (TPath file : dirIndex.list(TPath.parse("/dir" + i)).files()) {
+        ensure.that(expected.contains(file)).eq(true);
+        count++;
+      }
+    }
+    ensure.that(count).eq(expected.size());
+    for (TPath path : expected) {
+      ensure.that(dirIndex.fileExists(path)).eq(true);
+    }
+  }
+}
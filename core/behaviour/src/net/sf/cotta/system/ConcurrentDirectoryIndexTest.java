@@ -0,0 +1,95 @@
+package net.sf.cotta.system;
+
+import net.sf.cotta.PathSeparator;
+import net.sf.cotta.PathStream;
+import net.sf.cotta.TPath;
+import net.sf.cotta.memory.ListingOrder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class ConcurrentDirectoryIndexTest extends AbstractDirectoryIndexTestBase {
+  @Override
+  protected DirectoryIndex<DummyFileContent> newDirectoryIndexWithSort() {
+    return new ConcurrentDirectoryIndex<DummyFileContent>(PathSeparator.Unix, ListingOrder.AToZ, new DummyContentManager());
+  }
+
+  public void testStreamIteratesOverDirectoryWithoutCopying() throws Exception {
+    DirectoryIndex<DummyFileContent> index = new ConcurrentDirectoryIndex<DummyFileContent>(new DummyContentManager());
+    index.createDir(TPath.parse("/one"));
+    index.createFile(TPath.parse("/a.txt"));
+    PathStream stream = index.stream(TPath.parse("/"));
+    ensure.that(stream.next()).eq(true);
+    ensure.that(stream.isDirectory()).eq(true);
+    ensure.that(stream.path()).eq(TPath.parse("/one"));
+    index.deleteDir(TPath.parse("/one"));
+    ensure.that(stream.next()).eq(true);
+    ensure.that(stream.isDirectory()).eq(false);
+    ensure.that(stream.path()).eq(TPath.parse("/a.txt"));
+    ensure.that(stream.next()).eq(false);
+  }
+
+  public void testCreateSameDirectoriesFromManyThreads() throws Exception {
+    final DirectoryIndex<DummyFileContent> index = newDirectoryIndexWithSort();
+    List<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
+    for (int i = 0; i < 8; i++) {
+      final int thread = i;
+      tasks.add(new Callable<Object>() {
+        public Object call() throws Exception {
+          for (int j = 0; j < 100; j++) {
+            TPath dir = TPath.parse("/shared/" + j + "/thread" + thread);
+            index.createDir(dir);
+            index.createFile(dir.join("file.txt"));
+          }
+          return null;
+        }
+      });
+    }
+    runAll(tasks);
+    ensure.that(index.list(TPath.parse("/shared")).dirs().size()).eq(100);
+    for (int j = 0; j < 100; j++) {
+      ensure.that(index.list(TPath.parse("/shared/" + j)).dirs().size()).eq(8);
+    }
+  }
+
+  public void testMoveFilesBetweenDirectoriesFromManyThreads() throws Exception {
+    final DirectoryIndex<DummyFileContent> index = newDirectoryIndexWithSort();
+    index.createDir(TPath.parse("/a"));
+    index.createDir(TPath.parse("/b"));
+    for (int i = 0; i < 400; i++) {
+      index.createFile(TPath.parse("/a/" + i));
+    }
+    List<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
+    for (int i = 0; i < 4; i++) {
+      final int thread = i;
+      tasks.add(new Callable<Object>() {
+        public Object call() throws Exception {
+          for (int j = thread; j < 400; j += 4) {
+            index.moveFile(TPath.parse("/a/" + j), TPath.parse("/b/" + j));
+            index.moveFile(TPath.parse("/b/" + j), TPath.parse("/a/moved" + j));
+          }
+          return null;
+        }
+      });
+    }
+    runAll(tasks);
+    ensure.that(index.list(TPath.parse("/a")).files().size()).eq(400);
+    ensure.that(index.list(TPath.parse("/b")).files().isEmpty()).eq(true);
+    ensure.that(index.fileExists(TPath.parse("/a/moved399"))).eq(true);
+  }
+
+  private void runAll(List<Callable<Object>> tasks) throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(tasks.size());
+    try {
+      for (Future<Object> future : executor.invokeAll(tasks)) {
+        future.get();
+      }
+    } finally {
+      executor.shutdown();
+    }
+  }
+}
@@ -1,6 +1,8 @@
 package net.sf.cotta.system;
 
+import net.sf.cotta.PathContent;
 import net.sf.cotta.PathSeparator;
+import net.sf.cotta.TPath;
 import net.sf.cotta.memory.ListingOrder;
 
 public class HashBasedDirectoryIndexTest extends AbstractDirectoryIndexTestBase {
@@ -9,4 +11,17 @@ public class HashBasedDirectoryIndexTest extends AbstractDirectoryIndexTestBase
   protected DirectoryIndex<DummyFileContent> newDirectoryIndexWithSort() {
     return new HashBasedDirectoryIndex<DummyFileContent>(PathSeparator.Unix, ListingOrder.AToZ, new DummyContentManager());
   }
+
+  public void testListedPathsShareParentPath() throws Exception {
+    DirectoryIndex<DummyFileContent> dirIndex = newDirectoryIndexWithSort();
+    dirIndex.createDir(TPath.parse("/one/two"));
+    dirIndex.createFile(TPath.parse("/one/two/a.txt"));
+    dirIndex.createFile(TPath.parse("/one/two/b.txt"));
+    TPath dir = dirIndex.list(TPath.parse("/one")).dirs().get(0);
+    PathContent content = dirIndex.list(dir);
+    ensure.that(content.files()).eq(TPath.parse("/one/two/a.txt"), TPath.parse("/one/two/b.txt"));
+    ensure.that(content.files().get(0).isLinked()).eq(true);
+    ensure.that(content.files().get(0).parent()).sameAs(dir);
+    ensure.that(content.files().get(1).parent()).sameAs(dir);
+  }
 }
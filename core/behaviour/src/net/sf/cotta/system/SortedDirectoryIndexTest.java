@@ -0,0 +1,72 @@
+package net.sf.cotta.system;
+
+import net.sf.cotta.PathContent;
+import net.sf.cotta.PathSeparator;
+import net.sf.cotta.TPath;
+import net.sf.cotta.memory.ListingOrder;
+import net.sf.cotta.test.assertion.CodeBlock;
+
+public class SortedDirectoryIndexTest extends AbstractDirectoryIndexTestBase {
+
+  @Override
+  protected DirectoryIndex<DummyFileContent> newDirectoryIndexWithSort() {
+    return newDirectoryIndex(ListingOrder.AToZ);
+  }
+
+  private SortedDirectoryIndex<DummyFileContent> newDirectoryIndex(ListingOrder order) {
+    return new SortedDirectoryIndex<DummyFileContent>(PathSeparator.Unix, order, new DummyContentManager());
+  }
+
+  public void testListingIsReusedUntilDirectoryChanges() throws Exception {
+    SortedDirectoryIndex<DummyFileContent> dirIndex = newDirectoryIndex(ListingOrder.AToZ);
+    TPath root = TPath.parse("/");
+    dirIndex.createFile(TPath.parse("/b"));
+    dirIndex.createFile(TPath.parse("/a"));
+    long version = dirIndex.version(root);
+    PathContent content = dirIndex.list(root);
+    ensure.that(dirIndex.list(root)).sameAs(content);
+    ensure.that(dirIndex.version(root)).eq(version);
+
+    dirIndex.createFile(TPath.parse("/c"));
+    PathContent changed = dirIndex.list(root);
+    ensure.that(changed == content).eq(false);
+    ensure.that(dirIndex.version(root)).eq(version + 1);
+    ensure.that(content.files()).eq(TPath.parse("/a"), TPath.parse("/b"));
+    ensure.that(changed.files()).eq(TPath.parse("/a"), TPath.parse("/b"), TPath.parse("/c"));
+  }
+
+  public void testListingCannotBeChanged() throws Exception {
+    SortedDirectoryIndex<DummyFileContent> dirIndex = newDirectoryIndex(ListingOrder.AToZ);
+    dirIndex.createFile(TPath.parse("/a"));
+    final PathContent content = dirIndex.list(TPath.parse("/"));
+    ensure.code(new CodeBlock() {
+      public void execute() throws Exception {
+        content.files().clear();
+      }
+    }).throwsException(UnsupportedOperationException.class);
+  }
+
+  public void testKeepsChildrenInReverseOrder() throws Exception {
+    SortedDirectoryIndex<DummyFileContent> dirIndex = newDirectoryIndex(ListingOrder.ZToA);
+    dirIndex.createDir(TPath.parse("/one"));
+    dirIndex.createDir(TPath.parse("/two"));
+    dirIndex.createFile(TPath.parse("/four"));
+    dirIndex.createFile(TPath.parse("/three"));
+    PathContent content = dirIndex.list(TPath.parse("/"));
+    ensure.that(content.dirs()).eq(TPath.parse("/two"), TPath.parse("/one"));
+    ensure.that(content.files()).eq(TPath.parse("/three"), TPath.parse("/four"));
+  }
+
+  public void testMoveDirChangesVersionOfBothParents() throws Exception {
+    SortedDirectoryIndex<DummyFileContent> dirIndex = newDirectoryIndex(ListingOrder.AToZ);
+    dirIndex.createDir(TPath.parse("/one"));
+    dirIndex.createDir(TPath.parse("/two"));
+    dirIndex.createFile(TPath.parse("/one/a.txt"));
+    long oneVersion = dirIndex.version(TPath.parse("/"));
+    long twoVersion = dirIndex.version(TPath.parse("/two"));
+    dirIndex.moveDir(TPath.parse("/one"), TPath.parse("/two/one"));
+    ensure.that(dirIndex.version(TPath.parse("/")) > oneVersion).eq(true);
+    ensure.that(dirIndex.version(TPath.parse("/two")) > twoVersion).eq(true);
+    ensure.that(dirIndex.list(TPath.parse("/two/one")).files()).eq(TPath.parse("/two/one/a.txt"));
+  }
+}
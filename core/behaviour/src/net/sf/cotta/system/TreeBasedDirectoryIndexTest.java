@@ -1,6 +1,7 @@
 package net.sf.cotta.system;
 
 import net.sf.cotta.PathSeparator;
+import net.sf.cotta.TPath;
 import net.sf.cotta.memory.ListingOrder;
 
 public class TreeBasedDirectoryIndexTest extends AbstractDirectoryIndexTestBase {
@@ -8,4 +9,18 @@ public class TreeBasedDirectoryIndexTest extends AbstractDirectoryIndexTestBase
   protected DirectoryIndex<DummyFileContent> newDirectoryIndexWithSort() {
     return new TreeBasedDirectoryIndex<DummyFileContent>(PathSeparator.Unix, ListingOrder.AToZ, new DummyContentManager());
   }
+
+  public void testForkedIndicesChangeIndependently() throws Exception {
+    TreeBasedDirectoryIndex<DummyFileContent> index = new TreeBasedDirectoryIndex<DummyFileContent>(PathSeparator.Unix, ListingOrder.AToZ, new DummyContentManager());
+    index.createDir(TPath.parse("/one/two"));
+    index.createFile(TPath.parse("/one/two/a.txt"));
+    TreeBasedDirectoryIndex<DummyFileContent> fork = index.fork(new DummyContentManager());
+    index.createFile(TPath.parse("/one/two/b.txt"));
+    fork.deleteFile(TPath.parse("/one/two/a.txt"));
+    fork.moveDir(TPath.parse("/one/two"), TPath.parse("/one/three"));
+    ensure.that(index.list(TPath.parse("/one/two")).files()).eq(TPath.parse("/one/two/a.txt"), TPath.parse("/one/two/b.txt"));
+    ensure.that(index.dirExists(TPath.parse("/one/three"))).eq(false);
+    ensure.that(fork.list(TPath.parse("/one")).dirs()).eq(TPath.parse("/one/three"));
+    ensure.that(fork.list(TPath.parse("/one/three")).files().isEmpty()).eq(true);
+  }
 }
@@ -6,6 +6,7 @@ import net.sf.cotta.TIoException;
 import net.sf.cotta.TPath;
 import net.sf.cotta.TestCase;
 import net.sf.cotta.io.Input;
+import net.sf.cotta.io.MappedProcessor;
 import net.sf.cotta.io.OutputMode;
 import net.sf.cotta.system.FileSystem;
 import net.sf.cotta.test.assertion.CodeBlock;
@@ -19,6 +20,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.Reader;
+import java.nio.ByteBuffer;
 import java.util.List;
 
 public class ZipFileSystemTest extends TestCase {
@@ -88,6 +90,19 @@ public class ZipFileSystemTest extends TestCase {
     }
   }
 
+  public void testMapEntryContent() throws Exception {
+    final StringBuilder content = new StringBuilder();
+    zip.map(TPath.parse("/test/test.txt"), 0, Long.MAX_VALUE, new MappedProcessor() {
+      public void process(ByteBuffer buffer, long position) {
+        ensure.that(buffer.isReadOnly()).eq(true);
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        content.append(new String(bytes));
+      }
+    });
+    ensure.that(content.toString()).eq(TEST_TXT_CONTENT);
+  }
+
   public void testThrowExceptionIfEntryNotExists() throws Exception {
     TPath path = TPath.parse("/nothere.txt");
     try {
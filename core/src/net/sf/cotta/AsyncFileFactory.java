@@ -0,0 +1,431 @@
+package net.sf.cotta;
+
+import net.sf.cotta.io.OutputMode;
+import net.sf.cotta.physical.NioFileSystem;
+import net.sf.cotta.physical.PhysicalFileSystem;
+import net.sf.cotta.system.FileSystem;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Asynchronous facade of a file factory, whose operations return right away with a
+ * {@link CompletableFuture} instead of blocking the caller.
+ * <p/>
+ * The files of the physical file systems are read and written through {@link AsynchronousFileChannel},
+ * so no thread waits for the disk.  Everything else, including listing and deleting directories that have
+ * no asynchronous API, runs on the executor, which can be a bounded pool for I/O or, on a JVM that has
+ * them, virtual threads.  The errors come back as the failures of the futures, in the same exceptions as
+ * the blocking operations.
+ *
+ * @see TFileFactory#async()
+ * @see TFileFactory#async(Executor)
+ */
+public class AsyncFileFactory {
+  private static final int BUFFER_SIZE = 64 * 1024;
+  private static final int DEFAULT_THREADS = Math.max(4, Runtime.getRuntime().availableProcessors() * 2);
+
+  private final TFileFactory factory;
+  private final Executor executor;
+
+  /**
+   * @param factory  factory of the files
+   * @param executor executor for the operations that block
+   */
+  public AsyncFileFactory(TFileFactory factory, Executor executor) {
+    this.factory = factory;
+    this.executor = executor;
+  }
+
+  public TFileFactory factory() {
+    return factory;
+  }
+
+  /**
+   * Reads the whole file
+   *
+   * @param file file to read
+   * @return future of the content
+   */
+  public CompletableFuture<byte[]> readAsync(final TFile file) {
+    if (!isPhysical(file)) {
+      return submit(new Callable<byte[]>() {
+        public byte[] call() throws IOException {
+          return load(file);
+        }
+      });
+    }
+    CompletableFuture<byte[]> result = new CompletableFuture<byte[]>();
+    AsynchronousFileChannel channel;
+    ByteBuffer buffer;
+    try {
+      channel = AsynchronousFileChannel.open(javaPath(file), StandardOpenOption.READ);
+      long size = channel.size();
+      if (size > Integer.MAX_VALUE) {
+        close(channel);
+        throw new TIoException(file.path, "File too large to read into an array:" + size);
+      }
+      buffer = ByteBuffer.allocate((int) size);
+    } catch (IOException e) {
+      result.completeExceptionally(error(file, "Reading file failed", e));
+      return result;
+    }
+    new Reader(file, channel, buffer, result).read();
+    return result;
+  }
+
+  /**
+   * Writes the content to the file, replacing what it has.  The parent directory is created first
+   * if it does not exist.
+   *
+   * @param file    file to write
+   * @param content content of the file
+   * @return future that completes when the content is written
+   */
+  public CompletableFuture<Void> writeAsync(final TFile file, final byte[] content) {
+    file.changed();
+    if (!isPhysical(file)) {
+      return submit(new Callable<Void>() {
+        public Void call() throws IOException {
+          save(file, content);
+          return null;
+        }
+      });
+    }
+    CompletableFuture<Void> result = new CompletableFuture<Void>();
+    AsynchronousFileChannel channel;
+    try {
+      channel = openForWrite(file);
+    } catch (IOException e) {
+      result.completeExceptionally(error(file, "Writing file failed", e));
+      return result;
+    }
+    new Writer(file, channel, ByteBuffer.wrap(content), result).write();
+    return result;
+  }
+
+  /**
+   * Copies the file to the target, replacing what it has
+   *
+   * @param source file to copy
+   * @param target file to create or overwrite
+   * @return future that completes when the file is copied
+   */
+  public CompletableFuture<Void> copyAsync(final TFile source, final TFile target) {
+    target.changed();
+    if (!isPhysical(source) || !isPhysical(target)) {
+      return submit(new Callable<Void>() {
+        public Void call() throws TIoException {
+          source.copyTo(target);
+          return null;
+        }
+      });
+    }
+    CompletableFuture<Void> result = new CompletableFuture<Void>();
+    AsynchronousFileChannel input;
+    try {
+      input = AsynchronousFileChannel.open(javaPath(source), StandardOpenOption.READ);
+    } catch (IOException e) {
+      result.completeExceptionally(error(source, "Copying file failed", e));
+      return result;
+    }
+    AsynchronousFileChannel output;
+    try {
+      output = openForWrite(target);
+    } catch (IOException e) {
+      close(input);
+      result.completeExceptionally(error(target, "Copying file failed", e));
+      return result;
+    }
+    new Copier(target, input, output, result).read();
+    return result;
+  }
+
+  /**
+   * Lists the directory with the attributes of its entries
+   *
+   * @param directory directory to list
+   * @return future of the listing
+   * @see TDirectory#listWithAttributes()
+   */
+  public CompletableFuture<TDirectoryListing> listAsync(final TDirectory directory) {
+    return submit(new Callable<TDirectoryListing>() {
+      public TDirectoryListing call() throws TIoException {
+        return directory.listWithAttributes();
+      }
+    });
+  }
+
+  /**
+   * Deletes the directory with all its content
+   *
+   * @param directory directory to delete
+   * @return future that completes when the directory is deleted
+   * @see TDirectory#deleteAll()
+   */
+  public CompletableFuture<Void> deleteAllAsync(final TDirectory directory) {
+    return submit(new Callable<Void>() {
+      public Void call() throws TIoException {
+        directory.deleteAll();
+        return null;
+      }
+    });
+  }
+
+  private <T> CompletableFuture<T> submit(final Callable<T> task) {
+    final CompletableFuture<T> result = new CompletableFuture<T>();
+    try {
+      executor.execute(new Runnable() {
+        public void run() {
+          try {
+            result.complete(task.call());
+          } catch (Throwable e) {
+            result.completeExceptionally(e);
+          }
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      result.completeExceptionally(e);
+    }
+    return result;
+  }
+
+  private static boolean isPhysical(TFile file) {
+    FileSystem fileSystem = file.filesystem();
+    return fileSystem == PhysicalFileSystem.instance || fileSystem == NioFileSystem.instance;
+  }
+
+  private static Path javaPath(TFile file) {
+    return file.toJavaFile().toPath();
+  }
+
+  private static AsynchronousFileChannel openForWrite(TFile file) throws IOException {
+    file.parent().ensureExists();
+    return AsynchronousFileChannel.open(javaPath(file),
+        StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+  }
+
+  private static byte[] load(TFile file) throws IOException {
+    ByteArrayOutputStream content = new ByteArrayOutputStream();
+    InputStream in = file.inputStream();
+    try {
+      byte[] buffer = new byte[BUFFER_SIZE];
+      int read;
+      while ((read = in.read(buffer)) != -1) {
+        content.write(buffer, 0, read);
+      }
+    } finally {
+      in.close();
+    }
+    return content.toByteArray();
+  }
+
+  private static void save(TFile file, byte[] content) throws IOException {
+    OutputStream out = file.outputStream(OutputMode.OVERWRITE);
+    try {
+      out.write(content);
+    } finally {
+      out.close();
+    }
+  }
+
+  private static Throwable error(TFile file, String message, Throwable e) {
+    if (e instanceof TIoException) {
+      return e;
+    }
+    if (e instanceof NoSuchFileException) {
+      return new TFileNotFoundException(file.path);
+    }
+    if (e instanceof IOException) {
+      return new TIoException(file.path, message, (IOException) e);
+    }
+    return e;
+  }
+
+  private static void close(AsynchronousFileChannel channel) {
+    try {
+      channel.close();
+    } catch (IOException e) {
+      // the result of the operation is already decided
+    }
+  }
+
+  /**
+   * Reads the channel into the buffer until it is full or the file ends
+   */
+  private static class Reader implements CompletionHandler<Integer, Void> {
+    private final TFile file;
+    private final AsynchronousFileChannel channel;
+    private final ByteBuffer buffer;
+    private final CompletableFuture<byte[]> result;
+
+    private Reader(TFile file, AsynchronousFileChannel channel, ByteBuffer buffer, CompletableFuture<byte[]> result) {
+      this.file = file;
+      this.channel = channel;
+      this.buffer = buffer;
+      this.result = result;
+    }
+
+    private void read() {
+      if (!buffer.hasRemaining()) {
+        completed(-1, null);
+        return;
+      }
+      channel.read(buffer, buffer.position(), null, this);
+    }
+
+    public void completed(Integer read, Void attachment) {
+      if (read == -1 || !buffer.hasRemaining()) {
+        close(channel);
+        result.complete(buffer.hasRemaining() ? Arrays.copyOf(buffer.array(), buffer.position()) : buffer.array());
+      } else {
+        read();
+      }
+    }
+
+    public void failed(Throwable e, Void attachment) {
+      close(channel);
+      result.completeExceptionally(error(file, "Reading file failed", e));
+    }
+  }
+
+  /**
+   * Writes the buffer to the channel from its position
+   */
+  private static class Writer implements CompletionHandler<Integer, Void> {
+    private final TFile file;
+    private final AsynchronousFileChannel channel;
+    private final ByteBuffer buffer;
+    private final CompletableFuture<Void> result;
+    private long position = 0;
+
+    private Writer(TFile file, AsynchronousFileChannel channel, ByteBuffer buffer, CompletableFuture<Void> result) {
+      this.file = file;
+      this.channel = channel;
+      this.buffer = buffer;
+      this.result = result;
+    }
+
+    private void write() {
+      if (!buffer.hasRemaining()) {
+        close(channel);
+        result.complete(null);
+        return;
+      }
+      channel.write(buffer, position, null, this);
+    }
+
+    public void completed(Integer written, Void attachment) {
+      position += written;
+      write();
+    }
+
+    public void failed(Throwable e, Void attachment) {
+      close(channel);
+      result.completeExceptionally(error(file, "Writing file failed", e));
+    }
+  }
+
+  /**
+   * Copies one buffer at a time, reading the next part of the input only after the previous one is written
+   */
+  private static class Copier {
+    private final TFile target;
+    private final AsynchronousFileChannel input;
+    private final AsynchronousFileChannel output;
+    private final CompletableFuture<Void> result;
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    private long position = 0;
+
+    private Copier(TFile target, AsynchronousFileChannel input, AsynchronousFileChannel output, CompletableFuture<Void> result) {
+      this.target = target;
+      this.input = input;
+      this.output = output;
+      this.result = result;
+    }
+
+    private void read() {
+      buffer.clear();
+      input.read(buffer, position, null, new CompletionHandler<Integer, Void>() {
+        public void completed(Integer read, Void attachment) {
+          if (read == -1) {
+            finish(null);
+          } else {
+            buffer.flip();
+            write();
+          }
+        }
+
+        public void failed(Throwable e, Void attachment) {
+          finish(e);
+        }
+      });
+    }
+
+    private void write() {
+      output.write(buffer, position, null, new CompletionHandler<Integer, Void>() {
+        public void completed(Integer written, Void attachment) {
+          position += written;
+          if (buffer.hasRemaining()) {
+            write();
+          } else {
+            read();
+          }
+        }
+
+        public void failed(Throwable e, Void attachment) {
+          finish(e);
+        }
+      });
+    }
+
+    private void finish(Throwable error) {
+      close(input);
+      close(output);
+      if (error == null) {
+        result.complete(null);
+      } else {
+        result.completeExceptionally(error(target, "Copying file failed", error));
+      }
+    }
+  }
+
+  /**
+   * Returns the executor shared by the asynchronous factories created without one, which is a pool of
+   * daemon threads of a fixed size for the blocking operations
+   *
+   * @return the shared executor
+   */
+  public static Executor defaultExecutor() {
+    return DefaultExecutor.INSTANCE;
+  }
+
+  private static class DefaultExecutor {
+    private static final ExecutorService INSTANCE = Executors.newFixedThreadPool(DEFAULT_THREADS, new ThreadFactory() {
+      private final AtomicInteger count = new AtomicInteger();
+
+      public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, "cotta-io-" + count.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+  }
+}
@@ -0,0 +1,151 @@
+package net.sf.cotta;
+
+import net.sf.cotta.io.Durability;
+import net.sf.cotta.io.Output;
+import net.sf.cotta.io.OutputManager;
+import net.sf.cotta.io.OutputProcessor;
+import net.sf.cotta.io.OutputStreamFactory;
+import net.sf.cotta.system.PendingFile;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Batch of files written atomically, which replace their targets only when the batch is committed.
+ * The content of each file is written aside, to a temporary file next to the target on the physical file
+ * systems, and is forced to the storage when the durability asks for it.  The commit then replaces the
+ * targets one by one and syncs each of their directories once, instead of once for every file.
+ * <p/>
+ * Each file is replaced as a whole, but the batch is not a transaction: a failure during the commit leaves
+ * the files committed before it replaced and discards the rest.
+ * <pre>
+ * AtomicWriteBatch batch = new AtomicWriteBatch(Durability.FULL);
+ * try {
+ *   batch.save(index, indexContent);
+ *   batch.write(data, dataProcessor);
+ *   batch.commit();
+ * } finally {
+ *   batch.discard();
+ * }
+ * </pre>
+ *
+ * @see TFile#writeAtomically(OutputProcessor, Durability)
+ */
+public class AtomicWriteBatch {
+  private final Durability durability;
+  private final List<TFile> files = new ArrayList<TFile>();
+  private final List<PendingFile> pendingFiles = new ArrayList<PendingFile>();
+
+  public AtomicWriteBatch(Durability durability) {
+    this.durability = durability;
+  }
+
+  /**
+   * Writes the content of the file aside with the processor
+   *
+   * @param file      file to replace when committed
+   * @param processor processor writing the content
+   * @return this batch
+   * @throws TIoException error in writing the content, in which case the file is left out of the batch
+   */
+  public AtomicWriteBatch write(final TFile file, OutputProcessor processor) throws TIoException {
+    file.parent().ensureExists();
+    final PendingFile pending = file.filesystem().createPendingFile(file.path, durability.forcesContent());
+    try {
+      Output.with(new OutputStreamFactory() {
+        public OutputStream outputStream() {
+          return pending.outputStream();
+        }
+
+        public TPath path() {
+          return file.toPath();
+        }
+      }, null).write(processor);
+    } catch (TIoException e) {
+      pending.discard();
+      throw e;
+    } catch (RuntimeException e) {
+      pending.discard();
+      throw e;
+    }
+    files.add(file);
+    pendingFiles.add(pending);
+    return this;
+  }
+
+  /**
+   * Writes the content of the file aside using system default encoding
+   *
+   * @param file    file to replace when committed
+   * @param content content of the file
+   * @return this batch
+   * @throws TIoException error in writing the content, in which case the file is left out of the batch
+   */
+  public AtomicWriteBatch save(TFile file, final String content) throws TIoException {
+    return write(file, new OutputProcessor() {
+      public void process(OutputManager io) throws IOException {
+        Writer writer = io.writer();
+        writer.write(content);
+        writer.flush();
+      }
+    });
+  }
+
+  /**
+   * Replaces the files with the content written, in the order they were written, and then syncs their
+   * directories if the durability asks for it.  The batch is empty afterwards.
+   *
+   * @throws TIoException error in replacing a file or syncing a directory
+   */
+  public void commit() throws TIoException {
+    Set<TDirectory> directories = new LinkedHashSet<TDirectory>();
+    int committed = 0;
+    try {
+      for (; committed < pendingFiles.size(); committed++) {
+        TFile file = files.get(committed);
+        file.changed();
+        pendingFiles.get(committed).commit();
+        directories.add(file.parent());
+      }
+    } finally {
+      discard(committed);
+    }
+    if (durability.syncsDirectory()) {
+      for (TDirectory directory : directories) {
+        directory.filesystem().syncDirectory(directory.path);
+      }
+    }
+  }
+
+  /**
+   * Drops the content written and not committed, leaving the files as they are
+   *
+   * @throws TIoException error in cleaning up
+   */
+  public void discard() throws TIoException {
+    discard(0);
+  }
+
+  private void discard(int from) throws TIoException {
+    try {
+      for (int i = from; i < pendingFiles.size(); i++) {
+        pendingFiles.get(i).discard();
+      }
+    } finally {
+      files.clear();
+      pendingFiles.clear();
+    }
+  }
+
+  /**
+   * @return number of files written and not yet committed
+   */
+  public int size() {
+    return pendingFiles.size();
+  }
+}
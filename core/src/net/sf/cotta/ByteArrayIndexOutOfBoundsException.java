@@ -2,20 +2,20 @@ package net.sf.cotta;
 
 /** @noinspection JavaDoc*/
 public class ByteArrayIndexOutOfBoundsException extends ArrayIndexOutOfBoundsException {
-  private int position;
-  private int bound;
+  private long position;
+  private long bound;
 
-  public ByteArrayIndexOutOfBoundsException(int position, int bound) {
+  public ByteArrayIndexOutOfBoundsException(long position, long bound) {
     super("Position <" + position + "> is out of the bound <" + bound + ">");
     this.position = position;
     this.bound = bound;
   }
 
-  public int getPosition() {
+  public long getPosition() {
     return position;
   }
 
-  public int getBound() {
+  public long getBound() {
     return bound;
   }
 }
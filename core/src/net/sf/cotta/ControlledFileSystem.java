@@ -1,13 +1,16 @@
 package net.sf.cotta;
 
+import net.sf.cotta.io.MappedProcessor;
 import net.sf.cotta.io.OutputMode;
 import net.sf.cotta.system.FileSystem;
+import net.sf.cotta.system.PendingFile;
 
 import java.io.File;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.URI;
 import java.nio.channels.FileChannel;
+import java.util.List;
 
 /**
  * A file system that delegates all file operations to a controller
@@ -53,6 +56,16 @@ public class ControlledFileSystem implements FileSystem {
     return fileSystem.list(path);
   }
 
+  public PathStream stream(TPath path) throws TIoException {
+    readControl(path);
+    return fileSystem.stream(path);
+  }
+
+  public List<PathAttributes> listAttributes(TPath path) throws TIoException {
+    readControl(path);
+    return fileSystem.listAttributes(path);
+  }
+
   public InputStream createInputStream(TPath path) throws TIoException {
     controller.readOperationControl(path);
     return fileSystem.createInputStream(path);
@@ -63,6 +76,11 @@ public class ControlledFileSystem implements FileSystem {
     return fileSystem.createInputChannel(path);
   }
 
+  public void map(TPath path, long position, long length, MappedProcessor processor) throws TIoException {
+    controller.readOperationControl(path);
+    fileSystem.map(path, position, length, processor);
+  }
+
   public OutputStream createOutputStream(TPath path, OutputMode mode) throws TIoException {
     controller.writeOperationControl(path);
     return fileSystem.createOutputStream(path, mode);
@@ -73,6 +91,16 @@ public class ControlledFileSystem implements FileSystem {
     return fileSystem.createOutputChannel(path, outputStream);
   }
 
+  public PendingFile createPendingFile(TPath path, boolean force) throws TIoException {
+    controller.writeOperationControl(path);
+    return fileSystem.createPendingFile(path, force);
+  }
+
+  public void syncDirectory(TPath path) throws TIoException {
+    controller.writeOperationControl(path);
+    fileSystem.syncDirectory(path);
+  }
+
   public void deleteDirectory(TPath path) throws TIoException {
     controller.writeOperationControl(path);
     fileSystem.deleteDirectory(path);
@@ -0,0 +1,43 @@
+package net.sf.cotta;
+
+/**
+ * A value object holds the path of an entry in a directory together with its type, length and last
+ * modified time, as read by the file system while listing the directory
+ *
+ * @see net.sf.cotta.system.FileSystem#listAttributes(TPath)
+ */
+public class PathAttributes {
+  private final TPath path;
+  private final boolean directory;
+  private final long length;
+  private final long lastModified;
+
+  /**
+   * @param path         path of the entry
+   * @param directory    true if the entry is a directory, false if it is a file
+   * @param length       length of the file, or 0 for a directory
+   * @param lastModified last modified time in milliseconds
+   */
+  public PathAttributes(TPath path, boolean directory, long length, long lastModified) {
+    this.path = path;
+    this.directory = directory;
+    this.length = length;
+    this.lastModified = lastModified;
+  }
+
+  public TPath path() {
+    return path;
+  }
+
+  public boolean isDirectory() {
+    return directory;
+  }
+
+  public long length() {
+    return length;
+  }
+
+  public long lastModified() {
+    return lastModified;
+  }
+}
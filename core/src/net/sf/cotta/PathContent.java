@@ -2,6 +2,7 @@ package net.sf.cotta;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -33,6 +34,23 @@ public class PathContent {
     this.directories = new ArrayList<TPath>(directories);
   }
 
+  private PathContent(List<TPath> directories, List<TPath> files) {
+    this.files = files;
+    this.directories = directories;
+  }
+
+  /**
+   * Create path content that holds the two lists as they are, without copying them.  The lists
+   * returned by the content cannot be changed, so the content can be shared by the callers.
+   *
+   * @param directories list of paths to the directories, which is not to be changed afterwards
+   * @param files       list of paths to the files, which is not to be changed afterwards
+   * @return the unmodifiable path content
+   */
+  public static PathContent unmodifiable(List<TPath> directories, List<TPath> files) {
+    return new PathContent(Collections.unmodifiableList(directories), Collections.unmodifiableList(files));
+  }
+
   /**
    * Get the list of the paths of the files
    *
@@ -68,4 +86,33 @@ public class PathContent {
   public void addFilePath(TPath path) {
     files.add(path);
   }
+
+  /**
+   * Returns a stream over the directories and then the files of the content
+   *
+   * @return the stream, which does not need to be closed
+   */
+  public PathStream stream() {
+    return new PathStream() {
+      private int index = -1;
+
+      public boolean next() {
+        if (index < directories.size() + files.size()) {
+          index++;
+        }
+        return index < directories.size() + files.size();
+      }
+
+      public TPath path() {
+        return isDirectory() ? directories.get(index) : files.get(index - directories.size());
+      }
+
+      public boolean isDirectory() {
+        return index < directories.size();
+      }
+
+      public void close() {
+      }
+    };
+  }
 }
@@ -0,0 +1,32 @@
+package net.sf.cotta;
+
+import java.io.Closeable;
+
+/**
+ * Listing of a directory that is read as it is iterated, so that a directory with a great many entries
+ * does not need to be held in memory at once.  The stream is a cursor, moved to the next entry by
+ * {@link #next()}, and it needs to be closed when done with.
+ *
+ * @see net.sf.cotta.system.FileSystem#stream(TPath)
+ */
+public interface PathStream extends Closeable {
+  /**
+   * Moves to the next entry
+   *
+   * @return false if there are no more entries
+   * @throws TIoException error in reading the directory
+   */
+  boolean next() throws TIoException;
+
+  /**
+   * @return path of the current entry
+   */
+  TPath path();
+
+  /**
+   * @return true if the current entry is a directory, false if it is a file
+   */
+  boolean isDirectory();
+
+  void close() throws TIoException;
+}
@@ -6,6 +6,7 @@ import net.sf.cotta.system.FileSystem;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
@@ -44,7 +45,14 @@ public class TDirectory extends TEntry {
 
   public TDirectory ensureExists() throws TIoException {
     if (!filesystem().dirExists(path)) {
-      filesystem().createDir(path);
+      try {
+        filesystem().createDir(path);
+      } catch (IllegalArgumentException e) {
+        if (!filesystem().dirExists(path)) {
+          throw e;
+        }
+        // created by another thread in the meantime
+      }
     }
     return this;
   }
@@ -58,7 +66,7 @@ public class TDirectory extends TEntry {
    * @see #file(TPath)
    */
   public TFile file(String path) {
-    return file(TPath.parse(path));
+    return file(factory().parsePath(path));
   }
 
   /**
@@ -83,7 +91,7 @@ public class TDirectory extends TEntry {
    * @return The directory that is under the current directory with the given name
    */
   public TDirectory dir(String relativePath) {
-    return dir(TPath.parse(relativePath));
+    return dir(factory().parsePath(relativePath));
   }
 
   /**
@@ -178,6 +186,43 @@ public class TDirectory extends TEntry {
     return listing().filteredBy(directoryFilter, fileFilter);
   }
 
+  /**
+   * List the current directory with the type, length and last modified time of the entries read in
+   * the same pass, so that the listed files answer {@link TFile#length()}, {@link TFile#lastModified()}
+   * and {@link TFile#exists()} without going to the file system again
+   *
+   * @return list of TEntry that are either TFile or TDirectory
+   * @throws TIoException for error in reading current directory
+   */
+  public TDirectoryListing listWithAttributes() throws TIoException {
+    checkDirectoryExists();
+    return new TDirectoryListing(factory(), filesystem().listAttributes(this.path));
+  }
+
+  /**
+   * Stream the current directory, reading the entries as they are needed.  This is for directories too
+   * large to list at once.
+   *
+   * @return stream of TEntry that are either TFile or TDirectory, which needs to be closed
+   * @throws TIoException for error in opening current directory
+   */
+  public TDirectoryStream stream() throws TIoException {
+    checkDirectoryExists();
+    return new TDirectoryStream(factory(), filesystem().stream(this.path));
+  }
+
+  /**
+   * Stream the current directory with file filter and directory filter, which are applied as the entries are read
+   *
+   * @param directoryFilter directory filter
+   * @param fileFilter      file filter
+   * @return filtered stream of the directory, which needs to be closed
+   * @throws TIoException for error in opening current directory
+   */
+  public TDirectoryStream stream(TDirectoryFilter directoryFilter, TFileFilter fileFilter) throws TIoException {
+    return stream().filteredBy(directoryFilter, fileFilter);
+  }
+
   private TDirectoryListing listing() throws TIoException {
     checkDirectoryExists();
     return new TDirectoryListing(factory(), listContent());
@@ -329,6 +374,29 @@ public class TDirectory extends TEntry {
     });
   }
 
+  /**
+   * Finds the files under the directory tree whose paths relative to current directory match the pattern.
+   * The sub-directories that cannot contain a match are not listed.
+   *
+   * @param pattern pattern for the relative paths of the files
+   * @return mutable list of the files found
+   * @throws TIoException error in reading the directories
+   * @see TPathPattern#compile(String)
+   */
+  public List<TFile> find(TPathPattern pattern) throws TIoException {
+    List<TFile> result = new ArrayList<TFile>();
+    find(pattern.subtreeFilter(this), pattern.fileFilter(this), result);
+    return result;
+  }
+
+  private void find(TDirectoryFilter directoryFilter, TFileFilter fileFilter, List<TFile> result) throws TIoException {
+    TDirectoryListing listing = list(directoryFilter, fileFilter);
+    result.addAll(listing.files());
+    for (TDirectory subDirectory : listing.dirs()) {
+      subDirectory.find(directoryFilter, fileFilter, result);
+    }
+  }
+
   public void visit(FileVisitor fileVisitor) throws TIoException {
     fileVisitor.visit(this);
   }
@@ -2,8 +2,10 @@ package net.sf.cotta;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Directory listing that can return list of entries, files or directories.
@@ -11,6 +13,7 @@ import java.util.List;
  */
 public class TDirectoryListing implements Iterable<TEntry> {
   private PathContent pathContent;
+  private Map<TPath, PathAttributes> attributes = Collections.emptyMap();
   private TFileFactory factory;
   private boolean ordered;
   private TFileFilter fileFilter = TFileFilter.ALL;
@@ -21,6 +24,27 @@ public class TDirectoryListing implements Iterable<TEntry> {
     this.factory = factory;
   }
 
+  /**
+   * Creates the listing from the attributes of the entries, which the listed files keep
+   *
+   * @param factory    file factory
+   * @param attributes attributes of the directories and files
+   * @see TDirectory#listWithAttributes()
+   */
+  public TDirectoryListing(TFileFactory factory, List<PathAttributes> attributes) {
+    this.factory = factory;
+    this.pathContent = new PathContent(attributes.size());
+    this.attributes = new HashMap<TPath, PathAttributes>(attributes.size() * 2);
+    for (PathAttributes entry : attributes) {
+      if (entry.isDirectory()) {
+        pathContent.addDirectoryPath(entry.path());
+      } else {
+        pathContent.addFilePath(entry.path());
+        this.attributes.put(entry.path(), entry);
+      }
+    }
+  }
+
   public Iterator<TEntry> iterator() {
     return entries().iterator();
   }
@@ -43,7 +67,8 @@ public class TDirectoryListing implements Iterable<TEntry> {
 
   private void addFiles(ArrayList<? super TFile> entries, List<TPath> files) {
     for (TPath path : files) {
-      TFile file = factory.file(path);
+      PathAttributes fileAttributes = attributes.get(path);
+      TFile file = fileAttributes == null ? factory.file(path) : new TFile(factory, path, fileAttributes);
       if (fileFilter.accept(file)) {
         entries.add(file);
       }
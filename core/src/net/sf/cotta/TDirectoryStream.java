@@ -0,0 +1,84 @@
+package net.sf.cotta;
+
+import java.io.Closeable;
+
+/**
+ * Directory listing that reads the entries as they are asked for, with the filters applied as it goes.
+ * Unlike {@link TDirectoryListing}, it does not hold the entries of the directory at once, and it is
+ * not ordered.  The stream needs to be closed when done with.
+ *
+ * @see TDirectory#stream()
+ */
+public class TDirectoryStream implements Closeable {
+  private final TFileFactory factory;
+  private final PathStream stream;
+  private TFileFilter fileFilter = TFileFilter.ALL;
+  private TDirectoryFilter directoryFilter = TDirectoryFilter.ALL;
+
+  public TDirectoryStream(TFileFactory factory, PathStream stream) {
+    this.factory = factory;
+    this.stream = stream;
+  }
+
+  /**
+   * Reads the next entry that the filters accept
+   *
+   * @return the next entry, either TFile or TDirectory, or null if there are no more entries
+   * @throws TIoException error in reading the directory
+   */
+  public TEntry next() throws TIoException {
+    while (stream.next()) {
+      if (stream.isDirectory()) {
+        TDirectory dir = factory.dir(stream.path());
+        if (directoryFilter.accept(dir)) {
+          return dir;
+        }
+      } else {
+        TFile file = factory.file(stream.path());
+        if (fileFilter.accept(file)) {
+          return file;
+        }
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Sets filter for file, named apart from the directory filter so that a lambda is not ambiguous
+   *
+   * @param filter file filter
+   * @return current instance
+   */
+  public TDirectoryStream filesMatching(TFileFilter filter) {
+    fileFilter = filter;
+    return this;
+  }
+
+  /**
+   * Sets filter for directory
+   *
+   * @param filter directory filter
+   * @return current instance
+   */
+  public TDirectoryStream dirsMatching(TDirectoryFilter filter) {
+    directoryFilter = filter;
+    return this;
+  }
+
+  /**
+   * Sets filter for file and directory
+   *
+   * @param directoryFilter directory filter
+   * @param fileFilter      file filter
+   * @return current instance
+   */
+  public TDirectoryStream filteredBy(TDirectoryFilter directoryFilter, TFileFilter fileFilter) {
+    this.directoryFilter = directoryFilter;
+    this.fileFilter = fileFilter;
+    return this;
+  }
+
+  public void close() throws TIoException {
+    stream.close();
+  }
+}
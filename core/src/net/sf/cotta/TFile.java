@@ -1,12 +1,14 @@
 package net.sf.cotta;
 
 import net.sf.cotta.io.*;
+import net.sf.cotta.system.FileCopier;
 import net.sf.cotta.system.FileSystem;
 
 import java.io.*;
 import java.net.MalformedURLException;
 import java.net.URI;
 import java.net.URL;
+import java.nio.channels.Channels;
 import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.List;
@@ -21,6 +23,14 @@ import java.util.List;
  * @see TDirectory#file(TPath)
  */
 public class TFile extends TEntry {
+  private static final int COPY_BUFFER_SIZE = 64 * 1024;
+  private static final ThreadLocal<byte[]> COPY_BUFFER = new ThreadLocal<byte[]>() {
+    protected byte[] initialValue() {
+      return new byte[COPY_BUFFER_SIZE];
+    }
+  };
+
+  private PathAttributes attributes; // as listed, until the file is changed through this instance
 
   /**
    * Create TFile instance backed up by the file system
@@ -45,11 +55,26 @@ public class TFile extends TEntry {
     super(factory, path);
   }
 
+  /**
+   * Create TFile instance with the attributes read while listing its directory, which answer
+   * {@link #exists()}, {@link #length()} and {@link #lastModified()} until the file is changed
+   * through this instance
+   */
+  TFile(TFileFactory factory, TPath path, PathAttributes attributes) {
+    super(factory, path);
+    this.attributes = attributes;
+  }
+
+  void changed() {
+    attributes = null;
+  }
+
   public boolean exists() {
-    return filesystem().fileExists(path);
+    return attributes != null || filesystem().fileExists(path);
   }
 
   public TFile create() throws TIoException {
+    changed();
     parent().ensureExists();
     filesystem().createFile(path);
     return this;
@@ -68,6 +93,7 @@ public class TFile extends TEntry {
   }
 
   public void delete() throws TIoException {
+    changed();
     filesystem().deleteFile(path);
   }
 
@@ -131,6 +157,17 @@ public class TFile extends TEntry {
     return filesystem().createInputChannel(path);
   }
 
+  /**
+   * Creates the output channel for the file, positioned at the end of the file
+   *
+   * @param mode output mode
+   * @return FileChannel for output
+   * @throws TIoException error in creating the output channel
+   */
+  public FileChannel outputChannel(OutputMode mode) throws TIoException {
+    return filesystem().createOutputChannel(path, outputStream(mode));
+  }
+
   /**
    * Create the output stream
    *
@@ -139,6 +176,7 @@ public class TFile extends TEntry {
    * @throws TIoException error in creating the output stream
    */
   public OutputStream outputStream(OutputMode mode) throws TIoException {
+    changed();
     parent().ensureExists();
     return filesystem().createOutputStream(path, mode);
   }
@@ -153,12 +191,81 @@ public class TFile extends TEntry {
     return filesystem().createInputStream(path);
   }
 
+  /**
+   * Copies the file to the target.  The content goes from channel to channel when both file systems
+   * support channels, which lets the system copy it without going through the heap, and through a
+   * large buffer otherwise.
+   *
+   * @param target file to create or overwrite
+   * @throws TIoException error in copying the file
+   */
   public void copyTo(final TFile target) throws TIoException {
-    target.write(new OutputProcessor() {
-      public void process(OutputManager manager) throws IOException {
-        copyTo(manager.outputStream());
+    if (filesystem() instanceof FileCopier && (filesystem() == target.filesystem() || filesystem().equals(target.filesystem()))) {
+      if (!exists()) {
+        throw new TFileNotFoundException(path);
       }
-    });
+      target.parent().ensureExists();
+      target.changed();
+      ((FileCopier) filesystem()).copyFile(path, target.path);
+      return;
+    }
+    FileChannel input = null;
+    InputStream inputStream = null;
+    OutputStream outputStream = null;
+    FileChannel output = null;
+    try {
+      try {
+        input = inputChannel();
+      } catch (UnsupportedOperationException e) {
+        input = null;
+      }
+      outputStream = target.outputStream(OutputMode.OVERWRITE);
+      try {
+        output = target.filesystem().createOutputChannel(target.path, outputStream);
+      } catch (UnsupportedOperationException e) {
+        output = null;
+      }
+      if (input != null && output != null) {
+        transfer(input, output);
+      } else {
+        inputStream = input != null ? Channels.newInputStream(input) : inputStream();
+        copy(inputStream, output != null ? Channels.newOutputStream(output) : outputStream);
+      }
+    } catch (TIoException e) {
+      throw e;
+    } catch (IOException e) {
+      throw new TIoException(target.path, "Copying from <" + path.toPathString() + "> failed", e);
+    } finally {
+      close(target.path, output, outputStream, inputStream, input);
+    }
+  }
+
+  private void transfer(FileChannel input, FileChannel output) throws IOException {
+    long size = input.size();
+    long position = 0;
+    while (position < size) {
+      long transferred = input.transferTo(position, size - position, output);
+      if (transferred <= 0) {
+        break;
+      }
+      position += transferred;
+    }
+  }
+
+  private static void close(TPath path, Closeable... resources) throws TIoException {
+    IOException error = null;
+    for (Closeable resource : resources) {
+      try {
+        if (resource != null) {
+          resource.close();
+        }
+      } catch (IOException e) {
+        error = error == null ? e : error;
+      }
+    }
+    if (error != null) {
+      throw new TIoException(path, "Closing after copying failed", error);
+    }
   }
 
   public void copyTo(final OutputStream outputStream) throws TIoException {
@@ -170,7 +277,7 @@ public class TFile extends TEntry {
   }
 
   private void copy(InputStream is, OutputStream os) throws IOException {
-    byte[] buffer = new byte[256];
+    byte[] buffer = COPY_BUFFER.get();
     int read = is.read(buffer, 0, buffer.length);
     while (read > -1) {
       os.write(buffer, 0, read);
@@ -185,6 +292,8 @@ public class TFile extends TEntry {
     if (destination.exists()) {
       throw new TIoException(destination.path, "Destination exists");
     }
+    changed();
+    destination.changed();
     if (filesystem() == destination.filesystem() || filesystem().equals(destination.filesystem())) {
       filesystem().moveFile(this.path, destination.path);
     } else {
@@ -194,11 +303,11 @@ public class TFile extends TEntry {
   }
 
   public long length() {
-    return filesystem().fileLength(path);
+    return attributes != null ? attributes.length() : filesystem().fileLength(path);
   }
 
   public long lastModified() {
-    return filesystem().fileLastModified(path);
+    return attributes != null ? attributes.lastModified() : filesystem().fileLastModified(path);
   }
 
   public TFile ensureExists() throws TIoException {
@@ -259,6 +368,35 @@ public class TFile extends TEntry {
     Input.with(inputStreamFactory()).readLines(lineProcessor);
   }
 
+  /**
+   * Read the whole file as read-only byte buffers, which are memory mapped where the file system supports it
+   *
+   * @param processor processor for the buffers
+   * @throws TIoException error in reading the file
+   * @see #map(long, long, MappedProcessor)
+   */
+  public void read(final MappedProcessor processor) throws TIoException {
+    map(0, Long.MAX_VALUE, processor);
+  }
+
+  /**
+   * Read the region of the file as read-only byte buffers, which are memory mapped where the file system
+   * supports it.  The region is passed in windows of at most {@link MappedBuffers#WINDOW_SIZE} bytes, and each
+   * mapping is released when the processor returns.  The region is cut at the end of the file.
+   *
+   * @param offset    position of the region
+   * @param length    length of the region
+   * @param processor processor for the buffers
+   * @throws TIoException error in reading the file
+   * @see MappedProcessor
+   */
+  public void map(long offset, long length, MappedProcessor processor) throws TIoException {
+    if (offset < 0 || length < 0) {
+      throw new IllegalArgumentException("offset and length cannot be negative:" + offset + ", " + length);
+    }
+    filesystem().map(path, offset, length, processor);
+  }
+
   public void append(final OutputProcessor processor) throws TIoException {
     Output.with(outputStreamFactory(OutputMode.APPEND), null).write(processor);
   }
@@ -267,6 +405,59 @@ public class TFile extends TEntry {
     Output.with(outputStreamFactory(OutputMode.OVERWRITE), null).write(processor);
   }
 
+  /**
+   * Write the file atomically with the processor, so that the readers see either the previous content
+   * or the new content as a whole, but never a half written file.  The content is written aside and
+   * replaces the file when the processor returns, and is dropped if the processor fails.
+   *
+   * @param processor  processor for the output
+   * @param durability how far the write goes to survive a crash
+   * @throws TIoException error in writing the file
+   * @see AtomicWriteBatch
+   */
+  public void writeAtomically(final OutputProcessor processor, Durability durability) throws TIoException {
+    new AtomicWriteBatch(durability).write(this, processor).commit();
+  }
+
+  /**
+   * Saves the content to the file atomically using system default encoding
+   *
+   * @param content    content to save
+   * @param durability how far the write goes to survive a crash
+   * @return the file instance
+   * @throws TIoException error in writing the file
+   * @see #writeAtomically(OutputProcessor, Durability)
+   */
+  public TFile saveAtomically(String content, Durability durability) throws TIoException {
+    new AtomicWriteBatch(durability).save(this, content).commit();
+    return this;
+  }
+
+  /**
+   * Opens an appender that forces the records to the storage, with the threads appending at the same
+   * time sharing one sync
+   *
+   * @return appender for the file, to be closed after use
+   * @throws TIoException error in opening the file
+   * @see #appender(Durability, long)
+   */
+  public TFileAppender appender() throws TIoException {
+    return appender(Durability.CONTENT, 0);
+  }
+
+  /**
+   * Opens an appender that batches the records appended to the file by many threads
+   *
+   * @param durability     how far the records go before appending returns
+   * @param maxDelayMillis longest the writer waits for more records before writing a batch
+   * @return appender for the file, to be closed after use
+   * @throws TIoException error in opening the file
+   * @see TFileAppender
+   */
+  public TFileAppender appender(Durability durability, long maxDelayMillis) throws TIoException {
+    return new TFileAppender(this, durability, maxDelayMillis);
+  }
+
   /**
    * Read the file with a line processor
    *
@@ -0,0 +1,364 @@
+package net.sf.cotta;
+
+import net.sf.cotta.io.Durability;
+import net.sf.cotta.io.OutputMode;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+
+/**
+ * Long-lived writer appending records to the end of a file, for files like logs that get many small
+ * records from many threads.  The records are collected in memory and written by a writer thread, which
+ * writes all the records appended since its last write at once and then forces them to the storage when
+ * the durability asks for it, so the threads appending at the same time share one write and one sync.
+ * <p/>
+ * When the content is forced, appending a record returns once the record is on the storage.  Otherwise it
+ * returns as soon as the record is queued, and the record is written within the maximum delay.  The maximum
+ * delay is how long the writer waits for more records before writing a batch, trading the latency of each
+ * record for larger batches; with no delay the batches are made of the records appended while the
+ * previous batch was written.
+ * <pre>
+ * TFileAppender appender = file.appender(Durability.CONTENT, 2);
+ * try {
+ *   appender.append(record);
+ * } finally {
+ *   appender.close();
+ * }
+ * </pre>
+ *
+ * @see TFile#appender(Durability, long)
+ */
+public class TFileAppender {
+  /**
+   * Size of the records queued at which the writer stops waiting for more
+   */
+  public static final int BATCH_BYTES = 1024 * 1024;
+  /**
+   * Size of the records queued at which appending waits for the writer
+   */
+  public static final int MAX_QUEUED_BYTES = 16 * 1024 * 1024;
+
+  private final TFile file;
+  private final Durability durability;
+  private final long maxDelayNanos;
+  private final OutputStream stream;
+  private final FileChannel channel;
+  private final OutputStream output;
+  private final Thread writer;
+  private final long started = System.nanoTime();
+  private ByteArrayOutputStream pending = new ByteArrayOutputStream();
+  private ByteArrayOutputStream spare = new ByteArrayOutputStream();
+  private int queueDepth = 0;
+  private int maxQueueDepth = 0;
+  private long appended = 0;
+  private long written = 0;
+  private boolean closed = false;
+  private TIoException failure;
+  private long recordCount = 0;
+  private long byteCount = 0;
+  private long batchCount = 0;
+  private long syncCount = 0;
+
+  TFileAppender(TFile file, Durability durability, long maxDelayMillis) throws TIoException {
+    if (maxDelayMillis < 0) {
+      throw new IllegalArgumentException("maximum delay cannot be negative:" + maxDelayMillis);
+    }
+    this.file = file;
+    this.durability = durability;
+    this.maxDelayNanos = maxDelayMillis * 1000000;
+    stream = file.outputStream(OutputMode.APPEND);
+    try {
+      channel = durability.forcesContent() ? forceChannel(file, stream) : null;
+      output = channel == null ? stream : Channels.newOutputStream(channel);
+      if (durability.syncsDirectory()) {
+        file.filesystem().syncDirectory(file.parent().path);
+      }
+    } catch (TIoException e) {
+      closeQuietly();
+      throw e;
+    }
+    writer = new Thread(new Runnable() {
+      public void run() {
+        writeBatches();
+      }
+    }, "cotta-appender-" + file.path);
+    writer.setDaemon(true);
+    writer.start();
+  }
+
+  /**
+   * Returns the channel to write and force the content with, or null for the file systems without
+   * channels, on which the content is written to the stream and only flushed
+   */
+  private static FileChannel forceChannel(TFile file, OutputStream stream) throws TIoException {
+    try {
+      return file.filesystem().createOutputChannel(file.path, stream);
+    } catch (UnsupportedOperationException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Appends the record, waiting for it to be forced to the storage if the durability asks for it
+   *
+   * @param record content of the record
+   * @throws TIoException error in writing the records, or interrupted while waiting
+   */
+  public void append(byte[] record) throws TIoException {
+    long sequence = queue(record);
+    if (durability.forcesContent()) {
+      waitForWrite(sequence);
+    }
+  }
+
+  /**
+   * Appends the record using the default encoding of the file factory
+   *
+   * @param record content of the record
+   * @throws TIoException error in writing the records, or interrupted while waiting
+   * @see #append(byte[])
+   */
+  public void append(String record) throws TIoException {
+    String encoding = file.factory().defaultEncoding();
+    try {
+      append(encoding == null ? record.getBytes() : record.getBytes(encoding));
+    } catch (UnsupportedEncodingException e) {
+      throw new TIoException(file.path, "Encoding not supported:" + encoding, e);
+    }
+  }
+
+  private synchronized long queue(byte[] record) throws TIoException {
+    while (pending.size() >= MAX_QUEUED_BYTES && failure == null && !closed) {
+      waitForWriter();
+    }
+    ensureOpen();
+    pending.write(record, 0, record.length);
+    queueDepth++;
+    maxQueueDepth = Math.max(maxQueueDepth, queueDepth);
+    notifyAll();
+    return ++appended;
+  }
+
+  /**
+   * Waits for all the records appended so far to be written, and forced if the durability asks for it
+   *
+   * @throws TIoException error in writing the records, or interrupted while waiting
+   */
+  public void flush() throws TIoException {
+    long sequence;
+    synchronized (this) {
+      ensureOpen();
+      sequence = appended;
+    }
+    waitForWrite(sequence);
+  }
+
+  private synchronized void waitForWrite(long sequence) throws TIoException {
+    while (written < sequence && failure == null) {
+      waitForWriter();
+    }
+    if (written < sequence) {
+      throw failure;
+    }
+  }
+
+  private void waitForWriter() throws TIoException {
+    try {
+      wait();
+    } catch (InterruptedException e) {
+      throw new TIoException(file.path, "interrupted while waiting for appender", new InterruptedIOException());
+    }
+  }
+
+  private void ensureOpen() throws TIoException {
+    if (failure != null) {
+      throw failure;
+    }
+    if (closed) {
+      throw new IllegalStateException("appender is closed:" + file.path);
+    }
+  }
+
+  private void writeBatches() {
+    while (true) {
+      ByteArrayOutputStream batch;
+      long batchEnd;
+      int records;
+      synchronized (this) {
+        try {
+          while (queueDepth == 0 && !closed) {
+            wait();
+          }
+          if (queueDepth == 0) {
+            return;
+          }
+          long deadline = System.nanoTime() + maxDelayNanos;
+          long remaining;
+          while (!closed && pending.size() < BATCH_BYTES && (remaining = deadline - System.nanoTime()) > 0) {
+            wait(remaining / 1000000, (int) (remaining % 1000000));
+          }
+        } catch (InterruptedException e) {
+          failure = new TIoException(file.path, "appender interrupted", new InterruptedIOException());
+          notifyAll();
+          return;
+        }
+        batch = pending;
+        pending = spare;
+        spare = null;
+        batchEnd = appended;
+        records = queueDepth;
+        queueDepth = 0;
+        notifyAll();
+      }
+      IOException error = null;
+      try {
+        batch.writeTo(output);
+        output.flush();
+        if (channel != null) {
+          channel.force(false);
+        }
+      } catch (IOException e) {
+        error = e;
+      }
+      synchronized (this) {
+        if (error == null) {
+          written = batchEnd;
+          recordCount += records;
+          byteCount += batch.size();
+          batchCount++;
+          if (channel != null) {
+            syncCount++;
+          }
+        } else {
+          failure = new TIoException(file.path, "Appending to file failed", error);
+        }
+        batch.reset();
+        spare = batch;
+        notifyAll();
+        if (failure != null) {
+          return;
+        }
+      }
+    }
+  }
+
+  /**
+   * Writes the records queued and closes the file.  Appending to a closed appender fails.
+   *
+   * @throws TIoException error in writing the records or closing the file
+   */
+  public void close() throws TIoException {
+    synchronized (this) {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      notifyAll();
+    }
+    boolean interrupted = false;
+    while (writer.isAlive()) {
+      try {
+        writer.join();
+      } catch (InterruptedException e) {
+        interrupted = true;
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+    try {
+      stream.close();
+      if (channel != null) {
+        channel.close();
+      }
+    } catch (IOException e) {
+      throw new TIoException(file.path, "Closing file failed", e);
+    }
+    synchronized (this) {
+      if (failure != null) {
+        throw failure;
+      }
+    }
+  }
+
+  private void closeQuietly() {
+    try {
+      stream.close();
+    } catch (IOException e) {
+      // the error in opening the appender is reported instead
+    }
+  }
+
+  /**
+   * @return the file appended to
+   */
+  public TFile file() {
+    return file;
+  }
+
+  /**
+   * @return number of records written
+   */
+  public synchronized long recordCount() {
+    return recordCount;
+  }
+
+  /**
+   * @return number of bytes written
+   */
+  public synchronized long byteCount() {
+    return byteCount;
+  }
+
+  /**
+   * @return number of writes, each of which has all the records queued when it started
+   */
+  public synchronized long batchCount() {
+    return batchCount;
+  }
+
+  /**
+   * @return number of times the content has been forced to the storage, which is less than the number
+   *         of records when the records appended at the same time are forced together
+   */
+  public synchronized long syncCount() {
+    return syncCount;
+  }
+
+  /**
+   * @return number of records queued and not yet taken by the writer
+   */
+  public synchronized int queueDepth() {
+    return queueDepth;
+  }
+
+  /**
+   * @return largest number of records that have been queued at once
+   */
+  public synchronized int maxQueueDepth() {
+    return maxQueueDepth;
+  }
+
+  /**
+   * @return number of records written per second since the appender was opened
+   */
+  public double recordsPerSecond() {
+    return recordCount() / secondsSinceStarted();
+  }
+
+  /**
+   * @return number of bytes written per second since the appender was opened
+   */
+  public double bytesPerSecond() {
+    return byteCount() / secondsSinceStarted();
+  }
+
+  private double secondsSinceStarted() {
+    return Math.max(System.nanoTime() - started, 1) / 1000000000.0;
+  }
+}
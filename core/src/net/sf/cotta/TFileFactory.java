@@ -1,12 +1,14 @@
 package net.sf.cotta;
 
 import net.sf.cotta.memory.InMemoryFileSystem;
+import net.sf.cotta.physical.NioFileSystem;
 import net.sf.cotta.physical.PhysicalFileSystem;
 import net.sf.cotta.system.FileSystem;
 
 import java.io.File;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.concurrent.Executor;
 
 /**
  * The factory class for creating TFile and TDirectory.
@@ -17,6 +19,7 @@ import java.net.URL;
  * File factory creation:
  * <ul>
  * <li>physical() will create the physical file factory</li>
+ * <li>nio() will create the physical file factory backed by java.nio.file</li>
  * <li>inMemory() will cerate the in-memory file factory</li>
  * </ul>
  * <p/>
@@ -31,6 +34,7 @@ import java.net.URL;
 public class TFileFactory {
   private FileSystem fileSystem;
   private String defaultEncoding;
+  private TPathPool pathPool;
 
   /**
    * Creat the factory using physical file system
@@ -46,8 +50,21 @@ public class TFileFactory {
   }
 
   public TFileFactory(FileSystem fileSystem, String defaultEncoding) {
+    this(fileSystem, defaultEncoding, null);
+  }
+
+  /**
+   * Create the factory that parses the path strings through a path pool, so that the paths used over and over
+   * again are shared instead of parsed each time
+   *
+   * @param fileSystem      file system
+   * @param defaultEncoding default encoding, or null for system encoding
+   * @param pathPool        path pool, or null for parsing every path string
+   */
+  public TFileFactory(FileSystem fileSystem, String defaultEncoding, TPathPool pathPool) {
     this.fileSystem = fileSystem;
     this.defaultEncoding = defaultEncoding;
+    this.pathPool = pathPool;
   }
 
   public FileSystem getFileSystem() {
@@ -63,7 +80,7 @@ public class TFileFactory {
    * @see #file(TPath)
    */
   public TFile file(String pathString) {
-    return file(TPath.parse(pathString));
+    return file(parsePath(pathString));
   }
 
   /**
@@ -85,7 +102,18 @@ public class TFileFactory {
    * @see #dir(TPath)
    */
   public TDirectory dir(String pathString) {
-    return dir(TPath.parse(pathString));
+    return dir(parsePath(pathString));
+  }
+
+  /**
+   * Parses the path string, using the path pool if the factory has one
+   *
+   * @param pathString path string
+   * @return the path
+   * @see net.sf.cotta.TPathPool#parse(String)
+   */
+  public TPath parsePath(String pathString) {
+    return pathPool == null ? TPath.parse(pathString) : pathPool.parse(pathString);
   }
 
   /**
@@ -194,6 +222,7 @@ public class TFileFactory {
   }
 
   private static final TFileFactory PHYSICAL = new TFileFactory(PhysicalFileSystem.instance);
+  private static final TFileFactory NIO = new TFileFactory(NioFileSystem.instance);
   /**
    * File factory backed by a physical file system
    *
@@ -249,4 +278,34 @@ public class TFileFactory {
   public static TFileFactory physical() {
     return PHYSICAL;
   }
+
+  /**
+   * Returns the shared file factory for the physical file system backed by <code>java.nio.file</code>
+   *
+   * @return physical file factory using NIO.2
+   * @see net.sf.cotta.physical.NioFileSystem
+   */
+  public static TFileFactory nio() {
+    return NIO;
+  }
+
+  /**
+   * Returns the asynchronous facade of this factory, which runs the blocking operations on the shared executor
+   *
+   * @return asynchronous file factory
+   * @see AsyncFileFactory#defaultExecutor()
+   */
+  public AsyncFileFactory async() {
+    return async(AsyncFileFactory.defaultExecutor());
+  }
+
+  /**
+   * Returns the asynchronous facade of this factory
+   *
+   * @param executor executor for the blocking operations
+   * @return asynchronous file factory
+   */
+  public AsyncFileFactory async(Executor executor) {
+    return new AsyncFileFactory(this, executor);
+  }
 }
@@ -1,57 +1,80 @@
 package net.sf.cotta;
 
 import java.io.File;
-import java.util.*;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 
 /**
  * An object presentation of path to mainly used by the implemenation of Cotta classes.
  * The methods on TPath has been exposed through TFile and TDirectory
+ * <p/>
+ * A path is stored in one of two ways.  The array storage, used by {@link #parse(String)}, keeps all
+ * the elements in a String array.  The linked storage, created by {@link #toLinked()}, keeps only the
+ * last element and a pointer to the parent path, so that paths under the same directory share the
+ * prefix the way nodes in a trie do.  Joining a name to a linked path, and getting the parent of one,
+ * does not copy anything, and equals, hashCode, compareTo and isChildOf walk the parent pointers,
+ * stopping as soon as they reach an instance the two paths share.  Both storages hold the same value:
+ * paths stored differently are equal, and have the same hash code, if their elements are the same.
  */
 public final class TPath implements Comparable<TPath> {
   private final String headElement;
-  private final String[] elements;
+  private final String[] elements; // null for linked storage
   private final int offset;
   private final int count;
+  private final TPath parentNode; // linked storage only, null for roots
+  private final String name; // linked storage only, null for roots
   private int hash; // Default to 0
-  private static final String WINDOWS_SEPARATOR_PATTERN = "\\\\";
+  private static final char WINDOWS_SEPARATOR_CHAR = '\\';
   private static final char NATIVE_SEPERATOR_CHAR = '/';
-  private static final String NATIVE_SEPARATOR = "/";
   private static final String ROOT_HEAD = "";
   private static final String WINDOWS_NETWORK_ROOT_HEAD = "\\\\";
   private static final String CURRENT_DIR_HEAD = ".";
 
   /**
-   * Creates an instance of TPath with the given path elements
+   * Shares the element array for speed.
    *
    * @param headElement head element
+   * @param offset the offset from which to begin in the element array
+   * @param count the length
    * @param elements path elements
    * @see #parse(String)
+   * @see TPathBuilder#build()
    */
-  private TPath(String headElement, String[] elements) {
-    int size = elements.length;
-    this.elements = new String[size];
-    System.arraycopy(elements, 0, this.elements, 0, size);
-    this.offset = 0;
-    this.count = size;
+  TPath(String headElement, int offset, int count, String[] elements) {
+    this.elements = elements;
+    this.offset = offset;
+    this.count = count;
     this.headElement = headElement;
+    this.parentNode = null;
+    this.name = null;
   }
 
   /**
-   * Shares the element array for speed.
+   * Creates the root of the linked storage
    *
    * @param headElement head element
-   * @param offset the offset from which to begin in the element array
-   * @param count the length
-   * @param elements path elements
    */
-  private TPath(String headElement, int offset, int count, String[] elements) {
-    this.elements = elements;
-    this.offset = offset;
-    this.count = count;
+  private TPath(String headElement) {
+    this.elements = null;
+    this.offset = 0;
+    this.count = 0;
     this.headElement = headElement;
+    this.parentNode = null;
+    this.name = null;
+  }
+
+  /**
+   * Creates a path in linked storage, sharing the parent
+   *
+   * @param parentNode parent path in linked storage
+   * @param name name of the last element
+   */
+  private TPath(TPath parentNode, String name) {
+    this.elements = null;
+    this.offset = 0;
+    this.count = parentNode.count + 1;
+    this.headElement = parentNode.headElement;
+    this.parentNode = parentNode;
+    this.name = name;
   }
 
   /**
@@ -74,7 +97,7 @@ public final class TPath implements Comparable<TPath> {
     if (count == 0) {
       return headElement;
     }
-    return elements[offset + count - 1];
+    return elements == null ? name : elements[offset + count - 1];
   }
 
   /**
@@ -88,7 +111,7 @@ public final class TPath implements Comparable<TPath> {
     if (count == 0) {
       return null;
     }
-    return subpath(0, count - 1);
+    return elements == null ? parentNode : subpath(0, count - 1);
   }
 
 
@@ -109,10 +132,13 @@ public final class TPath implements Comparable<TPath> {
    * @see TDirectory#dir(String)
    */
   public TPath join(String name) {
+    if (elements == null) {
+      return new TPath(this, name);
+    }
     String[] newElements = new String[count + 1];
     System.arraycopy(elements, offset, newElements, 0, count);
     newElements[count] = name;
-    return new TPath(headElement, newElements);
+    return new TPath(headElement, 0, newElements.length, newElements);
   }
 
   /**
@@ -126,31 +152,63 @@ public final class TPath implements Comparable<TPath> {
    * @see TDirectory#dir(TPath)
    */
   public TPath join(TPath path) {
-    return append(path).normalize();
+    if (!hasDirectoryReference() && !path.hasDirectoryReference()) {
+      return append(path);
+    }
+    return normalizedJoin(path);
   }
 
-  private TPath normalize() {
-    Stack<String> result = new Stack<String>();
-    int off = offset;
-    for (int i = 0; i < count; i++ ) {
-      String element = elements[off++];
+  private boolean hasDirectoryReference() {
+    if (elements == null) {
+      for (TPath node = this; node.count > 0; node = node.parentNode) {
+        if (isDirectoryReference(node.name)) {
+          return true;
+        }
+      }
+      return false;
+    }
+    int end = offset + count;
+    for (int i = offset; i < end; i++) {
+      if (isDirectoryReference(elements[i])) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Appends the path and normalizes the result in one pass.  The array holding the elements of
+   * both paths is used as the stack, as the elements left are never ahead of the one being read.
+   */
+  private TPath normalizedJoin(TPath path) {
+    String[] result = new String[count + path.count];
+    copyElements(0, result, 0, count);
+    path.copyElements(0, result, count, path.count);
+    int top = 0;
+    for (int i = 0; i < result.length; i++) {
+      String element = result[i];
       if (isCurrentDirectoryReference(element)) {
         // do nothing
       } else if (isParentDirectoryReference(element)) {
-        if (result.isEmpty()) {
+        if (top == 0) {
           if (!isRelative()) {
-            throw new IllegalArgumentException("Cannot normalize <" + toPathString() + ">");
+            throw new IllegalArgumentException("Cannot normalize <" + append(path).toPathString() + ">");
           }
-          result.push(element);
+          result[top++] = element;
         }
         else {
-          result.pop();
+          top--;
         }
       } else {
-        result.push(element);
+        result[top++] = element;
       }
     }
-    return new TPath(headElement, result.toArray(new String[result.size()]));
+    if (top < result.length) {
+      String[] trimmed = new String[top];
+      System.arraycopy(result, 0, trimmed, 0, top);
+      result = trimmed;
+    }
+    return new TPath(headElement, 0, result.length, result);
   }
 
   /**
@@ -160,20 +218,58 @@ public final class TPath implements Comparable<TPath> {
    * @return The result of the append
    */
   public TPath append(TPath path) {
+    if (elements == null) {
+      TPath result = this;
+      String[] appended = path.arrayElements();
+      int off = path.arrayOffset();
+      for (int i = 0; i < path.count; i++) {
+        result = new TPath(result, appended[off++]);
+      }
+      return result;
+    }
     int length = count + path.count;
     String[] joined = new String[length];
     System.arraycopy(elements, offset, joined, 0, count);
-    System.arraycopy(path.elements, path.offset, joined, count, path.count);
-    return new TPath(headElement, joined);
+    path.copyElements(0, joined, count, path.count);
+    return new TPath(headElement, 0, length, joined);
+  }
+
+  /**
+   * Converts the path to the linked storage, in which the path is a node that points to its parent.
+   * Paths joined to a linked path are linked as well and share it as their prefix.
+   *
+   * @return the path in linked storage, which is the current instance if it is already linked
+   * @see #join(String)
+   */
+  public TPath toLinked() {
+    if (elements == null) {
+      return this;
+    }
+    TPath result = new TPath(headElement);
+    int off = offset;
+    for (int i = 0; i < count; i++) {
+      result = new TPath(result, elements[off++]);
+    }
+    return result;
+  }
+
+  /**
+   * Checks if the path is in linked storage
+   *
+   * @return true if the path is a node that points to its parent
+   * @see #toLinked()
+   */
+  public boolean isLinked() {
+    return elements == null;
   }
 
   public TPath intern() {
-    if (offset == 0 && count == elements.length) {
+    if (elements == null || (offset == 0 && count == elements.length)) {
       return this;
     }
     String[] newElements = new String[count];
     System.arraycopy(elements, offset, newElements, 0, count);
-    return new TPath(headElement, newElements);
+    return new TPath(headElement, 0, count, newElements);
   }
 
   public boolean equals(Object o) {
@@ -184,6 +280,9 @@ public final class TPath implements Comparable<TPath> {
       if (headElement == tPath.headElement || headElement.equals(tPath.headElement)) {
         int n = count;
         if (n == tPath.count) {
+          if (elements == null || tPath.elements == null) {
+            return (hash == 0 || tPath.hash == 0 || hash == tPath.hash) && sameElementsFromEnd(tPath);
+          }
           String[] e1 = elements;
           String[] e2 = tPath.elements;
           int i = offset;
@@ -200,14 +299,52 @@ public final class TPath implements Comparable<TPath> {
     return false;
   }
 
+  /**
+   * Compares the elements of two paths of the same length from the last element up, where
+   * at least one of the paths is linked.  Linked paths stop the walk once they share the parent.
+   */
+  private boolean sameElementsFromEnd(TPath that) {
+    TPath node1 = this;
+    TPath node2 = that;
+    int index1 = offset + count;
+    int index2 = that.offset + count;
+    for (int n = count; n > 0; n--) {
+      if (node1 == node2) {
+        return true;
+      }
+      String element1;
+      if (elements == null) {
+        element1 = node1.name;
+        node1 = node1.parentNode;
+      } else {
+        element1 = elements[--index1];
+      }
+      String element2;
+      if (that.elements == null) {
+        element2 = node2.name;
+        node2 = node2.parentNode;
+      } else {
+        element2 = that.elements[--index2];
+      }
+      if (!element1.equals(element2)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
   public int hashCode() {
     int h = hash;
     if (h == 0) {
-      h = 29 * h + headElement.hashCode();
+      if (elements == null) {
+        h = count == 0 ? headElement.hashCode() : 29 * parentNode.hashCode() + name.hashCode();
+      } else {
+        h = 29 * h + headElement.hashCode();
 
-      int off = offset;
-      for (int i = 0; i < count; i++) {
-        h = 29 * h + elements[off++].hashCode();
+        int off = offset;
+        for (int i = 0; i < count; i++) {
+          h = 29 * h + elements[off++].hashCode();
+        }
       }
       hash = h;
     }
@@ -236,38 +373,111 @@ public final class TPath implements Comparable<TPath> {
     if (pathString == null || pathString.length() == 0) {
       throw new IllegalArgumentException("null or empty path string is not allowed");
     }
-    Pattern currentDir = Pattern.compile("(\\.)|(\\.(\\\\|/)(.*))");
-    Pattern windowsRoot = Pattern.compile("([A-Z|a-z]:)[\\\\|/]?(.*)");
     String headElement;
-    Matcher matcher;
+    int start;
     if (pathString.startsWith(WINDOWS_NETWORK_ROOT_HEAD)) {
       headElement = WINDOWS_NETWORK_ROOT_HEAD;
-      pathString = pathString.substring(WINDOWS_NETWORK_ROOT_HEAD.length());
+      start = WINDOWS_NETWORK_ROOT_HEAD.length();
     }
-    else if (pathString.startsWith("\\") || pathString.startsWith("/")) {
+    else if (isSeparator(pathString.charAt(0))) {
       headElement = ROOT_HEAD;
-      pathString = pathString.substring(1);
+      start = 1;
     }
-    else if ((matcher = currentDir.matcher(pathString)).matches()) {
+    else if (startsWithCurrentDir(pathString)) {
       headElement = CURRENT_DIR_HEAD;
-      pathString = matcher.group(4);
-      if (pathString == null) {
-        pathString = "";
-      }
+      start = Math.min(2, pathString.length());
     }
-    else if ((matcher = windowsRoot.matcher(pathString)).matches()) {
-      headElement = matcher.group(1);
-      pathString = matcher.group(2);
+    else if ((start = windowsRootEnd(pathString)) > 0) {
+      headElement = pathString.substring(0, 2);
     }
     else {
       headElement = CURRENT_DIR_HEAD;
+      start = 0;
+    }
+    String[] elements = splitElements(pathString, start);
+    return new TPath(headElement, 0, elements.length, elements);
+  }
+
+  /**
+   * Splits the path string from the given index on both '/' and '\', skipping empty elements.
+   * The string is scanned twice, once to count and once to cut, so that the element array is
+   * allocated with its exact size.
+   */
+  private static String[] splitElements(String pathString, int start) {
+    int length = pathString.length();
+    int count = 0;
+    boolean inElement = false;
+    for (int i = start; i < length; i++) {
+      if (isSeparator(pathString.charAt(i))) {
+        inElement = false;
+      } else if (!inElement) {
+        inElement = true;
+        count++;
+      }
+    }
+    String[] elements = new String[count];
+    int index = 0;
+    int elementStart = -1;
+    for (int i = start; i < length; i++) {
+      if (isSeparator(pathString.charAt(i))) {
+        if (elementStart != -1) {
+          elements[index++] = pathString.substring(elementStart, i);
+          elementStart = -1;
+        }
+      } else if (elementStart == -1) {
+        elementStart = i;
+      }
     }
-    pathString = pathString.replaceAll(WINDOWS_SEPARATOR_PATTERN, NATIVE_SEPARATOR);
-    List<String> list = new ArrayList<String>();
-    for (StringTokenizer tokenizer = new StringTokenizer(pathString, NATIVE_SEPARATOR); tokenizer.hasMoreTokens();) {
-      list.add(tokenizer.nextToken());
+    if (elementStart != -1) {
+      elements[index] = pathString.substring(elementStart, length);
     }
-    return new TPath(headElement, list.toArray(new String[list.size()]));
+    return elements;
+  }
+
+  private static boolean isSeparator(char ch) {
+    return ch == NATIVE_SEPERATOR_CHAR || ch == WINDOWS_SEPARATOR_CHAR;
+  }
+
+  /**
+   * Matches "." or "./..." with either separator, as long as the rest of the path has no line terminator
+   */
+  private static boolean startsWithCurrentDir(String pathString) {
+    if (pathString.charAt(0) != '.') {
+      return false;
+    }
+    return pathString.length() == 1 || (isSeparator(pathString.charAt(1)) && !hasLineTerminator(pathString, 2));
+  }
+
+  /**
+   * Matches a drive head like "c:", "c:/" or "c:\".  Both the drive letter and the separator also accept '|'
+   *
+   * @return the index where the elements start, or -1 if the path does not start with a drive
+   */
+  private static int windowsRootEnd(String pathString) {
+    int length = pathString.length();
+    if (length < 2 || pathString.charAt(1) != ':' || !isDriveLetter(pathString.charAt(0))) {
+      return -1;
+    }
+    int start = (length > 2 && isDriveSeparator(pathString.charAt(2))) ? 3 : 2;
+    return hasLineTerminator(pathString, start) ? -1 : start;
+  }
+
+  private static boolean isDriveLetter(char ch) {
+    return (ch >= 'A' && ch <= 'Z') || (ch >= 'a' && ch <= 'z') || ch == '|';
+  }
+
+  private static boolean isDriveSeparator(char ch) {
+    return isSeparator(ch) || ch == '|';
+  }
+
+  private static boolean hasLineTerminator(String value, int start) {
+    for (int i = start; i < value.length(); i++) {
+      char ch = value.charAt(i);
+      if (ch == '\n' || ch == '\r' || ch == '\u0085' || ch == '\u2028' || ch == '\u2029') {
+        return true;
+      }
+    }
+    return false;
   }
 
   public String toPathString() {
@@ -292,7 +502,8 @@ public final class TPath implements Comparable<TPath> {
     else {
       buffer.append(headElement);
     }
-    int off = offset;
+    String[] elements = arrayElements();
+    int off = arrayOffset();
     for (int i = 0; i < count; i++) {
       buffer.append(seperator).append(elements[off++]);
     }
@@ -312,14 +523,21 @@ public final class TPath implements Comparable<TPath> {
     if (count <= path.count) {
       return false;
     }
+    if (elements == null || path.elements == null) {
+      return subpath(0, path.count).equals(path);
+    }
     return checkCommonElements(path) == path.count;
   }
 
-  private boolean isParentDirectoryReference(String element) {
+  private static boolean isDirectoryReference(String element) {
+    return isCurrentDirectoryReference(element) || isParentDirectoryReference(element);
+  }
+
+  private static boolean isParentDirectoryReference(String element) {
     return "..".equals(element);
   }
 
-  private boolean isCurrentDirectoryReference(String element) {
+  private static boolean isCurrentDirectoryReference(String element) {
     return ".".equals(element);
   }
 
@@ -349,22 +567,57 @@ public final class TPath implements Comparable<TPath> {
     for (int i = 0; i < numberOfThatExcessElements; i++) {
       relativePath[i] = "..";
     }
-    System.arraycopy(elements, index, relativePath, numberOfThatExcessElements, numberOfThisExcessElements);
-    return new TPath(CURRENT_DIR_HEAD, relativePath);
+    copyElements(index, relativePath, numberOfThatExcessElements, numberOfThisExcessElements);
+    return new TPath(CURRENT_DIR_HEAD, 0, relativePath.length, relativePath);
   }
 
   private int checkCommonElements(TPath path) {
     if (!headElement.equals(path.headElement)) {
       return 0;
     }
-    int i = 0;
     int max = Math.min(count, path.count);
+    if (elements == null || path.elements == null) {
+      return commonElementsFromEnd(path, max);
+    }
+    int i = 0;
     while (i < max && elements[offset + i].equals(path.elements[path.offset + i])) {
       i++;
     }
     return i;
   }
 
+  /**
+   * Counts the common leading elements by walking up from the given length, where at least one of the
+   * paths is linked.  The count is the depth right above the mismatch closest to the root.
+   */
+  private int commonElementsFromEnd(TPath that, int length) {
+    TPath node1 = elements == null ? ancestor(length) : this;
+    TPath node2 = that.elements == null ? that.ancestor(length) : that;
+    int index1 = offset + length;
+    int index2 = that.offset + length;
+    int common = length;
+    for (int depth = length; depth > 0 && node1 != node2; depth--) {
+      String element1;
+      if (elements == null) {
+        element1 = node1.name;
+        node1 = node1.parentNode;
+      } else {
+        element1 = elements[--index1];
+      }
+      String element2;
+      if (that.elements == null) {
+        element2 = node2.name;
+        node2 = node2.parentNode;
+      } else {
+        element2 = that.elements[--index2];
+      }
+      if (!element1.equals(element2)) {
+        common = depth - 1;
+      }
+    }
+    return common;
+  }
+
   /**
    * Compare two path by comparing each elements.
    *
@@ -372,11 +625,14 @@ public final class TPath implements Comparable<TPath> {
    * @return comparing result
    */
   public int compareTo(TPath that) {
+    if (elements == null && that.elements == null) {
+      return compareLinked(that);
+    }
     int len1 = count;
     int len2 = that.count;
     int n = Math.min(len1, len2);
-    String v1[] = elements;
-    String v2[] = that.elements;
+    String v1[] = arrayElements();
+    String v2[] = that.arrayElements();
     int i = offset;
     int j = that.offset;
 
@@ -403,6 +659,36 @@ public final class TPath implements Comparable<TPath> {
     return len1 - len2;
   }
 
+  /**
+   * Compares two linked paths by walking up from the same depth.  The comparison of the elements
+   * closest to the root that differ decides the result, and the walk stops at the shared parent.
+   */
+  private int compareLinked(TPath that) {
+    int n = Math.min(count, that.count);
+    TPath node1 = ancestor(n);
+    TPath node2 = that.ancestor(n);
+    int result = 0;
+    while (node1 != node2 && node1.count > 0) {
+      if (!node1.name.equals(node2.name)) {
+        result = node1.name.compareTo(node2.name);
+      }
+      node1 = node1.parentNode;
+      node2 = node2.parentNode;
+    }
+    return result != 0 ? result : count - that.count;
+  }
+
+  /**
+   * Walks up the linked path to the ancestor with the given number of elements
+   */
+  private TPath ancestor(int length) {
+    TPath node = this;
+    for (int i = count; i > length; i--) {
+      node = node.parentNode;
+    }
+    return node;
+  }
+
   public TPath subpath(int beginIndex, int endIndex) {
     if (beginIndex < 0) {
       throw new ArrayIndexOutOfBoundsException(beginIndex);
@@ -416,6 +702,9 @@ public final class TPath implements Comparable<TPath> {
     if (beginIndex == 0 && endIndex == count) {
       return this;
     }
+    else if (elements == null && beginIndex == 0) {
+      return ancestor(endIndex);
+    }
     else {
       String head;
       if (beginIndex == 0) {
@@ -424,7 +713,7 @@ public final class TPath implements Comparable<TPath> {
       else {
         head = CURRENT_DIR_HEAD;
       }
-      return new TPath(head, offset + beginIndex, endIndex - beginIndex, elements);
+      return new TPath(head, arrayOffset() + beginIndex, endIndex - beginIndex, arrayElements());
     }
   }
 
@@ -435,18 +724,23 @@ public final class TPath implements Comparable<TPath> {
   public TPath trim() {
     int len = count;
     int st = 0;
+    String[] elements = arrayElements();
+    int off = arrayOffset();
 
-    while (st < len && isCurrentDirectoryReference(elements[offset + st])) {
+    while (st < len && isCurrentDirectoryReference(elements[off + st])) {
       st++;
     }
-    while (st < len && isCurrentDirectoryReference(elements[offset + len - 1])) {
+    while (st < len && isCurrentDirectoryReference(elements[off + len - 1])) {
       len--;
     }
     return (st > 0 || len < count) ? subpath(st, len) : this;
   }
 
   public String elementAt(int i) {
-    return elements[i];
+    if (elements == null) {
+      return ancestor(i + 1).name;
+    }
+    return elements[offset + i];
   }
 
   public int length() {
@@ -455,7 +749,33 @@ public final class TPath implements Comparable<TPath> {
 
   String[] toElementArray() {
     String[] result = new String[count];
-    System.arraycopy(elements, offset, result, 0, count);
+    copyElements(0, result, 0, count);
     return result;
   }
+
+  /**
+   * Copies the elements starting at the given index into the target array
+   */
+  void copyElements(int from, String[] target, int position, int length) {
+    if (elements == null) {
+      TPath node = ancestor(from + length);
+      for (int i = position + length - 1; i >= position; i--) {
+        target[i] = node.name;
+        node = node.parentNode;
+      }
+    } else {
+      System.arraycopy(elements, offset + from, target, position, length);
+    }
+  }
+
+  /**
+   * The elements as an array, starting from {@link #arrayOffset()}.  Linked paths are copied into a new array
+   */
+  private String[] arrayElements() {
+    return elements == null ? toElementArray() : elements;
+  }
+
+  private int arrayOffset() {
+    return elements == null ? 0 : offset;
+  }
 }
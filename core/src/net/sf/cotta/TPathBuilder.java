@@ -0,0 +1,110 @@
+package net.sf.cotta;
+
+/**
+ * Builds a path element by element into one growing array, so that a path made from many
+ * joins only allocates the array once it is built instead of one copy of the elements per join.
+ * The elements are taken as they are, without normalizing current-dir or parent-dir references.
+ * <p/>
+ * The builder is not thread-safe, and can be used again after {@link #build()}.
+ *
+ * @see TPath#join(String)
+ */
+public class TPathBuilder {
+  private static final int DEFAULT_CAPACITY = 8;
+
+  private final String headElement;
+  private String[] elements;
+  private int count;
+
+  /**
+   * Creates the builder for a relative path
+   */
+  public TPathBuilder() {
+    this(TPath.parse("."));
+  }
+
+  /**
+   * Creates the builder that starts with the given path
+   *
+   * @param start path to start with
+   */
+  public TPathBuilder(TPath start) {
+    headElement = start.headElement();
+    count = start.length();
+    elements = new String[Math.max(DEFAULT_CAPACITY, count * 2)];
+    start.copyElements(0, elements, 0, count);
+  }
+
+  /**
+   * Appends an element to the end of the path
+   *
+   * @param name name of the element
+   * @return this builder
+   */
+  public TPathBuilder append(String name) {
+    if (name == null) {
+      throw new IllegalArgumentException("name cannot be null");
+    }
+    ensureCapacity(count + 1);
+    elements[count++] = name;
+    return this;
+  }
+
+  /**
+   * Appends all the elements of the path to the end of the path
+   *
+   * @param path path to append
+   * @return this builder
+   */
+  public TPathBuilder append(TPath path) {
+    int length = path.length();
+    ensureCapacity(count + length);
+    path.copyElements(0, elements, count, length);
+    count += length;
+    return this;
+  }
+
+  /**
+   * Removes the last element of the path
+   *
+   * @return this builder
+   * @throws IllegalStateException if there is no element left
+   */
+  public TPathBuilder removeLast() {
+    if (count == 0) {
+      throw new IllegalStateException("no element to remove from <" + build() + ">");
+    }
+    elements[--count] = null;
+    return this;
+  }
+
+  /**
+   * @return number of elements in the path
+   */
+  public int length() {
+    return count;
+  }
+
+  /**
+   * Builds the path with the elements appended so far
+   *
+   * @return the path
+   */
+  public TPath build() {
+    String[] result = new String[count];
+    System.arraycopy(elements, 0, result, 0, count);
+    return new TPath(headElement, 0, count, result);
+  }
+
+  public String toString() {
+    return build().toString();
+  }
+
+  private void ensureCapacity(int capacity) {
+    if (capacity > elements.length) {
+      String[] newElements = new String[Math.max(capacity, elements.length * 2)];
+      System.arraycopy(elements, 0, newElements, 0, count);
+      elements = newElements;
+    }
+  }
+}
@@ -0,0 +1,417 @@
+package net.sf.cotta;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A glob pattern compiled against the elements of TPath instead of the path string.  The pattern
+ * is relative, with '/' between the elements, and supports:
+ * <ul>
+ * <li><code>*</code> for any number of characters within an element</li>
+ * <li><code>?</code> for one character</li>
+ * <li><code>[abc]</code>, <code>[a-z]</code> and <code>[!a-z]</code> for one character in (or not in) the set</li>
+ * <li><code>{main,test}</code> for any of the alternatives, which can contain '/' and other patterns</li>
+ * <li><code>**</code> as a whole element for any number of elements, including none</li>
+ * <li><code>\</code> to escape the next character</li>
+ * </ul>
+ * Matching reads the elements of the path in place, except for the paths in linked storage, whose
+ * elements are copied once into a buffer kept by the thread, so that the parent chain is walked only
+ * once and nothing is allocated for each path.  Paths are matched from the element
+ * that follows the base directory, so <code>src/&#42;&#42;/*.java</code> compiled for directory "/project"
+ * matches "/project/src/net/sf/Cotta.java".  {@link #subtreeFilter(TDirectory)} tells if a directory
+ * can hold a match at all, so that a walk can skip the directories that cannot.
+ *
+ * @see TDirectory#find(TPathPattern)
+ */
+public final class TPathPattern {
+  private static final ThreadLocal<String[]> LINKED_ELEMENTS = new ThreadLocal<String[]>() {
+    protected String[] initialValue() {
+      return new String[32];
+    }
+  };
+
+  private final String glob;
+  private final Segment[][] alternatives;
+
+  private TPathPattern(String glob, Segment[][] alternatives) {
+    this.glob = glob;
+    this.alternatives = alternatives;
+  }
+
+  /**
+   * Compiles the glob pattern
+   *
+   * @param glob glob pattern, relative
+   * @return compiled pattern
+   * @throws IllegalArgumentException if the pattern is empty, absolute, or not well formed
+   */
+  public static TPathPattern compile(String glob) {
+    if (glob == null || glob.length() == 0) {
+      throw new IllegalArgumentException("glob pattern cannot be null or empty");
+    }
+    if (glob.charAt(0) == '/') {
+      throw new IllegalArgumentException("glob pattern needs to be relative:" + glob);
+    }
+    List<String> expanded = new ArrayList<String>();
+    expandBraces(glob, glob, expanded);
+    Segment[][] alternatives = new Segment[expanded.size()][];
+    for (int i = 0; i < alternatives.length; i++) {
+      alternatives[i] = compileSegments(glob, expanded.get(i));
+    }
+    return new TPathPattern(glob, alternatives);
+  }
+
+  /**
+   * Checks if the relative path matches the pattern
+   *
+   * @param relativePath path relative to the base of the pattern
+   * @return true if all the elements of the path match the pattern
+   */
+  public boolean matches(TPath relativePath) {
+    return matches(relativePath, 0);
+  }
+
+  /**
+   * Checks if the elements of the path, starting from the given index, match the pattern
+   *
+   * @param path path to check
+   * @param from index of the first element to match, which is the length of the base directory
+   * @return true if the elements match the pattern
+   */
+  public boolean matches(TPath path, int from) {
+    return matchAny(path, from, false);
+  }
+
+  /**
+   * Checks if a path under the directory could match the pattern
+   *
+   * @param path path of the directory
+   * @param from index of the first element to match, which is the length of the base directory
+   * @return false if no path under the directory can match the pattern
+   */
+  public boolean matchesUnder(TPath path, int from) {
+    return matchAny(path, from, true);
+  }
+
+  private boolean matchAny(TPath path, int from, boolean prefix) {
+    String[] linked = linkedElements(path, from);
+    for (Segment[] segments : alternatives) {
+      if (match(segments, path, linked, from, prefix)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Creates the file filter that accepts the files under the base that match the pattern
+   *
+   * @param base base directory of the relative paths
+   * @return file filter
+   */
+  public TFileFilter fileFilter(TDirectory base) {
+    final int from = base.toPath().length();
+    return new TFileFilter() {
+      public boolean accept(TFile file) {
+        return matches(file.toPath(), from);
+      }
+    };
+  }
+
+  /**
+   * Creates the directory filter that accepts the directories under the base that match the pattern
+   *
+   * @param base base directory of the relative paths
+   * @return directory filter
+   */
+  public TDirectoryFilter directoryFilter(TDirectory base) {
+    final int from = base.toPath().length();
+    return new TDirectoryFilter() {
+      public boolean accept(TDirectory directory) {
+        return matches(directory.toPath(), from);
+      }
+    };
+  }
+
+  /**
+   * Creates the directory filter that accepts the directories under the base that could contain
+   * a path matching the pattern, to be used to prune the directories during a walk
+   *
+   * @param base base directory of the relative paths
+   * @return directory filter
+   */
+  public TDirectoryFilter subtreeFilter(TDirectory base) {
+    final int from = base.toPath().length();
+    return new TDirectoryFilter() {
+      public boolean accept(TDirectory directory) {
+        return matchesUnder(directory.toPath(), from);
+      }
+    };
+  }
+
+  public String toString() {
+    return glob;
+  }
+
+  /**
+   * Copies the elements of a path in linked storage, from the given index, into the buffer of the thread
+   *
+   * @return the buffer, or null if the elements are read from the path itself
+   */
+  private static String[] linkedElements(TPath path, int from) {
+    if (!path.isLinked() || from >= path.length()) {
+      return null;
+    }
+    int length = path.length() - from;
+    String[] buffer = LINKED_ELEMENTS.get();
+    if (buffer.length < length) {
+      buffer = new String[Math.max(length, buffer.length * 2)];
+      LINKED_ELEMENTS.set(buffer);
+    }
+    path.copyElements(from, buffer, 0, length);
+    return buffer;
+  }
+
+  /**
+   * Matches the elements with the segments the way a wildcard is matched against characters,
+   * with '**' as the wildcard: on a mismatch, let the last '**' take one more element and retry.
+   * Nothing needs to go back further than the last '**', so no stack is needed.
+   */
+  private static boolean match(Segment[] segments, TPath path, String[] linked, int from, boolean prefix) {
+    int end = path.length();
+    int segment = 0;
+    int element = from;
+    int starSegment = -1;
+    int starElement = 0;
+    while (element < end) {
+      if (segment < segments.length && segments[segment].anyElements) {
+        starSegment = segment++;
+        starElement = element;
+      } else if (segment < segments.length && segments[segment].matches(linked != null ? linked[element - from] : path.elementAt(element))) {
+        segment++;
+        element++;
+      } else if (starSegment >= 0) {
+        segment = starSegment + 1;
+        element = ++starElement;
+      } else {
+        return false;
+      }
+    }
+    if (prefix) {
+      return segment < segments.length || starSegment >= 0;
+    }
+    while (segment < segments.length && segments[segment].anyElements) {
+      segment++;
+    }
+    return segment == segments.length;
+  }
+
+  private static void expandBraces(String glob, String pattern, List<String> result) {
+    int open = indexOfUnescaped(pattern, '{', 0);
+    if (open < 0) {
+      result.add(pattern);
+      return;
+    }
+    int depth = 0;
+    int start = open + 1;
+    List<String> options = new ArrayList<String>();
+    for (int i = open; i < pattern.length(); i++) {
+      char ch = pattern.charAt(i);
+      if (ch == '\\') {
+        i++;
+      } else if (ch == '{') {
+        depth++;
+      } else if (ch == ',' && depth == 1) {
+        options.add(pattern.substring(start, i));
+        start = i + 1;
+      } else if (ch == '}' && --depth == 0) {
+        options.add(pattern.substring(start, i));
+        String head = pattern.substring(0, open);
+        String tail = pattern.substring(i + 1);
+        for (String option : options) {
+          expandBraces(glob, head + option + tail, result);
+        }
+        return;
+      }
+    }
+    throw new IllegalArgumentException("unclosed '{' in glob pattern:" + glob);
+  }
+
+  private static int indexOfUnescaped(String pattern, char target, int start) {
+    for (int i = start; i < pattern.length(); i++) {
+      char ch = pattern.charAt(i);
+      if (ch == '\\') {
+        i++;
+      } else if (ch == target) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private static Segment[] compileSegments(String glob, String pattern) {
+    List<Segment> segments = new ArrayList<Segment>();
+    int start = 0;
+    while (start <= pattern.length()) {
+      int end = indexOfUnescaped(pattern, '/', start);
+      if (end < 0) {
+        end = pattern.length();
+      }
+      if (end > start) {
+        String element = pattern.substring(start, end);
+        if (element.equals("**")) {
+          if (segments.isEmpty() || !segments.get(segments.size() - 1).anyElements) {
+            segments.add(Segment.ANY_ELEMENTS);
+          }
+        } else {
+          segments.add(Segment.compile(glob, element));
+        }
+      }
+      start = end + 1;
+    }
+    return segments.toArray(new Segment[segments.size()]);
+  }
+
+  /**
+   * One element of the pattern, compiled into tokens that each match one character, except STAR
+   */
+  private static final class Segment {
+    private static final byte LITERAL = 0;
+    private static final byte ANY = 1;
+    private static final byte STAR = 2;
+    private static final byte RANGES = 3;
+    private static final byte NOT_RANGES = 4;
+    private static final Segment ANY_ELEMENTS = new Segment(true, null, null, null, null);
+
+    private final boolean anyElements;
+    private final String literal; // set when there is no wildcard
+    private final byte[] kinds;
+    private final char[] chars;
+    private final char[][] ranges; // pairs of from and to for RANGES and NOT_RANGES
+
+    private Segment(boolean anyElements, String literal, byte[] kinds, char[] chars, char[][] ranges) {
+      this.anyElements = anyElements;
+      this.literal = literal;
+      this.kinds = kinds;
+      this.chars = chars;
+      this.ranges = ranges;
+    }
+
+    static Segment compile(String glob, String element) {
+      int length = element.length();
+      byte[] kinds = new byte[length];
+      char[] chars = new char[length];
+      char[][] ranges = new char[length][];
+      int count = 0;
+      boolean wildcard = false;
+      for (int i = 0; i < length; i++) {
+        char ch = element.charAt(i);
+        if (ch == '\\') {
+          if (++i == length) {
+            throw new IllegalArgumentException("nothing to escape at the end of glob pattern:" + glob);
+          }
+          kinds[count] = LITERAL;
+          chars[count++] = element.charAt(i);
+        } else if (ch == '*') {
+          wildcard = true;
+          if (count == 0 || kinds[count - 1] != STAR) {
+            kinds[count++] = STAR;
+          }
+        } else if (ch == '?') {
+          wildcard = true;
+          kinds[count++] = ANY;
+        } else if (ch == '[') {
+          wildcard = true;
+          int close = element.indexOf(']', i + 2);
+          if (close < 0) {
+            throw new IllegalArgumentException("unclosed '[' in glob pattern:" + glob);
+          }
+          boolean negate = element.charAt(i + 1) == '!';
+          kinds[count] = negate ? NOT_RANGES : RANGES;
+          ranges[count++] = compileRanges(element.substring(negate ? i + 2 : i + 1, close));
+          i = close;
+        } else {
+          kinds[count] = LITERAL;
+          chars[count++] = ch;
+        }
+      }
+      if (!wildcard) {
+        return new Segment(false, new String(chars, 0, count), null, null, null);
+      }
+      byte[] trimmedKinds = new byte[count];
+      char[] trimmedChars = new char[count];
+      char[][] trimmedRanges = new char[count][];
+      System.arraycopy(kinds, 0, trimmedKinds, 0, count);
+      System.arraycopy(chars, 0, trimmedChars, 0, count);
+      System.arraycopy(ranges, 0, trimmedRanges, 0, count);
+      return new Segment(false, null, trimmedKinds, trimmedChars, trimmedRanges);
+    }
+
+    private static char[] compileRanges(String set) {
+      StringBuilder pairs = new StringBuilder();
+      for (int i = 0; i < set.length(); i++) {
+        char from = set.charAt(i);
+        if (i + 2 < set.length() && set.charAt(i + 1) == '-') {
+          pairs.append(from).append(set.charAt(i + 2));
+          i += 2;
+        } else {
+          pairs.append(from).append(from);
+        }
+      }
+      return pairs.toString().toCharArray();
+    }
+
+    boolean matches(String name) {
+      if (literal != null) {
+        return literal.equals(name);
+      }
+      int length = name.length();
+      int token = 0;
+      int position = 0;
+      int starToken = -1;
+      int starPosition = 0;
+      while (position < length) {
+        if (token < kinds.length && kinds[token] == STAR) {
+          starToken = token++;
+          starPosition = position;
+        } else if (token < kinds.length && matches(token, name.charAt(position))) {
+          token++;
+          position++;
+        } else if (starToken >= 0) {
+          token = starToken + 1;
+          position = ++starPosition;
+        } else {
+          return false;
+        }
+      }
+      while (token < kinds.length && kinds[token] == STAR) {
+        token++;
+      }
+      return token == kinds.length;
+    }
+
+    private boolean matches(int token, char ch) {
+      switch (kinds[token]) {
+        case LITERAL:
+          return chars[token] == ch;
+        case ANY:
+          return true;
+        case RANGES:
+          return inRanges(ranges[token], ch);
+        case NOT_RANGES:
+          return !inRanges(ranges[token], ch);
+        default:
+          return false;
+      }
+    }
+
+    private static boolean inRanges(char[] pairs, char ch) {
+      for (int i = 0; i < pairs.length; i += 2) {
+        if (ch >= pairs[i] && ch <= pairs[i + 1]) {
+          return true;
+        }
+      }
+      return false;
+    }
+  }
+}
@@ -0,0 +1,92 @@
+package net.sf.cotta;
+
+/**
+ * A bounded pool of parsed paths that returns a shared TPath instance for path strings that are
+ * parsed repeatedly, so that hot lookups skip both the parsing and the allocation.
+ * <p/>
+ * The pool is a direct-mapped table: each path string maps to one slot, and a miss replaces
+ * whatever the slot held before.  Paths that are seen often therefore tend to stay in the pool
+ * while the memory used never grows beyond the capacity given at creation.  The pool is safe
+ * to share between threads without locking because both TPath and the slot entries are immutable.
+ *
+ * @see TFileFactory#TFileFactory(net.sf.cotta.system.FileSystem, String, TPathPool)
+ */
+public class TPathPool {
+  public static final int DEFAULT_CAPACITY = 1024;
+
+  private final Entry[] slots;
+  private final int mask;
+
+  public TPathPool() {
+    this(DEFAULT_CAPACITY);
+  }
+
+  /**
+   * Creates the pool with the given capacity, which will be rounded up to the power of two
+   *
+   * @param capacity maximum number of paths to keep
+   */
+  public TPathPool(int capacity) {
+    if (capacity <= 0) {
+      throw new IllegalArgumentException("capacity needs to be positive:" + capacity);
+    }
+    int size = Integer.highestOneBit(capacity);
+    if (size < capacity) {
+      size <<= 1;
+    }
+    slots = new Entry[size];
+    mask = size - 1;
+  }
+
+  /**
+   * Returns the path for the path string, parsing it only if it is not in the pool
+   *
+   * @param pathString path string
+   * @return the shared path instance
+   * @see TPath#parse(String)
+   */
+  public TPath parse(String pathString) {
+    if (pathString == null) {
+      return TPath.parse(null);
+    }
+    int index = indexFor(pathString.hashCode());
+    Entry entry = slots[index];
+    if (entry != null && entry.pathString.equals(pathString)) {
+      return entry.path;
+    }
+    TPath path = TPath.parse(pathString);
+    slots[index] = new Entry(pathString, path);
+    return path;
+  }
+
+  /**
+   * @return the maximum number of paths the pool can hold
+   */
+  public int capacity() {
+    return slots.length;
+  }
+
+  /**
+   * Removes all the paths from the pool
+   */
+  public void clear() {
+    for (int i = 0; i < slots.length; i++) {
+      slots[i] = null;
+    }
+  }
+
+  private int indexFor(int hash) {
+    hash ^= (hash >>> 16);
+    return hash & mask;
+  }
+
+  private static final class Entry {
+    private final String pathString;
+    private final TPath path;
+
+    private Entry(String pathString, TPath path) {
+      this.pathString = pathString;
+      this.path = path;
+    }
+  }
+}
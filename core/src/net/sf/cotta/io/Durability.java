@@ -0,0 +1,39 @@
+package net.sf.cotta.io;
+
+/**
+ * How far an atomic write goes to survive a crash of the system.  Whatever the level, the readers see
+ * either the previous content of the file or the new content as a whole.
+ *
+ * @see net.sf.cotta.TFile#writeAtomically(OutputProcessor, Durability)
+ */
+public enum Durability {
+  /**
+   * Only renames the written file over the target, so the write can be lost in a crash
+   */
+  NONE(false, false),
+  /**
+   * Forces the content to the storage before the rename, so a crash leaves either the previous content
+   * or the new one, but the rename itself can be lost
+   */
+  CONTENT(true, false),
+  /**
+   * Forces the content and then the directory after the rename, so the write survives a crash once it returns
+   */
+  FULL(true, true);
+
+  private final boolean forcesContent;
+  private final boolean syncsDirectory;
+
+  private Durability(boolean forcesContent, boolean syncsDirectory) {
+    this.forcesContent = forcesContent;
+    this.syncsDirectory = syncsDirectory;
+  }
+
+  public boolean forcesContent() {
+    return forcesContent;
+  }
+
+  public boolean syncsDirectory() {
+    return syncsDirectory;
+  }
+}
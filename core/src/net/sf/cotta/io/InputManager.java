@@ -4,11 +4,8 @@ import net.sf.cotta.TIoException;
 import net.sf.cotta.TPath;
 
 import java.io.*;
-import java.lang.reflect.Method;
 import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
-import java.security.AccessController;
-import java.security.PrivilegedAction;
 import java.util.ArrayList;
 
 /**
@@ -68,29 +65,13 @@ public class InputManager extends ResourceManager<InputProcessor> {
   }
 
   /**
-   * Clean up the mapped byte buffer so that the mapped file can be accessed.  This is
-   * a work around so use it at your own risk.  See <a href="http://bugs.sun.com/bugdatabase/view_bug.do?bug_id=4724038">
-   * orinigar bug</a> for its source and context.
+   * Clean up the mapped byte buffer so that the mapped file can be accessed.
    *
    * @param buffer the buffer to clean up
+   * @see MappedBuffers#unmap(java.nio.MappedByteBuffer)
    */
-  @SuppressWarnings("unchecked")
   public void clean(final MappedByteBuffer buffer) {
-    AccessController.doPrivileged(new PrivilegedAction() {
-      public Object run() {
-        try {
-          Method getCleanerMethod = buffer.getClass
-              ().getMethod("cleaner");
-          getCleanerMethod.setAccessible(true);
-          sun.misc.Cleaner cleaner =
-              (sun.misc.Cleaner) getCleanerMethod.invoke(buffer);
-          cleaner.clean();
-        } catch (Exception e) {
-          e.printStackTrace();
-        }
-        return null;
-      }
-    });
+    MappedBuffers.unmap(buffer);
   }
 
   /**
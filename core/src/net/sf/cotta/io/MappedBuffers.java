@@ -0,0 +1,236 @@
+package net.sf.cotta.io;
+
+import net.sf.cotta.TIoException;
+import net.sf.cotta.TPath;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Passes the content of a file to a {@link MappedProcessor} window by window, for the file systems to
+ * implement {@link net.sf.cotta.system.FileSystem#map(TPath, long, long, MappedProcessor)}.  Each mapped
+ * window is released as soon as the processor returns, instead of when the garbage collector gets to it.
+ */
+public final class MappedBuffers {
+  /**
+   * Size of the windows of a mapped file, which keeps each of them well within the 2GB limit of a buffer
+   */
+  public static final int WINDOW_SIZE = 1 << 30;
+  /**
+   * Size of the windows of the content read from a stream, which are on the heap
+   */
+  public static final int STREAM_WINDOW_SIZE = 8 * 1024 * 1024;
+
+  private static final Unmapper UNMAPPER = unmapper();
+
+  private MappedBuffers() {
+  }
+
+  public static void map(TPath path, FileChannel channel, long position, long length, MappedProcessor processor) throws TIoException {
+    map(path, channel, position, length, WINDOW_SIZE, processor);
+  }
+
+  /**
+   * Maps the region of the channel read-only in windows of the given size and passes them to the
+   * processor, unmapping each after it is processed.  The region is cut at the end of the file, and
+   * the channel is closed afterwards.
+   *
+   * @param path       path of the file, for the error messages
+   * @param channel    channel of the file
+   * @param position   position of the region
+   * @param length     length of the region
+   * @param windowSize maximum size of each window
+   * @param processor  processor of the windows
+   * @throws TIoException error in mapping or processing the content
+   */
+  public static void map(TPath path, FileChannel channel, long position, long length, int windowSize,
+                         MappedProcessor processor) throws TIoException {
+    boolean completed = false;
+    try {
+      long end = end(position, length, channel.size());
+      while (position < end) {
+        int count = (int) Math.min(windowSize, end - position);
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, count);
+        try {
+          process(path, buffer, position, processor);
+        } finally {
+          unmap(buffer);
+        }
+        position += count;
+      }
+      completed = true;
+    } catch (TIoException e) {
+      throw e;
+    } catch (IOException e) {
+      throw new TIoException(path, "Mapping file failed", e);
+    } finally {
+      close(path, channel, completed);
+    }
+  }
+
+  /**
+   * Reads the region of the stream into windows on the heap and passes them to the processor as
+   * read-only buffers, for the file systems that cannot map their files.  The stream is closed afterwards.
+   *
+   * @param path      path of the file, for the error messages
+   * @param in        stream of the file content
+   * @param position  position of the region
+   * @param length    length of the region
+   * @param processor processor of the windows
+   * @throws TIoException error in reading or processing the content
+   */
+  public static void read(TPath path, InputStream in, long position, long length, MappedProcessor processor) throws TIoException {
+    boolean completed = false;
+    try {
+      if (skip(in, position)) {
+        byte[] window = null;
+        long remaining = length;
+        while (remaining > 0) {
+          if (window == null) {
+            window = new byte[(int) Math.min(STREAM_WINDOW_SIZE, remaining)];
+          }
+          int count = fill(in, window, (int) Math.min(window.length, remaining));
+          if (count == 0) {
+            break;
+          }
+          process(path, ByteBuffer.wrap(window, 0, count).slice().asReadOnlyBuffer(), position, processor);
+          position += count;
+          remaining -= count;
+        }
+      }
+      completed = true;
+    } catch (TIoException e) {
+      throw e;
+    } catch (IOException e) {
+      throw new TIoException(path, "Reading file failed", e);
+    } finally {
+      close(path, in, completed);
+    }
+  }
+
+  /**
+   * Passes one window to the processor, turning its errors into TIoException
+   *
+   * @param path      path of the file, for the error messages
+   * @param buffer    content of the window
+   * @param position  position of the window in the file
+   * @param processor processor of the window
+   * @throws TIoException error in processing the content
+   */
+  public static void process(TPath path, ByteBuffer buffer, long position, MappedProcessor processor) throws TIoException {
+    try {
+      processor.process(buffer, position);
+    } catch (TIoException e) {
+      throw e;
+    } catch (IOException e) {
+      throw new TIoException(path, "IO Error", e);
+    }
+  }
+
+  /**
+   * Releases the mapping of the buffer right away, so that the file can be deleted or mapped again on
+   * the systems that lock the mapped files.  The buffer must have been created by <code>FileChannel.map</code>
+   * and must not be used afterwards.  See <a href="http://bugs.sun.com/bugdatabase/view_bug.do?bug_id=4724038">
+   * bug 4724038</a> for the context.
+   *
+   * @param buffer the mapped buffer
+   * @return true if the mapping is released, or false if the JVM does not allow it, in which case
+   *         the mapping is released when the buffer is garbage collected
+   */
+  public static boolean unmap(MappedByteBuffer buffer) {
+    return buffer.isDirect() && UNMAPPER.unmap(buffer);
+  }
+
+  private static long end(long position, long length, long size) {
+    return length > size - position ? size : position + length;
+  }
+
+  /**
+   * @return false if the stream ends before the position
+   */
+  private static boolean skip(InputStream in, long count) throws IOException {
+    while (count > 0) {
+      long skipped = in.skip(count);
+      if (skipped <= 0) {
+        if (in.read() == -1) {
+          return false;
+        }
+        skipped = 1;
+      }
+      count -= skipped;
+    }
+    return true;
+  }
+
+  private static int fill(InputStream in, byte[] window, int length) throws IOException {
+    int count = 0;
+    while (count < length) {
+      int read = in.read(window, count, length - count);
+      if (read == -1) {
+        break;
+      }
+      count += read;
+    }
+    return count;
+  }
+
+  private static void close(TPath path, Closeable resource, boolean completed) throws TIoException {
+    try {
+      resource.close();
+    } catch (IOException e) {
+      if (completed) {
+        throw new TIoException(path, "closing resource", e);
+      }
+    }
+  }
+
+  private interface Unmapper {
+    boolean unmap(ByteBuffer buffer);
+  }
+
+  private static Unmapper unmapper() {
+    try {
+      Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+      final Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+      Field field = unsafeClass.getDeclaredField("theUnsafe");
+      field.setAccessible(true);
+      final Object unsafe = field.get(null);
+      return new Unmapper() {
+        public boolean unmap(ByteBuffer buffer) {
+          try {
+            invokeCleaner.invoke(unsafe, buffer);
+            return true;
+          } catch (Exception e) {
+            return false;
+          }
+        }
+      };
+    } catch (Exception e) {
+      // before Java 9 the cleaner is reached through the buffer itself
+      return new Unmapper() {
+        public boolean unmap(ByteBuffer buffer) {
+          try {
+            Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+            cleanerMethod.setAccessible(true);
+            Object cleaner = cleanerMethod.invoke(buffer);
+            if (cleaner == null) {
+              return false;
+            }
+            Method cleanMethod = cleaner.getClass().getMethod("clean");
+            cleanMethod.setAccessible(true);
+            cleanMethod.invoke(cleaner);
+            return true;
+          } catch (Exception e) {
+            return false;
+          }
+        }
+      };
+    }
+  }
+}
@@ -0,0 +1,22 @@
+package net.sf.cotta.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Processor of the content of a file as read-only byte buffers, which are memory mapped when the file
+ * system supports it.  The content is passed in consecutive windows, each of which is valid only until
+ * the call returns, when the mapping is released; the processor must not keep any of them.  A record
+ * of the content can span two windows.
+ *
+ * @see net.sf.cotta.TFile#read(MappedProcessor)
+ * @see net.sf.cotta.TFile#map(long, long, MappedProcessor)
+ */
+public interface MappedProcessor {
+  /**
+   * @param buffer   the content of the window, from its position to its limit
+   * @param position position of the first byte of the window in the file
+   * @throws IOException error in processing the content
+   */
+  void process(ByteBuffer buffer, long position) throws IOException;
+}
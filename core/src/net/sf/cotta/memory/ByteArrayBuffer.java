@@ -2,119 +2,174 @@ package net.sf.cotta.memory;
 
 import net.sf.cotta.ByteArrayIndexOutOfBoundsException;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
 import java.nio.ByteBuffer;
 import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
 
 /**
- * Faster performing ByteArrayBuffer using the ByteArrayOutputStream as a
- * backing up stream. Writes 400MB in 44 seconds. Requires approx 2x memory
- * of the file size, eg for 400MB set -Xmx1024m.
+ * Byte buffer that keeps the content in pages of fixed size, so that appending never copies
+ * what has been written and reading goes straight into the page that holds the position.
+ * Only the first page grows, starting from the initial capacity by the increment or by doubling,
+ * until it reaches the page size; small files therefore do not take up a whole page each.
+ * The memory used is the size of the content plus less than a page, and positions are long so the
+ * content is not limited to 2GB.
  * <p/>
- * Contributed by:
+ * Originally contributed by:
  * Sergey Abramov
  * http://coldcore.com
  */
-public class ByteArrayBuffer {
-
-  private int size = 0;
+public class ByteArrayBuffer implements ContentBuffer {
   public static final int INCREMENT = 8192;
+  public static final int PAGE_SIZE = 64 * 1024;
 
-  /**
-   * Flush the backing up stream into the byte array at
-   * every 10MB (optimal performance)
-   */
-  private static final int FLUSH_AT = 1024 * 1024 * 10;
-
-  /**
-   * The byte buffer where the backing up stream flushes its data.
-   */
-  private byte[] buffer;
-
-  /**
-   * All the data is written into this backing up stream, which is
-   * then flushed into the byte buffer.
-   */
-  private ByteArrayOutputStream bout;
-
+  private final int increment;
+  private final int pageShift;
+  private final int pageMask;
+  private byte[][] pages = new byte[1][];
+  private int pageCount = 0;
+  private long size = 0;
+  private boolean[] shared; // pages shared with copies, null if never copied
 
   public ByteArrayBuffer(byte[] content) {
     this(content, INCREMENT);
   }
 
-
   public ByteArrayBuffer(byte[] content, int increament) {
-    this.buffer = new byte[content.length];
-    System.arraycopy(content, 0, buffer, 0, content.length);
-    size = content.length;
-    bout = new ByteArrayOutputStream(increament);
+    this(content.length, increament);
+    append(content);
   }
 
-
   public ByteArrayBuffer() {
     this(INCREMENT);
   }
 
-
   public ByteArrayBuffer(int initialCapacity) {
     this(initialCapacity, INCREMENT);
   }
 
   public ByteArrayBuffer(int initialCapacity, int increment) {
-    buffer = new byte[initialCapacity];
-    bout = new ByteArrayOutputStream(increment);
+    this(initialCapacity, increment, PAGE_SIZE);
   }
 
-
   /**
-   * Flush data from the backing up stream into the byte buffer.
+   * Creates the buffer
+   *
+   * @param initialCapacity capacity to allocate at creation
+   * @param increment       minimum number of bytes to add when the first page grows
+   * @param pageSize        size of each page, which will be rounded up to the power of two
    */
-  private void flush() {
-    int bsize = bout.size();
-    if (bsize > 0) {
-      if (size > buffer.length) increaseCapacity(size);
-      System.arraycopy(bout.toByteArray(), 0, buffer, size - bsize, bsize);
-      bout.reset();
+  public ByteArrayBuffer(int initialCapacity, int increment, int pageSize) {
+    if (pageSize <= 0) {
+      throw new IllegalArgumentException("page size needs to be positive:" + pageSize);
+    }
+    int roundedSize = Integer.highestOneBit(pageSize);
+    if (roundedSize < pageSize) {
+      roundedSize <<= 1;
+    }
+    this.increment = Math.max(1, increment);
+    this.pageShift = Integer.numberOfTrailingZeros(roundedSize);
+    this.pageMask = roundedSize - 1;
+    ensureCapacity(initialCapacity);
+  }
+
+  private ByteArrayBuffer(ByteArrayBuffer original) {
+    this.increment = original.increment;
+    this.pageShift = original.pageShift;
+    this.pageMask = original.pageMask;
+    this.pages = original.pages.clone();
+    this.pageCount = original.pageCount;
+    this.size = original.size;
+  }
+
+  private int pageSize() {
+    return pageMask + 1;
+  }
+
+  private long capacity() {
+    return pageCount == 0 ? 0 : ((long) (pageCount - 1) << pageShift) + pages[pageCount - 1].length;
+  }
+
+  private void ensureCapacity(long required) {
+    long capacity = capacity();
+    while (capacity < required) {
+      if (pageCount == 1 && pages[0].length < pageSize()) {
+        int length = pages[0].length;
+        int newLength = (int) Math.min(pageSize(), Math.max(required, length + Math.max(increment, length)));
+        byte[] page = new byte[newLength];
+        System.arraycopy(pages[0], 0, page, 0, (int) size);
+        pages[0] = page;
+        if (shared != null) {
+          shared[0] = false;
+        }
+        capacity = newLength;
+      } else {
+        int length = pageCount == 0 ? (int) Math.min(pageSize(), required) : pageSize();
+        addPage(new byte[length]);
+        capacity += length;
+      }
     }
   }
 
+  private void addPage(byte[] page) {
+    if (pageCount == pages.length) {
+      byte[][] newPages = new byte[pages.length * 2][];
+      System.arraycopy(pages, 0, newPages, 0, pageCount);
+      pages = newPages;
+    }
+    if (shared != null && pageCount < shared.length) {
+      shared[pageCount] = false;
+    }
+    pages[pageCount++] = page;
+  }
+
+  /**
+   * Returns the page to write to, copying it first if it is shared with a copy of the buffer
+   */
+  private byte[] writablePage(int index) {
+    if (shared != null && index < shared.length && shared[index]) {
+      pages[index] = pages[index].clone();
+      shared[index] = false;
+    }
+    return pages[index];
+  }
 
   public byte[] toByteArray() {
-    flush();
-    byte[] result = new byte[size];
-    System.arraycopy(buffer, 0, result, 0, size);
+    if (size > Integer.MAX_VALUE) {
+      throw new IllegalStateException("content of <" + size + "> bytes is too large for an array");
+    }
+    byte[] result = new byte[(int) size];
+    copyTo(0, result, 0, result.length);
     return result;
   }
 
-
   public ByteArrayBuffer append(byte b) {
-    bout.write(b);
+    ensureCapacity(size + 1);
+    writablePage((int) (size >>> pageShift))[(int) size & pageMask] = b;
     size++;
-    if (size % FLUSH_AT == 0) flush();
     return this;
   }
 
-  /**
-   * Faster performing method, output stream should delegate to it (comment above).
-   */
   public ByteArrayBuffer append(byte[] b, int off, int len) {
-    bout.write(b, off, len);
-    size += len;
-    if (size % FLUSH_AT == 0) flush();
+    ensureCapacity(size + len);
+    while (len > 0) {
+      byte[] page = writablePage((int) (size >>> pageShift));
+      int pageOffset = (int) size & pageMask;
+      int count = Math.min(len, page.length - pageOffset);
+      System.arraycopy(b, off, page, pageOffset, count);
+      off += count;
+      len -= count;
+      size += count;
+    }
     return this;
   }
 
-
-  /**
-   * Faster performing method, output stream should delegate to it (comment above).
-   */
   public ByteArrayBuffer append(byte[] b) {
     return append(b, 0, b.length);
   }
 
-
   /**
    * This works for the default charset only:
    * <p/>
@@ -128,7 +183,6 @@ public class ByteArrayBuffer {
     append(bytes);
   }
 
-
   /**
    * This one converts to the proper charset.
    */
@@ -137,70 +191,154 @@ public class ByteArrayBuffer {
     append(bytes);
   }
 
-
-  private void increaseCapacity(int targetCapacity) {
-    byte[] newBuffer = new byte[targetCapacity];
-    System.arraycopy(buffer, 0, newBuffer, 0, buffer.length);
-    buffer = newBuffer;
-  }
-
-
   public byte byteAt(long position) {
-    return byteAt((int) position);
-  }
-
-
-  public byte byteAt(int position) {
     if (position < 0 || position >= size) {
       throw new ByteArrayIndexOutOfBoundsException(position, size);
     }
-    flush();
-    return buffer[position];
+    return pages[(int) (position >>> pageShift)][(int) position & pageMask];
   }
 
+  public byte byteAt(int position) {
+    return byteAt((long) position);
+  }
 
-  public int size() {
+  public long size() {
     return size;
   }
 
+  public int copyTo(long position, byte[] dst, int off, int len) {
+    int sizeToCopy = (int) Math.min(len, size - position);
+    if (sizeToCopy <= 0) {
+      return 0;
+    }
+    int remaining = sizeToCopy;
+    while (remaining > 0) {
+      int pageOffset = (int) position & pageMask;
+      int count = Math.min(remaining, pageSize() - pageOffset);
+      System.arraycopy(pages[(int) (position >>> pageShift)], pageOffset, dst, off, count);
+      position += count;
+      off += count;
+      remaining -= count;
+    }
+    return sizeToCopy;
+  }
 
   public int copyFrom(ByteBuffer src) {
-    flush();
+    return write(size, src);
+  }
+
+  public int write(long position, ByteBuffer src) {
     int sizeToCopy = src.remaining();
-    int resultingSize = sizeToCopy + size;
-    if (buffer.length < resultingSize) {
-      increaseCapacity(resultingSize);
+    long end = position + sizeToCopy;
+    ensureCapacity(end);
+    if (position > size) {
+      fillZeros(size, position);
+    }
+    long current = position;
+    while (current < end) {
+      byte[] page = writablePage((int) (current >>> pageShift));
+      int pageOffset = (int) current & pageMask;
+      int count = (int) Math.min(end - current, page.length - pageOffset);
+      src.get(page, pageOffset, count);
+      current += count;
     }
-    src.get(buffer, size, sizeToCopy);
-    size += sizeToCopy;
+    size = Math.max(size, end);
     return sizeToCopy;
   }
 
+  private void fillZeros(long from, long to) {
+    while (from < to) {
+      int pageOffset = (int) from & pageMask;
+      int count = (int) Math.min(to - from, pageSize() - pageOffset);
+      Arrays.fill(writablePage((int) (from >>> pageShift)), pageOffset, pageOffset + count, (byte) 0);
+      from += count;
+    }
+  }
+
+  public void truncate(long newSize) {
+    if (newSize >= size) {
+      return;
+    }
+    size = Math.max(0, newSize);
+    int pagesNeeded = (int) ((size + pageMask) >>> pageShift);
+    for (int i = pagesNeeded; i < pageCount; i++) {
+      pages[i] = null;
+    }
+    pageCount = Math.min(pageCount, pagesNeeded);
+  }
 
-  public long copyTo(ByteBuffer dst, int start, int count) {
-    int end = Math.min(size, start + count);
-    int sizeToCopy = end - start;
+  public long copyTo(ByteBuffer dst, long start, int count) {
+    long end = Math.min(size, start + count);
+    long sizeToCopy = end - start;
     if (sizeToCopy <= 0) {
       return 0;
     }
-    flush();
-    dst.put(buffer, start, sizeToCopy);
+    long position = start;
+    while (position < end) {
+      int pageOffset = (int) position & pageMask;
+      int length = (int) Math.min(end - position, pageSize() - pageOffset);
+      dst.put(pages[(int) (position >>> pageShift)], pageOffset, length);
+      position += length;
+    }
     return sizeToCopy;
   }
 
+  public ByteBuffer view(long position, int count) {
+    if (position >= size) {
+      return ByteBuffer.allocate(0).asReadOnlyBuffer();
+    }
+    int pageOffset = (int) position & pageMask;
+    int length = (int) Math.min(Math.min(count, size - position), pageSize() - pageOffset);
+    return ByteBuffer.wrap(pages[(int) (position >>> pageShift)], pageOffset, length).slice().asReadOnlyBuffer();
+  }
 
   public long copyTo(WritableByteChannel target, long position, long count) throws IOException {
     long end = Math.min(size, position + count);
-    long sizeToCopy = end - position;
-    if (sizeToCopy <= 0) {
+    if (end - position <= 0) {
       return 0;
     }
-    ByteBuffer buffer = ByteBuffer.allocate((int) sizeToCopy);
-    copyTo(buffer, (int) position, (int) (count));
-    buffer.rewind();
-    return target.write(buffer);
+    long current = position;
+    while (current < end) {
+      int pageOffset = (int) current & pageMask;
+      int length = (int) Math.min(end - current, pageSize() - pageOffset);
+      ByteBuffer buffer = ByteBuffer.wrap(pages[(int) (current >>> pageShift)], pageOffset, length);
+      int written = target.write(buffer);
+      current += written;
+      if (written < length) {
+        break;
+      }
+    }
+    return current - position;
   }
 
+  public long copyTo(OutputStream out, long position, long count) throws IOException {
+    long end = Math.min(size, position + count);
+    if (end - position <= 0) {
+      return 0;
+    }
+    long current = position;
+    while (current < end) {
+      int pageOffset = (int) current & pageMask;
+      int length = (int) Math.min(end - current, pageSize() - pageOffset);
+      out.write(pages[(int) (current >>> pageShift)], pageOffset, length);
+      current += length;
+    }
+    return end - position;
+  }
+
+  public ByteArrayBuffer copy() {
+    ByteArrayBuffer copy = new ByteArrayBuffer(this);
+    shared = new boolean[pageCount];
+    Arrays.fill(shared, true);
+    copy.shared = shared.clone();
+    return copy;
+  }
+
+  /**
+   * Leaves the pages to the garbage collector, as the streams still open on the buffer may read them
+   */
+  public void release() {
+  }
 
   /**
    * This method returns a string using the default charset.
@@ -209,11 +347,10 @@ public class ByteArrayBuffer {
     return new String(toByteArray());
   }
 
-
   /**
    * This method returns a string converted to the proper charset.
    */
   public String toString(String charsetName) throws UnsupportedEncodingException {
     return new String(toByteArray(), charsetName);
   }
-}
\ No newline at end of file
+}
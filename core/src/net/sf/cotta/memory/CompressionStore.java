@@ -0,0 +1,271 @@
+package net.sf.cotta.memory;
+
+import net.sf.cotta.TIoException;
+import net.sf.cotta.TIoRuntimeException;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Compresses the file contents of an in-memory file system that have not been accessed for a while.
+ * A compressed content is decompressed into a cache of bounded size when it is read, and stays
+ * compressed, so the contents read once in a while are decompressed again only when they have
+ * dropped out of the cache.  It is decompressed for good when it is written to.  A content is not
+ * compressed while a stream or channel on it is open.
+ * <p/>
+ * The idle contents are looked for whenever a content is accessed, and by {@link #compressIdleContent()}.
+ * All the changes happen under the lock of the store.
+ *
+ * @see InMemoryFileSystemBuilder#withCompression(long, long)
+ */
+class CompressionStore {
+  private static final int CHUNK_SIZE = 8192;
+
+  private final long idleMillis;
+  private final long cacheBytes;
+  private final Map<InMemoryFileContent, Long> lastAccess = new LinkedHashMap<InMemoryFileContent, Long>(16, 0.75f, true);
+  private final Map<InMemoryFileContent, ByteArrayBuffer> cache = new LinkedHashMap<InMemoryFileContent, ByteArrayBuffer>(16, 0.75f, true);
+  private long cachedBytes = 0;
+  private long originalBytes = 0;
+  private long compressedBytes = 0;
+  private long compressionCount = 0;
+  private long decompressionCount = 0;
+  private long cacheHitCount = 0;
+  private long compressionNanos = 0;
+  private long decompressionNanos = 0;
+
+  /**
+   * @param idleMillis number of milliseconds a content needs to be left alone before it is compressed
+   * @param cacheBytes number of bytes of decompressed contents to keep for reading
+   */
+  CompressionStore(long idleMillis, long cacheBytes) {
+    if (idleMillis < 0) {
+      throw new IllegalArgumentException("idle time cannot be negative:" + idleMillis);
+    }
+    if (cacheBytes < 0) {
+      throw new IllegalArgumentException("cache size cannot be negative:" + cacheBytes);
+    }
+    this.idleMillis = idleMillis;
+    this.cacheBytes = cacheBytes;
+  }
+
+  /**
+   * Decompresses the content for good if it is compressed, for it to be written to
+   *
+   * @return the buffer of the content
+   */
+  synchronized ContentBuffer access(InMemoryFileContent content) {
+    if (content.isCompressed()) {
+      ContentBuffer buffer = inflate(content, content.newBuffer(content.size()));
+      drop(content);
+      content.setBuffer(buffer);
+    }
+    touch(content);
+    compressIdle(content);
+    return content.getBuffer();
+  }
+
+  /**
+   * Finds the buffer to read the content from, which is the decompressed copy in the cache
+   * when the content is compressed
+   */
+  synchronized ContentBuffer read(InMemoryFileContent content) {
+    touch(content);
+    compressIdle(content);
+    if (!content.isCompressed()) {
+      return content.getBuffer();
+    }
+    ByteArrayBuffer buffer = cache.get(content);
+    if (buffer != null) {
+      cacheHitCount++;
+      return buffer;
+    }
+    buffer = (ByteArrayBuffer) inflate(content, new ByteArrayBuffer((int) Math.min(content.size(), Integer.MAX_VALUE)));
+    if (buffer.size() <= cacheBytes) {
+      cache.put(content, buffer);
+      cachedBytes += buffer.size();
+      evictFromCache();
+    }
+    return buffer;
+  }
+
+  /**
+   * Finds the buffer to read from or write to, and keeps the content as it is until {@link #close(InMemoryFileContent)}
+   */
+  synchronized ContentBuffer open(InMemoryFileContent content, boolean write) {
+    ContentBuffer buffer = write ? access(content) : read(content);
+    content.pin();
+    return buffer;
+  }
+
+  synchronized void close(InMemoryFileContent content) {
+    content.unpin();
+    touch(content);
+    compressIdle(null);
+  }
+
+  /**
+   * Shares the content with the copy of the file, compressed or not
+   */
+  synchronized void copy(InMemoryFileContent source, InMemoryFileContent target) {
+    if (source.isCompressed()) {
+      target.setCompressed(source.getCompressed(), source.size());
+      originalBytes += source.size();
+      compressedBytes += source.getCompressed().length;
+    } else {
+      target.setBuffer(source.getBuffer().copy());
+      touch(target);
+    }
+  }
+
+  /**
+   * Drops the content, compressed or not, when the file is deleted or overwritten.  The buffer read by
+   * the streams still open on the content is given back when the last one is closed.
+   */
+  synchronized void discard(InMemoryFileContent content) {
+    lastAccess.remove(content);
+    drop(content);
+    try {
+      content.discard();
+    } catch (TIoException e) {
+      throw new TIoRuntimeException(e);
+    }
+  }
+
+  /**
+   * Compresses all the contents that have been idle long enough
+   */
+  synchronized void compressIdleContent() {
+    compressIdle(null);
+  }
+
+  private void touch(InMemoryFileContent content) {
+    if (!content.isCompressed()) {
+      lastAccess.put(content, System.currentTimeMillis());
+    }
+  }
+
+  private void compressIdle(InMemoryFileContent accessed) {
+    long idleSince = System.currentTimeMillis() - idleMillis;
+    Iterator<Map.Entry<InMemoryFileContent, Long>> iterator = lastAccess.entrySet().iterator();
+    while (iterator.hasNext()) {
+      Map.Entry<InMemoryFileContent, Long> entry = iterator.next();
+      if (entry.getValue() > idleSince) {
+        break;
+      }
+      InMemoryFileContent content = entry.getKey();
+      if (content == accessed || content.isPinned()) {
+        continue;
+      }
+      compress(content);
+      iterator.remove();
+    }
+  }
+
+  /**
+   * Compresses the content, unless that does not make it smaller
+   */
+  private void compress(InMemoryFileContent content) {
+    long start = System.nanoTime();
+    ContentBuffer buffer = content.getBuffer();
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    try {
+      DeflaterOutputStream out = new DeflaterOutputStream(bytes, deflater, CHUNK_SIZE);
+      buffer.copyTo(out, 0, buffer.size());
+      out.close();
+    } catch (IOException e) {
+      throw new IllegalStateException("compressing into memory cannot fail", e);
+    } finally {
+      deflater.end();
+    }
+    compressionNanos += System.nanoTime() - start;
+    if (bytes.size() >= buffer.size()) {
+      return;
+    }
+    byte[] compressed = bytes.toByteArray();
+    originalBytes += buffer.size();
+    compressedBytes += compressed.length;
+    compressionCount++;
+    content.setCompressed(compressed, buffer.size());
+    buffer.release();
+  }
+
+  private ContentBuffer inflate(InMemoryFileContent content, ContentBuffer buffer) {
+    long start = System.nanoTime();
+    InputStream in = new InflaterInputStream(new ByteArrayInputStream(content.getCompressed()));
+    try {
+      byte[] chunk = new byte[CHUNK_SIZE];
+      int read;
+      while ((read = in.read(chunk)) > 0) {
+        buffer.append(chunk, 0, read);
+      }
+    } catch (IOException e) {
+      throw new IllegalStateException("compressed content is corrupt", e);
+    }
+    decompressionNanos += System.nanoTime() - start;
+    decompressionCount++;
+    return buffer;
+  }
+
+  /**
+   * Forgets the compressed form of the content
+   */
+  private void drop(InMemoryFileContent content) {
+    ByteArrayBuffer cached = cache.remove(content);
+    if (cached != null) {
+      cachedBytes -= cached.size();
+    }
+    if (content.isCompressed()) {
+      originalBytes -= content.size();
+      compressedBytes -= content.getCompressed().length;
+    }
+  }
+
+  private void evictFromCache() {
+    Iterator<ByteArrayBuffer> iterator = cache.values().iterator();
+    while (cachedBytes > cacheBytes && iterator.hasNext()) {
+      cachedBytes -= iterator.next().size();
+      iterator.remove();
+    }
+  }
+
+  /**
+   * @return number of bytes of the compressed contents before compression over the bytes after, or 1 if none
+   */
+  synchronized double compressionRatio() {
+    return compressedBytes == 0 ? 1.0 : (double) originalBytes / compressedBytes;
+  }
+
+  synchronized long compressedBytes() {
+    return compressedBytes;
+  }
+
+  synchronized long compressionCount() {
+    return compressionCount;
+  }
+
+  synchronized long decompressionCount() {
+    return decompressionCount;
+  }
+
+  synchronized long cacheHitCount() {
+    return cacheHitCount;
+  }
+
+  synchronized long compressionNanos() {
+    return compressionNanos;
+  }
+
+  synchronized long decompressionNanos() {
+    return decompressionNanos;
+  }
+}
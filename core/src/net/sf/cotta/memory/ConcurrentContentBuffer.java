@@ -0,0 +1,171 @@
+package net.sf.cotta.memory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Content buffer that lets threads read the content while another thread writes to it.  Reads share
+ * a lock with each other, and each write holds the lock exclusively, so a reader sees the content as
+ * it is before or after a write but never in between.
+ */
+class ConcurrentContentBuffer implements ContentBuffer {
+  private final ContentBuffer buffer;
+  private final Lock readLock;
+  private final Lock writeLock;
+
+  ConcurrentContentBuffer(ContentBuffer buffer) {
+    this.buffer = buffer;
+    ReadWriteLock lock = new ReentrantReadWriteLock();
+    this.readLock = lock.readLock();
+    this.writeLock = lock.writeLock();
+  }
+
+  public long size() {
+    readLock.lock();
+    try {
+      return buffer.size();
+    } finally {
+      readLock.unlock();
+    }
+  }
+
+  public byte byteAt(long position) {
+    readLock.lock();
+    try {
+      return buffer.byteAt(position);
+    } finally {
+      readLock.unlock();
+    }
+  }
+
+  public ContentBuffer append(byte b) {
+    writeLock.lock();
+    try {
+      buffer.append(b);
+      return this;
+    } finally {
+      writeLock.unlock();
+    }
+  }
+
+  public ContentBuffer append(byte[] b, int off, int len) {
+    writeLock.lock();
+    try {
+      buffer.append(b, off, len);
+      return this;
+    } finally {
+      writeLock.unlock();
+    }
+  }
+
+  public int copyTo(long position, byte[] dst, int off, int len) {
+    readLock.lock();
+    try {
+      return buffer.copyTo(position, dst, off, len);
+    } finally {
+      readLock.unlock();
+    }
+  }
+
+  public int copyFrom(ByteBuffer src) {
+    writeLock.lock();
+    try {
+      return buffer.copyFrom(src);
+    } finally {
+      writeLock.unlock();
+    }
+  }
+
+  public int write(long position, ByteBuffer src) {
+    writeLock.lock();
+    try {
+      return buffer.write(position, src);
+    } finally {
+      writeLock.unlock();
+    }
+  }
+
+  public void truncate(long size) {
+    writeLock.lock();
+    try {
+      buffer.truncate(size);
+    } finally {
+      writeLock.unlock();
+    }
+  }
+
+  public long copyTo(ByteBuffer dst, long start, int count) {
+    readLock.lock();
+    try {
+      return buffer.copyTo(dst, start, count);
+    } finally {
+      readLock.unlock();
+    }
+  }
+
+  public ByteBuffer view(long position, int count) {
+    readLock.lock();
+    try {
+      return buffer.view(position, count);
+    } finally {
+      readLock.unlock();
+    }
+  }
+
+  public long copyTo(WritableByteChannel target, long position, long count) throws IOException {
+    readLock.lock();
+    try {
+      return buffer.copyTo(target, position, count);
+    } finally {
+      readLock.unlock();
+    }
+  }
+
+  public long copyTo(OutputStream out, long position, long count) throws IOException {
+    readLock.lock();
+    try {
+      return buffer.copyTo(out, position, count);
+    } finally {
+      readLock.unlock();
+    }
+  }
+
+  public byte[] toByteArray() {
+    readLock.lock();
+    try {
+      return buffer.toByteArray();
+    } finally {
+      readLock.unlock();
+    }
+  }
+
+  /**
+   * Copying marks the pages of this buffer as shared, so it is a write as well
+   */
+  public ContentBuffer copy() {
+    writeLock.lock();
+    try {
+      return new ConcurrentContentBuffer(buffer.copy());
+    } finally {
+      writeLock.unlock();
+    }
+  }
+
+  public void release() {
+    writeLock.lock();
+    try {
+      buffer.release();
+    } finally {
+      writeLock.unlock();
+    }
+  }
+
+  public String toString() {
+    return new String(toByteArray());
+  }
+}
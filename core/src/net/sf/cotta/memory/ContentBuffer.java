@@ -0,0 +1,106 @@
+package net.sf.cotta.memory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Storage of the content of an in-memory file, addressed by long positions
+ *
+ * @see ByteArrayBuffer
+ * @see OffHeapBuffer
+ */
+public interface ContentBuffer {
+  long size();
+
+  byte byteAt(long position);
+
+  ContentBuffer append(byte b);
+
+  ContentBuffer append(byte[] b, int off, int len);
+
+  /**
+   * Copies the bytes starting from the position into the array
+   *
+   * @param position position of the first byte to copy
+   * @param dst      target array
+   * @param off      offset in the target array
+   * @param len      maximum number of bytes to copy
+   * @return number of bytes copied, which is 0 if the position is at or beyond the end
+   */
+  int copyTo(long position, byte[] dst, int off, int len);
+
+  /**
+   * Appends the remaining bytes of the source
+   *
+   * @param src source buffer
+   * @return number of bytes appended
+   */
+  int copyFrom(ByteBuffer src);
+
+  /**
+   * Writes the remaining bytes of the source at the position, overwriting the bytes there and
+   * extending the content if needed.  The gap between the end and the position is filled with zeros.
+   *
+   * @param position position to write to
+   * @param src      source buffer
+   * @return number of bytes written
+   */
+  int write(long position, ByteBuffer src);
+
+  /**
+   * Cuts the content to the size, if it is larger
+   *
+   * @param size new size
+   */
+  void truncate(long size);
+
+  long copyTo(ByteBuffer dst, long start, int count);
+
+  /**
+   * Returns a read-only view of the content starting from the position, without copying.  The view ends
+   * at the end of the content, after the count bytes, or where the storage of the content does, whichever
+   * comes first, so it can be shorter than the count even before the end of the content.  The view shares
+   * the bytes with the content, so it is only meant to be used while the content is not written to.
+   *
+   * @param position position of the first byte
+   * @param count    maximum number of bytes
+   * @return the view, which is empty if the position is at or beyond the end
+   */
+  ByteBuffer view(long position, int count);
+
+  long copyTo(WritableByteChannel target, long position, long count) throws IOException;
+
+  /**
+   * Writes the bytes starting from the position to the output stream
+   *
+   * @param out      target stream
+   * @param position position of the first byte to write
+   * @param count    maximum number of bytes to write
+   * @return number of bytes written
+   * @throws IOException error in writing to the stream
+   */
+  long copyTo(OutputStream out, long position, long count) throws IOException;
+
+  /**
+   * @return the content as a newly created array
+   * @throws IllegalStateException if the content is too large for an array
+   */
+  byte[] toByteArray();
+
+  /**
+   * Creates a copy of the content that shares the memory with this buffer until either of them
+   * writes to it, after which only the pages written to are copied
+   *
+   * @return the copy
+   */
+  ContentBuffer copy();
+
+  /**
+   * Gives back the memory held by the content that the garbage collector does not manage, after which
+   * the content must not be used.  The buffers on the heap leave their memory to the garbage collector,
+   * so the streams still holding them keep reading.
+   */
+  void release();
+}
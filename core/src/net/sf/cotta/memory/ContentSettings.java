@@ -0,0 +1,102 @@
+package net.sf.cotta.memory;
+
+/**
+ * Settings shared by the file contents of one in-memory file system: where the contents are kept, and the
+ * stores that move them out of memory, share them or compress them.  The stores are optional and set up
+ * by {@link InMemoryFileSystemBuilder}.
+ */
+class ContentSettings {
+  private final OffHeapMemory offHeapMemory;
+  private final boolean concurrent;
+  private SpillStore spillStore;
+  private ContentStore contentStore;
+  private CompressionStore compressionStore;
+
+  /**
+   * @param storage    where the contents are kept
+   * @param concurrent true if the contents are to be read and written by different threads at the same time
+   */
+  ContentSettings(InMemoryFileSystem.StorageType storage, boolean concurrent) {
+    this(offHeapMemory(storage), concurrent);
+  }
+
+  /**
+   * @param offHeapMemory memory for the contents, or null to keep the contents on the heap
+   * @param concurrent    true if the contents are to be read and written by different threads at the same time
+   */
+  ContentSettings(OffHeapMemory offHeapMemory, boolean concurrent) {
+    this.offHeapMemory = offHeapMemory;
+    this.concurrent = concurrent;
+  }
+
+  private static OffHeapMemory offHeapMemory(InMemoryFileSystem.StorageType storage) {
+    if (storage == InMemoryFileSystem.StorageType.HEAP) {
+      return null;
+    }
+    else if (storage == InMemoryFileSystem.StorageType.OFF_HEAP) {
+      return new OffHeapMemory();
+    }
+    else {
+      throw new IllegalArgumentException("unrecognized storage type: " + storage);
+    }
+  }
+
+  /**
+   * @param spillStore store to move the contents out of memory when over the budget
+   * @return these settings
+   */
+  ContentSettings withSpillStore(SpillStore spillStore) {
+    this.spillStore = spillStore;
+    return this;
+  }
+
+  /**
+   * @param contentStore store to share the contents with the files of the same content
+   * @return these settings
+   */
+  ContentSettings withContentStore(ContentStore contentStore) {
+    this.contentStore = contentStore;
+    return this;
+  }
+
+  /**
+   * @param compressionStore store to compress the contents when they are idle
+   * @return these settings
+   */
+  ContentSettings withCompressionStore(CompressionStore compressionStore) {
+    this.compressionStore = compressionStore;
+    return this;
+  }
+
+  /**
+   * @return memory for the contents, or null if the contents are kept on the heap
+   */
+  OffHeapMemory offHeapMemory() {
+    return offHeapMemory;
+  }
+
+  boolean isConcurrent() {
+    return concurrent;
+  }
+
+  /**
+   * @return store to move the contents out of memory, or null to keep them in memory
+   */
+  SpillStore spillStore() {
+    return spillStore;
+  }
+
+  /**
+   * @return store to share the contents, or null not to share them
+   */
+  ContentStore contentStore() {
+    return contentStore;
+  }
+
+  /**
+   * @return store to compress the contents, or null to keep them as they are
+   */
+  CompressionStore compressionStore() {
+    return compressionStore;
+  }
+}
@@ -0,0 +1,136 @@
+package net.sf.cotta.memory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Keeps one buffer for each distinct file content of an in-memory file system, keyed by the SHA-256
+ * digest of the content, and counts the files referring to it.  Files with the same content share the
+ * buffer, and a file copies it before being written to, so a stored buffer never changes.  The content
+ * is trusted to be the same when the digests are, without comparing the bytes.
+ *
+ * @see InMemoryFileSystemBuilder#withDeduplication()
+ */
+class ContentStore {
+  private static final String DIGEST_ALGORITHM = "SHA-256";
+
+  private final Map<ByteBuffer, Entry> entries = new HashMap<ByteBuffer, Entry>();
+  private long logicalBytes = 0;
+  private long storedBytes = 0;
+
+  /**
+   * Stores the content, unless the same content is stored already
+   *
+   * @param buffer content to store, which must not be written to afterwards
+   * @return the entry holding the content, whose buffer replaces the one passed in
+   */
+  Entry store(ContentBuffer buffer) {
+    ByteBuffer key = digest(buffer);
+    synchronized (this) {
+      Entry entry = entries.get(key);
+      if (entry == null) {
+        entry = new Entry(key, buffer);
+        entries.put(key, entry);
+        storedBytes += buffer.size();
+      }
+      retain(entry);
+      return entry;
+    }
+  }
+
+  /**
+   * Adds a reference to the entry, for a copied file
+   */
+  synchronized void retain(Entry entry) {
+    entry.references++;
+    logicalBytes += entry.buffer.size();
+  }
+
+  /**
+   * Removes a reference to the entry, releasing the content with the last one.  A file keeps its
+   * reference until the streams open on it are closed, so the released content is not read any more.
+   */
+  synchronized void release(Entry entry) {
+    logicalBytes -= entry.buffer.size();
+    if (--entry.references == 0) {
+      entries.remove(entry.key);
+      storedBytes -= entry.buffer.size();
+      entry.buffer.release();
+    }
+  }
+
+  /**
+   * Removes a reference to the entry and returns a buffer that can be written to, which is the
+   * buffer of the entry itself if there is no other reference
+   */
+  synchronized ContentBuffer detach(Entry entry) {
+    if (entry.references == 1) {
+      entry.references = 0;
+      logicalBytes -= entry.buffer.size();
+      storedBytes -= entry.buffer.size();
+      entries.remove(entry.key);
+      return entry.buffer;
+    }
+    ContentBuffer copy = entry.buffer.copy();
+    release(entry);
+    return copy;
+  }
+
+  /**
+   * @return number of bytes of the stored contents as seen by the files, over the bytes actually stored
+   */
+  synchronized double dedupRatio() {
+    return storedBytes == 0 ? 1.0 : (double) logicalBytes / storedBytes;
+  }
+
+  synchronized long storedBytes() {
+    return storedBytes;
+  }
+
+  synchronized int size() {
+    return entries.size();
+  }
+
+  private static ByteBuffer digest(ContentBuffer buffer) {
+    final MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance(DIGEST_ALGORITHM);
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(DIGEST_ALGORITHM + " not available", e);
+    }
+    try {
+      buffer.copyTo(new OutputStream() {
+        public void write(int b) {
+          digest.update((byte) b);
+        }
+
+        public void write(byte[] b, int off, int len) {
+          digest.update(b, off, len);
+        }
+      }, 0, buffer.size());
+    } catch (IOException e) {
+      throw new IllegalStateException("digest cannot fail on writing", e);
+    }
+    return ByteBuffer.wrap(digest.digest());
+  }
+
+  static class Entry {
+    private final ByteBuffer key;
+    private final ContentBuffer buffer;
+    private int references = 0;
+
+    private Entry(ByteBuffer key, ContentBuffer buffer) {
+      this.key = key;
+      this.buffer = buffer;
+    }
+
+    ContentBuffer buffer() {
+      return buffer;
+    }
+  }
+}
@@ -0,0 +1,191 @@
+package net.sf.cotta.memory;
+
+import net.sf.cotta.ByteArrayIndexOutOfBoundsException;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Content buffer that reads the content of a file straight from a loaded file system image, which is
+ * normally memory mapped.  The content is copied into a buffer of the file system when it is first
+ * written to, so the image is never changed and the pages of the image are read only when needed.
+ *
+ * @see InMemoryFileSystemImage
+ */
+class ImageContentBuffer implements ContentBuffer {
+  private static final int CHUNK_SIZE = 8192;
+
+  private ByteBuffer image;
+  private ContentBuffer target;
+  private boolean written = false;
+
+  /**
+   * @param image  the bytes of the content in the image, from position 0 to the limit
+   * @param target empty buffer to copy the content into when it is written to
+   */
+  ImageContentBuffer(ByteBuffer image, ContentBuffer target) {
+    this.image = image;
+    this.target = target;
+  }
+
+  /**
+   * Returns a view of the image starting from the position, which is safe to use by one thread
+   */
+  private ByteBuffer view(long position) {
+    ByteBuffer view = image.duplicate();
+    view.position((int) position);
+    return view;
+  }
+
+  private ContentBuffer writable() {
+    if (!written) {
+      target.copyFrom(image.duplicate());
+      image = null;
+      written = true;
+    }
+    return target;
+  }
+
+  public long size() {
+    return written ? target.size() : image.limit();
+  }
+
+  public byte byteAt(long position) {
+    if (written) {
+      return target.byteAt(position);
+    }
+    if (position < 0 || position >= image.limit()) {
+      throw new ByteArrayIndexOutOfBoundsException(position, image.limit());
+    }
+    return image.get((int) position);
+  }
+
+  public ContentBuffer append(byte b) {
+    writable().append(b);
+    return this;
+  }
+
+  public ContentBuffer append(byte[] b, int off, int len) {
+    writable().append(b, off, len);
+    return this;
+  }
+
+  public int copyTo(long position, byte[] dst, int off, int len) {
+    if (written) {
+      return target.copyTo(position, dst, off, len);
+    }
+    int sizeToCopy = (int) Math.min(len, image.limit() - position);
+    if (sizeToCopy <= 0) {
+      return 0;
+    }
+    view(position).get(dst, off, sizeToCopy);
+    return sizeToCopy;
+  }
+
+  public int copyFrom(ByteBuffer src) {
+    return writable().copyFrom(src);
+  }
+
+  public int write(long position, ByteBuffer src) {
+    return writable().write(position, src);
+  }
+
+  public void truncate(long size) {
+    if (size < size()) {
+      writable().truncate(size);
+    }
+  }
+
+  public long copyTo(ByteBuffer dst, long start, int count) {
+    if (written) {
+      return target.copyTo(dst, start, count);
+    }
+    int sizeToCopy = (int) Math.min(count, image.limit() - start);
+    if (sizeToCopy <= 0) {
+      return 0;
+    }
+    ByteBuffer view = view(start);
+    view.limit((int) start + sizeToCopy);
+    dst.put(view);
+    return sizeToCopy;
+  }
+
+  public ByteBuffer view(long position, int count) {
+    if (written) {
+      return target.view(position, count);
+    }
+    if (position >= image.limit()) {
+      return ByteBuffer.allocate(0).asReadOnlyBuffer();
+    }
+    ByteBuffer view = view(position);
+    view.limit((int) Math.min(image.limit(), position + count));
+    return view.slice().asReadOnlyBuffer();
+  }
+
+  public long copyTo(WritableByteChannel target, long position, long count) throws IOException {
+    if (written) {
+      return this.target.copyTo(target, position, count);
+    }
+    long end = Math.min(image.limit(), position + count);
+    if (end - position <= 0) {
+      return 0;
+    }
+    ByteBuffer view = view(position);
+    view.limit((int) end);
+    while (view.hasRemaining()) {
+      if (target.write(view) == 0) {
+        break;
+      }
+    }
+    return view.position() - position;
+  }
+
+  public long copyTo(OutputStream out, long position, long count) throws IOException {
+    if (written) {
+      return target.copyTo(out, position, count);
+    }
+    long end = Math.min(image.limit(), position + count);
+    if (end - position <= 0) {
+      return 0;
+    }
+    ByteBuffer view = view(position);
+    view.limit((int) end);
+    if (view.hasArray()) {
+      out.write(view.array(), view.arrayOffset() + view.position(), view.remaining());
+    } else {
+      byte[] chunk = new byte[(int) Math.min(CHUNK_SIZE, end - position)];
+      while (view.hasRemaining()) {
+        int length = Math.min(chunk.length, view.remaining());
+        view.get(chunk, 0, length);
+        out.write(chunk, 0, length);
+      }
+    }
+    return end - position;
+  }
+
+  public byte[] toByteArray() {
+    if (written) {
+      return target.toByteArray();
+    }
+    byte[] result = new byte[image.limit()];
+    view(0).get(result);
+    return result;
+  }
+
+  public ContentBuffer copy() {
+    if (written) {
+      return target.copy();
+    }
+    return new ImageContentBuffer(image, target.copy());
+  }
+
+  /**
+   * Releases the buffer the content was copied into.  The image is left to the garbage collector and the
+   * mapping, so the streams still open on a deleted file keep reading it.
+   */
+  public void release() {
+    target.release();
+  }
+}
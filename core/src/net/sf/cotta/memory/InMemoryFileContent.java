@@ -1,68 +1,588 @@
 package net.sf.cotta.memory;
 
+import net.sf.cotta.TFile;
+import net.sf.cotta.TIoException;
+import net.sf.cotta.TPath;
+import net.sf.cotta.io.MappedBuffers;
+import net.sf.cotta.io.MappedProcessor;
+import net.sf.cotta.io.OutputMode;
 import net.sf.cotta.system.FileContent;
 
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
 
 class InMemoryFileContent implements FileContent {
-  private ByteArrayBuffer content;
+  private static final int SPILL_ACCESS_BYTES = 8192; // bytes written one at a time between accesses to the spill store
+
+  private volatile ContentBuffer content;
   private int increment;
-  private long lastModified;
+  private final ContentSettings settings;
+  private volatile long lastModified;
+  private TFile spillFile; // set while the content is in the spill directory instead of memory
+  private long offloadedSize; // size of the content while it is spilled or compressed
+  private int openCount;
+  private ContentStore.Entry entry; // set while the content is shared through the content store
+  private int writers;
+  private int streams; // streams and channels open on the content, counted when it is tracked
+  private List<ContentBuffer> released; // buffers in direct memory to release when the last stream is closed
+  private List<ContentStore.Entry> releasedEntries; // shared contents to release when the last stream is closed
+  private byte[] compressed; // set while the content is compressed instead of kept as it is
 
   InMemoryFileContent(int initialCapacity, int increment) {
-    content = new ByteArrayBuffer(initialCapacity, increment);
+    this(initialCapacity, increment, new ContentSettings(InMemoryFileSystem.StorageType.HEAP, false));
+  }
+
+  /**
+   * @param settings where the content is kept and the stores it goes through, shared by the file system
+   */
+  InMemoryFileContent(int initialCapacity, int increment, ContentSettings settings) {
     this.increment = increment;
+    this.settings = settings;
+    content = newBuffer(initialCapacity);
+  }
+
+  private InMemoryFileContent(InMemoryFileContent original) {
+    this.increment = original.increment;
+    this.settings = original.settings;
+    shareContentOf(original);
+    this.lastModified = original.lastModified;
+  }
+
+  ContentBuffer newBuffer(long initialCapacity) {
+    return newBuffer((int) Math.min(initialCapacity, Integer.MAX_VALUE));
+  }
+
+  private ContentBuffer newBuffer(int initialCapacity) {
+    return wrap(settings.offHeapMemory() == null ? new ByteArrayBuffer(initialCapacity, increment) : new OffHeapBuffer(settings.offHeapMemory()));
+  }
+
+  private ContentBuffer wrap(ContentBuffer buffer) {
+    return settings.isConcurrent() ? new ConcurrentContentBuffer(buffer) : buffer;
   }
 
   void setContent(String content) {
     setContent(content, System.currentTimeMillis());
   }
 
-  void setContent(String content, long timestamp) {
-    this.content = new ByteArrayBuffer(content.getBytes(), increment);
+  synchronized void setContent(String content, long timestamp) {
+    byte[] bytes = content.getBytes();
+    release();
+    this.content = newBuffer(bytes.length).append(bytes, 0, bytes.length);
     this.lastModified = timestamp;
+    access();
+    store();
   }
 
-  ByteArrayBuffer getContentBuffer() {
-    return content;
+  /**
+   * Replaces the content with the bytes of a file system image, which are read from the image until
+   * the file is written to
+   *
+   * @param image     the bytes of the content, from position 0 to the limit
+   * @param timestamp last modified time of the file
+   */
+  synchronized void setContent(ByteBuffer image, long timestamp) {
+    release();
+    ContentBuffer target = settings.offHeapMemory() == null ? new ByteArrayBuffer(0, increment) : new OffHeapBuffer(settings.offHeapMemory());
+    this.content = wrap(new ImageContentBuffer(image, target));
+    this.lastModified = timestamp;
+    access();
+    store();
+  }
+
+  /**
+   * @return a copy of the file that shares the content until either file is written to
+   */
+  InMemoryFileContent copy() {
+    return new InMemoryFileContent(this);
+  }
+
+  /**
+   * Replaces the content with the content of the other file, sharing it until either file is written to
+   *
+   * @param source file to copy the content from
+   */
+  synchronized void copyFrom(InMemoryFileContent source) {
+    if (source == this) {
+      return;
+    }
+    release();
+    shareContentOf(source);
+    lastModified = System.currentTimeMillis();
+    access();
+  }
+
+  private void shareContentOf(InMemoryFileContent source) {
+    synchronized (source) {
+      if (source.entry != null) {
+        settings.contentStore().retain(source.entry);
+        entry = source.entry;
+        content = entry.buffer();
+        return;
+      }
+      if (settings.compressionStore() != null) {
+        settings.compressionStore().copy(source, this);
+        return;
+      }
+      content = source.access().copy();
+    }
+    store();
+  }
+
+  /**
+   * Shares the content through the content store, unless it is being written to
+   */
+  private void store() {
+    if (settings.contentStore() == null || writers > 0 || entry != null) {
+      return;
+    }
+    entry = settings.contentStore().store(content);
+    if (entry.buffer() != content) {
+      releaseBuffer(content);
+      content = entry.buffer();
+    }
+  }
+
+  private synchronized ContentBuffer openWriter() {
+    writers++;
+    if (entry != null && streams > 0) {
+      content = entry.buffer().copy();
+      releaseEntry(entry);
+      entry = null;
+    } else if (entry != null) {
+      content = settings.contentStore().detach(entry);
+      entry = null;
+    }
+    return open(true);
+  }
+
+  private synchronized void closeWriter() {
+    writers--;
+    close();
+    store();
+  }
+
+  ContentBuffer getContentBuffer() {
+    return access();
+  }
+
+  /**
+   * @return size of the content, without reading it back if it has been spilled or decompressing it
+   */
+  long size() {
+    ContentBuffer buffer = content;
+    return buffer != null ? buffer.size() : offloadedSize;
+  }
+
+  /**
+   * Releases the memory of the content, called when the file is deleted
+   */
+  synchronized void release() {
+    if (entry != null) {
+      releaseEntry(entry);
+      entry = null;
+    } else if (settings.spillStore() != null) {
+      settings.spillStore().discard(this);
+    } else if (settings.compressionStore() != null) {
+      settings.compressionStore().discard(this);
+    } else {
+      releaseBuffer(content);
+    }
+  }
+
+  /**
+   * Releases the buffer, or keeps it until the streams and channels open on the content are closed
+   */
+  private synchronized void releaseBuffer(ContentBuffer buffer) {
+    if (streams == 0) {
+      buffer.release();
+      return;
+    }
+    if (released == null) {
+      released = new ArrayList<ContentBuffer>();
+    }
+    released.add(buffer);
+  }
+
+  /**
+   * Releases the reference to the shared content, or keeps it until the streams and channels open on the
+   * content are closed, so that the shared buffer they read is not released through another file
+   */
+  private synchronized void releaseEntry(ContentStore.Entry entry) {
+    if (streams == 0) {
+      settings.contentStore().release(entry);
+      return;
+    }
+    if (releasedEntries == null) {
+      releasedEntries = new ArrayList<ContentStore.Entry>();
+    }
+    releasedEntries.add(entry);
+  }
+
+  private ContentBuffer access() {
+    if (settings.spillStore() != null) {
+      return settings.spillStore().access(this);
+    }
+    return settings.compressionStore() == null ? content : settings.compressionStore().access(this);
+  }
+
+  /**
+   * @param write true if the content is opened for writing, in which case it is decompressed for good
+   */
+  private synchronized ContentBuffer open(boolean write) {
+    ContentBuffer buffer;
+    if (settings.spillStore() != null) {
+      buffer = settings.spillStore().open(this);
+    } else if (settings.compressionStore() != null) {
+      buffer = settings.compressionStore().open(this, write);
+    } else {
+      buffer = content;
+    }
+    streams++;
+    return buffer;
+  }
+
+  private synchronized void close() {
+    if (settings.spillStore() != null) {
+      settings.spillStore().close(this);
+    } else if (settings.compressionStore() != null) {
+      settings.compressionStore().close(this);
+    }
+    if (--streams > 0) {
+      return;
+    }
+    if (released != null) {
+      for (ContentBuffer buffer : released) {
+        buffer.release();
+      }
+      released = null;
+    }
+    if (releasedEntries != null) {
+      for (ContentStore.Entry entry : releasedEntries) {
+        settings.contentStore().release(entry);
+      }
+      releasedEntries = null;
+    }
+  }
+
+  /**
+   * @return true if the streams and channels need to tell when they are closed, which is when a store
+   *         keeps track of the contents in use, or when the content is in direct memory that is given back
+   *         only after the last one is closed
+   */
+  private boolean isTracked() {
+    return settings.spillStore() != null || settings.compressionStore() != null || settings.offHeapMemory() != null;
   }
 
   public OutputStream outputStream() {
+    return outputStream(null);
+  }
+
+  /**
+   * @param listener listener to notify when the stream is closed, or null
+   */
+  OutputStream outputStream(final CloseListener listener) {
     lastModified = System.currentTimeMillis();
+    openWriter();
     return new OutputStream() {
+      private boolean closed = false;
+      private int unaccounted = 0; // bytes written one at a time since the last access to the spill store
 
       public void write(int b) {
         content.append((byte) b);
+        if (settings.spillStore() != null && ++unaccounted >= SPILL_ACCESS_BYTES) {
+          accessSpillStore();
+        }
       }
 
       public void write(byte[] b, int off, int len) throws IOException {
         content.append(b, off, len);
+        if (settings.spillStore() != null) {
+          accessSpillStore();
+        }
       }
 
       public void write(byte[] b) throws IOException {
-        content.append(b);
+        write(b, 0, b.length);
+      }
+
+      public void flush() {
+        if (unaccounted > 0) {
+          accessSpillStore();
+        }
+      }
+
+      /**
+       * Counts the bytes written against the memory budget, which the spill store also does on close
+       */
+      private void accessSpillStore() {
+        unaccounted = 0;
+        settings.spillStore().access(InMemoryFileContent.this);
+      }
+
+      public void close() throws IOException {
+        if (!closed) {
+          closed = true;
+          unaccounted = 0;
+          closeWriter();
+          if (listener != null) {
+            listener.closed(InMemoryFileContent.this);
+          }
+        }
       }
     };
   }
 
   public InputStream inputStream() {
-    return new InputStream() {
-      private int position = 0;
+    if (!isTracked()) {
+      return new ContentInputStream(content);
+    }
+    return new ContentInputStream(open(false)) {
+      private boolean closed = false;
 
-      public int read() {
-        return (position == content.size()) ? -1 : content.byteAt(position++) & 0xFF;
+      public void close() {
+        if (!closed) {
+          closed = true;
+          InMemoryFileContent.this.close();
+        }
       }
     };
   }
 
   public FileChannel inputChannel() {
-    return new InMemoryInputFileChannel(content);
+    if (!isTracked()) {
+      return new InMemoryInputFileChannel(content);
+    }
+    return new InMemoryInputFileChannel(open(false)) {
+      protected void implCloseChannel() {
+        InMemoryFileContent.this.close();
+      }
+    };
+  }
+
+  /**
+   * Passes the read-only views of the region to the processor, one for each part of the content that
+   * is stored in one piece, like a page of the buffer
+   */
+  void map(TPath path, long position, long length, MappedProcessor processor) throws TIoException {
+    ContentBuffer buffer = open(false);
+    try {
+      long end = length > buffer.size() - position ? buffer.size() : position + length;
+      while (position < end) {
+        ByteBuffer view = buffer.view(position, (int) Math.min(Integer.MAX_VALUE, end - position));
+        int count = view.remaining();
+        MappedBuffers.process(path, view, position, processor);
+        position += count;
+      }
+    } finally {
+      close();
+    }
+  }
+
+  /**
+   * @param listener listener to notify when the channel is closed, or null
+   */
+  FileChannel outputChannel(final CloseListener listener) {
+    if (!isTracked() && settings.contentStore() == null && listener == null) {
+      return new InMemoryOutputFileChannel(content);
+    }
+    return new InMemoryOutputFileChannel(openWriter()) {
+      protected void implCloseChannel() throws IOException {
+        closeWriter();
+        if (listener != null) {
+          listener.closed(InMemoryFileContent.this);
+        }
+      }
+    };
+  }
+
+  // the methods below are called by the spill store or the compression store under its lock
+
+  ContentBuffer getBuffer() {
+    return content;
+  }
+
+  boolean isSpilled() {
+    return spillFile != null;
+  }
+
+  boolean isPinned() {
+    return openCount > 0;
+  }
+
+  void pin() {
+    openCount++;
+  }
+
+  void unpin() {
+    openCount--;
+  }
+
+  /**
+   * Writes the content to the file and releases the memory
+   *
+   * @return number of bytes written
+   */
+  long spillTo(TFile file) throws IOException {
+    OutputStream out = file.outputStream(OutputMode.OVERWRITE);
+    try {
+      content.copyTo(out, 0, content.size());
+    } finally {
+      out.close();
+    }
+    offloadedSize = content.size();
+    spillFile = file;
+    content.release();
+    content = null;
+    return offloadedSize;
+  }
+
+  /**
+   * Reads the content back from the spill file and deletes the file
+   *
+   * @return number of bytes read
+   */
+  long reload() throws IOException {
+    ContentBuffer buffer = newBuffer(offloadedSize);
+    InputStream in = spillFile.inputStream();
+    try {
+      byte[] bytes = new byte[64 * 1024];
+      int read;
+      while ((read = in.read(bytes)) > 0) {
+        buffer.append(bytes, 0, read);
+      }
+    } finally {
+      in.close();
+    }
+    spillFile.delete();
+    spillFile = null;
+    content = buffer;
+    return buffer.size();
+  }
+
+  /**
+   * Drops the content, wherever it is.  The memory of the content is given back once the streams and
+   * channels open on it are closed.
+   */
+  void discard() throws TIoException {
+    if (spillFile != null) {
+      spillFile.delete();
+      spillFile = null;
+    } else if (compressed != null) {
+      compressed = null;
+    } else {
+      releaseBuffer(content);
+    }
+  }
+
+  boolean isCompressed() {
+    return compressed != null;
+  }
+
+  byte[] getCompressed() {
+    return compressed;
+  }
+
+  /**
+   * Replaces the content with the compressed form, which must not be changed afterwards
+   */
+  void setCompressed(byte[] compressed, long size) {
+    this.compressed = compressed;
+    this.offloadedSize = size;
+    this.content = null;
+  }
+
+  /**
+   * Replaces the content, compressed or not, with the buffer
+   */
+  void setBuffer(ContentBuffer buffer) {
+    this.compressed = null;
+    this.content = buffer;
   }
 
   public long lastModified() {
     return lastModified;
   }
+
+  void setLastModified(long lastModified) {
+    this.lastModified = lastModified;
+  }
+
+  /**
+   * Listener to the streams and channels writing to the content
+   */
+  interface CloseListener {
+    void closed(InMemoryFileContent content) throws IOException;
+  }
+
+  /**
+   * Input stream that reads straight from the content buffer, in bulk where possible
+   */
+  static class ContentInputStream extends InputStream {
+    private final ContentBuffer content;
+    private long position = 0;
+    private long mark = 0;
+
+    ContentInputStream(ContentBuffer content) {
+      this.content = content;
+    }
+
+    public int read() {
+      return (position >= content.size()) ? -1 : content.byteAt(position++) & 0xFF;
+    }
+
+    public int read(byte[] b, int off, int len) {
+      if (off < 0 || len < 0 || len > b.length - off) {
+        throw new IndexOutOfBoundsException("offset <" + off + "> and length <" + len + "> out of array of length <" + b.length + ">");
+      }
+      if (len == 0) {
+        return 0;
+      }
+      int read = content.copyTo(position, b, off, len);
+      if (read == 0) {
+        return -1;
+      }
+      position += read;
+      return read;
+    }
+
+    public long skip(long n) {
+      long skipped = Math.max(0, Math.min(n, content.size() - position));
+      position += skipped;
+      return skipped;
+    }
+
+    public int available() {
+      return (int) Math.max(0, Math.min(Integer.MAX_VALUE, content.size() - position));
+    }
+
+    public boolean markSupported() {
+      return true;
+    }
+
+    public void mark(int readLimit) {
+      mark = position;
+    }
+
+    public void reset() {
+      position = mark;
+    }
+
+    /**
+     * Writes the rest of the content to the output stream without going through an intermediate buffer
+     *
+     * @param out target stream
+     * @return number of bytes written
+     * @throws IOException error in writing to the stream
+     */
+    public long transferTo(OutputStream out) throws IOException {
+      long transferred = content.copyTo(out, position, Long.MAX_VALUE - position);
+      position += transferred;
+      return transferred;
+    }
+  }
 }
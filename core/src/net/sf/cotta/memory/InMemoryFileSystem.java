@@ -1,42 +1,81 @@
 package net.sf.cotta.memory;
 
 import net.sf.cotta.system.FileSystem;
+import net.sf.cotta.PathAttributes;
 import net.sf.cotta.PathContent;
 import net.sf.cotta.PathSeparator;
+import net.sf.cotta.PathStream;
 import net.sf.cotta.TFileNotFoundException;
 import net.sf.cotta.TIoException;
 import net.sf.cotta.TPath;
+import net.sf.cotta.io.MappedProcessor;
 import net.sf.cotta.io.OutputMode;
+import net.sf.cotta.system.CompactDirectoryIndex;
+import net.sf.cotta.system.ConcurrentDirectoryIndex;
 import net.sf.cotta.system.ContentManager;
+import net.sf.cotta.ControlledFileSystem;
 import net.sf.cotta.system.DirectoryIndex;
-import net.sf.cotta.system.FileContent;
+import net.sf.cotta.system.FileCopier;
 import net.sf.cotta.system.HashBasedDirectoryIndex;
+import net.sf.cotta.system.PendingFile;
+import net.sf.cotta.system.SortedDirectoryIndex;
 import net.sf.cotta.system.TreeBasedDirectoryIndex;
 
 import java.io.File;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * A file system whose directory structure and file contents are stored in memory.
  * It can be backed by a hash-based directory index or a tree-based one, with hash-based
- * being the default.
+ * being the default.  The file contents are kept on the heap by default, or in direct memory
+ * outside of the heap with {@link StorageType#OFF_HEAP}.  Only the file system with the
+ * {@link IndexType#CONCURRENT} index can be shared by threads.  The {@link IndexType#SORTED} index keeps
+ * the directories sorted and returns the same unmodifiable listing until the directory changes, and the
+ * {@link IndexType#COMPACT} index keeps the tree in arrays of primitives for trees of millions of entries.
+ * The memory for the file contents can be capped, with the least recently used contents moved to a spill
+ * directory on disk.
+ * <p/>
+ * With the tree-based index, the file system can be forked or snapshot in constant time, with the
+ * directories and file contents copied only when they are changed.  Streams and channels opened
+ * before the fork keep writing to the content they were opened on, which is seen by both file systems,
+ * so they should be closed first.
+ * <p/>
+ * With deduplication, the files with the same content share one copy of it, found by the digest of the
+ * content when a file is closed after writing.  Copying a file within the file system shares the content
+ * whether or not deduplication is on, and a file is copied only when it is written to.
+ * <p/>
+ * With compression, the file contents left alone for a while are compressed, and decompressed into a
+ * bounded cache when they are read.
+ * <p/>
+ * With a journal, the changes are recorded in a log on disk before they return, and the file system is
+ * recovered from the log when it is built again.
  *
  * @see net.sf.cotta.memory.InMemoryFileSystemBuilder for more flexibility in building an instance.
  */
-public class InMemoryFileSystem implements FileSystem, ContentManager<InMemoryFileContent> {
-  public enum IndexType { HASH_BASED, TREE_BASED }
+public class InMemoryFileSystem implements FileSystem, FileCopier, ContentManager<InMemoryFileContent> {
+  public enum IndexType { HASH_BASED, TREE_BASED, CONCURRENT, SORTED, COMPACT }
+
+  public enum StorageType { HEAP, OFF_HEAP }
 
   static final PathSeparator DEFAULT_PATH_SEPARATOR = PathSeparator.Unix;
   static final ListingOrder DEFAULT_LISTING_ORDER = ListingOrder.NULL;
   static final IndexType DEFAULT_INDEX_TYPE = IndexType.HASH_BASED;
+  static final StorageType DEFAULT_STORAGE_TYPE = StorageType.HEAP;
 
   private int fileInitialCapacity = 0;
   private int fileSizeIncrement = 16;
   private final DirectoryIndex<InMemoryFileContent> dirIndex;
+  private final ContentSettings settings;
+  private Journal journal;
+  private final List<JournalWrite> openWrites = new ArrayList<JournalWrite>(); // guarded by the journal
 
   public InMemoryFileSystem() {
     this(DEFAULT_PATH_SEPARATOR);
@@ -54,24 +93,75 @@ public class InMemoryFileSystem implements FileSystem, ContentManager<InMemoryFi
     this(separator, order, DEFAULT_INDEX_TYPE);
   }
 
+  InMemoryFileSystem(PathSeparator separator, ListingOrder order, IndexType index) {
+    this(separator, order, index, DEFAULT_STORAGE_TYPE);
+  }
+
+  InMemoryFileSystem(PathSeparator separator, ListingOrder order, IndexType index, StorageType storage) {
+    this(separator, order, index, new ContentSettings(storage, index == IndexType.CONCURRENT));
+  }
+
   /**
    * Constructor used by the other constructors or by {@link net.sf.cotta.memory.InMemoryFileSystemBuilder}
    * @param separator the desired path separator
    * @param order the desired listing order
    * @param index the desired directory index type
+   * @param settings the storage of the file contents and the stores they go through
    */
-  InMemoryFileSystem(PathSeparator separator, ListingOrder order, IndexType index) {
+  InMemoryFileSystem(PathSeparator separator, ListingOrder order, IndexType index, ContentSettings settings) {
+    this.settings = settings;
     if (index == IndexType.HASH_BASED) {
       this.dirIndex = new HashBasedDirectoryIndex<InMemoryFileContent>(separator, order, this);
     }
     else if (index == IndexType.TREE_BASED) {
       this.dirIndex = new TreeBasedDirectoryIndex<InMemoryFileContent>(separator, order, this);
     }
+    else if (index == IndexType.CONCURRENT) {
+      this.dirIndex = new ConcurrentDirectoryIndex<InMemoryFileContent>(separator, order, this);
+    }
+    else if (index == IndexType.SORTED) {
+      this.dirIndex = new SortedDirectoryIndex<InMemoryFileContent>(separator, order, this);
+    }
+    else if (index == IndexType.COMPACT) {
+      this.dirIndex = new CompactDirectoryIndex<InMemoryFileContent>(separator, order, this);
+    }
     else {
       throw new IllegalArgumentException("unrecognized index type: " + index);
     }
   }
 
+  private InMemoryFileSystem(InMemoryFileSystem original) {
+    if (!(original.dirIndex instanceof TreeBasedDirectoryIndex)) {
+      throw new IllegalStateException("fork and snapshot require " + IndexType.TREE_BASED + " index");
+    }
+    this.fileInitialCapacity = original.fileInitialCapacity;
+    this.fileSizeIncrement = original.fileSizeIncrement;
+    this.settings = original.settings;
+    this.dirIndex = ((TreeBasedDirectoryIndex<InMemoryFileContent>) original.dirIndex).fork(this);
+  }
+
+  /**
+   * Creates a file system with the same directories and files as this one.  Nothing is copied until
+   * either file system changes a directory or writes to a file, and the changes are not seen by the other.
+   *
+   * @return the new file system
+   * @throws IllegalStateException if the file system does not use the tree-based index
+   */
+  public InMemoryFileSystem fork() {
+    return new InMemoryFileSystem(this);
+  }
+
+  /**
+   * Creates a read-only view of the directories and files as they are now, which does not change with
+   * the changes made to this file system afterwards
+   *
+   * @return the read-only file system
+   * @throws IllegalStateException if the file system does not use the tree-based index
+   */
+  public FileSystem snapshot() {
+    return ControlledFileSystem.readOnlyFileSystem(fork());
+  }
+
   public void setFileInitialCapacity(int value) {
     this.fileInitialCapacity = value;
   }
@@ -80,24 +170,188 @@ public class InMemoryFileSystem implements FileSystem, ContentManager<InMemoryFi
     this.fileSizeIncrement = value;
   }
 
+  /**
+   * Records the changes from now on in the journal, which has recovered the file system
+   */
+  void setJournal(Journal journal) {
+    this.journal = journal;
+  }
+
   public InMemoryFileContent createFileContent() {
-    return new InMemoryFileContent(fileInitialCapacity, fileSizeIncrement);
+    return new InMemoryFileContent(fileInitialCapacity, fileSizeIncrement, settings);
+  }
+
+  public InMemoryFileContent copyFileContent(InMemoryFileContent content) {
+    return content.copy();
+  }
+
+  /**
+   * @return number of bytes of off-heap memory held by the file contents, which is 0 for heap storage
+   */
+  public long offHeapMemoryUsed() {
+    return settings.offHeapMemory() == null ? 0 : settings.offHeapMemory().used();
+  }
+
+  /**
+   * @return number of bytes of off-heap memory allocated, including the memory released by the
+   *         deleted files that is kept for new contents, which is 0 for heap storage
+   */
+  public long offHeapMemoryAllocated() {
+    return settings.offHeapMemory() == null ? 0 : settings.offHeapMemory().allocated();
+  }
+
+  /**
+   * @return number of bytes of file contents in memory when the memory is budgeted, or 0 otherwise
+   * @see InMemoryFileSystemBuilder#withMemoryBudget(long, net.sf.cotta.TDirectory)
+   */
+  public long residentBytes() {
+    return settings.spillStore() == null ? 0 : settings.spillStore().residentBytes();
+  }
+
+  /**
+   * @return number of times a file content has been moved out of memory to the spill directory
+   */
+  public long spillEvictionCount() {
+    return settings.spillStore() == null ? 0 : settings.spillStore().evictionCount();
+  }
+
+  /**
+   * @return number of times a file content has been read back from the spill directory
+   */
+  public long spillReloadCount() {
+    return settings.spillStore() == null ? 0 : settings.spillStore().reloadCount();
+  }
+
+  /**
+   * @return number of bytes written to the spill directory
+   */
+  public long spillBytesWritten() {
+    return settings.spillStore() == null ? 0 : settings.spillStore().spilledBytes();
+  }
+
+  /**
+   * @return number of bytes read back from the spill directory
+   */
+  public long spillBytesRead() {
+    return settings.spillStore() == null ? 0 : settings.spillStore().reloadedBytes();
+  }
+
+  /**
+   * @return number of bytes of file contents as seen by the files over the number of bytes kept when the
+   *         contents are deduplicated, or 1 otherwise
+   * @see InMemoryFileSystemBuilder#withDeduplication()
+   */
+  public double dedupRatio() {
+    return settings.contentStore() == null ? 1.0 : settings.contentStore().dedupRatio();
+  }
+
+  /**
+   * @return number of bytes of the distinct file contents kept when the contents are deduplicated, or 0 otherwise
+   */
+  public long dedupStoredBytes() {
+    return settings.contentStore() == null ? 0 : settings.contentStore().storedBytes();
+  }
+
+  /**
+   * Compresses the file contents that have been idle long enough, without waiting for the next access
+   * to look for them.  It does nothing when the contents are not compressed.
+   *
+   * @see InMemoryFileSystemBuilder#withCompression(long, long)
+   */
+  public void compressIdleContent() {
+    if (settings.compressionStore() != null) {
+      settings.compressionStore().compressIdleContent();
+    }
+  }
+
+  /**
+   * @return number of bytes of the compressed file contents before compression over the bytes after,
+   *         or 1 if there is none
+   */
+  public double compressionRatio() {
+    return settings.compressionStore() == null ? 1.0 : settings.compressionStore().compressionRatio();
+  }
+
+  /**
+   * @return number of bytes held by the compressed file contents
+   */
+  public long compressedBytes() {
+    return settings.compressionStore() == null ? 0 : settings.compressionStore().compressedBytes();
+  }
+
+  /**
+   * @return number of times a file content has been compressed
+   */
+  public long compressionCount() {
+    return settings.compressionStore() == null ? 0 : settings.compressionStore().compressionCount();
+  }
+
+  /**
+   * @return number of times a file content has been decompressed, for reading or for good
+   */
+  public long decompressionCount() {
+    return settings.compressionStore() == null ? 0 : settings.compressionStore().decompressionCount();
+  }
+
+  /**
+   * @return number of times a compressed file content has been read from the cache without decompressing it
+   */
+  public long decompressionCacheHitCount() {
+    return settings.compressionStore() == null ? 0 : settings.compressionStore().cacheHitCount();
+  }
+
+  /**
+   * @return number of nanoseconds spent in compressing the file contents, including the attempts that
+   *         did not make them smaller
+   */
+  public long compressionNanos() {
+    return settings.compressionStore() == null ? 0 : settings.compressionStore().compressionNanos();
+  }
+
+  /**
+   * @return number of nanoseconds spent in decompressing the file contents
+   */
+  public long decompressionNanos() {
+    return settings.compressionStore() == null ? 0 : settings.compressionStore().decompressionNanos();
   }
 
   public boolean fileExists(TPath path) {
     return dirIndex.fileExists(path);
   }
 
-  public void createFile(TPath path) throws TIoException {
-    dirIndex.createFile(path).setContent("");
+  public void createFile(final TPath path) throws TIoException {
+    change(Journal.CREATE_FILE, path, null, new Change() {
+      public void apply() throws TIoException {
+        dirIndex.createFile(path).setContent("");
+      }
+    });
   }
 
-  public void createDir(TPath path) throws TIoException {
-    dirIndex.createDir(path);
+  /**
+   * Creates the file with the content in a loaded image
+   *
+   * @see InMemoryFileSystemImage
+   */
+  void createFile(TPath path, ByteBuffer image, long lastModified) throws TIoException {
+    dirIndex.createFile(path).setContent(image, lastModified);
+  }
+
+  public void createDir(final TPath path) throws TIoException {
+    change(Journal.CREATE_DIR, path, null, new Change() {
+      public void apply() throws TIoException {
+        dirIndex.createDir(path);
+      }
+    });
   }
 
-  public void deleteFile(TPath path) throws TFileNotFoundException {
-    dirIndex.deleteFile(path);
+  public void deleteFile(final TPath path) throws TIoException {
+    change(Journal.DELETE_FILE, path, null, new Change() {
+      public void apply() throws TIoException {
+        InMemoryFileContent content = dirIndex.fileContentForWrite(path);
+        dirIndex.deleteFile(path);
+        content.release();
+      }
+    });
   }
 
   public boolean dirExists(TPath path) {
@@ -108,43 +362,373 @@ public class InMemoryFileSystem implements FileSystem, ContentManager<InMemoryFi
     return dirIndex.list(path);
   }
 
+  public PathStream stream(TPath path) {
+    return dirIndex.stream(path);
+  }
+
+  /**
+   * Lists the directory with the length and last modified time taken from the file contents in the index
+   */
+  public List<PathAttributes> listAttributes(TPath path) {
+    PathContent content = dirIndex.list(path);
+    List<PathAttributes> result = new ArrayList<PathAttributes>(content.dirs().size() + content.files().size());
+    for (TPath dir : content.dirs()) {
+      result.add(new PathAttributes(dir, true, 0, 0));
+    }
+    for (TPath file : content.files()) {
+      InMemoryFileContent fileContent = dirIndex.fileContent(file);
+      if (fileContent != null) {
+        result.add(new PathAttributes(file, false, fileContent.size(), fileContent.lastModified()));
+      }
+    }
+    return result;
+  }
+
   public InputStream createInputStream(TPath path) throws TIoException {
     return retrieveFileContent(path).inputStream();
   }
 
-  private FileContent retrieveFileContent(TPath path) throws TFileNotFoundException {
-    FileContent content = dirIndex.fileContent(path);
+  private InMemoryFileContent retrieveFileContent(TPath path) throws TFileNotFoundException {
+    InMemoryFileContent content = dirIndex.fileContent(path);
     if (content == null) {
       throw new TFileNotFoundException(path);
     }
     return content;
   }
 
+  /**
+   * Opens the stream, recording the file created or truncated in the journal right away so that the
+   * journal can be replayed whatever happens to the file before the stream is closed
+   */
   public OutputStream createOutputStream(TPath path, OutputMode mode) throws TIoException {
-    InMemoryFileContent content = dirIndex.fileContent(path);
+    if (journal == null) {
+      return contentForOutput(path, mode).outputStream();
+    }
+    long sequence = 0;
+    OutputStream stream;
+    synchronized (journal) {
+      boolean exists = dirIndex.fileExists(path);
+      InMemoryFileContent content = contentForOutput(path, mode);
+      if (!exists) {
+        sequence = journal.append(Journal.CREATE_FILE, path);
+      }
+      else if (mode.isOverwrite()) {
+        sequence = journal.appendWrite(path, 0, content.getContentBuffer(), content.lastModified());
+      }
+      stream = content.outputStream(journalWrite(path, content.size()));
+    }
+    if (sequence > 0) {
+      commit(sequence);
+    }
+    return stream;
+  }
+
+  private InMemoryFileContent contentForOutput(TPath path, OutputMode mode) throws TIoException {
+    InMemoryFileContent content = dirIndex.fileContentForWrite(path);
     if (content == null) {
       content = dirIndex.createFile(path);
     }
     if (mode.isOverwrite()) {
       content.setContent("");
     }
-    return content.outputStream();
+    return content;
   }
 
+  /**
+   * Opens a channel of its own on the content and closes the output stream, which only opened or
+   * truncated the file, so that the content is stored and journaled once the channel is closed.
+   */
   public FileChannel createOutputChannel(TPath path, OutputStream outputStream) throws TIoException {
-    return null;
+    InMemoryFileContent content = dirIndex.fileContentForWrite(path);
+    if (content == null) {
+      throw new TFileNotFoundException(path);
+    }
+    FileChannel channel;
+    if (journal == null) {
+      channel = content.outputChannel(null);
+    }
+    else {
+      synchronized (journal) {
+        channel = content.outputChannel(journalWrite(path, 0));
+      }
+    }
+    try {
+      outputStream.close();
+    } catch (IOException e) {
+      try {
+        channel.close();
+      } catch (IOException ignored) {
+      }
+      throw new TIoException(path, "Closing outputstream failed", e);
+    }
+    return channel;
+  }
+
+  /**
+   * Creates the pending content in memory, outside of the directory index, which takes the place of the
+   * content of the file when committed without copying.  The content is forced by the journal, if any.
+   */
+  public PendingFile createPendingFile(final TPath path, boolean force) throws TIoException {
+    if (dirIndex.dirExists(path)) {
+      throw new TIoException(path, "Directory exists");
+    }
+    final InMemoryFileContent pending = createFileContent();
+    final OutputStream stream = pending.outputStream();
+    return new PendingFile() {
+      public OutputStream outputStream() {
+        return stream;
+      }
+
+      public void commit() throws TIoException {
+        closePending(path, stream);
+        if (journal == null) {
+          replaceContent(path, pending);
+          return;
+        }
+        long sequence;
+        synchronized (journal) {
+          InMemoryFileContent content = replaceContent(path, pending);
+          sequence = journal.appendWrite(path, 0, content.getContentBuffer(), content.lastModified());
+        }
+        InMemoryFileSystem.this.commit(sequence);
+      }
+
+      public void discard() throws TIoException {
+        closePending(path, stream);
+        pending.release();
+      }
+    };
+  }
+
+  private InMemoryFileContent replaceContent(TPath path, InMemoryFileContent pending) throws TIoException {
+    InMemoryFileContent content = dirIndex.fileContentForWrite(path);
+    if (content == null) {
+      content = dirIndex.createFile(path);
+    }
+    content.copyFrom(pending);
+    pending.release();
+    return content;
+  }
+
+  private void closePending(TPath path, OutputStream stream) throws TIoException {
+    try {
+      stream.close();
+    } catch (IOException e) {
+      throw new TIoException(path, "closing pending content", e);
+    }
+  }
+
+  /**
+   * Does nothing, as the journal, if any, is synced for every change
+   */
+  public void syncDirectory(TPath path) {
+  }
+
+  public void deleteDirectory(final TPath path) throws TIoException {
+    change(Journal.DELETE_DIR, path, null, new Change() {
+      public void apply() throws TIoException {
+        dirIndex.deleteDir(path);
+      }
+    });
+  }
+
+  /**
+   * Copies the file by sharing the content, which is copied only when either file is written to
+   */
+  public void copyFile(final TPath source, final TPath destination) throws TIoException {
+    change(Journal.COPY_FILE, source, destination, new Change() {
+      public void apply() throws TIoException {
+        InMemoryFileContent sourceContent = dirIndex.fileContent(source);
+        if (sourceContent == null) {
+          throw new TFileNotFoundException(source);
+        }
+        if (isBeingWritten(source)) {
+          // the copy is replayed before the write to the source is closed and recorded
+          journal.appendWrite(source, 0, sourceContent.getContentBuffer(), sourceContent.lastModified());
+        }
+        InMemoryFileContent content = dirIndex.fileContentForWrite(destination);
+        if (content == null) {
+          content = dirIndex.createFile(destination);
+        }
+        content.copyFrom(sourceContent);
+      }
+    });
+  }
+
+  /**
+   * Moves the file, releasing the content of the file it replaces
+   */
+  public void moveFile(final TPath source, final TPath destination) throws TIoException {
+    change(Journal.MOVE_FILE, source, destination, new Change() {
+      public void apply() throws TIoException {
+        InMemoryFileContent replaced = dirIndex.fileExists(destination) ? dirIndex.fileContentForWrite(destination) : null;
+        dirIndex.moveFile(source, destination);
+        moveOpenWrites(source, destination);
+        if (replaced != null && replaced != dirIndex.fileContent(destination)) {
+          replaced.release();
+        }
+      }
+    });
+  }
+
+  public void moveDirectory(final TPath source, final TPath destination) throws TIoException {
+    change(Journal.MOVE_DIR, source, destination, new Change() {
+      public void apply() throws TIoException {
+        dirIndex.moveDir(source, destination);
+        moveOpenWrites(source, destination);
+      }
+    });
+  }
+
+  /**
+   * Change to the directories or files, which is recorded in the journal if there is one
+   */
+  private interface Change {
+    void apply() throws TIoException;
+  }
+
+  /**
+   * Applies the change, and records it in the journal and waits for the journal to be synced
+   */
+  private void change(byte type, TPath path, TPath destination, Change change) throws TIoException {
+    if (journal == null) {
+      change.apply();
+      return;
+    }
+    long sequence;
+    synchronized (journal) {
+      change.apply();
+      sequence = journal.append(type, path, destination);
+    }
+    commit(sequence);
+  }
+
+  private void commit(long sequence) throws TIoException {
+    journal.commit(sequence);
+    journal.checkpointIfNeeded(this);
+  }
+
+  /**
+   * Returns the listener to record the content written from the offset when the stream or channel is
+   * closed, to be called under the lock of the journal
+   */
+  private InMemoryFileContent.CloseListener journalWrite(TPath path, long offset) {
+    JournalWrite write = new JournalWrite(path, offset);
+    openWrites.add(write);
+    return write;
   }
 
-  public void deleteDirectory(TPath path) throws TIoException {
-    dirIndex.deleteDir(path);
+  private boolean isBeingWritten(TPath path) {
+    for (JournalWrite write : openWrites) {
+      if (write.path.equals(path)) {
+        return true;
+      }
+    }
+    return false;
   }
 
-  public void moveFile(TPath source, TPath destination) throws TIoException {
-    dirIndex.moveFile(source, destination);
+  /**
+   * Makes the open writes follow the file or directory moved, under the lock of the journal
+   */
+  private void moveOpenWrites(TPath source, TPath destination) {
+    for (JournalWrite write : openWrites) {
+      if (write.path.equals(source)) {
+        write.path = destination;
+      }
+      else if (write.path.isChildOf(source)) {
+        write.path = destination.join(write.path.subpath(source.length()));
+      }
+    }
   }
 
-  public void moveDirectory(TPath source, TPath destination) throws TIoException {
-    dirIndex.moveDir(source, destination);
+  /**
+   * Write to record in the journal when the stream or channel is closed, which is left out if the
+   * content is no longer at the path, as the file has been deleted or replaced in the meantime
+   */
+  private class JournalWrite implements InMemoryFileContent.CloseListener {
+    private TPath path;
+    private final long offset;
+
+    private JournalWrite(TPath path, long offset) {
+      this.path = path;
+      this.offset = offset;
+    }
+
+    public void closed(InMemoryFileContent content) throws IOException {
+      long sequence;
+      synchronized (journal) {
+        openWrites.remove(this);
+        if (dirIndex.fileContent(path) != content) {
+          return;
+        }
+        sequence = journal.appendWrite(path, offset, content.getContentBuffer(), content.lastModified());
+      }
+      commit(sequence);
+    }
+  }
+
+  /**
+   * Sets the content of the file from the offset, creating the file if needed, when replaying the journal
+   */
+  void replayWrite(TPath path, long offset, ByteBuffer bytes, long lastModified) throws TIoException {
+    InMemoryFileContent content = dirIndex.fileContentForWrite(path);
+    if (content == null) {
+      content = dirIndex.createFile(path);
+    }
+    FileChannel channel = content.outputChannel(null);
+    try {
+      channel.truncate(offset);
+      channel.write(bytes, offset);
+      channel.close();
+    } catch (IOException e) {
+      throw new TIoException(path, "failed to replay write", e);
+    }
+    content.setLastModified(lastModified);
+  }
+
+  /**
+   * Saves the file system as a checkpoint of the journal and starts a new log.  The changes wait
+   * until the checkpoint is saved.
+   *
+   * @throws TIoException error in saving the checkpoint
+   * @throws IllegalStateException if the file system has no journal
+   */
+  public void checkpoint() throws TIoException {
+    if (journal == null) {
+      throw new IllegalStateException("checkpoint requires journal");
+    }
+    journal.checkpoint(this);
+  }
+
+  /**
+   * Closes the journal, after which the file system cannot be changed.  It does nothing when there is no journal.
+   */
+  public void close() throws TIoException {
+    if (journal != null) {
+      journal.close();
+    }
+  }
+
+  /**
+   * @return number of changes recorded in the journal, or 0 if there is no journal
+   */
+  public long journalRecordCount() {
+    return journal == null ? 0 : journal.recordCount();
+  }
+
+  /**
+   * @return number of times the journal has been synced, which is less than the number of changes
+   *         when the changes made at the same time are committed together
+   */
+  public long journalSyncCount() {
+    return journal == null ? 0 : journal.syncCount();
+  }
+
+  /**
+   * @return number of checkpoints saved since the file system was built
+   */
+  public long checkpointCount() {
+    return journal == null ? 0 : journal.checkpointCount();
   }
 
   public String pathString(TPath path) {
@@ -152,7 +736,7 @@ public class InMemoryFileSystem implements FileSystem, ContentManager<InMemoryFi
   }
 
   public long fileLength(TPath path) {
-    return dirIndex.fileContent(path).getContentBuffer().size();
+    return dirIndex.fileContent(path).size();
   }
 
   public long fileLastModified(TPath path) {
@@ -191,4 +775,11 @@ public class InMemoryFileSystem implements FileSystem, ContentManager<InMemoryFi
     return retrieveFileContent(path).inputChannel();
   }
 
+  /**
+   * Passes the views of the content to the processor without copying, one for each page of the content
+   */
+  public void map(TPath path, long position, long length, MappedProcessor processor) throws TIoException {
+    retrieveFileContent(path).map(path, position, length, processor);
+  }
+
 }
@@ -1,12 +1,25 @@
 package net.sf.cotta.memory;
 
 import net.sf.cotta.PathSeparator;
+import net.sf.cotta.TDirectory;
+import net.sf.cotta.TIoException;
+import net.sf.cotta.TIoRuntimeException;
 
 public class InMemoryFileSystemBuilder {
+  private static final long DEFAULT_CHECKPOINT_BYTES = 64 * 1024 * 1024;
 
   private PathSeparator separator = InMemoryFileSystem.DEFAULT_PATH_SEPARATOR;
   private ListingOrder order = InMemoryFileSystem.DEFAULT_LISTING_ORDER;
   private InMemoryFileSystem.IndexType index = InMemoryFileSystem.DEFAULT_INDEX_TYPE;
+  private InMemoryFileSystem.StorageType storage = InMemoryFileSystem.DEFAULT_STORAGE_TYPE;
+  private long memoryBudget = -1;
+  private TDirectory spillDirectory;
+  private boolean deduplication = false;
+  private boolean compression = false;
+  private long compressionIdleMillis;
+  private long decompressionCacheBytes;
+  private TDirectory journalDirectory;
+  private long checkpointBytes;
 
   public InMemoryFileSystemBuilder() {
   }
@@ -26,7 +39,110 @@ public class InMemoryFileSystemBuilder {
     return this;
   }
 
+  public InMemoryFileSystemBuilder withStorageType(InMemoryFileSystem.StorageType storage) {
+    this.storage = storage;
+    return this;
+  }
+
+  /**
+   * Caps the memory used by the file contents.  When the contents take more than the budget, the least
+   * recently used ones are moved to files in the spill directory and read back when they are accessed.
+   * The directories and files themselves stay in memory.
+   *
+   * @param bytes          number of bytes of file contents to keep in memory
+   * @param spillDirectory directory to move the contents to, normally on the physical file system
+   * @return this builder
+   */
+  public InMemoryFileSystemBuilder withMemoryBudget(long bytes, TDirectory spillDirectory) {
+    this.memoryBudget = bytes;
+    this.spillDirectory = spillDirectory;
+    return this;
+  }
+
+  /**
+   * Keeps one copy of each distinct file content, shared by the files with the same content.  A file is
+   * checked for an existing copy when it is closed after writing, and gets its own copy again when it is
+   * opened for writing.  It cannot be combined with the memory budget.
+   *
+   * @return this builder
+   */
+  public InMemoryFileSystemBuilder withDeduplication() {
+    this.deduplication = true;
+    return this;
+  }
+
+  /**
+   * Compresses the file contents that have not been accessed for the given time.  A compressed content
+   * is decompressed into a cache when it is read and stays compressed, or decompressed for good when it
+   * is written to.  It cannot be combined with the memory budget or deduplication.
+   *
+   * @param idleMillis number of milliseconds a content needs to be left alone before it is compressed
+   * @param cacheBytes number of bytes of decompressed contents to keep for reading
+   * @return this builder
+   */
+  public InMemoryFileSystemBuilder withCompression(long idleMillis, long cacheBytes) {
+    this.compression = true;
+    this.compressionIdleMillis = idleMillis;
+    this.decompressionCacheBytes = cacheBytes;
+    return this;
+  }
+
+  /**
+   * Records the changes in a journal in the directory, with a checkpoint whenever the log reaches 64MB
+   *
+   * @see #withJournal(TDirectory, long)
+   */
+  public InMemoryFileSystemBuilder withJournal(TDirectory directory) {
+    return withJournal(directory, DEFAULT_CHECKPOINT_BYTES);
+  }
+
+  /**
+   * Records each change to the directories and files in a log in the journal directory, and waits for the
+   * log to be synced before the change returns.  The changes made by different threads at the same time
+   * share one sync.  A write is recorded when the stream or channel is closed.  When the log reaches the
+   * checkpoint size, the whole file system is saved as a checkpoint and a new log is started.
+   * <p/>
+   * Building the file system recovers it from the latest checkpoint and log in the directory.
+   *
+   * @param directory       journal directory, normally on the physical file system
+   * @param checkpointBytes size of the log at which a checkpoint is saved
+   * @return this builder
+   */
+  public InMemoryFileSystemBuilder withJournal(TDirectory directory, long checkpointBytes) {
+    this.journalDirectory = directory;
+    this.checkpointBytes = checkpointBytes;
+    return this;
+  }
+
+  /**
+   * @return the file system
+   * @throws TIoRuntimeException error in recovering the file system from the journal
+   */
   public InMemoryFileSystem build() {
-    return new InMemoryFileSystem(separator, order, index);
+    if (deduplication && spillDirectory != null) {
+      throw new IllegalStateException("deduplication cannot be combined with memory budget");
+    }
+    if (compression && (deduplication || spillDirectory != null)) {
+      throw new IllegalStateException("compression cannot be combined with memory budget or deduplication");
+    }
+    ContentSettings settings = new ContentSettings(storage, index == InMemoryFileSystem.IndexType.CONCURRENT);
+    if (spillDirectory != null) {
+      settings.withSpillStore(new SpillStore(memoryBudget, spillDirectory));
+    }
+    if (deduplication) {
+      settings.withContentStore(new ContentStore());
+    }
+    if (compression) {
+      settings.withCompressionStore(new CompressionStore(compressionIdleMillis, decompressionCacheBytes));
+    }
+    InMemoryFileSystem fileSystem = new InMemoryFileSystem(separator, order, index, settings);
+    if (journalDirectory != null) {
+      try {
+        fileSystem.setJournal(Journal.open(journalDirectory, checkpointBytes, fileSystem));
+      } catch (TIoException e) {
+        throw new TIoRuntimeException(e);
+      }
+    }
+    return fileSystem;
   }
 }
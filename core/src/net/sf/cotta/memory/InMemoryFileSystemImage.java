@@ -0,0 +1,271 @@
+package net.sf.cotta.memory;
+
+import net.sf.cotta.PathContent;
+import net.sf.cotta.PathSeparator;
+import net.sf.cotta.TFile;
+import net.sf.cotta.TFileFactory;
+import net.sf.cotta.TIoException;
+import net.sf.cotta.TPath;
+import net.sf.cotta.io.Durability;
+import net.sf.cotta.io.OutputManager;
+import net.sf.cotta.io.OutputProcessor;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Saves an in-memory file system to a single image file and loads it back.  The image holds the index
+ * of the directories and files followed by the file contents, one after another.
+ * <p/>
+ * Loading maps the image into memory when the file system of the image supports it, and reads it into
+ * the heap otherwise.  Only the index is read at loading, and a file reads its content from the image
+ * until it is written to, so loading takes the same time whatever the size of the contents.  Options
+ * that look at the contents, like deduplication, read them all at loading.
+ * <p/>
+ * An image is limited to 2GB.
+ */
+public class InMemoryFileSystemImage {
+  private static final long MAGIC = 0x434f545441494d47L; // COTTAIMG
+  private static final int VERSION = 1;
+  private static final int HEADER_SIZE = 16;
+  private static final TPath[] ROOTS = new TPath[]{TPath.parse("/"), TPath.parse(".")};
+
+  private InMemoryFileSystemImage() {
+  }
+
+  /**
+   * Saves the directories and files of the file system to the image file.  The image is written aside
+   * and then replaces the file, so a file system can be saved back to the image it was loaded from, whose
+   * contents it is still reading.
+   *
+   * @param fileSystem file system to save
+   * @param image      image file to create or overwrite
+   * @throws TIoException error in reading the file system or writing the image
+   */
+  public static void save(final InMemoryFileSystem fileSystem, TFile image) throws TIoException {
+    OutputProcessor processor = new OutputProcessor() {
+      public void process(OutputManager manager) throws IOException {
+        save(fileSystem, manager.outputStream());
+      }
+    };
+    try {
+      image.writeAtomically(processor, Durability.NONE);
+    } catch (UnsupportedOperationException e) {
+      // the file systems that cannot write aside cannot map the image either
+      image.write(processor);
+    }
+  }
+
+  /**
+   * Writes the image to the stream, which is flushed but not closed
+   */
+  static void save(InMemoryFileSystem fileSystem, OutputStream stream) throws IOException {
+    List<TPath> dirs = new ArrayList<TPath>();
+    List<TPath> files = new ArrayList<TPath>();
+    for (TPath root : ROOTS) {
+      collect(fileSystem, root, dirs, files);
+    }
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+    byte[] index = index(fileSystem, dirs, files);
+    out.writeLong(MAGIC);
+    out.writeInt(VERSION);
+    out.writeInt(index.length);
+    out.write(index);
+    for (TPath file : files) {
+      InputStream in = fileSystem.createInputStream(file);
+      try {
+        copy(in, out);
+      } finally {
+        in.close();
+      }
+    }
+    out.flush();
+  }
+
+  private static void collect(InMemoryFileSystem fileSystem, TPath dir, List<TPath> dirs, List<TPath> files) {
+    PathContent content = fileSystem.list(dir);
+    files.addAll(content.files());
+    for (TPath subDir : content.dirs()) {
+      dirs.add(subDir);
+      collect(fileSystem, subDir, dirs, files);
+    }
+  }
+
+  private static byte[] index(InMemoryFileSystem fileSystem, List<TPath> dirs, List<TPath> files) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    out.writeInt(dirs.size());
+    for (TPath dir : dirs) {
+      out.writeUTF(dir.toPathString(PathSeparator.Unix));
+    }
+    out.writeInt(files.size());
+    long offset = 0;
+    for (TPath file : files) {
+      long length = fileSystem.fileLength(file);
+      out.writeUTF(file.toPathString(PathSeparator.Unix));
+      out.writeLong(fileSystem.fileLastModified(file));
+      out.writeLong(offset);
+      out.writeLong(length);
+      offset += length;
+    }
+    out.close();
+    return bytes.toByteArray();
+  }
+
+  private static void copy(InputStream in, OutputStream out) throws IOException {
+    byte[] buffer = new byte[8192];
+    int read;
+    while ((read = in.read(buffer)) > 0) {
+      out.write(buffer, 0, read);
+    }
+  }
+
+  /**
+   * Loads the image into a new file system with the default options
+   *
+   * @param image image file saved by {@link #save(InMemoryFileSystem, TFile)}
+   * @return the file system
+   * @throws TIoException error in reading the image, or the file not being an image
+   */
+  public static InMemoryFileSystem load(TFile image) throws TIoException {
+    return load(image, new InMemoryFileSystemBuilder());
+  }
+
+  /**
+   * Loads the image into a new file system built by the builder
+   *
+   * @param image   image file saved by {@link #save(InMemoryFileSystem, TFile)}
+   * @param builder builder for the file system
+   * @return the file system
+   * @throws TIoException error in reading the image, or the file not being an image
+   */
+  public static InMemoryFileSystem load(TFile image, InMemoryFileSystemBuilder builder) throws TIoException {
+    InMemoryFileSystem fileSystem = builder.build();
+    loadInto(image, fileSystem);
+    return fileSystem;
+  }
+
+  /**
+   * Loads the directories and files of the image into the file system
+   */
+  static void loadInto(TFile image, InMemoryFileSystem fileSystem) throws TIoException {
+    FileChannel channel = image.inputChannel();
+    try {
+      if (channel.size() > Integer.MAX_VALUE) {
+        throw new TIoException(image.toPath(), "image larger than 2GB is not supported");
+      }
+      ByteBuffer data;
+      try {
+        data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      } catch (UnsupportedOperationException e) {
+        data = read(channel);
+      }
+      load(image.toPath(), data, fileSystem);
+    } catch (TIoException e) {
+      throw e;
+    } catch (IOException e) {
+      throw new TIoException(image.toPath(), "failed to read image", e);
+    } finally {
+      close(image.toPath(), channel);
+    }
+  }
+
+  /**
+   * Loads the image from a URL, which is normally a classpath resource.  A resource on the file system
+   * is mapped into memory, and one in a jar is read into the heap.
+   *
+   * @param image URL of the image saved by {@link #save(InMemoryFileSystem, TFile)}
+   * @return the file system with the default options
+   * @throws TIoException error in reading the image, or the resource not being an image
+   */
+  public static InMemoryFileSystem load(URL image) throws TIoException {
+    return load(image, new InMemoryFileSystemBuilder());
+  }
+
+  public static InMemoryFileSystem load(URL image, InMemoryFileSystemBuilder builder) throws TIoException {
+    if ("file".equalsIgnoreCase(image.getProtocol())) {
+      return load(TFileFactory.fileFromUrl(image), builder);
+    }
+    TPath path = TPath.parse(image.toExternalForm());
+    try {
+      InputStream in = image.openStream();
+      try {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        copy(in, bytes);
+        InMemoryFileSystem fileSystem = builder.build();
+        load(path, ByteBuffer.wrap(bytes.toByteArray()), fileSystem);
+        return fileSystem;
+      } finally {
+        in.close();
+      }
+    } catch (TIoException e) {
+      throw e;
+    } catch (IOException e) {
+      throw new TIoException(path, "failed to read image", e);
+    }
+  }
+
+  private static ByteBuffer read(FileChannel channel) throws IOException {
+    ByteBuffer data = ByteBuffer.allocate((int) channel.size());
+    while (data.hasRemaining()) {
+      if (channel.read(data) < 0) {
+        break;
+      }
+    }
+    data.flip();
+    return data;
+  }
+
+  private static void load(TPath path, ByteBuffer data, InMemoryFileSystem fileSystem) throws IOException {
+    if (data.limit() < HEADER_SIZE || data.getLong(0) != MAGIC) {
+      throw new TIoException(path, "not an in-memory file system image");
+    }
+    if (data.getInt(8) != VERSION) {
+      throw new TIoException(path, "unsupported image version <" + data.getInt(8) + ">");
+    }
+    int indexLength = data.getInt(12);
+    byte[] index = new byte[indexLength];
+    ByteBuffer view = data.duplicate();
+    view.position(HEADER_SIZE);
+    view.get(index);
+    int contentStart = HEADER_SIZE + indexLength;
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(index));
+    int dirCount = in.readInt();
+    for (int i = 0; i < dirCount; i++) {
+      TPath dir = TPath.parse(in.readUTF());
+      if (!fileSystem.dirExists(dir)) {
+        fileSystem.createDir(dir);
+      }
+    }
+    int fileCount = in.readInt();
+    for (int i = 0; i < fileCount; i++) {
+      TPath file = TPath.parse(in.readUTF());
+      long lastModified = in.readLong();
+      int offset = (int) in.readLong();
+      int length = (int) in.readLong();
+      ByteBuffer content = data.duplicate();
+      content.position(contentStart + offset);
+      content.limit(contentStart + offset + length);
+      fileSystem.createFile(file, content.slice(), lastModified);
+    }
+  }
+
+  private static void close(TPath path, FileChannel channel) throws TIoException {
+    try {
+      channel.close();
+    } catch (IOException e) {
+      throw new TIoException(path, "failed to close image", e);
+    }
+  }
+}
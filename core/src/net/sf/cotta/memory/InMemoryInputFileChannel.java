@@ -7,9 +7,9 @@ import java.nio.channels.*;
 
 class InMemoryInputFileChannel extends FileChannel {
   private long position = 0;
-  private ByteArrayBuffer content;
+  private ContentBuffer content;
 
-  public InMemoryInputFileChannel(ByteArrayBuffer content) {
+  public InMemoryInputFileChannel(ContentBuffer content) {
     this.content = content;
   }
 
@@ -29,7 +29,7 @@ class InMemoryInputFileChannel extends FileChannel {
     }
     long end = Math.min(content.size(), position + available);
     int copied = (int) (end - position);
-    content.copyTo(dst, (int) position, copied);
+    content.copyTo(dst, position, copied);
     return copied;
   }
 
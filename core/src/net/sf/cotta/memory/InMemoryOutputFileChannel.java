@@ -3,83 +3,165 @@ package net.sf.cotta.memory;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedChannelException;
 import java.nio.channels.FileChannel;
 import java.nio.channels.FileLock;
 import java.nio.channels.ReadableByteChannel;
 import java.nio.channels.WritableByteChannel;
 
+/**
+ * File channel for writing to the content of an in-memory file.  Like the channel of a
+ * FileOutputStream, it starts at the end of the content, and like the channel of a RandomAccessFile
+ * opened with "rw", it can also be read from and positioned anywhere.
+ */
 class InMemoryOutputFileChannel extends FileChannel {
-  private ByteArrayBuffer content;
+  private static final int TRANSFER_BUFFER_SIZE = 64 * 1024;
 
-  public InMemoryOutputFileChannel(ByteArrayBuffer content) {
+  private ContentBuffer content;
+  private long position;
+
+  public InMemoryOutputFileChannel(ContentBuffer content) {
     this.content = content;
+    this.position = content.size();
   }
 
-  ByteArrayBuffer getContent() {
+  ContentBuffer getContent() {
     return content;
   }
 
+  private void ensureOpen() throws ClosedChannelException {
+    if (!isOpen()) {
+      throw new ClosedChannelException();
+    }
+  }
+
+  private static void checkPosition(long position) {
+    if (position < 0) {
+      throw new IllegalArgumentException("position cannot be negative:" + position);
+    }
+  }
+
   public int read(ByteBuffer dst) throws IOException {
-    return 0;
+    int read = read(dst, position);
+    if (read > 0) {
+      position += read;
+    }
+    return read;
   }
 
   public long read(ByteBuffer[] dsts, int offset, int length) throws IOException {
-    return 0;
+    long total = 0;
+    for (int i = offset; i < offset + length; i++) {
+      int read = read(dsts[i]);
+      if (read < 0) {
+        return total == 0 ? -1 : total;
+      }
+      total += read;
+    }
+    return total;
+  }
+
+  public int read(ByteBuffer dst, long position) throws IOException {
+    checkPosition(position);
+    ensureOpen();
+    if (!dst.hasRemaining()) {
+      return 0;
+    }
+    if (position >= content.size()) {
+      return -1;
+    }
+    return (int) content.copyTo(dst, position, dst.remaining());
   }
 
   public int write(ByteBuffer src) throws IOException {
-    return content.copyFrom(src);
+    int written = write(src, position);
+    position += written;
+    return written;
   }
 
   public long write(ByteBuffer[] srcs, int offset, int length) throws IOException {
-    return 0;
+    long total = 0;
+    for (int i = offset; i < offset + length; i++) {
+      total += write(srcs[i]);
+    }
+    return total;
+  }
+
+  public int write(ByteBuffer src, long position) throws IOException {
+    checkPosition(position);
+    ensureOpen();
+    return content.write(position, src);
   }
 
   public long position() throws IOException {
-    return 0;
+    ensureOpen();
+    return position;
   }
 
   public FileChannel position(long newPosition) throws IOException {
-    return null;
+    checkPosition(newPosition);
+    ensureOpen();
+    this.position = newPosition;
+    return this;
   }
 
   public long size() throws IOException {
-    return 0;
+    ensureOpen();
+    return content.size();
   }
 
   public FileChannel truncate(long size) throws IOException {
-    return null;
+    if (size < 0) {
+      throw new IllegalArgumentException("size cannot be negative:" + size);
+    }
+    ensureOpen();
+    content.truncate(size);
+    position = Math.min(position, size);
+    return this;
   }
 
   public void force(boolean metaData) throws IOException {
+    ensureOpen();
   }
 
   public long transferTo(long position, long count, WritableByteChannel target) throws IOException {
-    return 0;
+    checkPosition(position);
+    ensureOpen();
+    return content.copyTo(target, position, count);
   }
 
   public long transferFrom(ReadableByteChannel src, long position, long count) throws IOException {
-    return 0;
-  }
-
-  public int read(ByteBuffer dst, long position) throws IOException {
-    return 0;
-  }
-
-  public int write(ByteBuffer src, long position) throws IOException {
-    return 0;
+    checkPosition(position);
+    ensureOpen();
+    if (position > content.size()) {
+      return 0;
+    }
+    ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(count, TRANSFER_BUFFER_SIZE));
+    long transferred = 0;
+    while (transferred < count) {
+      buffer.clear();
+      buffer.limit((int) Math.min(count - transferred, buffer.capacity()));
+      int read = src.read(buffer);
+      if (read <= 0) {
+        break;
+      }
+      buffer.flip();
+      content.write(position + transferred, buffer);
+      transferred += read;
+    }
+    return transferred;
   }
 
   public MappedByteBuffer map(MapMode mode, long position, long size) throws IOException {
-    return null;
+    throw new UnsupportedOperationException("map is not supported for in-memory output file channel because MappedByteBuffer can not be instantiated directly from outside the package");
   }
 
   public FileLock lock(long position, long size, boolean shared) throws IOException {
-    return null;
+    throw new UnsupportedOperationException("lock is not supported for in-memory output file channel because tryLock is not supported");
   }
 
   public FileLock tryLock(long position, long size, boolean shared) throws IOException {
-    return null;
+    throw new UnsupportedOperationException("tryLock is not supported for in-memory output file channel because FileLock can not be instantiated from outside the package");
   }
 
   protected void implCloseChannel() throws IOException {
@@ -0,0 +1,426 @@
+package net.sf.cotta.memory;
+
+import net.sf.cotta.PathSeparator;
+import net.sf.cotta.TDirectory;
+import net.sf.cotta.TFile;
+import net.sf.cotta.TIoException;
+import net.sf.cotta.TPath;
+import net.sf.cotta.io.OutputMode;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+/**
+ * Write-ahead log of the changes to an in-memory file system, with checkpoints of the whole file system
+ * as an {@link InMemoryFileSystemImage}.  A change is applied and appended to the log under the lock of
+ * the journal, so the log has the changes in the order they are made, and is then committed.  Committing
+ * writes and syncs all the records appended so far, so the threads committing at the same time share one
+ * sync of the log.
+ * <p/>
+ * The journal directory holds the checkpoint and the log of one generation.  A checkpoint starts a new
+ * generation: the image is written to a temporary file, synced and renamed, and a new log is started,
+ * after which the files of the previous generation are deleted.  Recovery loads the latest checkpoint
+ * and replays its log, up to the first record that was not completely written.
+ *
+ * @see InMemoryFileSystemBuilder#withJournal(TDirectory, long)
+ */
+class Journal {
+  static final byte CREATE_FILE = 1;
+  static final byte CREATE_DIR = 2;
+  static final byte DELETE_FILE = 3;
+  static final byte DELETE_DIR = 4;
+  static final byte MOVE_FILE = 5;
+  static final byte MOVE_DIR = 6;
+  static final byte COPY_FILE = 7;
+  static final byte WRITE = 8;
+
+  private static final String CHECKPOINT_PREFIX = "checkpoint-";
+  private static final String CHECKPOINT_SUFFIX = ".img";
+  private static final String LOG_PREFIX = "journal-";
+  private static final String LOG_SUFFIX = ".log";
+  private static final String TEMPORARY_SUFFIX = ".tmp";
+
+  private final TDirectory directory;
+  private final long checkpointBytes;
+  private long generation;
+  private FileChannel log;
+  private long logSize;
+  private ByteArrayOutputStream pending = new ByteArrayOutputStream();
+  private long appended = 0;
+  private long synced = 0;
+  private boolean syncing = false;
+  private TIoException failure;
+  private long recordCount = 0;
+  private long syncCount = 0;
+  private long checkpointCount = 0;
+
+  private Journal(TDirectory directory, long checkpointBytes) {
+    this.directory = directory;
+    this.checkpointBytes = checkpointBytes;
+  }
+
+  /**
+   * Recovers the file system from the journal directory and opens the journal for the new changes
+   *
+   * @param directory       journal directory, normally on the physical file system
+   * @param checkpointBytes size of the log at which a checkpoint is taken
+   * @param fileSystem      empty file system to recover into
+   * @return the journal
+   * @throws TIoException error in reading the journal, or the journal being corrupt
+   */
+  static Journal open(TDirectory directory, long checkpointBytes, InMemoryFileSystem fileSystem) throws TIoException {
+    if (checkpointBytes <= 0) {
+      throw new IllegalArgumentException("checkpoint size needs to be positive:" + checkpointBytes);
+    }
+    Journal journal = new Journal(directory, checkpointBytes);
+    journal.recover(fileSystem);
+    return journal;
+  }
+
+  private void recover(InMemoryFileSystem fileSystem) throws TIoException {
+    directory.ensureExists();
+    generation = 0;
+    for (TFile file : directory.list().files()) {
+      String name = file.name();
+      if (name.endsWith(TEMPORARY_SUFFIX)) {
+        file.delete();
+      } else if (name.startsWith(CHECKPOINT_PREFIX) && name.endsWith(CHECKPOINT_SUFFIX)) {
+        generation = Math.max(generation, generationOf(name, CHECKPOINT_PREFIX, CHECKPOINT_SUFFIX));
+      }
+    }
+    if (checkpoint(generation).exists()) {
+      InMemoryFileSystemImage.loadInto(checkpoint(generation), fileSystem);
+    }
+    long validSize = logFile(generation).exists() ? replay(logFile(generation), fileSystem) : 0;
+    log = logFile(generation).outputChannel(OutputMode.APPEND);
+    try {
+      log.truncate(validSize);
+    } catch (IOException e) {
+      throw new TIoException(logFile(generation).toPath(), "failed to cut off incomplete record", e);
+    }
+    logSize = validSize;
+    syncDirectory();
+    deletePreviousGenerations();
+  }
+
+  private static long generationOf(String name, String prefix, String suffix) {
+    try {
+      return Long.parseLong(name.substring(prefix.length(), name.length() - suffix.length()));
+    } catch (NumberFormatException e) {
+      return -1;
+    }
+  }
+
+  private TFile checkpoint(long generation) {
+    return directory.file(CHECKPOINT_PREFIX + generation + CHECKPOINT_SUFFIX);
+  }
+
+  private TFile logFile(long generation) {
+    return directory.file(LOG_PREFIX + generation + LOG_SUFFIX);
+  }
+
+  /**
+   * Makes the checkpoint and the log of the current generation durable, which needs to happen before
+   * the previous generation is deleted
+   */
+  private void syncDirectory() throws TIoException {
+    directory.factory().getFileSystem().syncDirectory(directory.toPath());
+  }
+
+  private void deletePreviousGenerations() throws TIoException {
+    for (TFile file : directory.list().files()) {
+      String name = file.name();
+      long fileGeneration = name.startsWith(CHECKPOINT_PREFIX) ? generationOf(name, CHECKPOINT_PREFIX, CHECKPOINT_SUFFIX)
+          : name.startsWith(LOG_PREFIX) ? generationOf(name, LOG_PREFIX, LOG_SUFFIX) : generation;
+      if (fileGeneration < generation) {
+        file.delete();
+      }
+    }
+  }
+
+  /**
+   * Applies the records of the log to the file system
+   *
+   * @return size of the log up to the first record that is not complete
+   */
+  private long replay(TFile file, InMemoryFileSystem fileSystem) throws TIoException {
+    long validSize = 0;
+    InputStream stream = file.inputStream();
+    try {
+      DataInputStream in = new DataInputStream(new BufferedInputStream(stream));
+      while (true) {
+        byte[] record;
+        try {
+          int length = in.readInt();
+          if (length <= 0) {
+            break;
+          }
+          record = new byte[length];
+          in.readFully(record);
+          CRC32 crc = new CRC32();
+          crc.update(record);
+          if (in.readInt() != (int) crc.getValue()) {
+            break;
+          }
+        } catch (EOFException e) {
+          break;
+        }
+        apply(record, fileSystem);
+        validSize += 8 + record.length;
+      }
+    } catch (IOException e) {
+      throw new TIoException(file.toPath(), "failed to replay journal", e);
+    } finally {
+      try {
+        stream.close();
+      } catch (IOException e) {
+        throw new TIoException(file.toPath(), "failed to close journal", e);
+      }
+    }
+    return validSize;
+  }
+
+  private void apply(byte[] record, InMemoryFileSystem fileSystem) throws IOException {
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(record));
+    byte type = in.readByte();
+    TPath path = TPath.parse(in.readUTF());
+    switch (type) {
+      case CREATE_FILE:
+        fileSystem.createFile(path);
+        break;
+      case CREATE_DIR:
+        fileSystem.createDir(path);
+        break;
+      case DELETE_FILE:
+        fileSystem.deleteFile(path);
+        break;
+      case DELETE_DIR:
+        fileSystem.deleteDirectory(path);
+        break;
+      case MOVE_FILE:
+        fileSystem.moveFile(path, TPath.parse(in.readUTF()));
+        break;
+      case MOVE_DIR:
+        fileSystem.moveDirectory(path, TPath.parse(in.readUTF()));
+        break;
+      case COPY_FILE:
+        fileSystem.copyFile(path, TPath.parse(in.readUTF()));
+        break;
+      case WRITE:
+        long lastModified = in.readLong();
+        long offset = in.readLong();
+        int headerLength = record.length - in.available();
+        fileSystem.replayWrite(path, offset, ByteBuffer.wrap(record, headerLength, record.length - headerLength), lastModified);
+        break;
+      default:
+        throw new IOException("unknown record type <" + type + ">");
+    }
+  }
+
+  /**
+   * Appends the record of a change, to be called under the lock of the journal right after the change
+   *
+   * @return sequence number of the record to commit
+   */
+  synchronized long append(byte type, TPath path) throws TIoException {
+    return append(type, path, null);
+  }
+
+  synchronized long append(byte type, TPath path, TPath destination) throws TIoException {
+    ByteArrayOutputStream record = startRecord(type, path);
+    try {
+      if (destination != null) {
+        new DataOutputStream(record).writeUTF(destination.toPathString(PathSeparator.Unix));
+      }
+    } catch (IOException e) {
+      throw new IllegalStateException("writing into memory cannot fail", e);
+    }
+    return endRecord(record);
+  }
+
+  /**
+   * Appends the record of a write, which sets the content of the file to the bytes before the offset
+   * followed by the bytes written
+   */
+  synchronized long appendWrite(TPath path, long offset, ContentBuffer content, long lastModified) throws TIoException {
+    ByteArrayOutputStream record = startRecord(WRITE, path);
+    try {
+      DataOutputStream out = new DataOutputStream(record);
+      out.writeLong(lastModified);
+      out.writeLong(offset);
+      content.copyTo(record, offset, content.size() - offset);
+    } catch (IOException e) {
+      throw new IllegalStateException("writing into memory cannot fail", e);
+    }
+    return endRecord(record);
+  }
+
+  private ByteArrayOutputStream startRecord(byte type, TPath path) throws TIoException {
+    if (failure != null) {
+      throw failure;
+    }
+    ByteArrayOutputStream record = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(record);
+    try {
+      out.writeByte(type);
+      out.writeUTF(path.toPathString(PathSeparator.Unix));
+    } catch (IOException e) {
+      throw new IllegalStateException("writing into memory cannot fail", e);
+    }
+    return record;
+  }
+
+  private long endRecord(ByteArrayOutputStream record) {
+    byte[] bytes = record.toByteArray();
+    CRC32 crc = new CRC32();
+    crc.update(bytes);
+    DataOutputStream out = new DataOutputStream(pending);
+    try {
+      out.writeInt(bytes.length);
+      out.write(bytes);
+      out.writeInt((int) crc.getValue());
+    } catch (IOException e) {
+      throw new IllegalStateException("writing into memory cannot fail", e);
+    }
+    recordCount++;
+    return ++appended;
+  }
+
+  /**
+   * Makes sure the record and all the records before it are on disk.  If another thread is syncing the
+   * log, this waits for it and syncs all the records appended in the meantime at once.
+   *
+   * @param sequence sequence number of the record
+   * @throws TIoException error in writing or syncing the log
+   */
+  void commit(long sequence) throws TIoException {
+    byte[] batch;
+    long batchEnd;
+    synchronized (this) {
+      while (synced < sequence && syncing) {
+        try {
+          wait();
+        } catch (InterruptedException e) {
+          throw new TIoException(directory.toPath(), "interrupted while waiting for journal", new InterruptedIOException());
+        }
+      }
+      if (failure != null) {
+        throw failure;
+      }
+      if (synced >= sequence) {
+        return;
+      }
+      syncing = true;
+      batch = pending.toByteArray();
+      pending.reset();
+      batchEnd = appended;
+    }
+    TIoException error = null;
+    try {
+      ByteBuffer buffer = ByteBuffer.wrap(batch);
+      while (buffer.hasRemaining()) {
+        log.write(buffer);
+      }
+      log.force(false);
+    } catch (IOException e) {
+      error = new TIoException(logFile(generation).toPath(), "failed to write journal", e);
+    }
+    synchronized (this) {
+      syncing = false;
+      if (error == null) {
+        synced = Math.max(synced, batchEnd);
+        logSize += batch.length;
+        syncCount++;
+      } else {
+        failure = error;
+      }
+      notifyAll();
+    }
+    if (error != null) {
+      throw error;
+    }
+  }
+
+  /**
+   * Saves a checkpoint if the log has grown to the checkpoint size
+   */
+  synchronized void checkpointIfNeeded(InMemoryFileSystem fileSystem) throws TIoException {
+    if (logSize >= checkpointBytes) {
+      checkpoint(fileSystem);
+    }
+  }
+
+  /**
+   * Saves the file system as the checkpoint of a new generation and starts its log.  The changes
+   * wait for the checkpoint, and the records not yet synced are dropped as the checkpoint has them.
+   */
+  synchronized void checkpoint(InMemoryFileSystem fileSystem) throws TIoException {
+    while (syncing) {
+      try {
+        wait();
+      } catch (InterruptedException e) {
+        throw new TIoException(directory.toPath(), "interrupted while waiting for journal", new InterruptedIOException());
+      }
+    }
+    if (failure != null) {
+      throw failure;
+    }
+    long next = generation + 1;
+    TFile temporary = directory.file(CHECKPOINT_PREFIX + next + TEMPORARY_SUFFIX);
+    FileChannel channel = temporary.outputChannel(OutputMode.OVERWRITE);
+    try {
+      InMemoryFileSystemImage.save(fileSystem, Channels.newOutputStream(channel));
+      channel.force(true);
+      channel.close();
+    } catch (IOException e) {
+      throw new TIoException(temporary.toPath(), "failed to write checkpoint", e);
+    }
+    temporary.moveTo(checkpoint(next));
+    FileChannel previousLog = log;
+    log = logFile(next).outputChannel(OutputMode.OVERWRITE);
+    generation = next;
+    try {
+      previousLog.close();
+    } catch (IOException e) {
+      throw new TIoException(logFile(next - 1).toPath(), "failed to close journal", e);
+    }
+    syncDirectory();
+    deletePreviousGenerations();
+    pending.reset();
+    synced = appended;
+    logSize = 0;
+    checkpointCount++;
+    notifyAll();
+  }
+
+  synchronized void close() throws TIoException {
+    try {
+      log.close();
+    } catch (IOException e) {
+      throw new TIoException(logFile(generation).toPath(), "failed to close journal", e);
+    }
+  }
+
+  synchronized long recordCount() {
+    return recordCount;
+  }
+
+  synchronized long syncCount() {
+    return syncCount;
+  }
+
+  synchronized long checkpointCount() {
+    return checkpointCount;
+  }
+}
@@ -0,0 +1,252 @@
+package net.sf.cotta.memory;
+
+import net.sf.cotta.ByteArrayIndexOutOfBoundsException;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Content buffer that keeps the content in pages of direct memory, outside of the heap.  The
+ * pages go back to the {@link OffHeapMemory} they came from when the buffer is released.  A copy
+ * shares the pages, and a page is copied by whichever buffer writes to it first.
+ */
+public class OffHeapBuffer implements ContentBuffer {
+  private final OffHeapMemory memory;
+  private final int pageShift;
+  private final int pageMask;
+  private ByteBuffer[] pages = new ByteBuffer[1];
+  private int pageCount = 0;
+  private long size = 0;
+  private boolean copied = false; // pages may be shared with copies
+
+  OffHeapBuffer(OffHeapMemory memory) {
+    this.memory = memory;
+    this.pageShift = Integer.numberOfTrailingZeros(memory.pageSize());
+    this.pageMask = memory.pageSize() - 1;
+  }
+
+  private OffHeapBuffer(OffHeapBuffer original) {
+    this(original.memory);
+    this.pages = original.pages.clone();
+    this.pageCount = original.pageCount;
+    this.size = original.size;
+    this.copied = true;
+  }
+
+  private void ensureCapacity(long required) {
+    while (((long) pageCount << pageShift) < required) {
+      if (pageCount == pages.length) {
+        ByteBuffer[] newPages = new ByteBuffer[pages.length * 2];
+        System.arraycopy(pages, 0, newPages, 0, pageCount);
+        pages = newPages;
+      }
+      pages[pageCount++] = memory.allocatePage();
+    }
+  }
+
+  /**
+   * Returns a view of the page for bulk access, so that the position of the page itself is
+   * not changed by the readers
+   */
+  private ByteBuffer pageView(long position, int length) {
+    ByteBuffer view = pages[(int) (position >>> pageShift)].duplicate();
+    int offset = (int) position & pageMask;
+    view.limit(offset + length).position(offset);
+    return view;
+  }
+
+  /**
+   * Returns the page to write to, copying it first if it is shared with a copy of the buffer
+   */
+  private ByteBuffer writablePage(int index) {
+    ByteBuffer page = pages[index];
+    if (copied && memory.isShared(page)) {
+      ByteBuffer own = memory.allocatePage();
+      ByteBuffer source = page.duplicate();
+      source.clear();
+      own.put(source).clear();
+      memory.releasePage(page);
+      pages[index] = own;
+    }
+    return pages[index];
+  }
+
+  private ByteBuffer writableView(long position, int length) {
+    writablePage((int) (position >>> pageShift));
+    return pageView(position, length);
+  }
+
+  public long size() {
+    return size;
+  }
+
+  public byte byteAt(long position) {
+    if (position < 0 || position >= size) {
+      throw new ByteArrayIndexOutOfBoundsException(position, size);
+    }
+    return pages[(int) (position >>> pageShift)].get((int) position & pageMask);
+  }
+
+  public OffHeapBuffer append(byte b) {
+    ensureCapacity(size + 1);
+    writablePage((int) (size >>> pageShift)).put((int) size & pageMask, b);
+    size++;
+    return this;
+  }
+
+  public OffHeapBuffer append(byte[] b, int off, int len) {
+    ensureCapacity(size + len);
+    while (len > 0) {
+      int count = Math.min(len, pageMask + 1 - ((int) size & pageMask));
+      writableView(size, count).put(b, off, count);
+      off += count;
+      len -= count;
+      size += count;
+    }
+    return this;
+  }
+
+  public int copyTo(long position, byte[] dst, int off, int len) {
+    int sizeToCopy = (int) Math.min(len, size - position);
+    if (sizeToCopy <= 0) {
+      return 0;
+    }
+    int remaining = sizeToCopy;
+    while (remaining > 0) {
+      int count = Math.min(remaining, pageMask + 1 - ((int) position & pageMask));
+      pageView(position, count).get(dst, off, count);
+      position += count;
+      off += count;
+      remaining -= count;
+    }
+    return sizeToCopy;
+  }
+
+  public int copyFrom(ByteBuffer src) {
+    return write(size, src);
+  }
+
+  public int write(long position, ByteBuffer src) {
+    int sizeToCopy = src.remaining();
+    long end = position + sizeToCopy;
+    ensureCapacity(end);
+    for (long current = size; current < position; current++) {
+      writablePage((int) (current >>> pageShift)).put((int) current & pageMask, (byte) 0);
+    }
+    int limit = src.limit();
+    long current = position;
+    while (current < end) {
+      int count = (int) Math.min(end - current, pageMask + 1 - ((int) current & pageMask));
+      src.limit(src.position() + count);
+      writableView(current, count).put(src);
+      current += count;
+    }
+    src.limit(limit);
+    size = Math.max(size, end);
+    return sizeToCopy;
+  }
+
+  public void truncate(long newSize) {
+    if (newSize >= size) {
+      return;
+    }
+    size = Math.max(0, newSize);
+    int pagesNeeded = (int) ((size + pageMask) >>> pageShift);
+    for (int i = pagesNeeded; i < pageCount; i++) {
+      memory.releasePage(pages[i]);
+      pages[i] = null;
+    }
+    pageCount = Math.min(pageCount, pagesNeeded);
+  }
+
+  public long copyTo(ByteBuffer dst, long start, int count) {
+    long end = Math.min(size, start + count);
+    long sizeToCopy = end - start;
+    if (sizeToCopy <= 0) {
+      return 0;
+    }
+    long position = start;
+    while (position < end) {
+      int length = (int) Math.min(end - position, pageMask + 1 - ((int) position & pageMask));
+      dst.put(pageView(position, length));
+      position += length;
+    }
+    return sizeToCopy;
+  }
+
+  public ByteBuffer view(long position, int count) {
+    if (position >= size) {
+      return ByteBuffer.allocate(0).asReadOnlyBuffer();
+    }
+    int length = (int) Math.min(Math.min(count, size - position), pageMask + 1 - ((int) position & pageMask));
+    return pageView(position, length).slice().asReadOnlyBuffer();
+  }
+
+  public long copyTo(WritableByteChannel target, long position, long count) throws IOException {
+    long end = Math.min(size, position + count);
+    if (end - position <= 0) {
+      return 0;
+    }
+    long current = position;
+    while (current < end) {
+      int length = (int) Math.min(end - current, pageMask + 1 - ((int) current & pageMask));
+      int written = target.write(pageView(current, length));
+      current += written;
+      if (written < length) {
+        break;
+      }
+    }
+    return current - position;
+  }
+
+  public long copyTo(OutputStream out, long position, long count) throws IOException {
+    long end = Math.min(size, position + count);
+    if (end - position <= 0) {
+      return 0;
+    }
+    byte[] buffer = new byte[(int) Math.min(pageMask + 1, end - position)];
+    long current = position;
+    while (current < end) {
+      int length = (int) Math.min(end - current, pageMask + 1 - ((int) current & pageMask));
+      pageView(current, length).get(buffer, 0, length);
+      out.write(buffer, 0, length);
+      current += length;
+    }
+    return end - position;
+  }
+
+  public byte[] toByteArray() {
+    if (size > Integer.MAX_VALUE) {
+      throw new IllegalStateException("content of <" + size + "> bytes is too large for an array");
+    }
+    byte[] result = new byte[(int) size];
+    copyTo(0, result, 0, result.length);
+    return result;
+  }
+
+  public OffHeapBuffer copy() {
+    for (int i = 0; i < pageCount; i++) {
+      memory.share(pages[i]);
+    }
+    copied = true;
+    return new OffHeapBuffer(this);
+  }
+
+  public void release() {
+    for (int i = 0; i < pageCount; i++) {
+      memory.releasePage(pages[i]);
+      pages[i] = null;
+    }
+    pageCount = 0;
+    size = 0;
+  }
+
+  /**
+   * This method returns a string using the default charset.
+   */
+  public String toString() {
+    return new String(toByteArray());
+  }
+}
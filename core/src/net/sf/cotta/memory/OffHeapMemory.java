@@ -0,0 +1,114 @@
+package net.sf.cotta.memory;
+
+import java.nio.ByteBuffer;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Hands out pages of off-heap memory to the files of an in-memory file system.  The pages are
+ * cut from direct buffers allocated a slab at a time, and the pages released by deleted or
+ * overwritten files are kept to be handed out again, as direct buffers cannot be freed explicitly.
+ * A page can be shared by the copies of a buffer, in which case it is only handed out again after
+ * all of them have released it.
+ *
+ * @see OffHeapBuffer
+ * @see InMemoryFileSystem#offHeapMemoryUsed()
+ */
+class OffHeapMemory {
+  static final int DEFAULT_PAGE_SIZE = 8 * 1024;
+  static final int DEFAULT_SLAB_SIZE = 4 * 1024 * 1024;
+
+  private final int pageSize;
+  private final int slabSize;
+  private ByteBuffer slab;
+  private ByteBuffer[] freePages = new ByteBuffer[16];
+  private int freeCount = 0;
+  private long allocated = 0;
+  private long used = 0;
+  private Map<ByteBuffer, Integer> shareCounts = new IdentityHashMap<ByteBuffer, Integer>();
+
+  OffHeapMemory() {
+    this(DEFAULT_PAGE_SIZE, DEFAULT_SLAB_SIZE);
+  }
+
+  /**
+   * @param pageSize size of each page, needs to be a power of two
+   * @param slabSize size of each direct buffer allocated, which will be rounded down to whole pages
+   */
+  OffHeapMemory(int pageSize, int slabSize) {
+    if (pageSize <= 0 || Integer.bitCount(pageSize) != 1) {
+      throw new IllegalArgumentException("page size needs to be a power of two:" + pageSize);
+    }
+    if (slabSize < pageSize) {
+      throw new IllegalArgumentException("slab size <" + slabSize + "> is smaller than page size <" + pageSize + ">");
+    }
+    this.pageSize = pageSize;
+    this.slabSize = slabSize - slabSize % pageSize;
+  }
+
+  int pageSize() {
+    return pageSize;
+  }
+
+  synchronized ByteBuffer allocatePage() {
+    used += pageSize;
+    if (freeCount > 0) {
+      ByteBuffer page = freePages[--freeCount];
+      freePages[freeCount] = null;
+      page.clear();
+      return page;
+    }
+    if (slab == null || !slab.hasRemaining()) {
+      slab = ByteBuffer.allocateDirect(slabSize);
+      allocated += slabSize;
+    }
+    slab.limit(slab.position() + pageSize);
+    ByteBuffer page = slab.slice();
+    slab.position(slab.limit());
+    slab.limit(slab.capacity());
+    return page;
+  }
+
+  /**
+   * Records one more holder of the page, which has to release it as well
+   */
+  synchronized void share(ByteBuffer page) {
+    Integer count = shareCounts.get(page);
+    shareCounts.put(page, count == null ? 1 : count + 1);
+  }
+
+  synchronized boolean isShared(ByteBuffer page) {
+    return shareCounts.containsKey(page);
+  }
+
+  synchronized void releasePage(ByteBuffer page) {
+    Integer count = shareCounts.remove(page);
+    if (count != null) {
+      if (count > 1) {
+        shareCounts.put(page, count - 1);
+      }
+      return;
+    }
+    used -= pageSize;
+    if (freeCount == freePages.length) {
+      ByteBuffer[] newPages = new ByteBuffer[freePages.length * 2];
+      System.arraycopy(freePages, 0, newPages, 0, freeCount);
+      freePages = newPages;
+    }
+    freePages[freeCount++] = page;
+  }
+
+  /**
+   * @return number of bytes in the pages held by files
+   */
+  synchronized long used() {
+    return used;
+  }
+
+  /**
+   * @return number of bytes of direct buffers allocated, including the pages released
+   */
+  synchronized long allocated() {
+    return allocated;
+  }
+}
@@ -0,0 +1,148 @@
+package net.sf.cotta.memory;
+
+import net.sf.cotta.TDirectory;
+import net.sf.cotta.TIoException;
+import net.sf.cotta.TIoRuntimeException;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps the file contents of an in-memory file system within a memory budget by moving the least
+ * recently used contents to files in a spill directory, from where they are read back the next time
+ * they are accessed.  A content is not moved while a stream or channel on it is open, so the budget
+ * can be exceeded by the contents that are in use.
+ * <p/>
+ * All the moves happen under the lock of the store, so the accesses that need to read back a content
+ * or make room wait for each other.
+ *
+ * @see InMemoryFileSystemBuilder#withMemoryBudget(long, TDirectory)
+ */
+class SpillStore {
+  private final long budget;
+  private final TDirectory directory;
+  private final Map<InMemoryFileContent, Long> resident = new LinkedHashMap<InMemoryFileContent, Long>(16, 0.75f, true);
+  private long residentBytes = 0;
+  private long nextFileId = 0;
+  private long evictionCount = 0;
+  private long reloadCount = 0;
+  private long spilledBytes = 0;
+  private long reloadedBytes = 0;
+
+  /**
+   * @param budget    number of bytes of content to keep in memory
+   * @param directory directory for the contents moved out of memory, normally on the physical file system
+   */
+  SpillStore(long budget, TDirectory directory) {
+    if (budget < 0) {
+      throw new IllegalArgumentException("memory budget cannot be negative:" + budget);
+    }
+    this.budget = budget;
+    this.directory = directory;
+  }
+
+  /**
+   * Makes sure the content is in memory and records the access
+   *
+   * @param content content being accessed
+   * @return the buffer of the content
+   */
+  synchronized ContentBuffer access(InMemoryFileContent content) {
+    if (content.isSpilled()) {
+      reload(content);
+    }
+    account(content);
+    evictIfNeeded(content);
+    return content.getBuffer();
+  }
+
+  /**
+   * Makes sure the content is in memory and keeps it there until {@link #close(InMemoryFileContent)}
+   */
+  synchronized ContentBuffer open(InMemoryFileContent content) {
+    ContentBuffer buffer = access(content);
+    content.pin();
+    return buffer;
+  }
+
+  synchronized void close(InMemoryFileContent content) {
+    content.unpin();
+    if (!content.isSpilled() && resident.containsKey(content)) {
+      account(content);
+      evictIfNeeded(null);
+    }
+  }
+
+  /**
+   * Drops the content from memory or from the spill directory, when the file is deleted or overwritten.
+   * The buffer read by the streams still open on the content is given back when the last one is closed.
+   */
+  synchronized void discard(InMemoryFileContent content) {
+    Long size = resident.remove(content);
+    if (size != null) {
+      residentBytes -= size;
+    }
+    try {
+      content.discard();
+    } catch (TIoException e) {
+      throw new TIoRuntimeException(e);
+    }
+  }
+
+  private void account(InMemoryFileContent content) {
+    long size = content.getBuffer().size();
+    Long previous = resident.put(content, size);
+    residentBytes += size - (previous == null ? 0 : previous);
+  }
+
+  private void evictIfNeeded(InMemoryFileContent accessed) {
+    Iterator<Map.Entry<InMemoryFileContent, Long>> iterator = resident.entrySet().iterator();
+    while (residentBytes > budget && iterator.hasNext()) {
+      Map.Entry<InMemoryFileContent, Long> entry = iterator.next();
+      InMemoryFileContent content = entry.getKey();
+      if (content == accessed || content.isPinned()) {
+        continue;
+      }
+      try {
+        long size = content.spillTo(directory.file(Long.toString(nextFileId++) + ".spill"));
+        spilledBytes += size;
+      } catch (IOException e) {
+        throw new TIoRuntimeException("failed to spill content", directory.toPath(), e);
+      }
+      residentBytes -= entry.getValue();
+      iterator.remove();
+      evictionCount++;
+    }
+  }
+
+  private void reload(InMemoryFileContent content) {
+    try {
+      reloadedBytes += content.reload();
+    } catch (IOException e) {
+      throw new TIoRuntimeException("failed to read back spilled content", directory.toPath(), e);
+    }
+    reloadCount++;
+  }
+
+  synchronized long residentBytes() {
+    return residentBytes;
+  }
+
+  synchronized long evictionCount() {
+    return evictionCount;
+  }
+
+  synchronized long reloadCount() {
+    return reloadCount;
+  }
+
+  synchronized long spilledBytes() {
+    return spilledBytes;
+  }
+
+  synchronized long reloadedBytes() {
+    return reloadedBytes;
+  }
+}
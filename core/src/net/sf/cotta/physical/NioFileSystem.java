@@ -0,0 +1,350 @@
+package net.sf.cotta.physical;
+
+import net.sf.cotta.PathAttributes;
+import net.sf.cotta.PathContent;
+import net.sf.cotta.PathStream;
+import net.sf.cotta.TFileNotFoundException;
+import net.sf.cotta.TIoException;
+import net.sf.cotta.TIoRuntimeException;
+import net.sf.cotta.TPath;
+import net.sf.cotta.io.MappedBuffers;
+import net.sf.cotta.io.MappedProcessor;
+import net.sf.cotta.io.OutputMode;
+import net.sf.cotta.system.FileSystem;
+import net.sf.cotta.system.PendingFile;
+
+import java.io.File;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * File system that represents the physical file through <code>java.nio.file</code>.  Compared with
+ * {@link PhysicalFileSystem}, it keeps the {@link Path} of the recently used paths, reads the attributes
+ * of each listed entry in one call, moves files atomically where the system supports it, and reports
+ * the reason of the failures instead of a boolean.
+ *
+ * @see net.sf.cotta.TFileFactory#nio()
+ */
+public class NioFileSystem implements FileSystem {
+  public static final NioFileSystem instance = new NioFileSystem();
+
+  private static final int PATH_CACHE_SIZE = 4096;
+
+  private final Map<TPath, Path> paths = Collections.synchronizedMap(new LinkedHashMap<TPath, Path>(16, 0.75f, true) {
+    protected boolean removeEldestEntry(Map.Entry<TPath, Path> eldest) {
+      return size() > PATH_CACHE_SIZE;
+    }
+  });
+
+  private NioFileSystem() {
+  }
+
+  private Path path(TPath path) {
+    Path result = paths.get(path);
+    if (result == null) {
+      result = Paths.get(path.toSystemPathString());
+      paths.put(path, result);
+    }
+    return result;
+  }
+
+  public boolean fileExists(TPath path) {
+    return Files.isRegularFile(path(path));
+  }
+
+  public void createFile(TPath path) throws TIoException {
+    try {
+      Files.createFile(path(path));
+    } catch (IOException e) {
+      throw new TIoException(path, "file creation failed", e);
+    }
+  }
+
+  public void deleteFile(TPath path) throws TIoException {
+    try {
+      Files.delete(path(path));
+    } catch (IOException e) {
+      throw new TIoException(path, "Deleting file failed", e);
+    }
+  }
+
+  public boolean dirExists(TPath path) {
+    return Files.isDirectory(path(path));
+  }
+
+  public void createDir(TPath path) throws TIoException {
+    try {
+      Files.createDirectories(path(path));
+    } catch (IOException e) {
+      throw new TIoException(path, "Creating directory failed", e);
+    }
+  }
+
+  private void ensureParentExists(TPath path) throws TIoException {
+    if (!dirExists(path.parent())) {
+      createDir(path.parent());
+    }
+  }
+
+  public PathContent list(TPath path) throws TIoException {
+    List<PathAttributes> attributes = listAttributes(path);
+    PathContent content = new PathContent(attributes.size());
+    for (PathAttributes entry : attributes) {
+      if (entry.isDirectory()) {
+        content.addDirectoryPath(entry.path());
+      } else {
+        content.addFilePath(entry.path());
+      }
+    }
+    return content;
+  }
+
+  public PathStream stream(final TPath path) throws TIoException {
+    final DirectoryStream<Path> stream = openDirectory(path);
+    final Iterator<Path> iterator = stream.iterator();
+    return new PathStream() {
+      private PathAttributes current;
+
+      public boolean next() throws TIoException {
+        try {
+          while (iterator.hasNext()) {
+            current = attributes(path, iterator.next());
+            if (current != null) {
+              return true;
+            }
+          }
+        } catch (DirectoryIteratorException e) {
+          throw new TIoException(path, "listing dirs", e.getCause());
+        }
+        return false;
+      }
+
+      public TPath path() {
+        return current.path();
+      }
+
+      public boolean isDirectory() {
+        return current.isDirectory();
+      }
+
+      public void close() throws TIoException {
+        NioFileSystem.this.close(path, stream);
+      }
+    };
+  }
+
+  public List<PathAttributes> listAttributes(TPath path) throws TIoException {
+    List<PathAttributes> result = new ArrayList<PathAttributes>();
+    DirectoryStream<Path> stream = openDirectory(path);
+    try {
+      for (Path entry : stream) {
+        PathAttributes attributes = attributes(path, entry);
+        if (attributes != null) {
+          result.add(attributes);
+        }
+      }
+    } catch (DirectoryIteratorException e) {
+      throw new TIoException(path, "listing dirs", e.getCause());
+    } finally {
+      close(path, stream);
+    }
+    return result;
+  }
+
+  private DirectoryStream<Path> openDirectory(TPath path) throws TIoException {
+    try {
+      return Files.newDirectoryStream(path(path));
+    } catch (IOException e) {
+      throw new TIoException(path, "listing dirs", e);
+    }
+  }
+
+  /**
+   * Reads the attributes of the entry, or returns null if it is neither a directory nor a file,
+   * or it is gone since being listed
+   */
+  private PathAttributes attributes(TPath directory, Path entry) throws TIoException {
+    BasicFileAttributes attributes;
+    try {
+      attributes = Files.readAttributes(entry, BasicFileAttributes.class);
+    } catch (NoSuchFileException e) {
+      return null;
+    } catch (IOException e) {
+      throw new TIoException(directory, "listing dirs", e);
+    }
+    if (!attributes.isDirectory() && !attributes.isRegularFile()) {
+      return null;
+    }
+    return new PathAttributes(directory.join(entry.getFileName().toString()), attributes.isDirectory(),
+        attributes.isDirectory() ? 0 : attributes.size(), attributes.lastModifiedTime().toMillis());
+  }
+
+  private void close(TPath path, DirectoryStream<Path> stream) throws TIoException {
+    try {
+      stream.close();
+    } catch (IOException e) {
+      throw new TIoException(path, "closing listing", e);
+    }
+  }
+
+  public InputStream createInputStream(TPath path) throws TIoException {
+    return Channels.newInputStream(createInputChannel(path));
+  }
+
+  public FileChannel createInputChannel(TPath path) throws TIoException {
+    try {
+      return FileChannel.open(path(path), StandardOpenOption.READ);
+    } catch (NoSuchFileException e) {
+      throw new TFileNotFoundException(path);
+    } catch (IOException e) {
+      throw new TIoException(path, "Creating input channel failed", e);
+    }
+  }
+
+  public void map(TPath path, long position, long length, MappedProcessor processor) throws TIoException {
+    MappedBuffers.map(path, createInputChannel(path), position, length, processor);
+  }
+
+  /**
+   * Creates the output stream on a file channel, which is returned by {@link #createOutputChannel(TPath, OutputStream)}
+   */
+  public OutputStream createOutputStream(TPath path, OutputMode mode) throws TIoException {
+    ensureParentExists(path);
+    try {
+      FileChannel channel = mode.isAppend()
+          ? FileChannel.open(path(path), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)
+          : FileChannel.open(path(path), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+      return new ChannelOutputStream(channel);
+    } catch (IOException e) {
+      throw new TIoException(path, "Creating outputstream failed", e);
+    }
+  }
+
+  public FileChannel createOutputChannel(TPath path, OutputStream outputStream) throws TIoException {
+    return ((ChannelOutputStream) outputStream).channel;
+  }
+
+  public void deleteDirectory(TPath path) throws TIoException {
+    try {
+      Files.delete(path(path));
+    } catch (IOException e) {
+      throw new TIoException(path, "Deleting directory failed", e);
+    }
+  }
+
+  public PendingFile createPendingFile(TPath path, boolean force) throws TIoException {
+    return new PhysicalPendingFile(path, path(path), force);
+  }
+
+  public void syncDirectory(TPath path) throws TIoException {
+    PhysicalPendingFile.syncDirectory(path, path(path));
+  }
+
+  public void moveFile(TPath source, TPath destination) throws TIoException {
+    move(source, destination);
+  }
+
+  public void moveDirectory(TPath source, TPath destination) throws TIoException {
+    move(source, destination);
+  }
+
+  /**
+   * Moves atomically, or moves the usual way if the system cannot, like across file stores
+   */
+  private void move(TPath source, TPath destination) throws TIoException {
+    try {
+      try {
+        Files.move(path(source), path(destination), StandardCopyOption.ATOMIC_MOVE);
+      } catch (AtomicMoveNotSupportedException e) {
+        Files.move(path(source), path(destination));
+      }
+    } catch (IOException e) {
+      throw new TIoException(source, "Moving file failed, target <" + destination.toPathString() + ">", e);
+    }
+  }
+
+  public String pathString(TPath path) {
+    return path(path).toString();
+  }
+
+  public long fileLength(TPath path) {
+    try {
+      return Files.size(path(path));
+    } catch (IOException e) {
+      return 0L;
+    }
+  }
+
+  public long fileLastModified(TPath path) {
+    try {
+      return Files.getLastModifiedTime(path(path)).toMillis();
+    } catch (IOException e) {
+      return 0L;
+    }
+  }
+
+  public int compare(TPath path1, TPath path2) {
+    return path(path1).compareTo(path(path2));
+  }
+
+  public boolean equals(TPath path1, TPath path2) {
+    return path(path1).equals(path(path2));
+  }
+
+  public int hashCode(TPath path) {
+    return path(path).hashCode();
+  }
+
+  public URI toUri(TPath path) {
+    return path(path).toUri();
+  }
+
+  public File toJavaFile(TPath path) {
+    return path(path).toFile();
+  }
+
+  public String toCanonicalPath(TPath path) {
+    try {
+      return toJavaFile(path).getCanonicalPath();
+    } catch (IOException e) {
+      throw new TIoRuntimeException("toCanonicalPath", path, e);
+    }
+  }
+
+  /**
+   * Output stream that writes to the file channel it is created on
+   */
+  private static class ChannelOutputStream extends FilterOutputStream {
+    private final FileChannel channel;
+
+    ChannelOutputStream(FileChannel channel) {
+      super(Channels.newOutputStream(channel));
+      this.channel = channel;
+    }
+
+    public void write(byte[] b, int off, int len) throws IOException {
+      out.write(b, off, len);
+    }
+  }
+}
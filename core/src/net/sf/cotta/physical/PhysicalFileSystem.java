@@ -1,12 +1,24 @@
 package net.sf.cotta.physical;
 
 import net.sf.cotta.system.FileSystem;
+import net.sf.cotta.system.PendingFile;
 import net.sf.cotta.*;
+import net.sf.cotta.io.MappedBuffers;
+import net.sf.cotta.io.MappedProcessor;
 import net.sf.cotta.io.OutputMode;
 
 import java.io.*;
 import java.net.URI;
 import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
 
 /**
  * File system that represents the physical file.
@@ -76,6 +88,93 @@ public class PhysicalFileSystem implements FileSystem {
     return content;
   }
 
+  /**
+   * Streams the directory with a {@link DirectoryStream}, which reads the entries as they are needed
+   */
+  public PathStream stream(final TPath path) throws TIoException {
+    final DirectoryStream<Path> stream;
+    try {
+      stream = Files.newDirectoryStream(file(path).toPath());
+    } catch (IOException e) {
+      throw new TIoException(path, "listing dirs", e);
+    }
+    final Iterator<Path> iterator = stream.iterator();
+    return new PathStream() {
+      private TPath current;
+      private boolean directory;
+
+      public boolean next() throws TIoException {
+        try {
+          while (iterator.hasNext()) {
+            Path entry = iterator.next();
+            directory = Files.isDirectory(entry);
+            if (directory || Files.isRegularFile(entry)) {
+              current = path.join(entry.getFileName().toString());
+              return true;
+            }
+          }
+        } catch (DirectoryIteratorException e) {
+          throw new TIoException(path, "listing dirs", e.getCause());
+        }
+        current = null;
+        return false;
+      }
+
+      public TPath path() {
+        return current;
+      }
+
+      public boolean isDirectory() {
+        return directory;
+      }
+
+      public void close() throws TIoException {
+        PhysicalFileSystem.this.close(path, stream);
+      }
+    };
+  }
+
+  /**
+   * Lists the directory with the attributes of every entry read in one call for each, instead of
+   * one call for each of the type, length and last modified time
+   */
+  public List<PathAttributes> listAttributes(TPath path) throws TIoException {
+    List<PathAttributes> result = new ArrayList<PathAttributes>();
+    DirectoryStream<Path> stream = null;
+    try {
+      stream = Files.newDirectoryStream(file(path).toPath());
+      for (Path entry : stream) {
+        BasicFileAttributes attributes;
+        try {
+          attributes = Files.readAttributes(entry, BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
+          continue;
+        }
+        if (attributes.isDirectory() || attributes.isRegularFile()) {
+          result.add(new PathAttributes(path.join(entry.getFileName().toString()), attributes.isDirectory(),
+              attributes.isDirectory() ? 0 : attributes.size(), attributes.lastModifiedTime().toMillis()));
+        }
+      }
+    } catch (IOException e) {
+      throw new TIoException(path, "listing dirs", e);
+    } catch (DirectoryIteratorException e) {
+      throw new TIoException(path, "listing dirs", e.getCause());
+    } finally {
+      close(path, stream);
+    }
+    return result;
+  }
+
+  private void close(TPath path, DirectoryStream<Path> stream) throws TIoException {
+    if (stream != null) {
+      try {
+        stream.close();
+      } catch (IOException e) {
+        throw new TIoException(path, "closing listing", e);
+      }
+    }
+  }
+
   public InputStream createInputStream(TPath path) throws TIoException {
     try {
       return new FileInputStream(file(path));
@@ -103,6 +202,14 @@ public class PhysicalFileSystem implements FileSystem {
     }
   }
 
+  public PendingFile createPendingFile(TPath path, boolean force) throws TIoException {
+    return new PhysicalPendingFile(path, file(path).toPath(), force);
+  }
+
+  public void syncDirectory(TPath path) throws TIoException {
+    PhysicalPendingFile.syncDirectory(path, file(path).toPath());
+  }
+
   public void moveFile(TPath source, TPath destination) throws TIoException {
     if (!file(source).renameTo(file(destination))) {
       throw new TIoException(source, "Moving file failed, target <" + destination.toPathString() + ">");
@@ -159,4 +266,8 @@ public class PhysicalFileSystem implements FileSystem {
     return ((FileInputStream) createInputStream(path)).getChannel();
   }
 
+  public void map(TPath path, long position, long length, MappedProcessor processor) throws TIoException {
+    MappedBuffers.map(path, createInputChannel(path), position, length, processor);
+  }
+
 }
@@ -0,0 +1,153 @@
+package net.sf.cotta.physical;
+
+import net.sf.cotta.TIoException;
+import net.sf.cotta.TPath;
+import net.sf.cotta.system.PendingFile;
+import net.sf.cotta.utils.PlatformInfoUtil;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermission;
+import java.security.SecureRandom;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Pending file that is written to a temporary file next to the target, which is renamed over the target
+ * when committed.  The rename is atomic where the system supports it.  The temporary file has the
+ * permissions of the target, so that replacing the file keeps them.
+ */
+class PhysicalPendingFile implements PendingFile {
+  private static final Random RANDOM = new SecureRandom();
+
+  private final TPath path;
+  private final Path target;
+  private final Path temp;
+  private final FileChannel channel;
+  private final OutputStream stream;
+
+  PhysicalPendingFile(TPath path, Path target, final boolean force) throws TIoException {
+    this.path = path;
+    this.target = target;
+    Path directory = target.toAbsolutePath().getParent();
+    Path created;
+    FileChannel opened;
+    while (true) {
+      created = directory.resolve("." + target.getFileName() + "." + Long.toHexString(RANDOM.nextLong()) + ".tmp");
+      try {
+        opened = FileChannel.open(created, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        break;
+      } catch (FileAlreadyExistsException e) {
+        // another pending file took the name, try the next one
+      } catch (IOException e) {
+        throw new TIoException(path, "Creating temporary file failed", e);
+      }
+    }
+    temp = created;
+    channel = opened;
+    try {
+      copyPermissions(target, temp);
+    } catch (IOException e) {
+      discard();
+      throw new TIoException(path, "Copying permissions failed", e);
+    }
+    stream = new FilterOutputStream(Channels.newOutputStream(channel)) {
+      public void write(byte[] b, int off, int len) throws IOException {
+        out.write(b, off, len);
+      }
+
+      public void close() throws IOException {
+        if (channel.isOpen()) {
+          try {
+            if (force) {
+              channel.force(true);
+            }
+          } finally {
+            channel.close();
+          }
+        }
+      }
+    };
+  }
+
+  /**
+   * Gives the temporary file the permissions of the file it replaces, if any.  A new file gets the
+   * default permissions, as the temporary file is created like any other file.
+   */
+  private static void copyPermissions(Path target, Path temp) throws IOException {
+    PosixFileAttributeView view = Files.getFileAttributeView(target, PosixFileAttributeView.class);
+    if (view == null) {
+      return;
+    }
+    Set<PosixFilePermission> permissions;
+    try {
+      permissions = view.readAttributes().permissions();
+    } catch (NoSuchFileException e) {
+      return;
+    }
+    Files.setPosixFilePermissions(temp, permissions);
+  }
+
+  public OutputStream outputStream() {
+    return stream;
+  }
+
+  public void commit() throws TIoException {
+    try {
+      stream.close();
+      try {
+        Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+      } catch (AtomicMoveNotSupportedException e) {
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+      }
+    } catch (IOException e) {
+      discard();
+      throw new TIoException(path, "Replacing file failed", e);
+    }
+  }
+
+  public void discard() throws TIoException {
+    try {
+      channel.close();
+      Files.deleteIfExists(temp);
+    } catch (IOException e) {
+      throw new TIoException(path, "Deleting temporary file failed", e);
+    }
+  }
+
+  /**
+   * Forces the directory to the storage by forcing a channel opened on it.  The systems that cannot open
+   * a directory, like Windows, keep the renames in the journal of their file system, so they are skipped.
+   */
+  static void syncDirectory(TPath path, Path directory) throws TIoException {
+    FileChannel channel;
+    try {
+      channel = FileChannel.open(directory, StandardOpenOption.READ);
+    } catch (IOException e) {
+      if (PlatformInfoUtil.isWindows()) {
+        return;
+      }
+      throw new TIoException(path, "Syncing directory failed", e);
+    }
+    try {
+      try {
+        channel.force(true);
+      } finally {
+        channel.close();
+      }
+    } catch (IOException e) {
+      throw new TIoException(path, "Syncing directory failed", e);
+    }
+  }
+}
@@ -1,6 +1,7 @@
 package net.sf.cotta.system;
 
 import net.sf.cotta.PathSeparator;
+import net.sf.cotta.PathStream;
 import net.sf.cotta.TIoException;
 import net.sf.cotta.TPath;
 import net.sf.cotta.memory.ListingOrder;
@@ -23,6 +24,28 @@ public abstract class AbstractDirectoryIndex<F extends FileContent> implements D
     this.contentManager = contentManager;
   }
 
+  protected final PathSeparator separator() {
+    return separator;
+  }
+
+  protected final ListingOrder order() {
+    return order;
+  }
+
+  /**
+   * Streams over the listing, as most indices cannot be iterated while the directory is being changed
+   */
+  public PathStream stream(TPath path) {
+    return list(path).stream();
+  }
+
+  /**
+   * Returns the file content, as the content is never shared unless the index says otherwise
+   */
+  public F fileContentForWrite(TPath path) {
+    return fileContent(path);
+  }
+
   public final String pathString(TPath path) {
     return path.toPathString(separator);
   }
@@ -0,0 +1,447 @@
+package net.sf.cotta.system;
+
+import net.sf.cotta.PathContent;
+import net.sf.cotta.PathSeparator;
+import net.sf.cotta.TDirectoryNotFoundException;
+import net.sf.cotta.TFileNotFoundException;
+import net.sf.cotta.TIoException;
+import net.sf.cotta.TPath;
+import net.sf.cotta.memory.ListingOrder;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Directory index for very large trees, which keeps every directory and file as an <code>int</code> id
+ * into arrays of primitives instead of as objects.  The names are kept once in a table shared by the
+ * whole tree, and a child is found by the id of its parent and the id of its name in an open-addressing
+ * table, so an entry takes about fifty bytes besides its file content.  The children of a directory are
+ * linked to each other, so a directory or file is moved or deleted in constant time whatever is under it.
+ * <p/>
+ * The names stay in the table once added, which suits trees that reuse the same names.
+ */
+public class CompactDirectoryIndex<F extends FileContent> extends AbstractDirectoryIndex<F> {
+  private static final int NONE = -1;
+  private static final int INITIAL_CAPACITY = 64;
+
+  private final Map<String, Integer> roots = new HashMap<String, Integer>();
+  private final NameTable names = new NameTable(INITIAL_CAPACITY);
+  private final ChildTable children = new ChildTable(INITIAL_CAPACITY);
+  private int[] parents = new int[INITIAL_CAPACITY];
+  private int[] nameIds = new int[INITIAL_CAPACITY];
+  private int[] firstChildren = new int[INITIAL_CAPACITY];
+  private int[] nextSiblings = new int[INITIAL_CAPACITY];
+  private int[] previousSiblings = new int[INITIAL_CAPACITY];
+  private Object[] contents = new Object[INITIAL_CAPACITY];
+  private final BitSet directories = new BitSet();
+  private int nodeCount = 0;
+  private int[] freeIds = new int[16];
+  private int freeCount = 0;
+
+  public CompactDirectoryIndex(ContentManager<F> contentManager) {
+    this(PathSeparator.Unix, ListingOrder.NULL, contentManager);
+  }
+
+  public CompactDirectoryIndex(PathSeparator separator, ListingOrder order, ContentManager<F> contentManager) {
+    super(separator, order, contentManager);
+    addRoot("");
+    addRoot(".");
+  }
+
+  private void addRoot(String name) {
+    int id = newNode(NONE, names.intern(name), null);
+    roots.put(name, id);
+  }
+
+  public boolean fileExists(TPath path) {
+    int id = find(path);
+    return id != NONE && !directories.get(id);
+  }
+
+  public boolean dirExists(TPath path) {
+    int id = find(path);
+    return id != NONE && directories.get(id);
+  }
+
+  public PathContent list(TPath path) {
+    int dir = findDir(path);
+    List<TPath> dirs = new ArrayList<TPath>();
+    List<TPath> files = new ArrayList<TPath>();
+    for (int child = firstChildren[dir]; child != NONE; child = nextSiblings[child]) {
+      TPath childPath = path.join(names.name(nameIds[child]));
+      if (directories.get(child)) {
+        dirs.add(childPath);
+      } else {
+        files.add(childPath);
+      }
+    }
+    sort(dirs);
+    sort(files);
+    return PathContent.unmodifiable(dirs, files);
+  }
+
+  @SuppressWarnings("unchecked")
+  public F fileContent(TPath path) {
+    int id = find(path);
+    return id == NONE || directories.get(id) ? null : (F) contents[id];
+  }
+
+  public F createFile(TPath path) throws TIoException {
+    validateBeforeCreateFile(path);
+    int parent = findDir(path.parent());
+    if (parent == NONE) {
+      throw new TIoException(path, "parent needs to be created first");
+    }
+    F content = contentManager.createFileContent();
+    int existing = child(parent, path.lastElementName());
+    if (existing != NONE) {
+      contents[existing] = content;
+    } else {
+      newNode(parent, names.intern(path.lastElementName()), content);
+    }
+    return content;
+  }
+
+  public void deleteFile(TPath path) throws TFileNotFoundException {
+    int id = find(path);
+    if (id == NONE || directories.get(id)) {
+      throw new TFileNotFoundException(path);
+    }
+    unlink(id);
+    freeNode(id);
+  }
+
+  public void moveFile(TPath source, TPath dest) throws TIoException {
+    int id = find(source);
+    if (id == NONE || directories.get(id)) {
+      throw new TFileNotFoundException(source);
+    }
+    int destParent = findDir(dest.parent());
+    if (destParent == NONE) {
+      throw new TDirectoryNotFoundException(dest.parent());
+    }
+    int existing = child(destParent, dest.lastElementName());
+    if (existing != NONE && existing != id) {
+      if (directories.get(existing)) {
+        throw new TIoException(dest, "already exists as a directory");
+      }
+      unlink(existing);
+      freeNode(existing);
+    }
+    unlink(id);
+    link(id, destParent, names.intern(dest.lastElementName()));
+  }
+
+  public void createDir(TPath path) throws TIoException {
+    validateBeforeCreateDir(path);
+    ensureDir(path);
+  }
+
+  public void deleteDir(TPath path) throws TIoException {
+    int id = findDir(path);
+    if (id == NONE) {
+      throw new TDirectoryNotFoundException(path);
+    }
+    if (firstChildren[id] != NONE) {
+      throw new TIoException(path, "Directory not empty");
+    }
+    unlink(id);
+    freeNode(id);
+  }
+
+  /**
+   * Moves the directory by linking it under the new parent, which takes the same time whatever is under it
+   */
+  public void moveDir(TPath source, TPath dest) throws TIoException {
+    int id = findDir(source);
+    if (id == NONE) {
+      throw new TDirectoryNotFoundException(source);
+    }
+    if (dest.equals(source) || dest.isChildOf(source)) {
+      throw new TIoException(dest, "cannot move directory <" + source + "> under itself");
+    }
+    validateBeforeCreateDir(dest);
+    int destParent = ensureDir(dest.parent());
+    unlink(id);
+    link(id, destParent, names.intern(dest.lastElementName()));
+  }
+
+  /**
+   * @return number of directories and files in the index, including the roots
+   */
+  public int size() {
+    return nodeCount - freeCount;
+  }
+
+  private int find(TPath path) {
+    if (path.length() == 0) {
+      Integer root = roots.get(path.headElement());
+      return root == null ? NONE : root;
+    }
+    if (path.isLinked()) {
+      int parent = findDir(path.parent());
+      return parent == NONE ? NONE : child(parent, path.lastElementName());
+    }
+    Integer root = roots.get(path.headElement());
+    int current = root == null ? NONE : root;
+    for (int i = 0; i < path.length() && current != NONE; i++) {
+      if (!directories.get(current)) {
+        return NONE;
+      }
+      current = child(current, path.elementAt(i));
+    }
+    return current;
+  }
+
+  private int findDir(TPath path) {
+    int id = find(path);
+    return id != NONE && directories.get(id) ? id : NONE;
+  }
+
+  private int child(int parent, String name) {
+    int nameId = names.find(name);
+    return nameId == NONE ? NONE : children.get(key(parent, nameId));
+  }
+
+  /**
+   * Finds the directory, creating it and the missing directories above it
+   */
+  private int ensureDir(TPath path) throws TIoException {
+    int id = findDir(path);
+    if (id != NONE) {
+      return id;
+    }
+    TPath parentPath = path.parent();
+    if (parentPath == null) {
+      throw new IllegalStateException("The root of path of <" + path + "> does not exist:<" + path.root() + ">");
+    }
+    int parent = ensureDir(parentPath);
+    if (child(parent, path.lastElementName()) != NONE) {
+      throw new TIoException(path, "already exists as a file");
+    }
+    return newNode(parent, names.intern(path.lastElementName()), null);
+  }
+
+  private int newNode(int parent, int nameId, Object content) {
+    int id;
+    if (freeCount > 0) {
+      id = freeIds[--freeCount];
+    } else {
+      if (nodeCount == parents.length) {
+        grow(parents.length * 2);
+      }
+      id = nodeCount++;
+    }
+    firstChildren[id] = NONE;
+    contents[id] = content;
+    directories.set(id, content == null);
+    if (parent == NONE) {
+      parents[id] = NONE;
+      nameIds[id] = nameId;
+      nextSiblings[id] = NONE;
+      previousSiblings[id] = NONE;
+    } else {
+      link(id, parent, nameId);
+    }
+    return id;
+  }
+
+  private void freeNode(int id) {
+    contents[id] = null;
+    directories.clear(id);
+    if (freeCount == freeIds.length) {
+      freeIds = Arrays.copyOf(freeIds, freeIds.length * 2);
+    }
+    freeIds[freeCount++] = id;
+  }
+
+  private void link(int id, int parent, int nameId) {
+    parents[id] = parent;
+    nameIds[id] = nameId;
+    previousSiblings[id] = NONE;
+    nextSiblings[id] = firstChildren[parent];
+    if (firstChildren[parent] != NONE) {
+      previousSiblings[firstChildren[parent]] = id;
+    }
+    firstChildren[parent] = id;
+    children.put(key(parent, nameId), id);
+  }
+
+  private void unlink(int id) {
+    int parent = parents[id];
+    children.remove(key(parent, nameIds[id]));
+    if (previousSiblings[id] != NONE) {
+      nextSiblings[previousSiblings[id]] = nextSiblings[id];
+    } else {
+      firstChildren[parent] = nextSiblings[id];
+    }
+    if (nextSiblings[id] != NONE) {
+      previousSiblings[nextSiblings[id]] = previousSiblings[id];
+    }
+  }
+
+  private void grow(int capacity) {
+    parents = Arrays.copyOf(parents, capacity);
+    nameIds = Arrays.copyOf(nameIds, capacity);
+    firstChildren = Arrays.copyOf(firstChildren, capacity);
+    nextSiblings = Arrays.copyOf(nextSiblings, capacity);
+    previousSiblings = Arrays.copyOf(previousSiblings, capacity);
+    contents = Arrays.copyOf(contents, capacity);
+  }
+
+  private static long key(int parent, int nameId) {
+    return ((long) parent << 32) | (nameId & 0xffffffffL);
+  }
+
+  private static int slot(long hash, int mask) {
+    hash *= 0x9e3779b97f4a7c15L;
+    return (int) (hash ^ (hash >>> 32)) & mask;
+  }
+
+  /**
+   * Names by id, with an open-addressing table of the ids to find the id of a name
+   */
+  static class NameTable {
+    private String[] names;
+    private int[] slots; // id + 1, or 0 for an empty slot
+    private int count = 0;
+
+    NameTable(int capacity) {
+      names = new String[capacity];
+      slots = new int[capacity * 2];
+    }
+
+    String name(int id) {
+      return names[id];
+    }
+
+    int find(String name) {
+      int mask = slots.length - 1;
+      for (int i = slot(name.hashCode(), mask); slots[i] != 0; i = (i + 1) & mask) {
+        if (names[slots[i] - 1].equals(name)) {
+          return slots[i] - 1;
+        }
+      }
+      return NONE;
+    }
+
+    int intern(String name) {
+      int id = find(name);
+      if (id != NONE) {
+        return id;
+      }
+      if (count == names.length) {
+        names = Arrays.copyOf(names, names.length * 2);
+        rehash(slots.length * 2);
+      }
+      id = count++;
+      names[id] = name;
+      insert(id);
+      return id;
+    }
+
+    private void insert(int id) {
+      int mask = slots.length - 1;
+      int i = slot(names[id].hashCode(), mask);
+      while (slots[i] != 0) {
+        i = (i + 1) & mask;
+      }
+      slots[i] = id + 1;
+    }
+
+    private void rehash(int capacity) {
+      slots = new int[capacity];
+      for (int id = 0; id < count; id++) {
+        insert(id);
+      }
+    }
+  }
+
+  /**
+   * Open-addressing table from the parent id and name id of a child to the id of the child.  Removing
+   * shifts the following entries back instead of leaving a marker, so the table never fills up with markers.
+   */
+  static class ChildTable {
+    private static final long EMPTY = -1L;
+
+    private long[] keys;
+    private int[] values;
+    private int size = 0;
+
+    ChildTable(int capacity) {
+      keys = new long[capacity * 2];
+      values = new int[capacity * 2];
+      Arrays.fill(keys, EMPTY);
+    }
+
+    int get(long key) {
+      int mask = keys.length - 1;
+      for (int i = slot(key, mask); keys[i] != EMPTY; i = (i + 1) & mask) {
+        if (keys[i] == key) {
+          return values[i];
+        }
+      }
+      return NONE;
+    }
+
+    void put(long key, int value) {
+      if ((size + 1) * 2 > keys.length) {
+        resize(keys.length * 2);
+      }
+      int mask = keys.length - 1;
+      int i = slot(key, mask);
+      while (keys[i] != EMPTY && keys[i] != key) {
+        i = (i + 1) & mask;
+      }
+      if (keys[i] == EMPTY) {
+        size++;
+      }
+      keys[i] = key;
+      values[i] = value;
+    }
+
+    void remove(long key) {
+      int mask = keys.length - 1;
+      int gap = slot(key, mask);
+      while (keys[gap] != key) {
+        if (keys[gap] == EMPTY) {
+          return;
+        }
+        gap = (gap + 1) & mask;
+      }
+      size--;
+      for (int i = (gap + 1) & mask; keys[i] != EMPTY; i = (i + 1) & mask) {
+        int home = slot(keys[i], mask);
+        boolean staysAfterGap = gap <= i ? gap < home && home <= i : gap < home || home <= i;
+        if (!staysAfterGap) {
+          keys[gap] = keys[i];
+          values[gap] = values[i];
+          gap = i;
+        }
+      }
+      keys[gap] = EMPTY;
+    }
+
+    int size() {
+      return size;
+    }
+
+    private void resize(int capacity) {
+      long[] oldKeys = keys;
+      int[] oldValues = values;
+      keys = new long[capacity];
+      values = new int[capacity];
+      Arrays.fill(keys, EMPTY);
+      size = 0;
+      for (int i = 0; i < oldKeys.length; i++) {
+        if (oldKeys[i] != EMPTY) {
+          put(oldKeys[i], oldValues[i]);
+        }
+      }
+    }
+  }
+}
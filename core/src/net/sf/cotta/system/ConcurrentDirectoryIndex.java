@@ -0,0 +1,329 @@
+package net.sf.cotta.system;
+
+import net.sf.cotta.PathContent;
+import net.sf.cotta.PathSeparator;
+import net.sf.cotta.PathStream;
+import net.sf.cotta.TDirectoryNotFoundException;
+import net.sf.cotta.TFileNotFoundException;
+import net.sf.cotta.TIoException;
+import net.sf.cotta.TPath;
+import net.sf.cotta.memory.ListingOrder;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Directory index that can be shared by threads.  Like {@link HashBasedDirectoryIndex}, it keeps the
+ * directories and files in maps keyed by path, but the maps are concurrent so that lookups and listings
+ * do not lock.
+ * <p/>
+ * Changes lock the stripe of the parent directory, so that creating, moving or deleting an entry is
+ * atomic with respect to the other changes in the same directory while the changes in other directories
+ * go on in parallel.  Deleting a directory also locks its own stripe, so that nothing can be created in it
+ * while it is checked for being empty.  Moving a directory moves all the entries under it, and it locks
+ * out all the other changes until it is done; readers can see the entries in either place in the meantime.
+ */
+public class ConcurrentDirectoryIndex<F extends FileContent> extends AbstractDirectoryIndex<F> {
+  private static final int STRIPES = 64;
+
+  private final ConcurrentMap<TPath, DirectoryContent> createDirs = new ConcurrentHashMap<TPath, DirectoryContent>();
+  private final ConcurrentMap<TPath, F> createFiles = new ConcurrentHashMap<TPath, F>();
+  private final ReentrantLock[] stripes = new ReentrantLock[STRIPES];
+  private final ReadWriteLock moveDirLock = new ReentrantReadWriteLock();
+
+  public ConcurrentDirectoryIndex(ContentManager<F> contentManager) {
+    super(contentManager);
+    init();
+  }
+
+  public ConcurrentDirectoryIndex(PathSeparator separator, ListingOrder order, ContentManager<F> contentManager) {
+    super(separator, order, contentManager);
+    init();
+  }
+
+  private void init() {
+    for (int i = 0; i < stripes.length; i++) {
+      stripes[i] = new ReentrantLock();
+    }
+    addRoot(TPath.parse("/").toLinked());
+    addRoot(TPath.parse(".").toLinked());
+  }
+
+  private void addRoot(TPath root) {
+    createDirs.put(root, new DirectoryContent(root));
+  }
+
+  public boolean fileExists(TPath path) {
+    return createFiles.containsKey(path);
+  }
+
+  public boolean dirExists(TPath path) {
+    return createDirs.containsKey(path);
+  }
+
+  public PathContent list(TPath path) {
+    DirectoryContent content = createDirs.get(path);
+    if (content == null) {
+      return new PathContent(0);
+    }
+    PathContent result = new PathContent(content.dirs(), content.files());
+    sort(result.files());
+    sort(result.dirs());
+    return result;
+  }
+
+  /**
+   * Iterates over the directory as it is, seeing some of the changes made in the meantime, unless
+   * the listing is to be sorted
+   */
+  public PathStream stream(TPath path) {
+    final DirectoryContent content = createDirs.get(path);
+    if (content == null || order() != ListingOrder.NULL) {
+      return list(path).stream();
+    }
+    return new PathStream() {
+      private Iterator<TPath> dirs = content.dirs().iterator();
+      private Iterator<TPath> files = content.files().iterator();
+      private TPath current;
+      private boolean directory;
+
+      public boolean next() {
+        directory = dirs.hasNext();
+        current = directory ? dirs.next() : files.hasNext() ? files.next() : null;
+        return current != null;
+      }
+
+      public TPath path() {
+        return current;
+      }
+
+      public boolean isDirectory() {
+        return directory;
+      }
+
+      public void close() {
+      }
+    };
+  }
+
+  public F fileContent(TPath path) {
+    return createFiles.get(path);
+  }
+
+  /**
+   * Creates the file, or returns the content of the file if another thread has just created it
+   */
+  public F createFile(TPath path) throws TIoException {
+    TPath parentPath = path.parent();
+    int stripe = stripe(parentPath);
+    lock(stripe, stripe);
+    try {
+      validateBeforeCreateFile(path);
+      DirectoryContent parent = createDirs.get(parentPath);
+      if (parent == null) {
+        throw new TIoException(path, "parent needs to be created first");
+      }
+      TPath file = parent.childPath(path.lastElementName());
+      F fileContent = contentManager.createFileContent();
+      F existing = createFiles.putIfAbsent(file, fileContent);
+      if (existing != null) {
+        return existing;
+      }
+      parent.addFile(file);
+      return fileContent;
+    } finally {
+      unlock(stripe, stripe);
+    }
+  }
+
+  public void deleteFile(TPath path) throws TFileNotFoundException {
+    int stripe = stripe(path.parent());
+    lock(stripe, stripe);
+    try {
+      if (createFiles.remove(path) == null) {
+        throw new TFileNotFoundException(path);
+      }
+      createDirs.get(path.parent()).removeFile(path);
+    } finally {
+      unlock(stripe, stripe);
+    }
+  }
+
+  public void moveFile(TPath source, TPath destination) throws TIoException {
+    int sourceStripe = stripe(source.parent());
+    int destinationStripe = stripe(destination.parent());
+    lock(sourceStripe, destinationStripe);
+    try {
+      F file = createFiles.get(source);
+      if (file == null) {
+        throw new TFileNotFoundException(source);
+      }
+      DirectoryContent destinationParent = createDirs.get(destination.parent());
+      if (destinationParent == null) {
+        throw new TIoException(destination, "parent needs to be created first");
+      }
+      TPath destinationPath = destinationParent.childPath(destination.lastElementName());
+      createFiles.put(destinationPath, file);
+      destinationParent.addFile(destinationPath);
+      createFiles.remove(source);
+      createDirs.get(source.parent()).removeFile(source);
+    } finally {
+      unlock(sourceStripe, destinationStripe);
+    }
+  }
+
+  /**
+   * Creates the directory and the missing parents.  Only one of the threads creating the same
+   * directory at the same time succeeds, the others fail as the directory exists.
+   */
+  public void createDir(TPath path) throws TIoException {
+    validateBeforeCreateDir(path);
+    createDir(path, true);
+  }
+
+  private DirectoryContent ensureDirExists(TPath path) throws TIoException {
+    DirectoryContent content = createDirs.get(path);
+    return content != null ? content : createDir(path, false);
+  }
+
+  /**
+   * Creates the directory and the missing parents, each under the lock of its parent.  A parent
+   * created by another thread in the meantime is used as it is.
+   */
+  private DirectoryContent createDir(TPath path, boolean failIfExists) throws TIoException {
+    while (true) {
+      DirectoryContent parent = ensureDirExists(path.parent());
+      int stripe = stripe(path.parent());
+      lock(stripe, stripe);
+      try {
+        if (createDirs.get(path.parent()) != parent) {
+          continue; // the parent has been deleted or replaced by another thread
+        }
+        if (createFiles.containsKey(path)) {
+          throw new TIoException(path, "already exists as a file");
+        }
+        TPath dir = parent.childPath(path.lastElementName());
+        DirectoryContent created = new DirectoryContent(dir);
+        DirectoryContent existing = createDirs.putIfAbsent(dir, created);
+        if (existing != null) {
+          if (failIfExists) {
+            throw new IllegalArgumentException(path.toPathString() + " already exists");
+          }
+          return existing;
+        }
+        parent.addDir(dir);
+        return created;
+      } finally {
+        unlock(stripe, stripe);
+      }
+    }
+  }
+
+  public void deleteDir(TPath path) throws TIoException {
+    int parentStripe = stripe(path.parent());
+    int stripe = stripe(path);
+    lock(parentStripe, stripe);
+    try {
+      DirectoryContent directoryContent = createDirs.get(path);
+      if (directoryContent == null) {
+        throw new TDirectoryNotFoundException(path);
+      }
+      if (!directoryContent.isEmpty()) {
+        throw new TIoException(path, "Directory not empty");
+      }
+      createDirs.remove(path);
+      createDirs.get(path.parent()).removeDir(path);
+    } finally {
+      unlock(parentStripe, stripe);
+    }
+  }
+
+  public void moveDir(TPath source, TPath destination) throws TIoException {
+    moveDirLock.writeLock().lock();
+    try {
+      createDir(destination);
+      PathContent content = list(source);
+      for (TPath directory : content.dirs()) {
+        moveDir(directory, destination.join(directory.lastElementName()));
+      }
+      for (TPath file : content.files()) {
+        moveFile(file, destination.join(file.lastElementName()));
+      }
+      deleteDir(source);
+    } finally {
+      moveDirLock.writeLock().unlock();
+    }
+  }
+
+  private int stripe(TPath path) {
+    int hash = path.hashCode();
+    hash ^= (hash >>> 16);
+    return hash & (STRIPES - 1);
+  }
+
+  /**
+   * Locks the two stripes, always in the same order so that two threads cannot wait on each other
+   */
+  private void lock(int stripe1, int stripe2) {
+    moveDirLock.readLock().lock();
+    stripes[Math.min(stripe1, stripe2)].lock();
+    if (stripe1 != stripe2) {
+      stripes[Math.max(stripe1, stripe2)].lock();
+    }
+  }
+
+  private void unlock(int stripe1, int stripe2) {
+    if (stripe1 != stripe2) {
+      stripes[Math.max(stripe1, stripe2)].unlock();
+    }
+    stripes[Math.min(stripe1, stripe2)].unlock();
+    moveDirLock.readLock().unlock();
+  }
+
+  private static class DirectoryContent {
+    private final ConcurrentMap<String, TPath> dirs = new ConcurrentHashMap<String, TPath>();
+    private final ConcurrentMap<String, TPath> files = new ConcurrentHashMap<String, TPath>();
+    private final TPath path;
+
+    DirectoryContent(TPath path) {
+      this.path = path;
+    }
+
+    TPath childPath(String name) {
+      return path.join(name);
+    }
+
+    Collection<TPath> dirs() {
+      return dirs.values();
+    }
+
+    Collection<TPath> files() {
+      return files.values();
+    }
+
+    void addDir(TPath directory) {
+      dirs.put(directory.lastElementName(), directory);
+    }
+
+    void addFile(TPath file) {
+      files.put(file.lastElementName(), file);
+    }
+
+    void removeDir(TPath directory) {
+      dirs.remove(directory.lastElementName());
+    }
+
+    void removeFile(TPath file) {
+      files.remove(file.lastElementName());
+    }
+
+    boolean isEmpty() {
+      return files.isEmpty() && dirs.isEmpty();
+    }
+  }
+}
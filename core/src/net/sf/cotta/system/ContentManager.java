@@ -2,4 +2,12 @@ package net.sf.cotta.system;
 
 public interface ContentManager<F extends FileContent> {
   F createFileContent();
+
+  /**
+   * Creates a copy of the content, for an index that shares the content with another to change it
+   *
+   * @param content content to copy
+   * @return the copy
+   */
+  F copyFileContent(F content);
 }
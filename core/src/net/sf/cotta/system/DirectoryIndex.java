@@ -1,6 +1,7 @@
 package net.sf.cotta.system;
 
 import net.sf.cotta.PathContent;
+import net.sf.cotta.PathStream;
 import net.sf.cotta.TFileNotFoundException;
 import net.sf.cotta.TIoException;
 import net.sf.cotta.TPath;
@@ -16,6 +17,11 @@ public interface DirectoryIndex<F extends FileContent> {
 
   PathContent list(TPath path);
 
+  /**
+   * Lists the directory as it is iterated, where the index can do so without copying the entries
+   */
+  PathStream stream(TPath path);
+
   String pathString(TPath path);
 
   int compare(TPath path1, TPath path2);
@@ -26,6 +32,14 @@ public interface DirectoryIndex<F extends FileContent> {
 
   F fileContent(TPath path);
 
+  /**
+   * Returns the file content to be changed, which is not shared with any other index
+   *
+   * @param path path of the file
+   * @return the file content, or null if the file does not exist
+   */
+  F fileContentForWrite(TPath path);
+
   F createFile(TPath path) throws TIoException;
 
   void deleteFile(TPath path) throws TFileNotFoundException;
@@ -0,0 +1,20 @@
+package net.sf.cotta.system;
+
+import net.sf.cotta.TIoException;
+import net.sf.cotta.TPath;
+
+/**
+ * File system that can copy a file without streaming the content through the caller
+ *
+ * @see net.sf.cotta.TFile#copyTo(net.sf.cotta.TFile)
+ */
+public interface FileCopier {
+  /**
+   * Copy the content of the file to the destination, creating or overwriting the destination file
+   *
+   * @param source      path of the file to copy
+   * @param destination path of the file to copy to, whose parent exists
+   * @throws TIoException error in copying the file
+   */
+  void copyFile(TPath source, TPath destination) throws TIoException;
+}
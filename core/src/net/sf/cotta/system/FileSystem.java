@@ -1,8 +1,11 @@
 package net.sf.cotta.system;
 
+import net.sf.cotta.PathAttributes;
 import net.sf.cotta.PathContent;
+import net.sf.cotta.PathStream;
 import net.sf.cotta.TIoException;
 import net.sf.cotta.TPath;
+import net.sf.cotta.io.MappedProcessor;
 import net.sf.cotta.io.OutputMode;
 
 import java.io.File;
@@ -10,6 +13,7 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.URI;
 import java.nio.channels.FileChannel;
+import java.util.List;
 
 /**
  * The file system that handles the implementation of the file operations
@@ -40,12 +44,51 @@ public interface FileSystem {
    */
   PathContent list(TPath path) throws TIoException;
 
+  /**
+   * List the content of the path as it is iterated, instead of all at once
+   *
+   * @param path path of the directory
+   * @return stream of the directories and files, which needs to be closed
+   * @throws TIoException exception from the system in opening the directory
+   */
+  PathStream stream(TPath path) throws TIoException;
+
+  /**
+   * List the content of the path together with the type, length and last modified time of the entries,
+   * read in the same pass as the listing
+   *
+   * @param path path of the directory
+   * @return attributes of the directories and files
+   * @throws TIoException exception from the system in reading the directory
+   */
+  List<PathAttributes> listAttributes(TPath path) throws TIoException;
+
   InputStream createInputStream(TPath path) throws TIoException;
 
   OutputStream createOutputStream(TPath path, OutputMode mode) throws TIoException;
 
   FileChannel createOutputChannel(TPath path, OutputStream outputStream) throws TIoException;
 
+  /**
+   * Creates the pending content of the file, which replaces the file atomically when committed.  The
+   * parent directory needs to exist.
+   *
+   * @param path  path of the file
+   * @param force true to force the content to the storage when its stream is closed
+   * @return the pending file
+   * @throws TIoException error in creating the pending file
+   */
+  PendingFile createPendingFile(TPath path, boolean force) throws TIoException;
+
+  /**
+   * Forces the changes to the entries of the directory, like the files renamed into it, to the storage.
+   * The file systems that keep nothing on the storage do nothing.
+   *
+   * @param path path of the directory
+   * @throws TIoException error in syncing the directory
+   */
+  void syncDirectory(TPath path) throws TIoException;
+
   void deleteDirectory(TPath path) throws TIoException;
 
   void moveFile(TPath source, TPath destination) throws TIoException;
@@ -62,6 +105,19 @@ public interface FileSystem {
 
   FileChannel createInputChannel(TPath path) throws TIoException;
 
+  /**
+   * Passes the region of the file to the processor as read-only buffers, which are mapped from the file
+   * where possible and released when the processor returns.  The region is cut at the end of the file.
+   *
+   * @param path      path of the file
+   * @param position  position of the region
+   * @param length    length of the region
+   * @param processor processor of the content
+   * @throws TIoException error in reading the file or from the processor
+   * @see MappedProcessor
+   */
+  void map(TPath path, long position, long length, MappedProcessor processor) throws TIoException;
+
   long fileLastModified(TPath path);
 
   /**
@@ -13,6 +13,13 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+/**
+ * Directory index that keeps the directories and files in hash maps keyed by path.  The paths are
+ * kept in linked storage, with every entry pointing to the path of its parent directory, so that
+ * the entries under the same directory share the parent path instead of each holding a copy.
+ *
+ * @see net.sf.cotta.TPath#toLinked()
+ */
 public class HashBasedDirectoryIndex<F extends FileContent> extends AbstractDirectoryIndex<F> {
   private final Map<TPath, DirectoryContent> createDirs = new HashMap<TPath, DirectoryContent>();
   private final Map<TPath, F> createFiles = new HashMap<TPath, F>();
@@ -28,8 +35,12 @@ public class HashBasedDirectoryIndex<F extends FileContent> extends AbstractDire
   }
 
   private void init() {
-    createDirs.put(TPath.parse("/"), new DirectoryContent());
-    createDirs.put(TPath.parse("."), new DirectoryContent());
+    addRoot(TPath.parse("/").toLinked());
+    addRoot(TPath.parse(".").toLinked());
+  }
+
+  private void addRoot(TPath root) {
+    createDirs.put(root, new DirectoryContent(root));
   }
 
   public boolean fileExists(TPath path) {
@@ -57,9 +68,11 @@ public class HashBasedDirectoryIndex<F extends FileContent> extends AbstractDire
       throw new TIoException(path, "parent needs to be created first");
     }
 
-    createDirs.get(path.parent()).addFile(path);
+    DirectoryContent parent = createDirs.get(path.parent());
+    TPath file = parent.childPath(path.lastElementName());
+    parent.addFile(file);
     F fileContent = contentManager.createFileContent();
-    createFiles.put(path, fileContent);
+    createFiles.put(file, fileContent);
     return fileContent;
   }
 
@@ -73,16 +86,20 @@ public class HashBasedDirectoryIndex<F extends FileContent> extends AbstractDire
 
   public void moveFile(TPath source, TPath destination) throws TIoException {
     F file = createFiles.remove(source);
-    createFiles.put(destination, file);
+    DirectoryContent destinationParent = createDirs.get(destination.parent());
+    TPath destinationPath = destinationParent.childPath(destination.lastElementName());
+    createFiles.put(destinationPath, file);
     createDirs.get(source.parent()).removeFile(source);
-    createDirs.get(destination.parent()).addFile(destination);
+    destinationParent.addFile(destinationPath);
   }
 
   public void createDir(TPath path) throws TIoException {
     validateBeforeCreateDir(path);
     
-    ensureDirExists(path.parent()).addDir(path);
-    createDirs.put(path, new DirectoryContent());
+    DirectoryContent parent = ensureDirExists(path.parent());
+    TPath dir = parent.childPath(path.lastElementName());
+    parent.addDir(dir);
+    createDirs.put(dir, new DirectoryContent(dir));
   }
 
   public void deleteDir(TPath path) throws TIoException {
@@ -131,6 +148,26 @@ public class HashBasedDirectoryIndex<F extends FileContent> extends AbstractDire
   public static class DirectoryContent {
     private Map<String, TPath> dirs = new HashMap<String, TPath>();
     private Map<String, TPath> files = new HashMap<String, TPath>();
+    private final TPath path;
+
+    /**
+     * Creates the content for the directory, whose path will be shared by the children as their parent
+     *
+     * @param path path of the directory in linked storage
+     */
+    public DirectoryContent(TPath path) {
+      this.path = path;
+    }
+
+    /**
+     * Returns the path of the child with the given name, linked to the path of this directory
+     *
+     * @param name name of the child
+     * @return path of the child
+     */
+    public TPath childPath(String name) {
+      return path.join(name);
+    }
 
     public Collection<TPath> dirs() {
       return dirs.values();
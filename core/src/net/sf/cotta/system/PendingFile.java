@@ -0,0 +1,32 @@
+package net.sf.cotta.system;
+
+import net.sf.cotta.TIoException;
+
+import java.io.OutputStream;
+
+/**
+ * New content of a file that is written aside and replaces the content of the file as a whole when
+ * committed, so the readers never see it half written.
+ *
+ * @see FileSystem#createPendingFile(net.sf.cotta.TPath, boolean)
+ */
+public interface PendingFile {
+  /**
+   * @return the stream to write the content to, which needs to be closed before the commit
+   */
+  OutputStream outputStream();
+
+  /**
+   * Replaces the content of the file, or creates the file, with the content written
+   *
+   * @throws TIoException error in replacing the file
+   */
+  void commit() throws TIoException;
+
+  /**
+   * Drops the content written, leaving the file as it is
+   *
+   * @throws TIoException error in cleaning up
+   */
+  void discard() throws TIoException;
+}
@@ -0,0 +1,203 @@
+package net.sf.cotta.system;
+
+import net.sf.cotta.PathContent;
+import net.sf.cotta.PathSeparator;
+import net.sf.cotta.TDirectoryNotFoundException;
+import net.sf.cotta.TFileNotFoundException;
+import net.sf.cotta.TIoException;
+import net.sf.cotta.TPath;
+import net.sf.cotta.memory.ListingOrder;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Directory index that keeps the children of every directory sorted by name, in the listing order
+ * when it is {@link ListingOrder#AToZ} or {@link ListingOrder#ZToA}, and from a to z otherwise.
+ * <p/>
+ * The listing of a directory is an unmodifiable snapshot that is kept until the directory is changed,
+ * so listing a directory again returns the same instance without copying or sorting.  Every change to
+ * a directory bumps its version, which tells the callers holding on to a listing whether it is stale.
+ * With any other listing order, the listing is a new copy sorted for every call.
+ */
+public class SortedDirectoryIndex<F extends FileContent> extends AbstractDirectoryIndex<F> {
+  private static final Comparator<String> REVERSE = Collections.reverseOrder();
+
+  private final Map<TPath, SortedDirectory> dirs = new HashMap<TPath, SortedDirectory>();
+  private final Map<TPath, F> files = new HashMap<TPath, F>();
+  private final Comparator<String> comparator;
+  private final boolean cached;
+
+  public SortedDirectoryIndex(ContentManager<F> contentManager) {
+    this(PathSeparator.Unix, ListingOrder.NULL, contentManager);
+  }
+
+  public SortedDirectoryIndex(PathSeparator separator, ListingOrder order, ContentManager<F> contentManager) {
+    super(separator, order, contentManager);
+    comparator = order == ListingOrder.ZToA ? REVERSE : null;
+    cached = order == ListingOrder.NULL || order == ListingOrder.AToZ || order == ListingOrder.ZToA;
+    addRoot(TPath.parse("/").toLinked());
+    addRoot(TPath.parse(".").toLinked());
+  }
+
+  private void addRoot(TPath root) {
+    dirs.put(root, new SortedDirectory(root));
+  }
+
+  public boolean fileExists(TPath path) {
+    return files.containsKey(path);
+  }
+
+  public boolean dirExists(TPath path) {
+    return dirs.containsKey(path);
+  }
+
+  public PathContent list(TPath path) {
+    SortedDirectory directory = dirs.get(path);
+    if (cached) {
+      return directory.listing();
+    }
+    PathContent result = new PathContent(directory.dirs.values(), directory.files.values());
+    sort(result.dirs());
+    sort(result.files());
+    return result;
+  }
+
+  /**
+   * Returns the version of the directory, which changes whenever a child is added or removed
+   *
+   * @param path path of the directory
+   * @return the version of the directory
+   * @throws TDirectoryNotFoundException the directory does not exist
+   */
+  public long version(TPath path) throws TDirectoryNotFoundException {
+    SortedDirectory directory = dirs.get(path);
+    if (directory == null) {
+      throw new TDirectoryNotFoundException(path);
+    }
+    return directory.version;
+  }
+
+  public F createFile(TPath path) throws TIoException {
+    validateBeforeCreateFile(path);
+    SortedDirectory parent = dirs.get(path.parent());
+    if (parent == null) {
+      throw new TIoException(path, "parent needs to be created first");
+    }
+    TPath file = parent.childPath(path.lastElementName());
+    parent.add(parent.files, file);
+    F content = contentManager.createFileContent();
+    files.put(file, content);
+    return content;
+  }
+
+  public void deleteFile(TPath path) throws TFileNotFoundException {
+    if (!files.containsKey(path)) {
+      throw new TFileNotFoundException(path);
+    }
+    files.remove(path);
+    SortedDirectory parent = dirs.get(path.parent());
+    parent.remove(parent.files, path);
+  }
+
+  public void moveFile(TPath source, TPath destination) throws TIoException {
+    F content = files.remove(source);
+    SortedDirectory destinationParent = dirs.get(destination.parent());
+    TPath destinationPath = destinationParent.childPath(destination.lastElementName());
+    files.put(destinationPath, content);
+    SortedDirectory sourceParent = dirs.get(source.parent());
+    sourceParent.remove(sourceParent.files, source);
+    destinationParent.add(destinationParent.files, destinationPath);
+  }
+
+  public void createDir(TPath path) throws TIoException {
+    validateBeforeCreateDir(path);
+    SortedDirectory parent = ensureDirExists(path.parent());
+    TPath dir = parent.childPath(path.lastElementName());
+    parent.add(parent.dirs, dir);
+    dirs.put(dir, new SortedDirectory(dir));
+  }
+
+  public void deleteDir(TPath path) throws TIoException {
+    SortedDirectory directory = dirs.get(path);
+    if (directory == null) {
+      throw new TDirectoryNotFoundException(path);
+    }
+    if (!directory.isEmpty()) {
+      throw new TIoException(path, "Directory not empty");
+    }
+    dirs.remove(path);
+    SortedDirectory parent = dirs.get(path.parent());
+    parent.remove(parent.dirs, path);
+  }
+
+  public void moveDir(TPath source, TPath destination) throws TIoException {
+    createDir(destination);
+    SortedDirectory directory = dirs.get(source);
+    for (TPath dir : new ArrayList<TPath>(directory.dirs.values())) {
+      moveDir(dir, destination.join(dir.lastElementName()));
+    }
+    for (TPath file : new ArrayList<TPath>(directory.files.values())) {
+      moveFile(file, destination.join(file.lastElementName()));
+    }
+    deleteDir(source);
+  }
+
+  public F fileContent(TPath path) {
+    return files.get(path);
+  }
+
+  private SortedDirectory ensureDirExists(TPath dir) throws TIoException {
+    if (!dirExists(dir)) {
+      createDir(dir);
+    }
+    return dirs.get(dir);
+  }
+
+  private class SortedDirectory {
+    private final TPath path;
+    private final TreeMap<String, TPath> dirs = new TreeMap<String, TPath>(comparator);
+    private final TreeMap<String, TPath> files = new TreeMap<String, TPath>(comparator);
+    private long version = 0;
+    private PathContent listing;
+
+    private SortedDirectory(TPath path) {
+      this.path = path;
+    }
+
+    private TPath childPath(String name) {
+      return path.join(name);
+    }
+
+    private void add(TreeMap<String, TPath> children, TPath child) {
+      children.put(child.lastElementName(), child);
+      changed();
+    }
+
+    private void remove(TreeMap<String, TPath> children, TPath child) {
+      children.remove(child.lastElementName());
+      changed();
+    }
+
+    private void changed() {
+      version++;
+      listing = null;
+    }
+
+    private boolean isEmpty() {
+      return dirs.isEmpty() && files.isEmpty();
+    }
+
+    private PathContent listing() {
+      if (listing == null) {
+        listing = PathContent.unmodifiable(new ArrayList<TPath>(dirs.values()), new ArrayList<TPath>(files.values()));
+      }
+      return listing;
+    }
+  }
+}
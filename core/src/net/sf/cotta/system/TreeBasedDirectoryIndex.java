@@ -11,12 +11,25 @@ import net.sf.cotta.memory.ListingOrder;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 
+/**
+ * Directory index that keeps the directories as a tree of nodes, each holding the files and
+ * sub-directories by name.
+ * <p/>
+ * The index can be forked in constant time.  The fork shares all the nodes and file contents with
+ * the index, and whichever of the two changes a directory first copies the node, and the nodes on
+ * the way to it, leaving the other one as it was.  A file content is copied in the same way the first
+ * time it is asked for with {@link #fileContentForWrite(TPath)} while another directory still holds it.
+ * The indices forked from each other count the extra holders of the shared nodes and files, so that
+ * a node or file is changed in place again once it is held by one index only.
+ */
 public class TreeBasedDirectoryIndex<F extends FileContent> extends AbstractDirectoryIndex<F> {
 
-  private Map<String, DirTreeNode> roots = new HashMap<String, DirTreeNode>();
+  private Map<String, DirTreeNode<F>> roots = new HashMap<String, DirTreeNode<F>>();
+  private ShareCounts shareCounts; // null until forked, as nothing is shared
 
   public TreeBasedDirectoryIndex(ContentManager<F> contentManager) {
     super(contentManager);
@@ -28,9 +41,32 @@ public class TreeBasedDirectoryIndex<F extends FileContent> extends AbstractDire
     init();
   }
 
+  private TreeBasedDirectoryIndex(TreeBasedDirectoryIndex<F> original, ContentManager<F> contentManager) {
+    super(original.separator(), original.order(), contentManager);
+    shareCounts = original.shareCounts;
+    for (Map.Entry<String, DirTreeNode<F>> entry : original.roots.entrySet()) {
+      shareCounts.share(entry.getValue());
+      roots.put(entry.getKey(), entry.getValue());
+    }
+  }
+
   private void init() {
-    roots.put("", new DirTreeNode());
-    roots.put(".", new DirTreeNode());
+    roots.put("", new DirTreeNode<F>());
+    roots.put(".", new DirTreeNode<F>());
+  }
+
+  /**
+   * Creates an index that shares all the directories and files with the current one.  Changes
+   * made afterwards by either index are not seen by the other.
+   *
+   * @param contentManager content manager for the new index
+   * @return the new index
+   */
+  public TreeBasedDirectoryIndex<F> fork(ContentManager<F> contentManager) {
+    if (shareCounts == null) {
+      shareCounts = new ShareCounts();
+    }
+    return new TreeBasedDirectoryIndex<F>(this, contentManager);
   }
 
   public boolean fileExists(TPath path) {
@@ -42,7 +78,7 @@ public class TreeBasedDirectoryIndex<F extends FileContent> extends AbstractDire
   }
 
   public PathContent list(TPath path) {
-    DirTreeNode dir = findDir(path);
+    DirTreeNode<F> dir = findDir(path);
     List<TPath> dirs = new ArrayList<TPath>(dir.dirs().size());
     for (String dirName : dir.dirs()) {
       dirs.add(path.join(dirName));
@@ -60,98 +96,207 @@ public class TreeBasedDirectoryIndex<F extends FileContent> extends AbstractDire
     return findFile(path);
   }
 
+  public F fileContentForWrite(TPath path) {
+    if (shareCounts == null) {
+      return findFile(path);
+    }
+    DirTreeNode<F> parent = findDirForWrite(path.parent());
+    F file = parent == null ? null : parent.getFile(path.lastElementName());
+    if (file == null || !shareCounts.isShared(file)) {
+      return file;
+    }
+    F copy = contentManager.copyFileContent(file);
+    parent.addFile(path.lastElementName(), copy);
+    shareCounts.release(file);
+    return copy;
+  }
+
   public F createFile(TPath path) throws TIoException {
     validateBeforeCreateFile(path);
-    DirTreeNode parentDir = findDir(path.parent());
+    DirTreeNode<F> parentDir = findDir(path.parent());
     if (parentDir == null) {
       throw new TIoException(path, "parent needs to be created first");
     }
     F f = contentManager.createFileContent();
-    parentDir.addFile(path.lastElementName(), f);
+    findDirForWrite(path.parent()).addFile(path.lastElementName(), f);
     return f;
   }
 
   public void deleteFile(TPath path) throws TFileNotFoundException {
-    DirTreeNode parent = findDir(path.parent());
+    DirTreeNode<F> parent = findDir(path.parent());
     if (parent == null || parent.getFile(path.lastElementName()) == null) {
       throw new TFileNotFoundException(path);
     }
-    parent.removeFile(path.lastElementName());
+    F file = findDirForWrite(path.parent()).removeFile(path.lastElementName());
+    release(file);
   }
 
   public void moveFile(TPath source, TPath dest) throws TIoException {
     F f = findFile(source);
-    DirTreeNode destParent = findDir(dest.parent());
+    DirTreeNode<F> destParent = findDirForWrite(dest.parent());
     destParent.addFile(dest.lastElementName(), f);
-    findDir(source.parent()).removeFile(source.lastElementName());
+    findDirForWrite(source.parent()).removeFile(source.lastElementName());
   }
 
   public void createDir(TPath path) throws TIoException {
     validateBeforeCreateDir(path);
-    DirTreeNode current = roots.get(path.headElement());
+    DirTreeNode<F> current = writableRoot(path.headElement());
     for (int i = 0; i < path.length(); i++) {
-      DirTreeNode child = current.getDir(path.elementAt(i));
+      DirTreeNode<F> child = writableDir(current, path.elementAt(i));
       if (child == null) {
-        child = current.addDir(path.elementAt(i));
+        child = current.addDir(path.elementAt(i), new DirTreeNode<F>());
       }
       current = child;
     }
   }
 
   public void deleteDir(TPath path) throws TIoException {
-    DirTreeNode parent = findDir(path.parent());
+    DirTreeNode<F> parent = findDir(path.parent());
     if (parent == null || parent.getDir(path.lastElementName()) == null) {
       throw new TDirectoryNotFoundException(path);
     }
     if (!findDir(path).isEmpty()) {
       throw new TIoException(path, "Directory not empty");
     }
-    parent.removeDir(path.lastElementName());
+    DirTreeNode<F> dir = findDirForWrite(path.parent()).removeDir(path.lastElementName());
+    release(dir);
   }
 
   public void moveDir(TPath source, TPath dest) throws TIoException {
-    DirTreeNode sourceDir = findDir(source.parent()).removeDir(source.lastElementName());
-    DirTreeNode destParent = findDir(dest.parent());
+    DirTreeNode<F> sourceDir = findDirForWrite(source.parent()).removeDir(source.lastElementName());
+    DirTreeNode<F> destParent = findDirForWrite(dest.parent());
     destParent.addDir(dest.lastElementName(), sourceDir);
   }
 
   private F findFile(TPath path) {
     TPath parent = path.parent();
-    DirTreeNode dir = parent != null ? findDir(parent) : roots.get(path.headElement());
+    DirTreeNode<F> dir = parent != null ? findDir(parent) : roots.get(path.headElement());
     F file = dir != null ? dir.getFile(path.lastElementName()) : null;
     return file;
   }
 
-  private DirTreeNode findDir(TPath path) {
-    DirTreeNode current = roots.get(path.headElement());
+  private DirTreeNode<F> findDir(TPath path) {
+    if (path.isLinked() && path.length() > 0) {
+      DirTreeNode<F> parent = findDir(path.parent());
+      return parent == null ? null : parent.getDir(path.lastElementName());
+    }
+    DirTreeNode<F> current = roots.get(path.headElement());
     for (int i = 0; i < path.length() && current != null; i++) {
       current = current.getDir(path.elementAt(i));
     }
     return current;
   }
 
-  private class DirTreeNode {
+  /**
+   * Finds the directory to be changed, copying the shared nodes from the root down to it
+   */
+  private DirTreeNode<F> findDirForWrite(TPath path) {
+    if (shareCounts == null) {
+      return findDir(path);
+    }
+    if (path.isLinked() && path.length() > 0) {
+      DirTreeNode<F> parent = findDirForWrite(path.parent());
+      return parent == null ? null : writableDir(parent, path.lastElementName());
+    }
+    DirTreeNode<F> current = writableRoot(path.headElement());
+    for (int i = 0; i < path.length() && current != null; i++) {
+      current = writableDir(current, path.elementAt(i));
+    }
+    return current;
+  }
+
+  private DirTreeNode<F> writableRoot(String headElement) {
+    DirTreeNode<F> root = roots.get(headElement);
+    if (root != null && shareCounts != null && shareCounts.isShared(root)) {
+      root = copy(root);
+      roots.put(headElement, root);
+    }
+    return root;
+  }
+
+  /**
+   * Returns the sub-directory, replacing it with a copy first if it is shared
+   */
+  private DirTreeNode<F> writableDir(DirTreeNode<F> parent, String name) {
+    DirTreeNode<F> dir = parent.getDir(name);
+    if (dir != null && shareCounts != null && shareCounts.isShared(dir)) {
+      dir = copy(dir);
+      parent.addDir(name, dir);
+    }
+    return dir;
+  }
+
+  /**
+   * Copies the node for this index, which then holds the children of the node one more time
+   * and the node itself one less time
+   */
+  private DirTreeNode<F> copy(DirTreeNode<F> node) {
+    DirTreeNode<F> copy = node.copy();
+    for (F file : copy.fileContents()) {
+      shareCounts.share(file);
+    }
+    for (DirTreeNode<F> dir : copy.dirContents()) {
+      shareCounts.share(dir);
+    }
+    shareCounts.release(node);
+    return copy;
+  }
+
+  private void release(Object fileOrDir) {
+    if (shareCounts != null) {
+      shareCounts.release(fileOrDir);
+    }
+  }
+
+  /**
+   * Number of extra holders of each node and file, shared by the indices forked from each other.
+   * A node or file that is not counted is held by one index only and can be changed in place.
+   */
+  private static class ShareCounts {
+    private Map<Object, Integer> counts = new IdentityHashMap<Object, Integer>();
+
+    synchronized void share(Object fileOrDir) {
+      Integer count = counts.get(fileOrDir);
+      counts.put(fileOrDir, count == null ? 1 : count + 1);
+    }
+
+    synchronized boolean isShared(Object fileOrDir) {
+      return counts.containsKey(fileOrDir);
+    }
+
+    synchronized void release(Object fileOrDir) {
+      Integer count = counts.remove(fileOrDir);
+      if (count != null && count > 1) {
+        counts.put(fileOrDir, count - 1);
+      }
+    }
+  }
+
+  private static class DirTreeNode<F> {
     private Map<String, F> files = new HashMap<String, F>();
-    private Map<String, DirTreeNode> dirs = new HashMap<String, DirTreeNode>();
+    private Map<String, DirTreeNode<F>> dirs = new HashMap<String, DirTreeNode<F>>();
 
-    DirTreeNode addDir(String name) {
-      DirTreeNode d = new DirTreeNode();
-      addDir(name, d);
-      return d;
+    DirTreeNode<F> copy() {
+      DirTreeNode<F> copy = new DirTreeNode<F>();
+      copy.files.putAll(files);
+      copy.dirs.putAll(dirs);
+      return copy;
     }
-    void addDir(String name, DirTreeNode d) {
+
+    DirTreeNode<F> addDir(String name, DirTreeNode<F> d) {
       dirs.put(name, d);
+      return d;
     }
     void addFile(String name, F file) {
       files.put(name, file);
     }
-    DirTreeNode removeDir(String name) {
+    DirTreeNode<F> removeDir(String name) {
       return dirs.remove(name);
     }
-    void removeFile(String name) {
-      files.remove(name);
+    F removeFile(String name) {
+      return files.remove(name);
     }
-    DirTreeNode getDir(String name) {
+    DirTreeNode<F> getDir(String name) {
       return dirs.get(name);
     }
     F getFile(String name) {
@@ -163,6 +308,12 @@ public class TreeBasedDirectoryIndex<F extends FileContent> extends AbstractDire
     Collection<String> files() {
       return files.keySet();
     }
+    Collection<F> fileContents() {
+      return files.values();
+    }
+    Collection<DirTreeNode<F>> dirContents() {
+      return dirs.values();
+    }
     boolean isEmpty() {
       return dirs.isEmpty() && files.isEmpty();
     }
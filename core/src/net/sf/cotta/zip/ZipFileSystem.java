@@ -1,9 +1,12 @@
 package net.sf.cotta.zip;
 
 import net.sf.cotta.*;
+import net.sf.cotta.io.MappedBuffers;
+import net.sf.cotta.io.MappedProcessor;
 import net.sf.cotta.io.OutputMode;
 import net.sf.cotta.memory.InMemoryFileSystem;
 import net.sf.cotta.system.FileSystem;
+import net.sf.cotta.system.PendingFile;
 
 import java.io.File;
 import java.io.IOException;
@@ -12,7 +15,9 @@ import java.io.OutputStream;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.nio.channels.FileChannel;
+import java.util.ArrayList;
 import java.util.Enumeration;
+import java.util.List;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 
@@ -84,6 +89,23 @@ public class ZipFileSystem implements FileSystem, TResource {
     return entrySystem.list(path);
   }
 
+  public PathStream stream(TPath path) {
+    return entrySystem.stream(path);
+  }
+
+  public List<PathAttributes> listAttributes(TPath path) {
+    PathContent content = entrySystem.list(path);
+    List<PathAttributes> result = new ArrayList<PathAttributes>(content.dirs().size() + content.files().size());
+    for (TPath dir : content.dirs()) {
+      result.add(new PathAttributes(dir, true, 0, 0));
+    }
+    for (TPath file : content.files()) {
+      ZipEntry entry = entry(file);
+      result.add(new PathAttributes(file, false, entry.getSize(), entry.getTime()));
+    }
+    return result;
+  }
+
   public void createFile(TPath path) throws TIoException {
     throw new UnsupportedOperationException();
   }
@@ -100,6 +122,14 @@ public class ZipFileSystem implements FileSystem, TResource {
     throw new UnsupportedOperationException();
   }
 
+  public PendingFile createPendingFile(TPath path, boolean force) throws TIoException {
+    throw new UnsupportedOperationException();
+  }
+
+  public void syncDirectory(TPath path) throws TIoException {
+    throw new UnsupportedOperationException();
+  }
+
   public void deleteDirectory(TPath path) throws TIoException {
     throw new UnsupportedOperationException();
   }
@@ -158,6 +188,13 @@ public class ZipFileSystem implements FileSystem, TResource {
     throw new UnsupportedOperationException("not implemented for zip file");
   }
 
+  /**
+   * Inflates the region of the entry into buffers on the heap, as the entries cannot be mapped
+   */
+  public void map(TPath path, long position, long length, MappedProcessor processor) throws TIoException {
+    MappedBuffers.read(path, createInputStream(path), position, length, processor);
+  }
+
   public void close() throws TIoException {
     try {
       file.close();
@@ -1,5 +1,6 @@
 package net.sf.cotta.ftp;
 
+import net.sf.cotta.PathStream;
 import net.sf.cotta.system.FileSystem;
 import net.sf.cotta.TPath;
 import net.sf.cotta.ftp.client.commonsNet.CommonsNetFtpClient;
@@ -71,6 +72,19 @@ public class FtpFileSystemTest extends FtpTestCase {
     ensure.that(fileSystem.list(path(".")).files()).eq(path("hello"));
   }
 
+  public void testStreamDirectoriesAndFiles() throws IOException {
+    fileSystem.createDir(path("abc"));
+    fileSystem.createFile(path("hello"));
+    PathStream stream = fileSystem.stream(path("/"));
+    int count = 0;
+    while (stream.next()) {
+      ensure.that(stream.isDirectory()).eq(stream.path().equals(path("/abc")));
+      count++;
+    }
+    stream.close();
+    ensure.that(count).eq(2);
+  }
+
   public void testBeAbleToDeleteDirectory() throws IOException {
     fileSystem.createDir(path("abc"));
     fileSystem.deleteDirectory(path("abc"));
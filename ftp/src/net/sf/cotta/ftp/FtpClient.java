@@ -11,6 +11,8 @@ public interface FtpClient {
 
   FtpFile[] list(TPath path) throws IOException;
 
+  FtpListing listing(TPath path) throws IOException;
+
   OutputStream store(TPath path) throws IOException;
 
   void delete(TPath path) throws IOException;
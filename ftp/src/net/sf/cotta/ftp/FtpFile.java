@@ -9,4 +9,9 @@ public interface FtpFile {
   FtpFileType getFileType();
 
   long getSize();
+
+  /**
+   * @return last modified time in milliseconds, or 0 if the server does not tell
+   */
+  long getLastModified();
 }
@@ -1,10 +1,15 @@
 package net.sf.cotta.ftp;
 
 import net.sf.cotta.system.FileSystem;
+import net.sf.cotta.system.PendingFile;
+import net.sf.cotta.PathAttributes;
 import net.sf.cotta.PathContent;
+import net.sf.cotta.PathStream;
 import net.sf.cotta.TIoException;
 import net.sf.cotta.TPath;
 import net.sf.cotta.ftp.client.commonsNet.CommonsNetFtpClient;
+import net.sf.cotta.io.MappedBuffers;
+import net.sf.cotta.io.MappedProcessor;
 import net.sf.cotta.io.OutputMode;
 import org.apache.commons.net.ftp.FTPClient;
 
@@ -14,12 +19,15 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.URI;
 import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
 
 public class FtpFileSystem implements FileSystem {
 
   private final FtpClient ftpClient;
   private static final TPath ROOT_DIR = TPath.parse("/");
   private static final TPath CURRENT_DIR = TPath.parse(".");
+  private static final int PAGE_SIZE = 100;
 
   public FtpFileSystem(FtpClient ftpClient) {
     this.ftpClient = ftpClient;
@@ -94,6 +102,16 @@ public class FtpFileSystem implements FileSystem {
     throw new UnsupportedOperationException("FtpFileSystem");
   }
 
+  public final PendingFile createPendingFile(TPath path, boolean force) throws TIoException {
+    throw new UnsupportedOperationException("FtpFileSystem");
+  }
+
+  /**
+   * Does nothing, as the server decides when its files go to the storage
+   */
+  public final void syncDirectory(TPath path) throws TIoException {
+  }
+
   public final void deleteDirectory(TPath path) throws TIoException {
     try {
       ftpClient.delete(path);
@@ -144,6 +162,13 @@ public class FtpFileSystem implements FileSystem {
     throw new UnsupportedOperationException("FtpFileSystem");
   }
 
+  /**
+   * Downloads the region of the file into buffers on the heap
+   */
+  public void map(TPath path, long position, long length, MappedProcessor processor) throws TIoException {
+    MappedBuffers.read(path, createInputStream(path), position, length, processor);
+  }
+
   public long fileLastModified(TPath path) {
     throw new UnsupportedOperationException("FtpFileSystem");
   }
@@ -194,6 +219,71 @@ public class FtpFileSystem implements FileSystem {
     return content;
   }
 
+  /**
+   * Lists the directory with the size and time the server sends in the listing
+   */
+  public List<PathAttributes> listAttributes(TPath path) throws TIoException {
+    FtpFile[] ftpFiles = listFtpDirectory(path);
+    List<PathAttributes> result = new ArrayList<PathAttributes>(ftpFiles.length);
+    for (FtpFile ftpFile : ftpFiles) {
+      if (FtpFileType.DIRECTORY.equals(ftpFile.getFileType())) {
+        result.add(new PathAttributes(ftpFile.getPath(), true, 0, ftpFile.getLastModified()));
+      } else if (FtpFileType.FILE.equals(ftpFile.getFileType())) {
+        result.add(new PathAttributes(ftpFile.getPath(), false, ftpFile.getSize(), ftpFile.getLastModified()));
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Streams the directory a page of entries at a time, instead of parsing the whole listing at once
+   */
+  public PathStream stream(final TPath path) throws TIoException {
+    final FtpListing listing;
+    try {
+      listing = ftpClient.listing(path);
+    } catch (IOException e) {
+      throw new TIoException(path, "Listing directory failed", e);
+    }
+    return new PathStream() {
+      private FtpFile[] page = new FtpFile[0];
+      private int index = 0;
+      private FtpFile current;
+
+      public boolean next() throws TIoException {
+        while (true) {
+          while (index < page.length) {
+            current = page[index++];
+            if (FtpFileType.DIRECTORY.equals(current.getFileType()) || FtpFileType.FILE.equals(current.getFileType())) {
+              return true;
+            }
+          }
+          if (!listing.hasNext()) {
+            current = null;
+            return false;
+          }
+          try {
+            page = listing.next(PAGE_SIZE);
+          } catch (IOException e) {
+            throw new TIoException(path, "Listing directory failed", e);
+          }
+          index = 0;
+        }
+      }
+
+      public TPath path() {
+        return current.getPath();
+      }
+
+      public boolean isDirectory() {
+        return FtpFileType.DIRECTORY.equals(current.getFileType());
+      }
+
+      public void close() {
+      }
+    };
+  }
+
   private FtpFile[] listFtpDirectory(TPath path) {
     try {
       return ftpClient.list(path);
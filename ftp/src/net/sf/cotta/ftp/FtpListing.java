@@ -0,0 +1,21 @@
+package net.sf.cotta.ftp;
+
+import java.io.IOException;
+
+/**
+ * Listing of a directory on the server that is read a page at a time
+ *
+ * @see FtpClient#listing(net.sf.cotta.TPath)
+ */
+public interface FtpListing {
+  boolean hasNext();
+
+  /**
+   * Reads the next page of the listing
+   *
+   * @param pageSize maximum number of entries to read
+   * @return the entries, which are fewer than the page size only at the end of the listing
+   * @throws IOException error in reading the listing
+   */
+  FtpFile[] next(int pageSize) throws IOException;
+}
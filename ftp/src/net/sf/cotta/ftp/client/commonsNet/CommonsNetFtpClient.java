@@ -4,8 +4,10 @@ import net.sf.cotta.TPath;
 import net.sf.cotta.TFileNotFoundException;
 import net.sf.cotta.ftp.FtpClient;
 import net.sf.cotta.ftp.FtpFile;
+import net.sf.cotta.ftp.FtpListing;
 import org.apache.commons.net.ftp.FTPClient;
 import org.apache.commons.net.ftp.FTPFile;
+import org.apache.commons.net.ftp.FTPListParseEngine;
 
 import java.io.*;
 import java.net.URI;
@@ -28,6 +30,24 @@ public final class CommonsNetFtpClient implements FtpClient {
     return ftpFiles;
   }
 
+  public final FtpListing listing(final TPath path) throws IOException {
+    final FTPListParseEngine engine = ftpClient.initiateListParsing(path.toPathString());
+    return new FtpListing() {
+      public boolean hasNext() {
+        return engine.hasNext();
+      }
+
+      public FtpFile[] next(int pageSize) {
+        FTPFile[] rawFtpFiles = engine.getNext(pageSize);
+        FtpFile[] ftpFiles = new FtpFile[rawFtpFiles.length];
+        for (int i = 0; i < rawFtpFiles.length; i++) {
+          ftpFiles[i] = new CommonsNetFtpFile(path.join(rawFtpFiles[i].getName()), rawFtpFiles[i]);
+        }
+        return ftpFiles;
+      }
+    };
+  }
+
   public final OutputStream store(TPath path) throws IOException {
     ftpClient.setFileType(FTPClient.BINARY_FILE_TYPE);
     return wrapOutputStream(ftpClient.storeFileStream(path.toPathString()));
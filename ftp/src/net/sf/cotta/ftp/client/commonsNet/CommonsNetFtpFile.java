@@ -5,6 +5,8 @@ import net.sf.cotta.ftp.FtpFile;
 import net.sf.cotta.ftp.FtpFileType;
 import org.apache.commons.net.ftp.FTPFile;
 
+import java.util.Calendar;
+
 final class CommonsNetFtpFile implements FtpFile {
 
   private final TPath path;
@@ -35,4 +37,9 @@ final class CommonsNetFtpFile implements FtpFile {
   public final long getSize() {
     return ftpFile.getSize();
   }
+
+  public final long getLastModified() {
+    Calendar timestamp = ftpFile.getTimestamp();
+    return timestamp == null ? 0 : timestamp.getTimeInMillis();
+  }
 }